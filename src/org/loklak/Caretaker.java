@@ -33,11 +33,12 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.elasticsearch.search.sort.SortOrder;
 import org.loklak.api.p2p.HelloService;
 import org.loklak.api.p2p.PushServlet;
-import org.loklak.api.search.SuggestServlet;
 import org.loklak.data.DAO;
 import org.loklak.data.DAO.IndexName;
 import org.loklak.data.IncomingMessageBuffer;
+import org.loklak.harvester.IncrementalHarvester;
 import org.loklak.harvester.TwitterAPI;
+import org.loklak.http.RemoteAccess;
 import org.loklak.objects.QueryEntry;
 import org.loklak.objects.TwitterTimeline;
 import org.loklak.objects.BasicTimeline.Order;
@@ -103,9 +104,6 @@ public class Caretaker extends Thread {
                 HelloService.propagate(backends);
             }
             
-            // clear caches
-            if (SuggestServlet.cache.size() > 100) SuggestServlet.cache.clear();
-            
             // sleep a bit to prevent that the DoS limit fires at backend server
             try {Thread.sleep(busy ? 500 : 10000);} catch (InterruptedException e) {}
             if (!this.shallRun) break beat;
@@ -224,6 +222,8 @@ public class Caretaker extends Thread {
             if (retrieval_queries_enabled && IncomingMessageBuffer.addSchedulerAvailable()) {
                 // execute some queries again: look out in the suggest database for queries with outdated due-time in field retrieval_next
                 List<QueryEntry> queryList = DAO.SearchLocalQueries("", 10, "retrieval_next", "date", SortOrder.ASC, null, new Date(), "retrieval_next");
+                // without front peers the queries are harvested incrementally: only tweets newer than the last retrieval are requested
+                boolean incremental = DAO.getConfig("retrieval.queries.incremental", true) && DAO.getFrontPeers().size() == 0;
                 queriesloop: for (QueryEntry qe: queryList) {
                     if (!acceptQuery4Retrieval(qe.getQuery())) {
                         DAO.deleteQuery(qe.getQuery(), qe.getSourceType());
@@ -231,7 +231,7 @@ public class Caretaker extends Thread {
                     }
                     TwitterTimeline t;
                     try {
-                        t = DAO.scrapeTwitter(
+                        t = incremental ? IncrementalHarvester.harvest(qe) : DAO.scrapeTwitter(
                                 null,
                                 qe.getQuery(),
                                 Order.CREATED_AT,
@@ -284,16 +284,14 @@ public class Caretaker extends Thread {
             // this is IO heavy, so prevent to do this a lot
             if (System.currentTimeMillis() - deletionTime > 60000) {
                 int d;
-                d = DAO.deleteOld(IndexName.messages_hour, DateParser.oneHourAgo());
-                if (d > 0) DAO.log("Deleted " + d + " outdated(hour) messages");
-                d = DAO.deleteOld(IndexName.messages_day, DateParser.oneDayAgo());
-                if (d > 0) DAO.log("Deleted " + d + " outdated(day) messages");
-                d = DAO.deleteOld(IndexName.messages_week, DateParser.oneWeekAgo());
-                if (d > 0) DAO.log("Deleted " + d + " outdated(week) messages");
+                d = DAO.messages_recent.dropExpired();
+                if (d > 0) DAO.log("Dropped " + d + " outdated message partitions");
                 if (DAO.getConfig("autodeletion", false)) {
                     d = DAO.deleteOld(IndexName.messages, DateParser.oneMonthAgo());
                     if (d > 0) DAO.log("Deleted " + d + " outdated(month) messages");
                 }
+                d = RemoteAccess.evict(DAO.getConfig("peers.history.ttl", 86400000L));
+                if (d > 0) DAO.log("Removed " + d + " peers from the access history");
                 deletionTime = System.currentTimeMillis();
             }
         } catch (Throwable e) {
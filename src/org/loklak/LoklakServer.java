@@ -324,6 +324,7 @@ public class LoklakServer {
                     LoklakServer.server.stop();
                     DAO.close();
                     TwitterScraper.executor.shutdown();
+                    TwitterScraper.fetcher.close();
                     DAO.log("main terminated, goodby.");
 
                     //LoklakServer.saveConfig();
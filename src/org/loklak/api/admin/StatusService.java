@@ -32,6 +32,8 @@ import org.loklak.Caretaker;
 import org.loklak.LoklakServer;
 import org.loklak.data.DAO;
 import org.loklak.data.IncomingMessageBuffer;
+import org.loklak.harvester.IncrementalHarvester;
+import org.loklak.harvester.TwitterScraper;
 import org.loklak.http.ClientConnection;
 import org.loklak.objects.QueryEntry;
 import org.loklak.server.APIException;
@@ -124,6 +126,15 @@ public class StatusService extends AbstractAPIHandler implements APIHandler {
         system.put("load_process_cpu", systemCpuLoad.isNaN() || systemCpuLoad.isInfinite() ? 0 : systemCpuLoad);
         system.put("server_threads", LoklakServer.getServerThreads());
         system.put("server_uri", LoklakServer.getServerURI());
+        system.put("search_executor", DAO.searchExecution.getStats());
+        system.put("search_result_cache", DAO.searchResultCache.getStats());
+        system.put("suggest_cache", DAO.suggestCache.getStats());
+        system.put("twitter_fetcher", TwitterScraper.fetcher.getStats());
+        system.put("incremental_harvester", IncrementalHarvester.getStats());
+        system.put("rate_limiter", DAO.rateLimiter.getStats());
+        system.put("access_tracker", DAO.access.getStats());
+        if (DAO.mqttPublisher != null) system.put("mqtt_publisher", DAO.mqttPublisher.getStats());
+        if (DAO.streamHub != null) system.put("stream_hub", DAO.streamHub.getStats());
         system.put("Xmx", xmx);
         return system;
     }
@@ -204,10 +215,16 @@ public class StatusService extends AbstractAPIHandler implements APIHandler {
         messages.put("size_local_week_timestamp", countLocalWeekMessagesTimestamp);
         messages.put("size_backend", backend_messages);
         messages.put("stats", DAO.messages.getStats());
+        messages.put("partitions", DAO.messages_recent.getStats());
+        if (DAO.searchScatter != null) messages.put("search_scatter", DAO.searchScatter.getStats());
         JSONObject queue = new JSONObject(true);
         queue.put("size", IncomingMessageBuffer.getMessageQueueSize());
         queue.put("maxSize", IncomingMessageBuffer.getMessageQueueMaxSize());
         queue.put("clients", IncomingMessageBuffer.getMessageQueueClients());
+        queue.put("failed_bulks", IncomingMessageBuffer.getFailedBulks());
+        queue.put("pipeline", DAO.indexingPipeline.getStats());
+        if (LoklakServer.queuedIndexing != null) queue.put("batcher", LoklakServer.queuedIndexing.getBatcher().getStats());
+        queue.put("spill", DAO.message_dump.getBufferStats());
         messages.put("queue", queue);
         JSONObject users = new JSONObject(true);
         users.put("size", local_users + backend_users);
@@ -19,13 +19,16 @@
 
 package org.loklak.api.p2p;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.SignatureException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -77,6 +80,14 @@ import org.loklak.tools.JsonSignature;
  * save this json into a file named "test.json" and thenn call curl the following way:
  * curl -X POST -F 'data=@test.json' http://localhost:9000/api/push.json
  *
+ * Peers push their timelines to the backend in the streamed form described in PushStream: a compressed body
+ * with one status in each line, which is parsed while it is received. A backend which is too busy refuses such
+ * a push with status 503 and a Retry-After header before the body is transmitted; a body which is too large is
+ * refused with 413. If the backend runs out of capacity while it reads the body, it stores the statuses which it
+ * has read and answers with status "incomplete" and their number in "records"; the pushing peer sends the rest
+ * to the next backend. Backends which know the streamed form set the PushStream.PROTOCOL_HEADER on all responses,
+ * backends without that header get the push as multipart form again for some time.
+ *
  * You should modify the source_type object to a name which describes the semantic of the text content.
  * You can i.e. use GEOJSON to describe that you are pushing a geojson data object within the text body.
  * Please take care that you choose a proper id_str and user_id which has it's own id name domain
@@ -87,6 +98,9 @@ public class PushServlet extends HttpServlet {
 
     private static final long serialVersionUID = 7504310048722996407L;
 
+    // backends which do not know the streamed push -> the time when this was noticed; they get the multipart form
+    private static final Map<String, Long> formBackends = new ConcurrentHashMap<>();
+
     /**
      * transmit the timeline to several hosts
      * @param timeline
@@ -94,23 +108,48 @@ public class PushServlet extends HttpServlet {
      * @return true if the data was transmitted to at least one target peer
      */
     public static boolean push(String[] hoststubs, TwitterTimeline timeline) {
-        // transmit the timeline
-        String data = timeline.toJSON(false, "search_metadata", "statuses").toString();
-        assert data != null;
+        boolean stream = DAO.getConfig("push.stream", true);
+        long formTtl = DAO.getConfig("push.stream.form_ttl", 3600000L);
+        PushStream.Encoding encoding = PushStream.Encoding.parse(DAO.getConfig("push.stream.encoding", "gzip"));
+        if (encoding == null) encoding = PushStream.Encoding.GZIP;
+        String data = null; // the multipart form is only computed if a backend needs it
         boolean transmittedToAtLeastOnePeer = false;
         pushattempts: for (String hoststub: hoststubs) {
             ClientConnection connection = null;
             try {
                 if (hoststub.endsWith("/")) hoststub = hoststub.substring(0, hoststub.length() - 1);
-                Map<String, byte[]> post = new HashMap<String, byte[]>();
-                post.put("data", UTF8.getBytes(data)); // optionally implement a gzipped form here
-                JsonSignature.addSignature(post,DAO.private_settings.getPrivateKey());
-                connection = new ClientConnection(hoststub + "/api/push.json", post);
-                DAO.log("SUCCESS push " + timeline.size() + " messages to backend " + hoststub);
+                int accepted = timeline.size();
+                if (stream && !isFormBackend(hoststub, formTtl)) {
+                    try {
+                        connection = new ClientConnection(hoststub + "/api/push.json", new PushStream.Entity(timeline, encoding, DAO.private_settings.getPrivateKey()));
+                        accepted = acceptedRecords(connection, timeline.size());
+                    } catch (ClientConnection.StatusException e) {
+                        // a backend which knows the streamed form answers with the protocol header also if it refuses the push
+                        if (e.getStatus() != 415 && (e.getStatus() != 400 || e.getHeader(PushStream.PROTOCOL_HEADER) != null)) throw e;
+                        DAO.log("backend " + hoststub + " does not accept streamed pushes, using the multipart form");
+                        formBackends.put(hoststub, System.currentTimeMillis());
+                    }
+                }
+                if (connection == null) {
+                    if (data == null) data = timeline.toJSON(false, "search_metadata", "statuses").toString();
+                    Map<String, byte[]> post = new HashMap<String, byte[]>();
+                    post.put("data", UTF8.getBytes(data));
+                    JsonSignature.addSignature(post,DAO.private_settings.getPrivateKey());
+                    connection = new ClientConnection(hoststub + "/api/push.json", post);
+                }
                 transmittedToAtLeastOnePeer = true;
-                break pushattempts;
+                if (accepted >= timeline.size()) {
+                    DAO.log("SUCCESS push " + timeline.size() + " messages to backend " + hoststub);
+                    break pushattempts;
+                }
+                // the backend stored only the first part of the stream, the next backend gets the rest
+                DAO.log("PARTIAL push " + accepted + " of " + timeline.size() + " messages to backend " + hoststub);
+                timeline = remainder(timeline, accepted);
+                data = null;
             } catch (IOException | JSONException | SignatureException | InvalidKeyException e) {
-                DAO.log("FAILED to push " + timeline.size() + " messages to backend " + hoststub + " - " + e.getMessage() + (e.getCause() == null ? "" : " - " + e.getCause().getMessage()));
+                String retryAfter = e instanceof ClientConnection.StatusException ? ((ClientConnection.StatusException) e).getRetryAfter() : null;
+                DAO.log("FAILED to push " + timeline.size() + " messages to backend " + hoststub + " - " + e.getMessage() + (e.getCause() == null ? "" : " - " + e.getCause().getMessage()) +
+                        (retryAfter == null ? "" : " - retry after " + retryAfter + " seconds"));
                 DAO.severe(e);
                 try {Thread.sleep(1000);} catch (InterruptedException e1) {} // sleep to prevent that same hosts are requested too fast causing a "frequency too high" exception
             } finally {
@@ -120,6 +159,49 @@ public class PushServlet extends HttpServlet {
         return transmittedToAtLeastOnePeer;
     }
 
+    private static boolean isFormBackend(String hoststub, long ttl) {
+        Long since = formBackends.get(hoststub);
+        if (since == null) return false;
+        if (System.currentTimeMillis() - since < ttl) return true;
+        // try the streamed form again, the backend may have been updated
+        formBackends.remove(hoststub, since);
+        return false;
+    }
+
+    /**
+     * read the number of statuses which a backend has stored from the response to a streamed push
+     * @return the number of records or all if the response does not tell
+     */
+    private static int acceptedRecords(ClientConnection connection, int all) {
+        InputStream is = connection.getInputStream();
+        if (is == null) return all;
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = is.read(buffer)) > 0) baos.write(buffer, 0, count);
+            JSONObject json = new JSONObject(new String(baos.toByteArray(), StandardCharsets.UTF_8));
+            if (!"incomplete".equals(json.optString("status"))) return all;
+            return Math.min(all, json.optInt("records", all));
+        } catch (IOException | JSONException e) {
+            return all;
+        }
+    }
+
+    /**
+     * @return a timeline with the statuses of the given timeline which follow after the first skip statuses, in the
+     * order in which they are written into the push stream
+     */
+    private static TwitterTimeline remainder(TwitterTimeline timeline, int skip) {
+        TwitterTimeline rest = new TwitterTimeline(timeline.getOrder(), timeline.getScraperInfo());
+        rest.setQuery(timeline.getQuery());
+        int i = 0;
+        for (TwitterTweet t: timeline) {
+            if (i++ >= skip) rest.add(t, timeline.getUser(t));
+        }
+        return rest;
+    }
+
     /*
      * There are the following sources for data, pushed or retrieved:
      * - twitter (scraped self)
@@ -147,6 +229,7 @@ public class PushServlet extends HttpServlet {
         Query post = RemoteAccess.evaluate(request);
         String remoteHash = Integer.toHexString(Math.abs(post.getClientHost().hashCode()));
         boolean remoteHashFromPeerId = false;
+        response.setHeader(PushStream.PROTOCOL_HEADER, PushStream.PROTOCOL_VERSION);
 
         // manage DoS
         if (post.isDoS_blackout()) {
@@ -155,10 +238,17 @@ public class PushServlet extends HttpServlet {
         }
 
         if (!IncomingMessageBuffer.addSchedulerAvailable()) {
+            response.setHeader("Retry-After", Integer.toString(DAO.getConfig("push.stream.retry_after", 30)));
             response.sendError(503, "out of server capacity");
             return;
         }
 
+        String contentType = request.getContentType();
+        if (contentType != null && contentType.startsWith(PushStream.CONTENT_TYPE)) {
+            doStreamPost(request, response, post, remoteHash, timeStart);
+            return;
+        }
+
         Map<String, byte[]> m = RemoteAccess.getPostMap(request);
         byte[] data = m.get("data");
         String callback = UTF8.String(m.get("callback"));
@@ -210,31 +300,7 @@ public class PushServlet extends HttpServlet {
             timeTimelineStorage = System.currentTimeMillis();
 
             // update query database if query was given in the result list
-            if (metadata != null) {
-                final String querys = metadata.has("query") ? (String) metadata.get("query") : null;
-                if (querys != null) {
-                    // update query database concurrently
-                    new Thread() {
-                        public void run() {
-                            QueryEntry qe = null;
-                            try {
-                                qe = DAO.queries.read(querys);
-                            } catch (IOException e1) {
-                                e1.printStackTrace();
-                            }
-                            if (qe != null) {
-                                // existing queries are updated
-                                qe.update(tl.period(), false);
-                                try {
-                                    DAO.queries.writeEntryAsync(new IndexEntry<QueryEntry>(querys, qe.getSourceType(), qe));
-                                } catch (IOException e) {
-                                    DAO.severe(e);
-                                }
-                            }
-                        }
-                    }.start();
-                }
-            }
+            updateQuery(metadata, tl);
 
             timeQueryStorage = System.currentTimeMillis();
         }
@@ -280,4 +346,118 @@ public class PushServlet extends HttpServlet {
         response.addHeader("Access-Control-Allow-Origin", "*");
         post.finalize();
     }
+
+    /**
+     * receive a push in the streamed form. The statuses are parsed one at a time and handed to the
+     * IncomingMessageBuffer in chunks; if the buffer cannot take the next chunk, the rest of the body is not read
+     * and the push is answered with status "incomplete" and the number of stored records.
+     */
+    private void doStreamPost(HttpServletRequest request, HttpServletResponse response, Query post, String remoteHash, long timeStart) throws IOException {
+        PushStream.Encoding encoding = PushStream.Encoding.parse(request.getHeader("Content-Encoding"));
+        if (encoding == null) {
+            response.sendError(415, "the content encoding " + request.getHeader("Content-Encoding") + " is not supported");
+            return;
+        }
+        long maxBytes = DAO.getConfig("push.stream.maxbytes", 64L * 1024L * 1024L);
+        if (request.getContentLengthLong() > maxBytes) {
+            response.sendError(413, "the push is larger than " + maxBytes + " bytes");
+            return;
+        }
+        int chunkSize = Math.max(1, DAO.getConfig("push.stream.chunk", 100));
+        int retryAfter = DAO.getConfig("push.stream.retry_after", 30);
+        if (IncomingMessageBuffer.getMessageQueueMaxSize() - IncomingMessageBuffer.getMessageQueueSize() < chunkSize) {
+            response.setHeader("Retry-After", Integer.toString(retryAfter));
+            response.sendError(503, "out of server capacity");
+            return;
+        }
+
+        // reading the input stream makes the client send the body
+        int recordCount = 0;
+        boolean complete = false, verified = false;
+        JSONObject metadata = null;
+        TwitterTimeline first = null;
+        try (PushStream.Reader reader = new PushStream.Reader(request.getInputStream(), encoding, maxBytes)) {
+            metadata = reader.getMetadata();
+            String peerid = metadata == null ? null : metadata.optString("peerid", null);
+            if (peerid != null && peerid.length() > 3 && peerid.charAt(2) == '_') remoteHash = peerid;
+            TwitterTimeline tl = new TwitterTimeline(Order.CREATED_AT);
+            JSONObject tweet;
+            chunks: while (true) {
+                tweet = reader.next();
+                if (tweet != null) {
+                    recordCount++;
+                    JSONObject user = (JSONObject) tweet.remove("user");
+                    if (user == null) continue chunks;
+                    tweet.put("provider_type", ProviderType.REMOTE.name());
+                    tweet.put("provider_hash", remoteHash);
+                    if (!user.has("screen_name") && tweet.has("screen_name")) user.put("screen_name", tweet.getString("screen_name"));
+                    tl.add(new TwitterTweet(tweet), new UserEntry(user));
+                    if (tl.size() < chunkSize) continue chunks;
+                }
+                if (tl.size() > 0) {
+                    IncomingMessageBuffer.addScheduler(tl, true, false);
+                    if (first == null) first = tl;
+                    tl = new TwitterTimeline(Order.CREATED_AT);
+                }
+                if (tweet == null) break chunks;
+                if (IncomingMessageBuffer.getMessageQueueMaxSize() - IncomingMessageBuffer.getMessageQueueSize() < chunkSize) break chunks;
+            }
+            complete = tweet == null;
+            verified = reader.isVerified();
+        } catch (PushStream.TooLargeException e) {
+            response.sendError(413, e.getMessage());
+            return;
+        } catch (IOException | JSONException e) {
+            response.sendError(400, "the push cannot be parsed: " + e.getMessage());
+            return;
+        }
+        if (first != null) updateQuery(metadata, first);
+
+        // an incomplete push is a partial success: the statuses which were read are stored and the client
+        // sends the statuses after the first records statuses to another backend
+        post.setResponse(response, "application/javascript");
+        JSONObject json = new JSONObject(true);
+        json.put("status", complete ? "ok" : "incomplete");
+        json.put("records", recordCount);
+        if (!complete) json.put("retry_after", retryAfter);
+        json.put("mps", DAO.countLocalMessages(3600000L, true) / 3600L);
+        json.put("message", complete ? "pushed" : "out of server capacity");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter sos = response.getWriter();
+        sos.print(json.toString(2));
+        sos.println();
+
+        DAO.log(request.getServletPath() + " -> streamed records = " + recordCount + ", from host hash " + remoteHash +
+                ", encoding = " + encoding.name + (complete ? "" : ", incomplete") + (verified ? ", verified" : "") + ", total time = " + (System.currentTimeMillis() - timeStart));
+        response.addHeader("Access-Control-Allow-Origin", "*");
+        post.finalize();
+    }
+
+    /**
+     * update the query database concurrently if the pushed timeline was the result of a query
+     */
+    private static void updateQuery(JSONObject metadata, final TwitterTimeline tl) {
+        if (metadata == null) return;
+        final String querys = metadata.has("query") ? (String) metadata.get("query") : null;
+        if (querys == null) return;
+        new Thread() {
+            public void run() {
+                QueryEntry qe = null;
+                try {
+                    qe = DAO.queries.read(querys);
+                } catch (IOException e1) {
+                    e1.printStackTrace();
+                }
+                if (qe != null) {
+                    // existing queries are updated
+                    qe.update(tl.period(), false);
+                    try {
+                        DAO.queries.writeEntryAsync(new IndexEntry<QueryEntry>(querys, qe.getSourceType(), qe));
+                    } catch (IOException e) {
+                        DAO.severe(e);
+                    }
+                }
+            }
+        }.start();
+    }
 }
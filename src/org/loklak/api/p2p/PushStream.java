@@ -0,0 +1,379 @@
+/**
+ *  PushStream
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.api.p2p;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.json.JSONObject;
+import org.loklak.data.DAO;
+import org.loklak.harvester.TwitterScraper.TwitterTweet;
+import org.loklak.objects.TwitterTimeline;
+import org.loklak.tools.IO;
+import org.loklak.tools.JsonSignature;
+
+import com.ning.compress.lzf.LZFInputStream;
+import com.ning.compress.lzf.LZFOutputStream;
+
+/**
+ * The streamed form of a push between peers. Instead of one json object in a multipart form field, the
+ * request body is a compressed sequence of json objects, one in each line (content type application/x-ndjson):
+ * - the first line holds the search_metadata of the timeline and the peer_hash of the pushing peer; a signed push
+ *   also holds the public key of the peer, which must have the peer_hash,
+ * - each following line holds one status with its user, exactly as in the statuses array of a search result,
+ * - the last line holds the signature of the pushing peer, computed over all previous lines.
+ * The body is written while it is sent and it is parsed while it is received, so neither side holds the whole
+ * serialized timeline in memory.
+ */
+public class PushStream {
+
+    public final static String CONTENT_TYPE = "application/x-ndjson";
+
+    // the header which a peer sets on all push responses if it knows the streamed form, with the version of the form
+    public final static String PROTOCOL_HEADER = "X-Loklak-Push-Stream";
+    public final static String PROTOCOL_VERSION = "1";
+
+    public enum Encoding {
+        IDENTITY("identity"), GZIP("gzip"), LZF("x-lzf");
+
+        public final String name;
+
+        private Encoding(String name) {
+            this.name = name;
+        }
+
+        public OutputStream encode(OutputStream os) throws IOException {
+            switch (this) {
+            case GZIP: return new GZIPOutputStream(os, 65536);
+            case LZF: return new LZFOutputStream(os);
+            default: return os;
+            }
+        }
+
+        public InputStream decode(InputStream is) throws IOException {
+            switch (this) {
+            case GZIP: return new GZIPInputStream(is, 65536);
+            case LZF: return new LZFInputStream(is);
+            default: return is;
+            }
+        }
+
+        /**
+         * @param contentEncoding the value of a Content-Encoding header, may be null
+         * @return the encoding or null if it is not supported
+         */
+        public static Encoding parse(String contentEncoding) {
+            if (contentEncoding == null || contentEncoding.length() == 0) return IDENTITY;
+            for (Encoding e: values()) if (e.name.equalsIgnoreCase(contentEncoding.trim())) return e;
+            return null;
+        }
+    }
+
+    /**
+     * thrown if the uncompressed body is larger than the limit of the receiver
+     */
+    public static class TooLargeException extends IOException {
+        private static final long serialVersionUID = -2934087411297615823L;
+        public TooLargeException(long limit) {
+            super("the push body exceeds " + limit + " bytes");
+        }
+    }
+
+    /**
+     * write a timeline in the streamed push format
+     * @param os the target, it is not closed
+     * @param timeline the messages
+     * @param key the private key of this peer to sign the stream or null to send it unsigned
+     */
+    public static void write(OutputStream os, TwitterTimeline timeline, PrivateKey key) throws IOException {
+        JSONObject metadata = new JSONObject(true);
+        if (timeline.getQuery() != null) metadata.put("query", timeline.getQuery());
+        metadata.put("hits", Math.max(timeline.getHits(), timeline.size()));
+        if (timeline.getScraperInfo().length() > 0) metadata.put("scraperInfo", timeline.getScraperInfo());
+        metadata.put("count", Integer.toString(timeline.size()));
+        JSONObject head = new JSONObject(true);
+        head.put("search_metadata", metadata);
+        head.put("peer_hash", DAO.public_settings.getPeerHash());
+        head.put("peer_hash_algorithm", DAO.public_settings.getPeerHashAlgorithm());
+        if (key != null) {
+            head.put("peer_key", DAO.public_settings.getPublicKeyAsString());
+            head.put("peer_key_algorithm", DAO.public_settings.getKeyAlgorithm());
+        }
+        write(os, head, timeline, key);
+    }
+
+    /**
+     * write a timeline in the streamed push format with the given head line
+     */
+    static void write(OutputStream os, JSONObject head, TwitterTimeline timeline, PrivateKey key) throws IOException {
+        Signature signature = null;
+        if (key != null) try {
+            signature = Signature.getInstance("SHA256withRSA");
+            signature.initSign(key);
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        try {
+            writeLine(os, head, signature);
+            for (TwitterTweet t: timeline) writeLine(os, t.toJSON(timeline.getUser(t), false, Integer.MAX_VALUE, ""), signature);
+            if (signature != null) {
+                JSONObject trailer = new JSONObject(true);
+                trailer.put(JsonSignature.signatureString, Base64.getEncoder().encodeToString(signature.sign()));
+                writeLine(os, trailer, null);
+            }
+        } catch (SignatureException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private static void writeLine(OutputStream os, JSONObject json, Signature signature) throws IOException, SignatureException {
+        byte[] b = (json.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+        if (signature != null) signature.update(b);
+        os.write(b);
+    }
+
+    /**
+     * the request entity of a streamed push; the timeline is serialized while the request is written.
+     * The entity is repeatable because the timeline is held in memory, so it can be written again on a retry.
+     */
+    public static class Entity extends AbstractHttpEntity {
+
+        private final TwitterTimeline timeline;
+        private final Encoding encoding;
+        private final PrivateKey key;
+
+        public Entity(TwitterTimeline timeline, Encoding encoding, PrivateKey key) {
+            this.timeline = timeline;
+            this.encoding = encoding;
+            this.key = key;
+            setContentType(CONTENT_TYPE + "; charset=UTF-8");
+            if (encoding != Encoding.IDENTITY) setContentEncoding(encoding.name);
+            setChunked(true);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        /**
+         * the http client writes the entity with writeTo; this serializes the whole body into memory
+         * and is only there for callers which need the body as a stream
+         */
+        @Override
+        public InputStream getContent() throws IOException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            writeTo(baos);
+            return new ByteArrayInputStream(baos.toByteArray());
+        }
+
+        @Override
+        public void writeTo(OutputStream os) throws IOException {
+            OutputStream encoded = this.encoding.encode(os);
+            write(encoded, this.timeline, this.key);
+            encoded.close(); // finishes the compression
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+
+    /**
+     * reads a streamed push incrementally; the statuses are parsed one at a time. If the head line holds the
+     * public key of the pushing peer and the key has the peer_hash of the head, all lines are checked against
+     * the signature in the last line.
+     */
+    public static class Reader implements Closeable {
+
+        private final InputStream is;
+        private byte[] line;
+        private int length;
+        private JSONObject head, next;
+        private Signature signature;
+        private boolean verified;
+
+        /**
+         * @param is the request body
+         * @param encoding the encoding of the body
+         * @param maxBytes the maximum number of uncompressed bytes of the body
+         */
+        public Reader(InputStream is, Encoding encoding, long maxBytes) throws IOException {
+            this.is = new BufferedInputStream(new LimitedInputStream(encoding.decode(is), maxBytes), 65536);
+            this.line = new byte[4096];
+            this.length = 0;
+            this.signature = null;
+            this.verified = false;
+            this.next = read();
+            // the head line is optional
+            if (this.next != null && this.next.has("search_metadata")) {
+                this.head = this.next;
+                this.next = read();
+            } else {
+                this.head = new JSONObject(true);
+            }
+        }
+
+        /**
+         * @return the search_metadata of the push or null if it did not contain any
+         */
+        public JSONObject getMetadata() {
+            return this.head.optJSONObject("search_metadata");
+        }
+
+        /**
+         * @return true if the push was signed with the key of the peer_hash in the head and the signature matches
+         * all lines before it; this can only be known after all statuses are read
+         */
+        public boolean isVerified() {
+            return this.verified;
+        }
+
+        /**
+         * @return the next status or null if there is none
+         * @throws TooLargeException if the body exceeds the limit
+         */
+        public JSONObject next() throws IOException {
+            JSONObject status = this.next;
+            if (status != null) this.next = read();
+            return status;
+        }
+
+        private JSONObject read() throws IOException {
+            while (readLine()) {
+                int start = 0;
+                while (start < this.length && Character.isWhitespace(this.line[start])) start++;
+                if (start == this.length) continue;
+                if (this.line[start] != '{') throw new IOException("each line of a push must be a json object");
+                Map<String, Object> map = DAO.jsonMapper.readValue(this.line, 0, this.length, DAO.jsonTypeRef);
+                if (map.size() == 1 && map.containsKey(JsonSignature.signatureString)) {
+                    this.verified = verify((String) map.get(JsonSignature.signatureString));
+                    this.signature = null; // lines after the signature are not signed
+                    continue;
+                }
+                if (this.head == null && map.containsKey("search_metadata")) initVerify(map);
+                if (this.signature != null) update();
+                this.verified = false;
+                return new JSONObject(map);
+            }
+            return null;
+        }
+
+        /**
+         * read the next line into the line buffer, including the line feed
+         * @return false if the stream has ended
+         */
+        private boolean readLine() throws IOException {
+            this.length = 0;
+            int b;
+            while ((b = this.is.read()) >= 0) {
+                if (this.length == this.line.length) this.line = Arrays.copyOf(this.line, this.line.length * 2);
+                this.line[this.length++] = (byte) b;
+                if (b == '\n') break;
+            }
+            return this.length > 0;
+        }
+
+        private void initVerify(Map<String, Object> head) {
+            Object key = head.get("peer_key"), algorithm = head.get("peer_key_algorithm");
+            Object hash = head.get("peer_hash"), hashAlgorithm = head.get("peer_hash_algorithm");
+            if (!(key instanceof String && algorithm instanceof String && hash instanceof String && hashAlgorithm instanceof String)) return;
+            PublicKey publicKey = IO.decodePublicKey((String) key, (String) algorithm);
+            if (publicKey == null || !hash.equals(IO.getKeyHash(publicKey, (String) hashAlgorithm))) return;
+            try {
+                this.signature = Signature.getInstance("SHA256withRSA");
+                this.signature.initVerify(publicKey);
+            } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                this.signature = null;
+            }
+        }
+
+        private void update() throws IOException {
+            try {
+                this.signature.update(this.line, 0, this.length);
+                // the writer ends each signed line with a line feed, also the last one
+                if (this.line[this.length - 1] != '\n') this.signature.update((byte) '\n');
+            } catch (SignatureException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        private boolean verify(String sig) {
+            if (this.signature == null || sig == null) return false;
+            try {
+                return this.signature.verify(Base64.getDecoder().decode(sig));
+            } catch (SignatureException | IllegalArgumentException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.is.close();
+        }
+    }
+
+    private static class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+        private LimitedInputStream(InputStream is, long limit) {
+            super(is);
+            this.limit = limit;
+            this.count = 0;
+        }
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0 && ++this.count > this.limit) throw new TooLargeException(this.limit);
+            return b;
+        }
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int c = super.read(b, off, len);
+            if (c > 0 && (this.count += c) > this.limit) throw new TooLargeException(this.limit);
+            return c;
+        }
+    }
+}
@@ -20,7 +20,6 @@
 package org.loklak.api.search;
 
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -29,6 +28,7 @@ import java.util.Set;
 import java.util.ConcurrentModificationException;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -40,17 +40,20 @@ import javax.servlet.http.HttpServletResponse;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.loklak.data.DAO;
+import org.loklak.data.SearchExecutionService;
 import org.loklak.http.ClientConnection;
 import org.loklak.http.RemoteAccess;
 import org.loklak.harvester.TwitterScraper.TwitterTweet;
 import org.loklak.objects.BasicTimeline.Order;
 import org.loklak.objects.QueryEntry;
+import org.loklak.objects.SearchResultCache;
 import org.loklak.objects.TwitterTimeline;
 import org.loklak.objects.UserEntry;
 import org.loklak.rss.RSSFeed;
 import org.loklak.rss.RSSMessage;
 import org.loklak.server.AbstractAPIHandler;
 import org.loklak.server.ClientIdentity;
+import org.loklak.server.JsonStreamWriter;
 import org.loklak.server.Query;
 import org.loklak.tools.CharacterCoding;
 import org.loklak.tools.UTF8;
@@ -155,11 +158,16 @@ public class SearchServlet extends HttpServlet {
 
         final ClientIdentity identity = AbstractAPIHandler.getIdentity(request, response, post);
         JSONArray dataArray = null;
+        boolean admitted = false;
+        SearchResultCache.Ticket ticket = null;
         try {
 
             // manage DoS
             if (post.isDoS_blackout()) {response.sendError(503, "your (" + post.getClientHost() + ") request frequency is too high"); return;}
 
+            // shed load before the search threads and the result timelines fill the heap
+            if (!(admitted = DAO.searchExecution.admit())) {response.sendError(503, "the server is overloaded, try again later"); return;}
+
             // check call type
             String callType = "json";
             if(request.getServletPath().endsWith(".json")){
@@ -230,50 +238,67 @@ public class SearchServlet extends HttpServlet {
                 final boolean backend_push = DAO.getConfig("backend.push.enabled", false);
                 final QueryEntry.Tokens tokens = new QueryEntry.Tokens(query);
 
-                if ("all".equals(source)) {
+                // the scraper gets at least 10 seconds, the other targets are cancelled at the deadline of the request
+                final long scraperDeadline = start + Math.max(10000, timeout);
+                final long deadline = start + Math.max(100, timeout);
+
+                // identical searches of all clients share one result; concurrent misses wait for the first search
+                // as long as it may take: the last await of a search ends at most 100 milliseconds after its deadline
+                final long resultDeadline = ("all".equals(source) || "twitter".equals(source) ? scraperDeadline : deadline) + 100;
+                ticket = DAO.searchResultCache.acquire(SearchResultCache.key(query, source, filterList, order, maximumRecords, timezoneOffset, agregation_limit, fields), resultDeadline);
+                final SearchResultCache.Entry shared = ticket.entry();
+                boolean complete = true; // false if a source was rejected, failed or cancelled
+
+                if (shared != null) {
+                    shared.copyTo(tl);
+                    shared.copyHitsTo(hits);
+                    aggregations[0] = shared.getAggregations();
+                    post.recordEvent("shared_result_time", System.currentTimeMillis() - start);
+                } else if ("all".equals(source)) {
                     // start all targets for search concurrently
                     final int timezoneOffsetf = timezoneOffset;
                     final String queryf = query;
+                    final SearchExecutionService executor = DAO.searchExecution;
+                    final AtomicInteger finished = new AtomicInteger(0);
+                    int sources = 0;
 
                     // start a scraper
-                    Thread scraperThread = tokens.raw.length() == 0 ? null : new Thread() {
-                        public void run() {
-                            final String scraper_query = tokens.translate4scraper();
-                            DAO.log(request.getServletPath() + " scraping with query: " + scraper_query);
-                            TwitterTimeline twitterTl = DAO.scrapeTwitter(post, filterList, scraper_query, order, timezoneOffsetf, true, timeout, true);
-                            count_twitter_new.set(twitterTl.size());
-                            tl.putAll(QueryEntry.applyConstraint(twitterTl, tokens, false)); // pre-localized results are not filtered with location constraint any more
-                            tl.setScraperInfo(twitterTl.getScraperInfo());
-                            post.recordEvent("twitterscraper_time", System.currentTimeMillis() - start);
-                        }
-                    };
-                    if (scraperThread != null) scraperThread.start();
+                    if (tokens.raw.length() > 0) sources++;
+                    Future<?> scraperTask = tokens.raw.length() == 0 ? null : executor.submit(SearchExecutionService.Source.twitter, () -> {
+                        final String scraper_query = tokens.translate4scraper();
+                        DAO.log(request.getServletPath() + " scraping with query: " + scraper_query);
+                        TwitterTimeline twitterTl = DAO.scrapeTwitter(post, filterList, scraper_query, order, timezoneOffsetf, true, timeout, true);
+                        count_twitter_new.set(twitterTl.size());
+                        tl.putAll(QueryEntry.applyConstraint(twitterTl, tokens, false)); // pre-localized results are not filtered with location constraint any more
+                        tl.setScraperInfo(twitterTl.getScraperInfo());
+                        post.recordEvent("twitterscraper_time", System.currentTimeMillis() - start);
+                        finished.incrementAndGet();
+                    });
 
                     // start a local search
-                    Thread localThread = queryf == null || queryf.length() == 0 ? null : new Thread() {
-                        public void run() {
-
-                            DAO.SearchLocalMessages localSearchResult =
-                                    new DAO.SearchLocalMessages(
-                                            queryf,
-                                            order,
-                                            timezoneOffsetf,
-                                            last_cache_search_time.get() > SEARCH_CACHE_THREASHOLD_TIME ? Math.min(maximumRecords,
-                                            (int) DAO.getConfig(SEARCH_LOW_COUNT_NAME, 10)) : maximumRecords,
-                                            agregation_limit,
-                                            filterList,
-                                            fields
-                                    );
-                            long time = System.currentTimeMillis() - start;
-                            last_cache_search_time.set(time);
-                            post.recordEvent("cache_time", time);
-                            cache_hits.set(localSearchResult.timeline.getHits());
-                            tl.putAll(localSearchResult.timeline);
-                            tl.setResultIndex(localSearchResult.timeline.getResultIndex());
-                            aggregations[0] = localSearchResult.getAggregations();
-                        }
-                    };
-                    if (localThread != null) localThread.start();
+                    if (queryf != null && queryf.length() > 0) sources++;
+                    Future<?> localTask = queryf == null || queryf.length() == 0 ? null : executor.submit(SearchExecutionService.Source.cache, () -> {
+                        DAO.SearchLocalMessages localSearchResult =
+                                new DAO.SearchLocalMessages(
+                                        queryf,
+                                        order,
+                                        timezoneOffsetf,
+                                        last_cache_search_time.get() > SEARCH_CACHE_THREASHOLD_TIME ? Math.min(maximumRecords,
+                                        (int) DAO.getConfig(SEARCH_LOW_COUNT_NAME, 10)) : maximumRecords,
+                                        agregation_limit,
+                                        filterList,
+                                        fields
+                                );
+                        long time = System.currentTimeMillis() - start;
+                        last_cache_search_time.set(time);
+                        post.recordEvent("cache_time", time);
+                        localSearchResult.recordEvents(post);
+                        cache_hits.set(localSearchResult.timeline.getHits());
+                        tl.putAll(localSearchResult.timeline);
+                        tl.setResultIndex(localSearchResult.timeline.getResultIndex());
+                        aggregations[0] = localSearchResult.getAggregations();
+                        finished.incrementAndGet();
+                    });
 
                     // start a backend search, but only if backend_push == true or result from scraper is too bad
                     boolean start_backend_thread = false;
@@ -281,50 +306,35 @@ public class SearchServlet extends HttpServlet {
                     else {
                         // wait now for termination of scraper thread and local search
                         // to evaluate how many results are available
-                        if (scraperThread != null) try {
-                            scraperThread.join(Math.max(10000, timeout - System.currentTimeMillis() + start));
-                        } catch (InterruptedException e) {
-                        }
-                        if (localThread != null) try {
-                            localThread.join(Math.max(100, timeout - System.currentTimeMillis() + start));
-                        } catch (InterruptedException e) {
-                        }
-                        localThread = null;
-                        scraperThread = null;
+                        SearchExecutionService.await(scraperTask, scraperDeadline);
+                        SearchExecutionService.await(localTask, Math.max(deadline, System.currentTimeMillis() + 100));
                         if (tl.size() < maximumRecords) start_backend_thread = true;
                     }
-                    Thread backendThread = tokens.original.length() == 0 || !start_backend_thread ? null : new Thread() {
-                        public void run() {
-                            TwitterTimeline backendTl = DAO.searchBackend(tokens.original, filterList, order, maximumRecords, timezoneOffsetf, "cache", timeout);
-                            if (backendTl != null) {
-                                tl.putAll(QueryEntry.applyConstraint(backendTl, tokens, true));
-                                count_backend.set(tl.size());
-                                // TODO: read and aggregate aggregations from backend as well
-                            }
-                            post.recordEvent("backend_time", System.currentTimeMillis() - start);
+                    if (tokens.original.length() > 0 && start_backend_thread) sources++;
+                    Future<?> backendTask = tokens.original.length() == 0 || !start_backend_thread ? null : executor.submit(SearchExecutionService.Source.backend, () -> {
+                        TwitterTimeline backendTl = DAO.searchBackend(tokens.original, filterList, order, maximumRecords, timezoneOffsetf, "cache", timeout);
+                        if (backendTl != null) {
+                            tl.putAll(QueryEntry.applyConstraint(backendTl, tokens, true));
+                            count_backend.set(tl.size());
+                            // TODO: read and aggregate aggregations from backend as well
+                            finished.incrementAndGet();
                         }
-                    };
-                    if (backendThread != null) backendThread.start();
+                        post.recordEvent("backend_time", System.currentTimeMillis() - start);
+                    });
 
-                    // wait for termination of all threads
-                    if (scraperThread != null) try {
-                        scraperThread.join(Math.max(10000, timeout - System.currentTimeMillis() + start));
-                    } catch (InterruptedException e) {
-                    }
+                    // wait for termination of all tasks
+                    boolean scraperDone = SearchExecutionService.await(scraperTask, scraperDeadline);
 
-                    // in case that the scraper thread had been started and was successful, we do not wait for the other threads to terminate
-                    if (scraperThread == null || tl.getHits() == 0 || query.indexOf(':') >= 0 || query.indexOf('/') >= 0 || fields.length > 0) {
-                        if (localThread != null) try {
-                            localThread.join(Math.max(100, timeout - System.currentTimeMillis() + start));
-                        } catch (InterruptedException e) {
-                        }
+                    // in case that the scraper had been started and was successful, we do not wait for the other tasks to terminate
+                    if (scraperTask == null || !scraperDone || tl.getHits() == 0 || query.indexOf(':') >= 0 || query.indexOf('/') >= 0 || fields.length > 0) {
+                        SearchExecutionService.await(localTask, Math.max(deadline, System.currentTimeMillis() + 100));
                     }
-                    if (scraperThread == null || tl.getHits() == 0) {
-                        if (backendThread != null) try {
-                            backendThread.join(Math.max(100, timeout - System.currentTimeMillis() + start));
-                        } catch (InterruptedException e) {
-                        }
+                    if (scraperTask == null || !scraperDone || tl.getHits() == 0) {
+                        SearchExecutionService.await(backendTask, Math.max(deadline, System.currentTimeMillis() + 100));
                     }
+                    int cancelled = executor.cancel(scraperTask, localTask, backendTask);
+                    if (cancelled > 0) post.recordEvent("cancelled_tasks", cancelled);
+                    complete = cancelled == 0 && finished.get() == sources;
                 } else if ("twitter".equals(source) && tokens.raw.length() > 0) {
                     final String scraper_query = tokens.translate4scraper();
                     DAO.log(request.getServletPath() + " scraping with query: " + scraper_query);
@@ -356,6 +366,7 @@ public class SearchServlet extends HttpServlet {
                     long time = System.currentTimeMillis() - start;
                     last_cache_search_time.set(time);
                     post.recordEvent("cache_time", time);
+                    localSearchResult.recordEvents(post);
 
                 } else if ("backend".equals(source) && query.length() > 0) {
                     TwitterTimeline backendTl = DAO.searchBackend(query, filterList, order, maximumRecords, timezoneOffset, "cache", timeout);
@@ -364,18 +375,23 @@ public class SearchServlet extends HttpServlet {
                         tl.setScraperInfo(backendTl.getScraperInfo());
                         // TODO: read and aggregate aggregations from backend as well
                         count_backend.set(tl.size());
+                    } else {
+                        complete = false;
                     }
                     post.recordEvent("backend_time", System.currentTimeMillis() - start);
 
                 }
 
-                // check the latest user_ids
-                DAO.announceNewUserId(tl);
+                if (shared == null) {
+                    // check the latest user_ids
+                    DAO.announceNewUserId(tl);
 
-                hits.put("count_twitter_all", count_twitter_all.get());
-                hits.put("count_twitter_new", count_twitter_new.get());
-                hits.put("count_backend", count_backend.get());
-                hits.put("cache_hits", cache_hits.get());
+                    hits.put("count_twitter_all", count_twitter_all.get());
+                    hits.put("count_twitter_new", count_twitter_new.get());
+                    hits.put("count_backend", count_backend.get());
+                    hits.put("cache_hits", cache_hits.get());
+                    ticket.publish(tl, hits, aggregations[0], complete);
+                }
             }
 
             // create json or xml according to path extension
@@ -395,6 +411,9 @@ public class SearchServlet extends HttpServlet {
         } catch (Throwable e) {
             DAO.severe(e.getMessage(), e);
             //DAO.severe(e);
+        } finally {
+            if (ticket != null) ticket.release();
+            if (admitted) DAO.searchExecution.release();
         }
     }
 
@@ -406,38 +425,36 @@ public class SearchServlet extends HttpServlet {
         if ("json".equals(callType)) {
             post.setResponse(response, jsonp ? "application/javascript" : "application/json");
 
-            JSONObject m = new JSONObject(true);
-            JSONArray statuses = new JSONArray();
-
-            try {
-                for (TwitterTweet t : tl.getNextTweets(startRecord - 1, maximumRecords)) {
-                    UserEntry u = tl.getUser(t);
-                    statuses.put(t.toJSON(u, true, shortlink_iflinkexceedslength, shortlink_urlstub));
-                }
-            } catch (ConcurrentModificationException e) {
-                // late incoming messages from concurrent peer retrieval may cause this
-                // we silently do nothing here and return what we listed so far
+            // the statuses are written one by one to the response, without a json tree of the whole result
+            JsonStreamWriter json = JsonStreamWriter.open(response, jsonp ? callback : null, minified);
+            json.startObject();
+            if (!minified) {
+                JSONObject readme = new JSONObject(true);
+                setReadMe(readme);
+                json.fields(readme);
             }
-
-            if (!minified) setReadMe(m);
             if (dataArray == null) {
                 setTwitterMetaData(metadata, startRecord, maximumRecords, tl, query, filter, post, hits);
-                m.put("search_metadata", metadata);
-                m.put("statuses", statuses);
+                json.field("search_metadata", metadata);
+                json.startArray("statuses");
+                try {
+                    for (TwitterTweet t : tl.getNextTweets(startRecord - 1, maximumRecords)) {
+                        UserEntry u = tl.getUser(t);
+                        json.value(t.toJSON(u, true, shortlink_iflinkexceedslength, shortlink_urlstub));
+                    }
+                } catch (ConcurrentModificationException e) {
+                    // late incoming messages from concurrent peer retrieval may cause this
+                    // we silently do nothing here and return what we listed so far
+                }
+                json.endArray();
             } else {
                 moreMetaData(metadata, post);
-                m.put("results", dataArray);
-                m.put("metadata", metadata);
+                json.field("results", dataArray);
+                json.field("metadata", metadata);
             }
-            m.put("aggregations", aggregations);
-
-            // write json
-            response.setCharacterEncoding("UTF-8");
-            PrintWriter sos = response.getWriter();
-            if (jsonp) sos.print(callback + "(");
-            sos.print(m.toString(minified ? 0 : 2));
-            if (jsonp) sos.println(");");
-            sos.println();
+            if (aggregations != null) json.field("aggregations", aggregations);
+            json.endObject();
+            json.close();
         } else if ("rss".equals(callType)) {
             response.setCharacterEncoding("UTF-8");
             post.setResponse(response, "application/rss+xml;charset=utf-8");
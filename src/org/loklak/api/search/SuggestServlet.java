@@ -20,7 +20,6 @@
 package org.loklak.api.search;
 
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Date;
@@ -28,7 +27,6 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -39,12 +37,14 @@ import org.elasticsearch.search.sort.SortOrder;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.loklak.data.DAO;
+import org.loklak.data.SuggestCache;
 import org.loklak.http.ClientConnection;
 import org.loklak.http.RemoteAccess;
 import org.loklak.objects.AbstractObjectEntry;
 import org.loklak.objects.QueryEntry;
 import org.loklak.objects.ResultList;
 import org.loklak.objects.SourceType;
+import org.loklak.server.JsonStreamWriter;
 import org.loklak.server.Query;
 import org.loklak.tools.DateParser;
 import org.loklak.tools.UTF8;
@@ -62,7 +62,6 @@ import org.loklak.tools.UTF8;
 public class SuggestServlet extends HttpServlet {
 
     private static final long serialVersionUID = 8578478303032749879L;
-    public static Map<Integer, JSONObject> cache = new ConcurrentHashMap<>();
 
     public static ResultList<QueryEntry> suggest(
             final String[] protocolhostportstubs,
@@ -146,93 +145,101 @@ public class SuggestServlet extends HttpServlet {
         boolean jsonp = callback != null && callback.length() > 0;
         boolean minified = post.get("minified", false);
 
-        int requestkey = post.hashCode();
-        JSONObject m = post.isDoS_servicereduction() ? cache.get(requestkey) : null;
-        if (m == null) {
-            boolean local = post.isLocalhostAccess();
-            boolean delete = post.get("delete", false);
-            int count = post.get("count", 10); // number of queries
-            String query = post.get("q", ""); // to get a list of queries which match; to get all latest: leave q empty
-            String source = post.get("source", "all"); // values: all,query,geo
-            String orders = post.get("order", query.length() == 0 ? "desc" : "asc").toUpperCase();
-            SortOrder order = SortOrder.valueOf(orders);
-            String orderby = post.get("orderby", query.length() == 0 ? "retrieval_next" : "query_count");
-            int timezoneOffset = post.get("timezoneOffset", 0);
-            Date since = post.get("since",  "").equals("now") ? new Date() : post.get("since", (Date) null, timezoneOffset);
-            Date until = post.get("until",  "").equals("now") ? new Date() : post.get("until", (Date) null, timezoneOffset);
-            String selectby = post.get("selectby", "retrieval_next");
-            ResultList<QueryEntry> queryList = new ResultList<>();
-
-            if (("all".equals(source) || "query".equals(source)) && query.length() >= 0) {
-                long start = System.currentTimeMillis();
-                queryList = DAO.SearchLocalQueries(query, count, orderby, "long", order, since, until, selectby);
-                post.recordEvent("localqueries_time", System.currentTimeMillis() - start);
-            }
+        boolean local = post.isLocalhostAccess();
+        boolean delete = post.get("delete", false);
+        int count = post.get("count", 10); // number of queries
+        String query = post.get("q", ""); // to get a list of queries which match; to get all latest: leave q empty
+        String source = post.get("source", "all"); // values: all,query,geo
+        String orders = post.get("order", query.length() == 0 ? "desc" : "asc").toUpperCase();
+        SortOrder order = SortOrder.valueOf(orders);
+        String orderby = post.get("orderby", query.length() == 0 ? "retrieval_next" : "query_count");
+        int timezoneOffset = post.get("timezoneOffset", 0);
+        Date since = post.get("since",  "").equals("now") ? new Date() : post.get("since", (Date) null, timezoneOffset);
+        Date until = post.get("until",  "").equals("now") ? new Date() : post.get("until", (Date) null, timezoneOffset);
+        String selectby = post.get("selectby", "retrieval_next");
+        ResultList<QueryEntry> queryList = new ResultList<>();
+        String key = SuggestCache.key(query, orderby, orders, count, post.get("since", ""), post.get("until", ""), selectby);
 
-            if (delete && local && queryList.size() > 0) {
-                long start = System.currentTimeMillis();
-                for (QueryEntry qe: queryList) DAO.deleteQuery(qe.getQuery(), qe.getSourceType());
-                queryList.clear();
+        if (("all".equals(source) || "query".equals(source)) && query.length() >= 0) {
+            long start = System.currentTimeMillis();
+            // the due queries which the harvesters poll are taken from the top-N list, all other lists from the cache;
+            // a delete request must see the current list, otherwise queries which were written later survive the delete
+            ResultList<QueryEntry> due = !delete && query.length() == 0 && order == SortOrder.ASC && "retrieval_next".equals(orderby) &&
+                    "retrieval_next".equals(selectby) && since == null && "now".equals(post.get("until", "")) ? DAO.suggestCache.due(count) : null;
+            if (delete) {
                 queryList = DAO.SearchLocalQueries(query, count, orderby, "long", order, since, until, selectby);
-                post.recordEvent("localquerydelete_time", System.currentTimeMillis() - start);
+            } else if (due != null) {
+                queryList = due;
+            } else {
+                final String q = query;
+                final Date sinceDate = since, untilDate = until;
+                // with service reduction an expired list is served as well, as long as it was not invalidated
+                queryList = DAO.suggestCache.get(query, key, post.isDoS_servicereduction(),
+                        () -> DAO.SearchLocalQueries(q, count, orderby, "long", order, sinceDate, untilDate, selectby));
             }
+            post.recordEvent("localqueries_time", System.currentTimeMillis() - start);
+        }
 
-            if ("all".equals(source) || "geo".equals(source)) {
-                long start = System.currentTimeMillis();
-                LinkedHashSet<String> suggestions = DAO.geoNames.suggest(query, count, 0);
-                if (suggestions.size() < count && query.length() > 2) suggestions.addAll(DAO.geoNames.suggest(query, count, 1));
-                if (suggestions.size() < count && query.length() > 5) suggestions.addAll(DAO.geoNames.suggest(query, count, 2));
-                for (String s: suggestions) {
-                    QueryEntry qe = new QueryEntry(s, 0, Long.MAX_VALUE, SourceType.TWITTER, false);
-                    queryList.add(qe);
-                }
-                post.recordEvent("suggestionsquery_time", System.currentTimeMillis() - start);
-            }
+        if (delete && local && queryList.size() > 0) {
+            long start = System.currentTimeMillis();
+            for (QueryEntry qe: queryList) DAO.deleteQuery(qe.getQuery(), qe.getSourceType());
+            queryList.clear();
+            queryList = DAO.SearchLocalQueries(query, count, orderby, "long", order, since, until, selectby);
+            DAO.suggestCache.remove(key);
+            post.recordEvent("localquerydelete_time", System.currentTimeMillis() - start);
+        }
 
+        if ("all".equals(source) || "geo".equals(source)) {
             long start = System.currentTimeMillis();
-            post.setResponse(response, "application/javascript");
-
-            List<Object> queries = new ArrayList<>();
-            if (queryList != null) for (QueryEntry t: queryList) queries.add(t.toJSON().toMap());
-
-            int random = post.get("random", -1);
-            if (random > 0 && random < queries.size()) {
-                // take the given number from the result list and use random to choose
-                List<Object> random_queries = new ArrayList<>();
-                Random r = new Random(System.currentTimeMillis());
-                while (random-- > 0) {
-                    random_queries.add(queries.remove(r.nextInt(queries.size())));
-                    int shrink = Math.max(queries.size() / 2, random * 10);
-                    while (queries.size() > shrink) queries.remove(queries.size() - 1); // prefer from top
-                }
-                queries = random_queries;
+            LinkedHashSet<String> suggestions = DAO.geoNames.suggest(query, count, 0);
+            if (suggestions.size() < count && query.length() > 2) suggestions.addAll(DAO.geoNames.suggest(query, count, 1));
+            if (suggestions.size() < count && query.length() > 5) suggestions.addAll(DAO.geoNames.suggest(query, count, 2));
+            for (String s: suggestions) {
+                QueryEntry qe = new QueryEntry(s, 0, Long.MAX_VALUE, SourceType.TWITTER, false);
+                queryList.add(qe);
             }
+            post.recordEvent("suggestionsquery_time", System.currentTimeMillis() - start);
+        }
+
+        long start = System.currentTimeMillis();
+        post.setResponse(response, "application/javascript");
+
+        List<Object> queries = new ArrayList<>();
+        if (queryList != null) for (QueryEntry t: queryList) queries.add(t.toJSON());
 
-            // generate json
-            m = new JSONObject(true);
-            JSONObject metadata = new JSONObject(true);
-            metadata.put("count", queryList == null ? "0" : Integer.toString(queries.size()));
-            metadata.put("hits", queryList.getHits());
-            metadata.put("query", query);
-            metadata.put("order", orders);
-            metadata.put("orderby", orderby);
-            if (since != null) metadata.put("since", AbstractObjectEntry.utcFormatter.print(since.getTime()));
-            if (until != null) metadata.put("until", AbstractObjectEntry.utcFormatter.print(until.getTime()));
-            if (since != null || until != null) metadata.put("selectby", selectby);
-            metadata.put("client", post.getClientHost());
-            m.put("search_metadata", metadata);
-
-            m.put("queries", queries);
-            post.recordEvent("postprocessing_time", System.currentTimeMillis() - start);
+        int random = post.get("random", -1);
+        if (random > 0 && random < queries.size()) {
+            // take the given number from the result list and use random to choose
+            List<Object> random_queries = new ArrayList<>();
+            Random r = new Random(System.currentTimeMillis());
+            while (random-- > 0) {
+                random_queries.add(queries.remove(r.nextInt(queries.size())));
+                int shrink = Math.max(queries.size() / 2, random * 10);
+                while (queries.size() > shrink) queries.remove(queries.size() - 1); // prefer from top
+            }
+            queries = random_queries;
         }
 
+        // generate json
+        JSONObject m = new JSONObject(true);
+        JSONObject metadata = new JSONObject(true);
+        metadata.put("count", queryList == null ? "0" : Integer.toString(queries.size()));
+        metadata.put("hits", queryList.getHits());
+        metadata.put("query", query);
+        metadata.put("order", orders);
+        metadata.put("orderby", orderby);
+        if (since != null) metadata.put("since", AbstractObjectEntry.utcFormatter.print(since.getTime()));
+        if (until != null) metadata.put("until", AbstractObjectEntry.utcFormatter.print(until.getTime()));
+        if (since != null || until != null) metadata.put("selectby", selectby);
+        metadata.put("client", post.getClientHost());
+        m.put("search_metadata", metadata);
+
+        m.put("queries", queries);
+        post.recordEvent("postprocessing_time", System.currentTimeMillis() - start);
+
         // write json
         response.setCharacterEncoding("UTF-8");
-        PrintWriter sos = response.getWriter();
-        if (jsonp) sos.print(callback + "(");
-        sos.print(m.toString(minified ? 0 : 2));
-        if (jsonp) sos.println(");");
-        sos.println();
+        JsonStreamWriter.write(response.getOutputStream(), jsonp ? callback : null, minified, m);
         post.finalize();
     }
 
@@ -0,0 +1,146 @@
+/**
+ *  AdaptiveBatcher
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.data;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+/**
+ * Computes the size of index bulk writes. The size is adopted to the observed bulk write latency
+ * and the length of the queue which feeds the bulks:
+ * - if a bulk write takes longer than the target latency, the bulk size is halved
+ * - if a full bulk was written within the target latency and the queue still holds more than
+ *   one bulk, the bulk size grows by a quarter
+ * A bulk is flushed when it is full or when the linger time since the start of the bulk has passed.
+ * That bounds the indexing delay at low message rates without a fixed sleep.
+ */
+public class AdaptiveBatcher {
+
+    private final int minBulkSize, maxBulkSize;
+    private final long targetLatency, maxLinger;
+    private volatile int bulkSize;
+    private final AtomicLong bulks, entries, latency, grow, shrink;
+
+    /**
+     * @param minBulkSize the lower bound for the bulk size
+     * @param maxBulkSize the upper bound for the bulk size
+     * @param initialBulkSize the bulk size to start with
+     * @param targetLatency the time in milliseconds which a bulk write should not exceed
+     * @param maxLinger the maximum time in milliseconds to wait for a bulk to become full
+     */
+    public AdaptiveBatcher(final int minBulkSize, final int maxBulkSize, final int initialBulkSize, final long targetLatency, final long maxLinger) {
+        this.minBulkSize = Math.max(1, minBulkSize);
+        this.maxBulkSize = Math.max(this.minBulkSize, maxBulkSize);
+        this.bulkSize = Math.min(this.maxBulkSize, Math.max(this.minBulkSize, initialBulkSize));
+        this.targetLatency = targetLatency;
+        this.maxLinger = maxLinger;
+        this.bulks = new AtomicLong(0);
+        this.entries = new AtomicLong(0);
+        this.latency = new AtomicLong(0);
+        this.grow = new AtomicLong(0);
+        this.shrink = new AtomicLong(0);
+    }
+
+    /**
+     * create a batcher from the indexing.bulk.* configuration settings
+     */
+    public static AdaptiveBatcher fromConfig() {
+        return new AdaptiveBatcher(
+                DAO.getConfig("indexing.bulk.min", 50),
+                DAO.getConfig("indexing.bulk.max", 2000),
+                DAO.getConfig("indexing.bulk.initial", 200),
+                DAO.getConfig("indexing.bulk.target_latency", 1000L),
+                DAO.getConfig("indexing.bulk.max_linger", 500L));
+    }
+
+    public int getBulkSize() {
+        return this.bulkSize;
+    }
+
+    public long getMaxLinger() {
+        return this.maxLinger;
+    }
+
+    /**
+     * @return the time when the bulk which starts now must be flushed
+     */
+    public long deadline() {
+        return System.currentTimeMillis() + this.maxLinger;
+    }
+
+    /**
+     * get the next entry for a bulk
+     * @param queue the source of the entries
+     * @param deadline the flush time of the bulk as given by deadline()
+     * @return the next entry or null if the deadline has passed before an entry was available
+     * @throws InterruptedException
+     */
+    public static <T> T poll(final BlockingQueue<T> queue, final long deadline) throws InterruptedException {
+        T entry = queue.poll();
+        if (entry != null) return entry;
+        long wait = deadline - System.currentTimeMillis();
+        if (wait <= 0) return null;
+        return queue.poll(wait, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * report the result of a bulk write
+     * @param size the number of entries in the bulk
+     * @param duration the time in milliseconds that the bulk write took
+     * @param queueSize the number of entries which are waiting to be written
+     */
+    public void observe(final int size, final long duration, final int queueSize) {
+        this.bulks.incrementAndGet();
+        this.entries.addAndGet(size);
+        this.latency.addAndGet(duration);
+        synchronized (this) {
+            int current = this.bulkSize;
+            if (duration > this.targetLatency) {
+                if (current > this.minBulkSize) {
+                    this.bulkSize = Math.max(this.minBulkSize, current / 2);
+                    this.shrink.incrementAndGet();
+                }
+            } else if (size >= current && queueSize > current && current < this.maxBulkSize) {
+                this.bulkSize = Math.min(this.maxBulkSize, current + Math.max(1, current / 4));
+                this.grow.incrementAndGet();
+            }
+        }
+    }
+
+    public JSONObject getStats() {
+        long b = this.bulks.get();
+        JSONObject json = new JSONObject(true);
+        json.put("bulk_size", this.bulkSize);
+        json.put("bulk_size_min", this.minBulkSize);
+        json.put("bulk_size_max", this.maxBulkSize);
+        json.put("target_latency_ms", this.targetLatency);
+        json.put("max_linger_ms", this.maxLinger);
+        json.put("bulks", b);
+        json.put("avg_bulk_size", b == 0 ? 0 : this.entries.get() / b);
+        json.put("avg_latency_ms", b == 0 ? 0 : this.latency.get() / b);
+        json.put("grow", this.grow.get());
+        json.put("shrink", this.shrink.get());
+        return json;
+    }
+
+}
@@ -29,8 +29,8 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import java.nio.file.Path;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
@@ -43,16 +43,18 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.stream.Collectors;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.cluster.health.ClusterHealthStatus;
 import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.logging.slf4j.Slf4jESLoggerFactory;
@@ -77,6 +79,7 @@ import org.loklak.api.search.TweetScraper;
 import org.loklak.harvester.BaseScraper;
 import org.loklak.http.AccessTracker;
 import org.loklak.http.ClientConnection;
+import org.loklak.http.RateLimiter;
 import org.loklak.http.RemoteAccess;
 import org.loklak.ir.AccountFactory;
 import org.loklak.ir.BulkWriteResult;
@@ -84,6 +87,7 @@ import org.loklak.ir.ElasticsearchClient;
 import org.loklak.ir.ImportProfileFactory;
 import org.loklak.ir.MessageFactory;
 import org.loklak.ir.QueryFactory;
+import org.loklak.ir.TimePartitionedIndex;
 import org.loklak.ir.UserFactory;
 import org.loklak.objects.AbstractObjectEntry;
 import org.loklak.objects.AccountEntry;
@@ -91,6 +95,7 @@ import org.loklak.objects.ImportProfileEntry;
 import org.loklak.objects.Peers;
 import org.loklak.objects.QueryEntry;
 import org.loklak.objects.ResultList;
+import org.loklak.objects.SearchResultCache;
 import org.loklak.objects.SourceType;
 import org.loklak.objects.TwitterTimeline;
 import org.loklak.objects.PostTimeline;
@@ -98,6 +103,7 @@ import org.loklak.objects.TimelineCache;
 import org.loklak.objects.UserEntry;
 import org.loklak.server.*;
 import org.loklak.stream.MQTTPublisher;
+import org.loklak.stream.SubscriptionHub;
 import org.loklak.tools.DateParser;
 import org.loklak.tools.IO;
 import org.loklak.tools.OS;
@@ -155,6 +161,7 @@ public class DAO {
     private static JsonRepository import_profile_dump;
     public  static JsonDataset user_dump, followers_dump, following_dump;
     public  static AccessTracker access;
+    public  static RateLimiter rateLimiter;
     private static File schema_dir, conv_schema_dir;
     public static ElasticsearchClient elasticsearch_client;
     //private static Node elasticsearch_node;
@@ -162,15 +169,16 @@ public class DAO {
     public static UserFactory users;
     private static AccountFactory accounts;
     public static MessageFactory messages;
-    public static MessageFactory messages_hour;
-    public static MessageFactory messages_day;
-    public static MessageFactory messages_week;
+    public static TimePartitionedIndex messages_recent;
     public static QueryFactory queries;
     private static ImportProfileFactory importProfiles;
     private static Map<String, String> config = new HashMap<>();
     public  static GeoNames geoNames = null;
     public static Peers peers = new Peers();
     public static OutgoingMessageBuffer outgoingMessages = new OutgoingMessageBuffer();
+    public static IndexingPipeline indexingPipeline = null;
+    public static ScatterGatherSearch searchScatter = null;
+    public static SearchExecutionService searchExecution = null;
 
     // AAA Schema for server usage
     public static JsonTray authentication;
@@ -181,23 +189,35 @@ public class DAO {
     public static Map<String, Accounting> accounting_temporary = new HashMap<>();
     public static JsonFile login_keys;
     public static TimelineCache timelineCache;
+    public static SearchResultCache searchResultCache;
+    public static SuggestCache suggestCache;
 
     public static MQTTPublisher mqttPublisher = null;
+    public static SubscriptionHub streamHub = null;
     public static boolean streamEnabled = false;
     public static List<String> randomTerms = new ArrayList<>();
 
     public static enum IndexName {
-    	messages_hour("messages.json"), messages_day("messages.json"), messages_week("messages.json"), messages, queries, users, accounts, import_profiles;
+    	messages_recent("messages.json", true), messages, queries, users, accounts, import_profiles;
         private String schemaFileName;
+        private boolean alias;
     	private IndexName() {
     	    schemaFileName = this.name() + ".json";
+    	    alias = false;
     	}
-    	private IndexName(String filename) {
+    	private IndexName(String filename, boolean alias) {
             schemaFileName = filename;
+            this.alias = alias;
         }
     	public String getSchemaFilename() {
     	    return this.schemaFileName;
     	}
+    	/**
+    	 * @return true if this is not an index but an alias over time partitions
+    	 */
+    	public boolean isAlias() {
+    	    return this.alias;
+    	}
     }
 
     /**
@@ -313,19 +333,44 @@ public class DAO {
         // define the index factories
         boolean noio = configMap.containsValue("noio") && configMap.get("noio").equals("true");
         messages = new MessageFactory(noio ? null : elasticsearch_client, IndexName.messages.name(), CACHE_MAXSIZE, EXIST_MAXSIZE);
-        messages_hour = new MessageFactory(noio ? null : elasticsearch_client, IndexName.messages_hour.name(), CACHE_MAXSIZE, EXIST_MAXSIZE);
-        messages_day = new MessageFactory(noio ? null : elasticsearch_client, IndexName.messages_day.name(), CACHE_MAXSIZE, EXIST_MAXSIZE);
-        messages_week = new MessageFactory(noio ? null : elasticsearch_client, IndexName.messages_week.name(), CACHE_MAXSIZE, EXIST_MAXSIZE);
         users = new UserFactory(noio ? null : elasticsearch_client, IndexName.users.name(), CACHE_MAXSIZE, EXIST_MAXSIZE);
         accounts = new AccountFactory(noio ? null : elasticsearch_client, IndexName.accounts.name(), CACHE_MAXSIZE, EXIST_MAXSIZE);
         queries = new QueryFactory(noio ? null : elasticsearch_client, IndexName.queries.name(), CACHE_MAXSIZE, EXIST_MAXSIZE);
+        // the suggest lists are cached and invalidated by the writes to the query index
+        final int suggestTopSize = getConfig("suggest.cache.top_size", 1000);
+        suggestCache = new SuggestCache(getConfig("suggest.cache.size", 1000), getConfig("suggest.cache.ttl", 10000L),
+                suggestTopSize, getConfig("suggest.cache.refresh", 5000L),
+                () -> SearchLocalQueries("", suggestTopSize, "retrieval_next", "long", SortOrder.ASC, null, new Date(), "retrieval_next"));
+        queries.setWriteListener(suggestCache::invalidate);
         importProfiles = new ImportProfileFactory(noio ? null : elasticsearch_client, IndexName.import_profiles.name(), CACHE_MAXSIZE, EXIST_MAXSIZE);
+        // the filter must see all writes to the index, therefore it is not used with a shared external cluster
+        if (!noio && getConfig("index.exist_filter.enabled", true) && !getConfig("elasticsearch_transport.enabled", false)) {
+            messages.openExistFilter(dataPath.resolve("filter").resolve(IndexName.messages.name() + ".bloom").toFile(),
+                    getConfig("index.exist_filter.capacity", 1000000L), getConfig("index.exist_filter.fpr", 0.001d));
+        }
+
+        // the indexing pipeline writes message bulks concurrently into the index factories
+        indexingPipeline = new IndexingPipeline(getConfig("indexing.pipeline.workers", 4), getConfig("indexing.pipeline.queue", 16));
+
+        // all search requests share bounded pools for each search source
+        searchExecution = new SearchExecutionService(getConfig("search.executor.max_requests", 256), getConfig("search.executor.heap_limit", 0.9d));
+        for (SearchExecutionService.Source source: SearchExecutionService.Source.values()) {
+            searchExecution.pool(source,
+                    getConfig("search.executor." + source.name() + ".threads", 32),
+                    getConfig("search.executor." + source.name() + ".queue", 64));
+        }
+
+        // searches over the time partitions query all partition steps at once instead of widening step by step
+        if (getConfig("search.scatter.enabled", true)) {
+            searchScatter = new ScatterGatherSearch(getConfig("search.scatter.threads", 16), getConfig("search.scatter.deadline", 2000L));
+        }
 
         // create indices and set mapping (that shows how 'elastic' elasticsearch is: it's always good to define data types)
         File mappingsDir = new File(new File(conf_dir, "elasticsearch"), "mappings");
         int shards = Integer.parseInt(configMap.get("elasticsearch.index.number_of_shards"));
         int replicas = Integer.parseInt(configMap.get("elasticsearch.index.number_of_replicas"));
         for (IndexName index: IndexName.values()) {
+            if (index.isAlias()) continue;
             log("initializing index '" + index.name() + "'...");
         	try {
         	    elasticsearch_client.createIndexIfNotExists(index.name(), shards, replicas);
@@ -338,6 +383,11 @@ public class DAO {
             	DAO.severe(e);
             }
         }
+
+        // recent messages are stored in daily partitions which can be searched with the messages_recent alias
+        messages_recent = new TimePartitionedIndex(noio ? null : elasticsearch_client, IndexName.messages.name(), IndexName.messages_recent.name(),
+                new File(mappingsDir, IndexName.messages_recent.getSchemaFilename()), shards, replicas, getConfig("index.partitions.retention_days", 7));
+        messages_recent.open(noio ? null : index_dir.resolve(IndexName.messages_recent.name() + ".complete").toFile());
         // elasticsearch will probably take some time until it is started up. We do some other stuff meanwhile..
 
         // create and document the data dump dir
@@ -390,10 +440,23 @@ public class DAO {
         Path log_dump_dir = dataPath.resolve("log");
         log_dump_dir.toFile().mkdirs();
         OS.protectPath(log_dump_dir); // no other permissions to this path
-        access = new AccessTracker(log_dump_dir.toFile(), ACCESS_DUMP_FILE_PREFIX, 60000, 3000);
+        JsonLogWriter accessLog = getConfig("access.log.enabled", true) ? new JsonLogWriter(
+                new File(log_dump_dir.toFile(), "own"), ACCESS_DUMP_FILE_PREFIX,
+                "binary".equals(getConfig("access.log.format", "json")) ? JsonLogWriter.Format.BINARY : JsonLogWriter.Format.JSON,
+                getConfig("access.log.buffer", 65536), getConfig("access.log.rollsize", 64L * 1024L * 1024L),
+                getConfig("access.log.rollinterval", 86400000L), 200) : null;
+        access = new AccessTracker(accessLog, 60000, 3000, getConfig("access.track.sample", 100));
         access.start(); // start monitor
+        // the limits of a servlet path can be set with i.e. DoS.blackout./api/search.json, otherwise the defaults are used
+        rateLimiter = new RateLimiter(path -> new RateLimiter.Limit(
+                getConfig("DoS.blackout." + path, getConfig("DoS.blackout", 100L)),
+                getConfig("DoS.blackout.burst." + path, getConfig("DoS.blackout.burst", 5)),
+                getConfig("DoS.servicereduction." + path, getConfig("DoS.servicereduction", 1000L)),
+                getConfig("DoS.servicereduction.burst." + path, getConfig("DoS.servicereduction.burst", 2))),
+                getConfig("DoS.stripes", 64), getConfig("DoS.clients", 100000), 10000);
 
         timelineCache = new TimelineCache(60000);
+        searchResultCache = new SearchResultCache(getConfig("search.result_cache.size", 1000), getConfig("search.result_cache.ttl", 10000L));
 
         import_profile_dump_dir = dataPath.resolve("import-profiles");
         import_profile_dump = new JsonRepository(import_profile_dump_dir.toFile(), IMPORT_PROFILE_FILE_PREFIX, null, JsonRepository.COMPRESSED_MODE, false, Runtime.getRuntime().availableProcessors());
@@ -413,7 +476,8 @@ public class DAO {
 
         if(cities1000.exists()){
 	        try{
-	        	geoNames = new GeoNames(cities1000, new File(conf_dir, "iso3166.json"), 1);
+	        	geoNames = new GeoNames(cities1000, new File(conf_dir, "iso3166.json"), 1,
+	        	        DAO.getConfig("geo.suggest.persist", true) ? new File(dictionaries, "cities1000.suggest") : null);
 	        }catch(IOException e){
 	        	DAO.severe(e.getMessage());
 	        	cities1000.delete();
@@ -425,7 +489,15 @@ public class DAO {
         String mqttAddress = getConfig("stream.mqtt.address", "tcp://127.0.0.1:1883");
         streamEnabled = getConfig("stream.enabled", false);
         if (streamEnabled) {
+            // an empty broker address means that the stream is only served by this peer
+            if (mqttAddress.length() == 0) mqttAddress = null;
+            boolean hubLocal = mqttAddress == null || getConfig("stream.hub.local", false);
             mqttPublisher = new MQTTPublisher(mqttAddress);
+            streamHub = new SubscriptionHub(hubLocal ? null : mqttAddress,
+                    getConfig("stream.hub.threads", 4),
+                    getConfig("stream.hub.queue", 1000),
+                    getConfig("stream.hub.max_drops", 100));
+            if (hubLocal) mqttPublisher.setHub(streamHub);
         }
 
         // finally wait for healthy status of elasticsearch shards
@@ -575,6 +647,12 @@ public class DAO {
     public static void close() {
         DAO.log("closing DAO");
 
+        // finish pending index writes and dump appends
+        indexingPipeline.close(60000);
+        if (searchScatter != null) searchScatter.close();
+        searchExecution.close();
+        suggestCache.close();
+
         // close the dump files
         message_dump.close();
         account_dump.close();
@@ -586,11 +664,12 @@ public class DAO {
         // close the tracker
         access.close();
 
+        // publish the waiting stream messages
+        if (mqttPublisher != null) mqttPublisher.close(5000);
+        if (streamHub != null) streamHub.close();
+
         // close the index factories (flushes the caches)
         messages.close();
-        messages_hour.close();
-        messages_day.close();
-        messages_week.close();
         users.close();
         accounts.close();
         queries.close();
@@ -701,34 +780,22 @@ public class DAO {
     public static boolean writeMessage(MessageWrapper mw) {
         if (mw.t == null) return false;
         try {
-            synchronized (DAO.class) {
-                // record tweet into search index and check if this is a new entry
-                // and check if the message exists
-                boolean exists = false;
-                if (mw.t.getCreatedAt().after(DateParser.oneHourAgo())) {
-                    exists = messages_hour.writeEntry(new IndexEntry<Post>(mw.t.getPostId(), mw.t.getSourceType(), mw.t));
-                    if (exists) return false;
-                }
-                if (mw.t.getCreatedAt().after(DateParser.oneDayAgo())) {
-                    exists = messages_day.writeEntry(new IndexEntry<Post>(mw.t.getPostId(), mw.t.getSourceType(), mw.t));
-                    if (exists) return false;
-                }
-                if (mw.t.getCreatedAt().after(DateParser.oneWeekAgo())) {
-                    exists = messages_week.writeEntry(new IndexEntry<Post>(mw.t.getPostId(), mw.t.getSourceType(), mw.t));
-                    if (exists) return false;
-                }
-                exists = messages.writeEntry(new IndexEntry<Post>(mw.t.getPostId(), mw.t.getSourceType(), mw.t));
-                if (exists) return false;
-
-                // write the user into the index
-                users.writeEntryAsync(new IndexEntry<UserEntry>(mw.u.getScreenName(), mw.t.getSourceType(), mw.u));
-
-                // record tweet into text file
-                if (mw.dump && writeDump) {
-                    message_dump.write(mw.t.toJSON(mw.u, false, Integer.MAX_VALUE, ""), true);
-                }
-                mw.t.publishToMQTT();
-             }
+            // record tweet into search index and check if this is a new entry
+            // and check if the message exists
+            boolean exists = false;
+            IndexEntry<Post> entry = new IndexEntry<Post>(mw.t.getPostId(), mw.t.getSourceType(), mw.t);
+            exists = messages.writeEntry(entry);
+            if (exists) return false;
+            messages_recent.writeEntries(Arrays.asList(entry));
+
+            // write the user into the index
+            users.writeEntryAsync(new IndexEntry<UserEntry>(mw.u.getScreenName(), mw.t.getSourceType(), mw.u));
+
+            // record tweet into text file
+            if (mw.dump && writeDump) {
+                dumpMessages(Arrays.asList(mw));
+            }
+            mw.t.publishToMQTT();
 
             // teach the classifier
             Classifier.learnPhrase(mw.t.getText());
@@ -738,7 +805,7 @@ public class DAO {
         return true;
     }
 
-    public static Set<String> writeMessageBulk(Collection<MessageWrapper> mws) {
+    public static Set<String> writeMessageBulk(Collection<MessageWrapper> mws) throws IOException {
         List<MessageWrapper> noDump = new ArrayList<>();
         List<MessageWrapper> dump = new ArrayList<>();
         for (MessageWrapper mw: mws) {
@@ -752,7 +819,7 @@ public class DAO {
         return createdIDs;
     }
 
-    public static Set<String> writeMessageBulk(Set<PostTimeline> postBulk) {
+    public static Set<String> writeMessageBulk(Set<PostTimeline> postBulk) throws IOException {
         for (PostTimeline postList: postBulk) {
             if (postList.size() < 1) continue;
             if(postList.dump) {
@@ -764,51 +831,40 @@ public class DAO {
         return new HashSet<>();
     }
 
-    private static Set<String> writeMessageBulkNoDump(PostTimeline postList) {
+    private static Set<String> writeMessageBulkNoDump(PostTimeline postList) throws IOException {
         if (postList.size() == 0) return new HashSet<>();
         List<Post> messageBulk = new ArrayList<>();
-
         for (Post post: postList) {
-            if (messages.existsCache(post.getPostId())) {
-                continue;
-            }
-            synchronized (DAO.class) {
-                messageBulk.add(post);
-            }
+            if (messages.existsCache(post.getPostId())) continue; // we omit writing this again
+            messageBulk.add(post);
         }
-        BulkWriteResult result = null;
+        if (messageBulk.size() == 0) return new HashSet<>();
+
+        // write the messages index and the time partitions concurrently
+        Future<BulkWriteResult> recent = indexingPipeline.index(() -> messages_recent.writePosts(messageBulk));
+        Future<BulkWriteResult> all = indexingPipeline.index(() -> messages.writeEntries(messageBulk));
+        return collectCreated(recent, all);
+    }
+
+    /**
+     * wait for the index writes of a bulk. Both writes run at the same time, so a message which exists in the
+     * partitions is not skipped in the messages index as it was when the indexes were written one after another;
+     * the messages index decides which messages are new.
+     * @param recent the pending result of the write into the partitions of recent messages
+     * @param all the pending result of the write into the messages index
+     * @return the ids of the messages which had been created in the messages index
+     * @throws IOException if one of the writes failed
+     */
+    private static Set<String> collectCreated(Future<BulkWriteResult> recent, Future<BulkWriteResult> all) throws IOException {
         try {
-            Date limitDate = new Date();
-            limitDate.setTime(DateParser.oneHourAgo().getTime());
-            List<Post> macc = new ArrayList<Post>();
-            final Set<String> existed = new HashSet<>();
-            long hourLong = limitDate.getTime();
-            for(Post post : messageBulk) {
-                if(hourLong <= post.getTimestamp()) macc.add(post);
-            }
-            
-            result = messages_hour.writeEntries(macc);
-            for (Post i: macc) if (!(result.getCreated().contains(i.getPostId()))) existed.add(i.getPostId());
-
-            limitDate.setTime(DateParser.oneDayAgo().getTime());
-            macc = messageBulk.stream().filter(i -> !(existed.contains(i.getPostId()))).filter(i -> i.getCreated().after(limitDate)).collect(Collectors.toList());
-            result = messages_day.writeEntries(macc);
-            for (Post i: macc) if (!(result.getCreated().contains(i.getPostId()))) existed.add(i.getPostId());
-
-            limitDate.setTime(DateParser.oneWeekAgo().getTime());
-            macc = messageBulk.stream().filter(i -> !(existed.contains(i.getPostId())))
-                    .filter(i -> i.getCreated().after(limitDate)).collect(Collectors.toList());
-            result = messages_week.writeEntries(macc);
-            for (Post i: macc) if (!(result.getCreated().contains(i.getPostId()))) existed.add(i.getPostId());
-
-            macc = messageBulk.stream().filter(i -> !(existed.contains(i.getPostId()))).collect(Collectors.toList());
-            result = messages.writeEntries(macc);
-            for (Post i: macc) if (!(result.getCreated().contains(i.getPostId()))) existed.add(i.getPostId());
-        } catch (IOException e) {
-        	DAO.severe(e);
+            recent.get();
+            return all.get().getCreated();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while writing a bulk", e);
+        } catch (ExecutionException e) {
+            throw new IOException("writing a bulk failed: " + e.getCause().getMessage(), e.getCause());
         }
-        if (result == null) return new HashSet<String>();
-        return result.getCreated();
     }
 
     /**
@@ -816,115 +872,79 @@ public class DAO {
      * @param mws a collection of message wrappers
      * @return a set of message IDs which had been created with this bulk write.
      */
-    private static Set<String> writeMessageBulkNoDump(Collection<MessageWrapper> mws) {
+    private static Set<String> writeMessageBulkNoDump(Collection<MessageWrapper> mws) throws IOException {
         if (mws.size() == 0) return new HashSet<>();
-        List<IndexEntry<UserEntry>> userBulk = new ArrayList<>();
-        List<IndexEntry<Post>> messageBulk = new ArrayList<>();
+        final List<IndexEntry<UserEntry>> userBulk = new ArrayList<>();
+        final List<IndexEntry<Post>> messageBulk = new ArrayList<>();
         for (MessageWrapper mw: mws) {
             if (messages.existsCache(mw.t.getPostId())) continue; // we omit writing this again
-            synchronized (DAO.class) {
-                // write the user into the index
-                userBulk.add(new IndexEntry<UserEntry>(mw.u.getScreenName(), mw.t.getSourceType(), mw.u));
 
-                // record tweet into search index
-                messageBulk.add(new IndexEntry<Post>(mw.t.getPostId(), mw.t.getSourceType(), mw.t));
-             }
+            // write the user into the index
+            userBulk.add(new IndexEntry<UserEntry>(mw.u.getScreenName(), mw.t.getSourceType(), mw.u));
+
+            // record tweet into search index
+            messageBulk.add(new IndexEntry<Post>(mw.t.getPostId(), mw.t.getSourceType(), mw.t));
 
             // teach the classifier
             Classifier.learnPhrase(mw.t.getText());
         }
-        BulkWriteResult result = null;
-        Set<String> created_ids = new HashSet<>();
-        try {
-            final Date limitDate = new Date();
-            List<IndexEntry<Post>> macc;
-            final Set<String> existed = new HashSet<>();
-
-            //DAO.log("***DEBUG messages     INIT: " + messageBulk.size());
-
-            limitDate.setTime(DateParser.oneHourAgo().getTime());
-            macc = messageBulk.stream().filter(i -> i.getObject().getCreated().after(limitDate)).collect(Collectors.toList());
-            //DAO.log("***DEBUG messages for HOUR: " + macc.size());
-            result = messages_hour.writeEntries(macc);
-            created_ids.addAll(result.getCreated());
-            //DAO.log("***DEBUG messages for HOUR: " + result.getCreated().size() + "  created");
-            for (IndexEntry<Post> i: macc) if (!(result.getCreated().contains(i.getId()))) existed.add(i.getId());
-            //DAO.log("***DEBUG messages for HOUR: " + existed.size() + "  existed");
-
-            limitDate.setTime(DateParser.oneDayAgo().getTime());
-            macc = messageBulk.stream().filter(i -> !(existed.contains(i.getObject().getPostId()))).filter(i -> i.getObject().getCreated().after(limitDate)).collect(Collectors.toList());
-            //DAO.log("***DEBUG messages for  DAY : " + macc.size());
-            result = messages_day.writeEntries(macc);
-            created_ids.addAll(result.getCreated());
-            //DAO.log("***DEBUG messages for  DAY: " + result.getCreated().size() + " created");
-            for (IndexEntry<Post> i: macc) if (!(result.getCreated().contains(i.getId()))) existed.add(i.getId());
-            //DAO.log("***DEBUG messages for  DAY: " + existed.size()  + "  existed");
-
-            limitDate.setTime(DateParser.oneWeekAgo().getTime());
-            macc = messageBulk.stream().filter(i -> !(existed.contains(i.getObject().getPostId()))).filter(i -> i.getObject().getCreated().after(limitDate)).collect(Collectors.toList());
-            //DAO.log("***DEBUG messages for WEEK: " + macc.size());
-            result = messages_week.writeEntries(macc);
-            created_ids.addAll(result.getCreated());
-            //DAO.log("***DEBUG messages for WEEK: " + result.getCreated().size() + "  created");
-            for (IndexEntry<Post> i: macc) if (!(result.getCreated().contains(i.getId()))) existed.add(i.getId());
-            //DAO.log("***DEBUG messages for WEEK: " + existed.size()  + "  existed");
-
-            macc = messageBulk.stream().filter(i -> !(existed.contains(i.getObject().getPostId()))).collect(Collectors.toList());
-            //DAO.log("***DEBUG messages for  ALL : " + macc.size());
-            result = messages.writeEntries(macc);
-            created_ids.addAll(result.getCreated());
-            //DAO.log("***DEBUG messages for  ALL: " + result.getCreated().size() + "  created");
-            for (IndexEntry<Post> i: macc) if (!(result.getCreated().contains(i.getId()))) existed.add(i.getId());
-            //DAO.log("***DEBUG messages for  ALL: " + existed.size()  + "  existed");
-
-            users.writeEntries(userBulk);
+        if (messageBulk.size() == 0) return new HashSet<>();
 
-        } catch (IOException e) {
-        	DAO.severe(e);
-        }
-        return created_ids;
+        // write the messages index and the time partitions concurrently; the users are written in their own stage and we do not wait for that
+        Future<BulkWriteResult> recent = indexingPipeline.index(() -> messages_recent.writeEntries(messageBulk));
+        Future<BulkWriteResult> all = indexingPipeline.index(() -> messages.writeEntries(messageBulk));
+        indexingPipeline.users(() -> users.writeEntries(userBulk));
+        return collectCreated(recent, all);
     }
 
-    private static Set<String> writeMessageBulkDump(Collection<MessageWrapper> mws) {
+    private static Set<String> writeMessageBulkDump(Collection<MessageWrapper> mws) throws IOException {
         Set<String> created = writeMessageBulkNoDump(mws);
 
-        for (MessageWrapper mw: mws) try {
+        List<MessageWrapper> dump = new ArrayList<>(created.size());
+        for (MessageWrapper mw: mws) {
             mw.t.publishToMQTT();
             if (!created.contains(mw.t.getPostId())) continue;
-            synchronized (DAO.class) {
-                
-                // record tweet into text file
-                if (writeDump) {
-                    message_dump.write(mw.t.toJSON(mw.u, false, Integer.MAX_VALUE, ""), true);
-                }
-            }
+            dump.add(mw);
 
             // teach the classifier
             if (randomPicker.nextInt(100) == 0) Classifier.learnPhrase(mw.t.getText());
-        } catch (IOException e) {
-        	DAO.severe(e);
         }
+        if (writeDump) dumpMessages(dump);
 
         return created;
     }
 
-    private static Set<String> writeMessageBulkDump(PostTimeline postList) {
-        Set<String> created = writeMessageBulkNoDump(postList);
+    private static Set<String> writeMessageBulkDump(PostTimeline postList) throws IOException {
+        final Set<String> created = writeMessageBulkNoDump(postList);
+        if (!writeDump || created.size() == 0) return created;
 
-        for (Post post: postList) try {
-            if (!created.contains(post.getPostId())) continue;
-            synchronized (DAO.class) {
-                // record tweet into text file
-                if (writeDump) {
-                    message_dump.write(post, true);
-                }
+        // record posts into text file
+        indexingPipeline.dump(() -> {
+            for (Post post: postList) try {
+                if (created.contains(post.getPostId())) message_dump.write(post, true);
+            } catch (IOException e) {
+                DAO.severe(e);
             }
-        } catch (IOException e) {
-        	DAO.severe(e);
-        }
+        });
         return created;
     }
 
+    /**
+     * append messages to the message dump. This is done in the dump stage of the indexing pipeline
+     * which has a single thread, therefore the dump file is written sequentially without locks.
+     * @param mws the messages to be written
+     */
+    private static void dumpMessages(final Collection<MessageWrapper> mws) {
+        if (mws.size() == 0) return;
+        indexingPipeline.dump(() -> {
+            for (MessageWrapper mw: mws) try {
+                message_dump.write(mw.t.toJSON(mw.u, false, Integer.MAX_VALUE, ""), true);
+            } catch (IOException e) {
+                DAO.severe(e);
+            }
+        });
+    }
+
     /**
      * Store an account together with a user into the search index
      * This method is synchronized to prevent concurrent IO caused by this call.
@@ -966,33 +986,6 @@ public class DAO {
         return true;
     }
 
-    private static long countLocalHourMessages(final long millis, boolean created_at) {
-        if (millis > DateParser.HOUR_MILLIS) return countLocalDayMessages(millis, created_at);
-        if (created_at && millis == DateParser.HOUR_MILLIS) return elasticsearch_client.count(IndexName.messages_hour.name());
-        return elasticsearch_client.count(
-                created_at ? IndexName.messages_hour.name() : IndexName.messages_day.name(),
-                created_at ? AbstractObjectEntry.CREATED_AT_FIELDNAME : AbstractObjectEntry.TIMESTAMP_FIELDNAME,
-                millis);
-    }
-
-    private static long countLocalDayMessages(final long millis, boolean created_at) {
-        if (millis > DateParser.DAY_MILLIS) return countLocalWeekMessages(millis, created_at);
-        if (created_at && millis == DateParser.DAY_MILLIS) return elasticsearch_client.count(IndexName.messages_day.name());
-        return elasticsearch_client.count(
-                created_at ? IndexName.messages_day.name() : IndexName.messages_week.name(),
-                created_at ? AbstractObjectEntry.CREATED_AT_FIELDNAME : AbstractObjectEntry.TIMESTAMP_FIELDNAME,
-                millis);
-    }
-
-    private static long countLocalWeekMessages(final long millis, boolean created_at) {
-        if (millis > DateParser.WEEK_MILLIS) return countLocalMessages(millis, created_at);
-        if (created_at && millis == DateParser.WEEK_MILLIS) return elasticsearch_client.count(IndexName.messages_week.name());
-        return elasticsearch_client.count(
-                created_at ? IndexName.messages_week.name() : IndexName.messages.name(),
-                created_at ? AbstractObjectEntry.CREATED_AT_FIELDNAME : AbstractObjectEntry.TIMESTAMP_FIELDNAME,
-                millis);
-    }
-
     /**
      * count the messages in the local index
      * @param millis number of milliseconds in the past
@@ -1001,10 +994,9 @@ public class DAO {
      */
     public static long countLocalMessages(final long millis, boolean created_at) {
         if (millis == 0) return 0;
-        if (millis > 0) {
-            if (millis <= DateParser.HOUR_MILLIS) return countLocalHourMessages(millis, created_at);
-            if (millis <= DateParser.DAY_MILLIS) return countLocalDayMessages(millis, created_at);
-            if (millis <= DateParser.WEEK_MILLIS) return countLocalWeekMessages(millis, created_at);
+        if (millis > 0 && messages_recent.covers(new Date(System.currentTimeMillis() - millis))) {
+            // the time partitions contain all messages of that time span
+            return messages_recent.count(created_at ? AbstractObjectEntry.CREATED_AT_FIELDNAME : AbstractObjectEntry.TIMESTAMP_FIELDNAME, millis);
         }
         return elasticsearch_client.count(
                 IndexName.messages.name(),
@@ -1033,18 +1025,11 @@ public class DAO {
     }
 
     public static Post readMessage(String id) throws IOException {
-        Post m = null;
-        return messages_hour != null && ((m = messages_hour.read(id)) != null) ? m :
-               messages_day  != null && ((m = messages_day.read(id))  != null) ? m :
-               messages_week != null && ((m = messages_week.read(id)) != null) ? m :
-               messages.read(id);
+        return messages.read(id);
     }
 
     public static boolean existMessage(String id) {
-        return messages_hour != null && messages_hour.exists(id) ||
-               messages_day  != null && messages_day.exists(id)  ||
-               messages_week != null && messages_week.exists(id) ||
-               messages      != null && messages.exists(id);
+        return messages != null && messages.exists(id);
     }
 
     public static boolean existUser(String id) {
@@ -1077,6 +1062,7 @@ public class DAO {
         public PostTimeline postList;
         public Map<String, List<Map.Entry<String, AtomicLong>>> aggregations;
         public ElasticsearchClient.Query query;
+        private double userReadTime = 0.0d, userReadSavedTime = 0.0d; // milliseconds
 
         /**
          * Search the local message cache using a elasticsearch query.
@@ -1100,50 +1086,61 @@ public class DAO {
             this.timeline = new TwitterTimeline(orderField);
             QueryEntry.ElasticsearchQuery sq = new QueryEntry.ElasticsearchQuery(q, timezoneOffset, filterList);
             long interval = sq.until.getTime() - sq.since.getTime();
-            IndexName resultIndex;
-            if (aggregationFields.length > 0 && q.contains("since:")) {
-                if (q.contains("since:hour")) {
-                    this.query =  elasticsearch_client.query((resultIndex = IndexName.messages_hour).name(), sq.queryBuilder, orderField.getMessageFieldName(), timezoneOffset, resultCount, interval, AbstractObjectEntry.CREATED_AT_FIELDNAME, aggregationLimit, aggregationFields);
-                } else if (q.contains("since:day")) {
-                    this.query =  elasticsearch_client.query((resultIndex = IndexName.messages_day).name(), sq.queryBuilder, orderField.getMessageFieldName(), timezoneOffset, resultCount, interval, AbstractObjectEntry.CREATED_AT_FIELDNAME, aggregationLimit, aggregationFields);
-                } else if (q.contains("since:week")) {
-                    this.query =  elasticsearch_client.query((resultIndex = IndexName.messages_week).name(), sq.queryBuilder, orderField.getMessageFieldName(), timezoneOffset, resultCount, interval, AbstractObjectEntry.CREATED_AT_FIELDNAME, aggregationLimit, aggregationFields);
-                } else {
-                    this.query = elasticsearch_client.query((resultIndex = IndexName.messages).name(), sq.queryBuilder, orderField.getMessageFieldName(), timezoneOffset, resultCount, interval, AbstractObjectEntry.CREATED_AT_FIELDNAME, aggregationLimit, aggregationFields);
-                }
-            } else {
-                // use only a time frame that is sufficient for a result
-                this.query = elasticsearch_client.query((resultIndex = IndexName.messages_hour).name(), sq.queryBuilder, orderField.getMessageFieldName(), timezoneOffset, resultCount, interval, AbstractObjectEntry.CREATED_AT_FIELDNAME, aggregationLimit, aggregationFields);
-                if (!q.contains("since:hour") && insufficient(this.query, resultCount, aggregationLimit, aggregationFields)) {
-                    ElasticsearchClient.Query aq = elasticsearch_client.query((resultIndex = IndexName.messages_day).name(), sq.queryBuilder, orderField.getMessageFieldName(), timezoneOffset, resultCount, interval, AbstractObjectEntry.CREATED_AT_FIELDNAME, aggregationLimit, aggregationFields);
-                    this.query.add(aq);
-                    if (!q.contains("since:day") && insufficient(this.query, resultCount, aggregationLimit, aggregationFields)) {
-                        this.query.add(aq);
-                        if (!q.contains("since:week") && insufficient(this.query, resultCount, aggregationLimit, aggregationFields)) {
-                            aq = elasticsearch_client.query((resultIndex = IndexName.messages).name(), sq.queryBuilder, orderField.getMessageFieldName(), timezoneOffset, resultCount, interval, AbstractObjectEntry.CREATED_AT_FIELDNAME, aggregationLimit, aggregationFields);
-                            this.query.add(aq);
-                }}}
-            }
-                
+            // search the time partitions of the query time range or widen the search until the result is sufficient
+            List<String[]> steps = route(sq.since, sq.until, !(aggregationFields.length > 0 && q.contains("since:")));
+            List<Callable<ElasticsearchClient.Query>> searches = new ArrayList<>(steps.size());
+            for (String[] indices: steps) searches.add(() -> elasticsearch_client.query(indices, sq.queryBuilder, orderField.getMessageFieldName(), timezoneOffset, resultCount, interval, AbstractObjectEntry.CREATED_AT_FIELDNAME, aggregationLimit, aggregationFields));
+            ScatterGatherSearch.Result<ElasticsearchClient.Query> result = gather(searches, query -> !insufficient(query, resultCount, aggregationLimit, aggregationFields));
+            this.query = result.value;
+            IndexName resultIndex = indexName(steps.get(result.step));
+
             timeline.setHits(query.getHitCount());
             timeline.setResultIndex(resultIndex);
 
             // evaluate search result
-            for (Map<String, Object> map: query.getResult()) {
-                TwitterTweet tweet = new TwitterTweet(new JSONObject(map));
-                try {
-                    UserEntry user = users.read(tweet.getScreenName());
-                    assert user != null;
-                    if (user != null) {
-                        timeline.add(tweet, user);
-                    }
-                } catch (IOException e) {
-                	DAO.severe(e);
+            List<TwitterTweet> tweets = new ArrayList<>(query.getResult().size());
+            for (Map<String, Object> map: query.getResult()) tweets.add(new TwitterTweet(new JSONObject(map)));
+            Map<String, UserEntry> userMap = readUsers(tweets);
+            for (TwitterTweet tweet: tweets) {
+                UserEntry user = userMap.get(tweet.getScreenName());
+                assert user != null;
+                if (user != null) {
+                    timeline.add(tweet, user);
                 }
             }
             this.aggregations = query.getAggregations();
         }
 
+        /**
+         * read the users of all tweets with one index request instead of one request for each user
+         * which is not in the object cache of the users index
+         */
+        private Map<String, UserEntry> readUsers(final List<TwitterTweet> tweets) {
+            Set<String> screen_names = new LinkedHashSet<>();
+            for (TwitterTweet tweet: tweets) screen_names.add(tweet.getScreenName());
+            int uncached = 0;
+            for (String screen_name: screen_names) if (screen_name != null && !users.cached(screen_name)) uncached++;
+            long start = System.nanoTime();
+            try {
+                Map<String, UserEntry> userMap = users.readBulk(screen_names);
+                this.userReadTime = (System.nanoTime() - start) / 1000000.0d;
+                // the time of the single requests which were needed before, estimated with their average time
+                if (uncached > 0) this.userReadSavedTime = Math.max(0.0d, uncached * users.getAverageGetTime() - this.userReadTime);
+                return userMap;
+            } catch (IOException e) {
+                DAO.severe(e);
+                return new HashMap<>();
+            }
+        }
+
+        /**
+         * record the time to read the users of the result and the estimated time which the bulk read saved
+         */
+        public void recordEvents(final Query post) {
+            post.recordEvent("user_read_time", this.userReadTime);
+            post.recordEvent("user_read_saved_time", this.userReadSavedTime);
+        }
+
         public SearchLocalMessages (
                 final String q,
                 final TwitterTimeline.Order orderField,
@@ -1169,43 +1166,15 @@ public class DAO {
                 final int resultCount
         ) {
             this.postList = new PostTimeline(orderField);
-            IndexName resultIndex;
             QueryEntry.ElasticsearchQuery sq = new QueryEntry.ElasticsearchQuery(
                     inputMap.get("get"), inputMap.get("not_get"), inputMap.get("also_get"));
 
-            this.query = elasticsearch_client.query(
-                    (resultIndex = IndexName.messages_hour).name(),
-                    sq.queryBuilder,
-                    orderField.getMessageFieldName(),
-                    resultCount
-            );
-
-            if (this.query.getHitCount() < resultCount) {
-                this.query =  elasticsearch_client.query(
-                        (resultIndex = IndexName.messages_day).name(),
-                        sq.queryBuilder,
-                        orderField.getMessageFieldName(),
-                        resultCount
-                );
-            }
-
-            if (this.query.getHitCount() < resultCount) {
-                this.query =  elasticsearch_client.query(
-                        (resultIndex = IndexName.messages_week).name(),
-                        sq.queryBuilder,
-                        orderField.getMessageFieldName(),
-                        resultCount
-                );
-            }
-
-            if (this.query.getHitCount() < resultCount) {
-                this.query =  elasticsearch_client.query(
-                        (resultIndex = IndexName.messages).name(),
-                        sq.queryBuilder,
-                        orderField.getMessageFieldName(),
-                        resultCount
-                );
-            }
+            List<String[]> steps = route(sq.since, sq.until, true);
+            List<Callable<ElasticsearchClient.Query>> searches = new ArrayList<>(steps.size());
+            for (String[] indices: steps) searches.add(() -> elasticsearch_client.query(indices, sq.queryBuilder, orderField.getMessageFieldName(), resultCount));
+            ScatterGatherSearch.Result<ElasticsearchClient.Query> result = gather(searches, query -> query.getHitCount() >= resultCount);
+            this.query = result.value;
+            IndexName resultIndex = indexName(steps.get(result.step));
 
             // Feed search results to postList
             this.postList.setResultIndex(resultIndex);
@@ -1221,6 +1190,34 @@ public class DAO {
             }
         }
 
+        /**
+         * compute the indices which are searched for a time range, see TimePartitionedIndex.route
+         */
+        private static List<String[]> route(final Date since, final Date until, final boolean widen) {
+            return messages_recent.route(since, until, widen, IndexName.messages.name());
+        }
+
+        /**
+         * run the search steps of a route. With more than one step and an enabled scatter-gather search
+         * the steps run concurrently, otherwise they run one after another until the result is sufficient.
+         * Each step covers the windows of the narrower steps, so if no step is sufficient the widest available
+         * result is taken: concatenating the results would break the order, the result count and the aggregation limit.
+         */
+        private static ScatterGatherSearch.Result<ElasticsearchClient.Query> gather(
+                final List<Callable<ElasticsearchClient.Query>> searches,
+                final Predicate<ElasticsearchClient.Query> isSufficient
+        ) {
+            ScatterGatherSearch.Result<ElasticsearchClient.Query> result = searchScatter == null || searches.size() <= 1 ?
+                    ScatterGatherSearch.sequential(searches, isSufficient) :
+                    searchScatter.search(searches, isSufficient, (narrow, wide) -> wide);
+            if (result == null) throw new ElasticsearchException("no search step returned a result");
+            return result;
+        }
+
+        private static IndexName indexName(String[] indices) {
+            return indices.length == 1 && indices[0].equals(IndexName.messages.name()) ? IndexName.messages : IndexName.messages_recent;
+        }
+
         private static boolean insufficient(
                 ElasticsearchClient.Query query,
                 int resultCount,
@@ -1452,21 +1449,17 @@ public class DAO {
         PostTimeline dataSet = new PostTimeline(order);
         List<String> scraperList = Arrays.asList(inputMap.get("scraper").trim().split("\\s*,\\s*"));
         List<BaseScraper> scraperObjList = getScraperObjects(scraperList, inputMap);
-        ExecutorService scraperRunner = Executors.newFixedThreadPool(scraperObjList.size());
-
-        try{
-            for (BaseScraper scraper : scraperObjList) {
-                scraperRunner.execute(() -> {
-                    dataSet.add(scraper.getData());
-                    
-                });
-            }
-        } finally {
-            scraperRunner.shutdown();
-            try {
-                scraperRunner.awaitTermination(3000L, TimeUnit.SECONDS);
-            } catch (InterruptedException e) { }
-        }
+        List<Future<?>> scraperTasks = new ArrayList<>(scraperObjList.size());
+        for (BaseScraper scraper : scraperObjList) {
+            Future<?> task = searchExecution.submit(SearchExecutionService.Source.scrapers, () -> {
+                dataSet.add(scraper.getData());
+            });
+            if (task != null) scraperTasks.add(task);
+        }
+        // scrapers which are not finished at the deadline are cancelled and do not contribute to the result
+        long deadline = System.currentTimeMillis() + getConfig("search.executor.scrapers.timeout", 30000L);
+        for (Future<?> task: scraperTasks) SearchExecutionService.await(task, deadline);
+        searchExecution.cancel(scraperTasks.toArray(new Future<?>[scraperTasks.size()]));
         dataSet.collectMetadata(metadata);
         return dataSet.toArray();
     }
@@ -27,21 +27,33 @@ import java.util.HashSet;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.loklak.harvester.TwitterScraper.TwitterTweet;
 import org.loklak.objects.TwitterTimeline;
 import org.loklak.objects.PostTimeline;
 import org.loklak.objects.UserEntry;
+import org.loklak.tools.storage.SpillLog;
 
 public class IncomingMessageBuffer extends Thread {
 
     private final static int MESSAGE_QUEUE_MAXSIZE = 20000;
     private final static int bufferLimit = MESSAGE_QUEUE_MAXSIZE * 3 / 4;
+    private final static long REPLAY_RETRY_DELAY = 60000; // the time after a failed replay until the buffer is replayed again
     private static LinkedBlockingDeque<DAO.MessageWrapper> messageQueue = new LinkedBlockingDeque<DAO.MessageWrapper>(MESSAGE_QUEUE_MAXSIZE);
     private static BlockingQueue<PostTimeline> postQueue = new ArrayBlockingQueue<PostTimeline>(MESSAGE_QUEUE_MAXSIZE);
     private static AtomicInteger queueClients = new AtomicInteger(0);
+    private static AtomicLong failedBulks = new AtomicLong(0);
 
     private boolean shallRun = true, isBusy = false;
+    private volatile long replayPausedUntil = 0;
+    private final AdaptiveBatcher batcher;
 
     public static int getMessageQueueSize() {
         return messageQueue.size();
@@ -55,7 +67,19 @@ public class IncomingMessageBuffer extends Thread {
         return queueClients.get();
     }
 
+    /**
+     * @return the number of bulks which could not be written into the index
+     */
+    public static long getFailedBulks() {
+        return failedBulks.get();
+    }
+
     public IncomingMessageBuffer() {
+        this.batcher = AdaptiveBatcher.fromConfig();
+    }
+
+    public AdaptiveBatcher getBatcher() {
+        return this.batcher;
     }
 
     public TwitterTweet readMessage(String id) {
@@ -88,18 +112,31 @@ public class IncomingMessageBuffer extends Thread {
         loop: while (this.shallRun) try {
             this.isBusy = false;
 
-            if (messageQueue.isEmpty() && postQueue.isEmpty()) {
-                // in case that the queue is empty, try to fill it with previously pushed content
-                //List<Map<String, Object>> shard = this.jsonBufferHandler.getBufferShard();
-                // if the shard has content, turn this into messages again
+            if (postQueue.size() > 0) {
+                this.isBusy = true;
+                indexPosts();
+                this.isBusy = false;
+            }
 
-                // if such content does not exist, simply sleep a while
-                try {Thread.sleep(2000);} catch (InterruptedException e) {}
+            // wait for the first message of the next bulk; this wakes up as soon as a message arrives
+            DAO.MessageWrapper mw;
+            try {
+                mw = messageQueue.poll(this.batcher.getMaxLinger(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue loop;
+            }
+            if (mw == null) {
+                // the queue is idle: use the time to feed spilled messages back into the index
+                DAO.message_dump.syncBuffer();
+                if (DAO.indexingPipeline.getQueueSize() == 0) {
+                    this.isBusy = true;
+                    replaySpill();
+                    this.isBusy = false;
+                }
                 continue loop;
             }
             this.isBusy = true;
-            if (messageQueue.size() > 0) indexTweets();
-            if (postQueue.size() > 0) indexPosts();
+            indexTweets(mw);
             this.isBusy = false;
 
         } catch (Throwable e) {
@@ -110,42 +147,54 @@ public class IncomingMessageBuffer extends Thread {
     }
 
     private void indexPosts() {
-        int maxBulkSize = 1;
+        int maxBulkSize = this.batcher.getBulkSize();
         PostTimeline postListObj = null;
         Set<PostTimeline> bulk = new HashSet<PostTimeline>();
 
-        pollloop: while((postListObj = postQueue.poll()) != null) {
+        // collect timelines until the bulk contains enough posts
+        int postCount = 0;
+        while (postCount < maxBulkSize && (postListObj = postQueue.poll()) != null) {
             bulk.add(postListObj);
-            if (bulk.size() >= maxBulkSize) break pollloop;
+            postCount += postListObj.size();
         }
-        if (bulk.size() >= 0) {
+        if (bulk.size() > 0) {
+            long dumpstart = System.currentTimeMillis();
             dumpPostBulk(bulk);
-            bulk.clear();
+            this.batcher.observe(postCount, System.currentTimeMillis() - dumpstart, postQueue.size());
         }
     }
 
-    private void indexTweets() {
-        DAO.MessageWrapper mw;
-        AtomicInteger newMessageCounter = new AtomicInteger();
-        AtomicInteger doubleMessageCounter = new AtomicInteger();
-        int maxBulkSize = 200;
-        List<DAO.MessageWrapper> bulk = new ArrayList<>();
-        pollloop: while ((mw = messageQueue.poll()) != null) {
+    /**
+     * write a bulk of messages. The bulk is flushed when it reached the current bulk size of the
+     * batcher or when the linger time of the batcher has passed since the first message.
+     * @param first the first message of the bulk
+     * @throws InterruptedException
+     */
+    private void indexTweets(DAO.MessageWrapper first) throws InterruptedException {
+        final AtomicInteger newMessageCounter = new AtomicInteger();
+        final AtomicInteger doubleMessageCounter = new AtomicInteger();
+        final int maxBulkSize = this.batcher.getBulkSize();
+        final long deadline = this.batcher.deadline();
+        final List<DAO.MessageWrapper> bulk = new ArrayList<>();
+        int spillCounter = 0;
+        pollloop: for (
+                DAO.MessageWrapper mw = first;
+                mw != null;
+                mw = bulk.size() < maxBulkSize ? AdaptiveBatcher.poll(messageQueue, deadline) : null) {
             if (DAO.messages.existsCache(mw.t.getPostId())) {
                  doubleMessageCounter.incrementAndGet();
                  continue pollloop;
             }
             newMessageCounter.incrementAndGet();
 
-            // in case that the message queue is too large, dump the queue into a file here
-            // to make room that clients can continue to push without blocking
+            // in case that the message queue is too large, spill the message into the buffer of the dump
+            // to make room that clients can continue to push without blocking; it is indexed later
             if (messageQueue.size() > bufferLimit) {
                 try {
-                    DAO.message_dump.write(mw.t.toJSON(mw.u, false, Integer.MAX_VALUE, ""), false);
-                    DAO.log("writing message directly to dump, messageQueue.size() = " + messageQueue.size() + ", bufferLimit = " + bufferLimit);
+                    DAO.message_dump.buffer(mw.t.toJSON(mw.u, false, Integer.MAX_VALUE, ""));
+                    spillCounter++;
                 } catch (IOException e) {
-                    DAO.severe("writing of dump failed", e);
-                    e.printStackTrace();
+                    DAO.severe("writing of buffer failed", e);
                 }
                 continue pollloop;
             }
@@ -154,28 +203,160 @@ public class IncomingMessageBuffer extends Thread {
 
             mw.t.enrich(); // we enrich here again because the remote peer may have done this with an outdated version or not at all
             bulk.add(mw);
-            if (bulk.size() >= maxBulkSize) break pollloop;
         }
-        if (bulk.size() >= 0) {
-            dumpMessageBulk(bulk, newMessageCounter, doubleMessageCounter);
-            bulk.clear();
+        if (spillCounter > 0) {
+            DAO.log("spilled " + spillCounter + " messages to buffer, messageQueue.size() = " + messageQueue.size() + ", bufferLimit = " + bufferLimit);
         }
+        if (bulk.size() > 0) {
+            // hand the bulk over to the indexing pipeline; several bulks may be written concurrently.
+            // A bulk which cannot be written is spilled into the buffer of the dump and replayed later.
+            try {
+                DAO.indexingPipeline.bulk(() -> {
+                    if (!dumpMessageBulk(bulk, newMessageCounter, doubleMessageCounter)) spill(bulk);
+                });
+            } catch (RejectedExecutionException e) {
+                failedBulks.incrementAndGet();
+                DAO.severe("indexing pipeline rejected a bulk: " + e.getMessage());
+                spill(bulk);
+            }
+        }
+    }
+
+    /**
+     * write the messages of a bulk into the buffer of the message dump
+     */
+    private static void spill(List<DAO.MessageWrapper> bulk) {
+        int spilled = 0;
+        for (DAO.MessageWrapper mw: bulk) try {
+            DAO.message_dump.buffer(mw.t.toJSON(mw.u, false, Integer.MAX_VALUE, ""));
+            spilled++;
+        } catch (IOException e) {
+            DAO.severe("writing of buffer failed", e);
+        }
+        DAO.log("spilled " + spilled + " messages of a failed bulk to buffer");
     }
 
-    private void dumpMessageBulk(List<DAO.MessageWrapper> bulk, AtomicInteger newMessageCounter, AtomicInteger doubleMessageCounter) {
+    /**
+     * take one shard out of the buffer of the message dump and write it in bulks through the indexing pipeline.
+     * The shard is removed from the buffer when all of its bulks are written; if any of them fails, the whole
+     * shard is put back into the buffer and replayed again after REPLAY_RETRY_DELAY.
+     */
+    private void replaySpill() {
+        if (System.currentTimeMillis() < this.replayPausedUntil) return;
+        SpillLog.Segment shard = DAO.message_dump.getBufferShard();
+        if (shard == null) return;
+        JSONArray objects = shard.getObjects();
+        DAO.log("replaying " + objects.length() + " spilled messages, " + DAO.message_dump.getBufferShardCount() + " buffer shards remaining");
+        final int maxBulkSize = this.batcher.getBulkSize();
+        List<List<DAO.MessageWrapper>> bulks = new ArrayList<>();
+        List<Integer> doubles = new ArrayList<>();
+        List<DAO.MessageWrapper> bulk = new ArrayList<>();
+        int d = 0;
+        for (int i = 0; i < objects.length(); i++) {
+            JSONObject json = objects.getJSONObject(i);
+            JSONObject user = (JSONObject) json.remove("user");
+            if (user == null) continue;
+            TwitterTweet t = new TwitterTweet(json);
+            if (DAO.messages.existsCache(t.getPostId())) {
+                d++;
+                continue;
+            }
+            t.enrich();
+            bulk.add(new DAO.MessageWrapper(t, new UserEntry(user), true));
+            if (bulk.size() >= maxBulkSize) {
+                bulks.add(bulk);
+                doubles.add(d);
+                bulk = new ArrayList<>();
+                d = 0;
+            }
+        }
+        if (bulk.size() > 0) {
+            bulks.add(bulk);
+            doubles.add(d);
+        }
+        if (bulks.isEmpty()) {
+            shard.commit();
+            return;
+        }
+        Replay replay = new Replay(shard, bulks.size());
+        for (int i = 0; i < bulks.size(); i++) replayBulk(bulks.get(i), doubles.get(i), replay);
+    }
+
+    /**
+     * the state of a shard which is replayed; the shard is committed or rolled back when its last bulk is done
+     */
+    private class Replay {
+        private final SpillLog.Segment shard;
+        private final AtomicInteger pending;
+        private final AtomicBoolean failed;
+
+        private Replay(final SpillLog.Segment shard, final int bulks) {
+            this.shard = shard;
+            this.pending = new AtomicInteger(bulks);
+            this.failed = new AtomicBoolean(false);
+        }
+
+        private void done(final boolean success) {
+            if (!success) this.failed.set(true);
+            if (this.pending.decrementAndGet() > 0) return;
+            if (this.failed.get()) {
+                replayPausedUntil = System.currentTimeMillis() + REPLAY_RETRY_DELAY;
+                this.shard.rollback();
+            } else {
+                this.shard.commit();
+            }
+        }
+    }
+
+    private void replayBulk(final List<DAO.MessageWrapper> bulk, final int doubles, final Replay replay) {
+        final AtomicInteger doubleMessageCounter = new AtomicInteger(doubles);
+        try {
+            DAO.indexingPipeline.bulk(() -> {
+                boolean success = false;
+                try {
+                    success = dumpMessageBulk(bulk, new AtomicInteger(), doubleMessageCounter);
+                } finally {
+                    replay.done(success);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            failedBulks.incrementAndGet();
+            DAO.severe("indexing pipeline rejected a replayed bulk: " + e.getMessage());
+            replay.done(false);
+        }
+    }
+
+    /**
+     * @return false if the bulk could not be written into the index
+     */
+    private boolean dumpMessageBulk(List<DAO.MessageWrapper> bulk, AtomicInteger newMessageCounter, AtomicInteger doubleMessageCounter) {
         long dumpstart = System.currentTimeMillis();
-        int newWritten = DAO.writeMessageBulk(bulk).size();
+        int newWritten;
+        try {
+            newWritten = DAO.writeMessageBulk(bulk).size();
+        } catch (IOException e) {
+            failedBulks.incrementAndGet();
+            DAO.severe("writing a bulk of " + bulk.size() + " messages failed", e);
+            return false;
+        }
         doubleMessageCounter.addAndGet(bulk.size() - newWritten);
         newMessageCounter.addAndGet(newWritten);
         long dumpfinish = System.currentTimeMillis();
-        DAO.log("dumped timelines: " + newMessageCounter + " new, " + doubleMessageCounter + " known from cache, storage time: " + (dumpfinish - dumpstart) + " ms, remaining messages: " + messageQueue.size());
+        this.batcher.observe(bulk.size(), dumpfinish - dumpstart, messageQueue.size());
+        DAO.log("dumped timelines: " + newMessageCounter + " new, " + doubleMessageCounter + " known from cache, storage time: " + (dumpfinish - dumpstart) + " ms, remaining messages: " + messageQueue.size() + ", pending pipeline tasks: " + DAO.indexingPipeline.getQueueSize());
         newMessageCounter.set(0);
         doubleMessageCounter.set(0);
+        return true;
     }
 
     private void dumpPostBulk(Set<PostTimeline> bulk) {
         //TODO: use this
-        int notWrittenDouble = DAO.writeMessageBulk(bulk).size();
+        try {
+            int notWrittenDouble = DAO.writeMessageBulk(bulk).size();
+        } catch (IOException e) {
+            failedBulks.incrementAndGet();
+            DAO.severe("writing a bulk of " + bulk.size() + " timelines failed", e);
+        }
         DAO.log("dumped timelines: "  + postQueue.size());
     }
 
@@ -0,0 +1,193 @@
+/**
+ *  IndexingPipeline
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.data;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+/**
+ * A multi-stage pipeline for index write operations. Each stage is a bounded thread pool:
+ * - bulk:    takes complete message bulks from the IncomingMessageBuffer; the number of threads
+ *            is the number of bulks which can be in flight at the same time
+ * - index:   writes into the partitions of recent messages and into the messages index in parallel
+ * - users:   writes the user entries of a bulk
+ * - dump:    appends created messages to the message dump; only one thread to keep the dump sequential
+ * If the queue of a stage is full, the submitting thread runs the task itself. That throttles the
+ * producer instead of dropping work. After the pipeline is closed, submitting a task throws a
+ * RejectedExecutionException; a task is never dropped silently with a future that does not complete.
+ */
+public class IndexingPipeline {
+
+    private final Stage bulk, index, users, dump;
+
+    public IndexingPipeline(final int workers, final int queueSize) {
+        int w = Math.max(1, workers);
+        int q = Math.max(1, queueSize);
+        this.bulk = new Stage("bulk", w, q);
+        this.index = new Stage("index", w * 4, q * 4);
+        this.users = new Stage("users", w, q);
+        this.dump = new Stage("dump", 1, q * 4);
+    }
+
+    public Future<?> bulk(final Runnable task) {
+        return this.bulk.submit(Executors.callable(task));
+    }
+
+    public <T> Future<T> index(final Callable<T> task) {
+        return this.index.submit(task);
+    }
+
+    public Future<?> users(final Callable<?> task) {
+        return this.users.submit(task);
+    }
+
+    public Future<?> dump(final Runnable task) {
+        return this.dump.submit(Executors.callable(task));
+    }
+
+    /**
+     * @return the number of tasks which are waiting in any of the stages
+     */
+    public int getQueueSize() {
+        return this.bulk.getQueueSize() + this.index.getQueueSize() + this.users.getQueueSize() + this.dump.getQueueSize();
+    }
+
+    public JSONObject getStats() {
+        JSONObject json = new JSONObject(true);
+        json.put("bulk", this.bulk.getStats());
+        json.put("index", this.index.getStats());
+        json.put("users", this.users.getStats());
+        json.put("dump", this.dump.getStats());
+        return json;
+    }
+
+    /**
+     * finish all pending tasks; the stages are closed in the order of the data flow
+     * @param timeout the maximum time for each stage to finish
+     */
+    public void close(final long timeout) {
+        this.bulk.close(timeout);
+        this.index.close(timeout);
+        this.users.close(timeout);
+        this.dump.close(timeout);
+    }
+
+    public static class Stage {
+
+        private final String name;
+        private final ThreadPoolExecutor executor;
+        private final AtomicLong count, waitTime, runTime, maxTime, failed, rejected;
+
+        public Stage(final String name, final int threads, final int queueSize) {
+            this.name = name;
+            this.count = new AtomicLong(0);
+            this.waitTime = new AtomicLong(0);
+            this.runTime = new AtomicLong(0);
+            this.maxTime = new AtomicLong(0);
+            this.failed = new AtomicLong(0);
+            this.rejected = new AtomicLong(0);
+            final AtomicInteger threadCount = new AtomicInteger(0);
+            ThreadFactory threadFactory = new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "INDEXING-" + name.toUpperCase() + "-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            };
+            this.executor = new ThreadPoolExecutor(
+                    threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize),
+                    threadFactory, (r, executor) -> {
+                        if (executor.isShutdown()) {
+                            this.rejected.incrementAndGet();
+                            throw new RejectedExecutionException("indexing stage " + name + " is closed");
+                        }
+                        // the queue is full: the submitting thread runs the task itself
+                        r.run();
+                    });
+        }
+
+        /**
+         * @throws RejectedExecutionException if the stage is closed
+         */
+        public <T> Future<T> submit(final Callable<T> task) {
+            final long enqueued = System.currentTimeMillis();
+            return this.executor.submit(() -> {
+                long start = System.currentTimeMillis();
+                try {
+                    return task.call();
+                } catch (Throwable e) {
+                    this.failed.incrementAndGet();
+                    DAO.severe("indexing stage " + this.name + " failed", e);
+                    throw e;
+                } finally {
+                    long finish = System.currentTimeMillis();
+                    this.count.incrementAndGet();
+                    this.waitTime.addAndGet(start - enqueued);
+                    this.runTime.addAndGet(finish - start);
+                    long total = finish - enqueued;
+                    long max;
+                    while ((max = this.maxTime.get()) < total && !this.maxTime.compareAndSet(max, total)) {}
+                }
+            });
+        }
+
+        public int getQueueSize() {
+            return this.executor.getQueue().size();
+        }
+
+        public JSONObject getStats() {
+            long c = this.count.get();
+            JSONObject json = new JSONObject(true);
+            json.put("threads", this.executor.getMaximumPoolSize());
+            json.put("active", this.executor.getActiveCount());
+            json.put("queue", getQueueSize());
+            json.put("queue_capacity", getQueueSize() + this.executor.getQueue().remainingCapacity());
+            json.put("count", c);
+            json.put("failed", this.failed.get());
+            json.put("rejected", this.rejected.get());
+            json.put("avg_wait_ms", c == 0 ? 0 : this.waitTime.get() / c);
+            json.put("avg_run_ms", c == 0 ? 0 : this.runTime.get() / c);
+            json.put("max_latency_ms", this.maxTime.get());
+            return json;
+        }
+
+        public void close(final long timeout) {
+            this.executor.shutdown();
+            try {
+                if (!this.executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                    DAO.severe("indexing stage " + this.name + " did not terminate, " + getQueueSize() + " tasks pending");
+                }
+            } catch (InterruptedException e) {}
+        }
+    }
+
+}
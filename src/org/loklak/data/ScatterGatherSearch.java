@@ -0,0 +1,184 @@
+/**
+ *  ScatterGatherSearch
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.data;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BinaryOperator;
+import java.util.function.Predicate;
+
+import org.json.JSONObject;
+
+/**
+ * Speculative scatter-gather execution of search steps. A search over time windows has steps from a
+ * narrow window to a wide window; the sequential way is to search the next window only if the result
+ * of the previous one was insufficient, which costs one round trip per step on a miss.
+ * Here all steps are started at the same time:
+ * - the first result which is sufficient is the result; all steps which are still running are cancelled
+ * - if no step is sufficient, all results which are available at the deadline are merged
+ * - if no step has finished at the deadline, the first one that finishes is taken
+ * If the pool is full, the steps run in the calling thread, which is the sequential way again.
+ */
+public class ScatterGatherSearch {
+
+    private final ThreadPoolExecutor executor;
+    private final long deadline;
+    private final AtomicLong count, sufficient, merged, deadlineExceeded, cancelled, failed;
+
+    /**
+     * @param threads the maximum number of steps which run at the same time
+     * @param deadline the time in milliseconds after which available results are taken
+     */
+    public ScatterGatherSearch(final int threads, final long deadline) {
+        this.deadline = deadline;
+        this.count = new AtomicLong(0);
+        this.sufficient = new AtomicLong(0);
+        this.merged = new AtomicLong(0);
+        this.deadlineExceeded = new AtomicLong(0);
+        this.cancelled = new AtomicLong(0);
+        this.failed = new AtomicLong(0);
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SEARCH-SCATTER-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        int t = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(
+                t, t, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(t * 4),
+                threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * run all steps concurrently and gather the result
+     * @param steps the search steps, ordered from the narrowest to the widest
+     * @param isSufficient true if a result does not need any other step
+     * @param merge combines two results, the first argument is the result of the narrower step
+     * @return the result and the number of the widest step which contributed to it
+     */
+    public <T> Result<T> search(final List<Callable<T>> steps, final Predicate<T> isSufficient, final BinaryOperator<T> merge) {
+        this.count.incrementAndGet();
+        ExecutorCompletionService<T> completion = new ExecutorCompletionService<>(this.executor);
+        Map<Future<T>, Integer> running = new HashMap<>();
+        for (int i = 0; i < steps.size(); i++) running.put(completion.submit(steps.get(i)), i);
+        TreeMap<Integer, T> results = new TreeMap<>(); // step number -> result
+        long timeout = System.currentTimeMillis() + this.deadline;
+        try {
+            while (running.size() > 0) {
+                long remaining = timeout - System.currentTimeMillis();
+                Future<T> f = remaining > 0 ? completion.poll(remaining, TimeUnit.MILLISECONDS) : results.size() == 0 ? completion.take() : null;
+                if (f == null) {
+                    this.deadlineExceeded.incrementAndGet();
+                    break;
+                }
+                int step = running.remove(f);
+                T result;
+                try {
+                    result = f.get();
+                } catch (ExecutionException e) {
+                    this.failed.incrementAndGet();
+                    DAO.severe("search step " + step + " failed", e.getCause());
+                    continue;
+                }
+                if (result == null) continue;
+                if (isSufficient.test(result)) {
+                    this.sufficient.incrementAndGet();
+                    return new Result<>(result, step);
+                }
+                results.put(step, result);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<T> f: running.keySet()) if (f.cancel(true)) this.cancelled.incrementAndGet();
+        }
+        if (results.size() == 0) return null;
+        this.merged.incrementAndGet();
+        T result = null;
+        for (T r: results.values()) result = result == null ? r : merge.apply(result, r);
+        return new Result<>(result, results.lastKey());
+    }
+
+    public static class Result<T> {
+        public final T value;
+        public final int step;
+        public Result(final T value, final int step) {
+            this.value = value;
+            this.step = step;
+        }
+    }
+
+    /**
+     * run the steps one after another until a result is sufficient. This is the way to go for a single step.
+     * If no step is sufficient, the result of the widest step is taken.
+     */
+    public static <T> Result<T> sequential(final List<Callable<T>> steps, final Predicate<T> isSufficient) {
+        Result<T> last = null;
+        for (int i = 0; i < steps.size(); i++) {
+            T result;
+            try {
+                result = steps.get(i).call();
+            } catch (Exception e) {
+                DAO.severe("search step " + i + " failed", e);
+                continue;
+            }
+            if (result == null) continue;
+            last = new Result<>(result, i);
+            if (isSufficient.test(result)) break;
+        }
+        return last;
+    }
+
+    public JSONObject getStats() {
+        JSONObject json = new JSONObject(true);
+        json.put("threads", this.executor.getMaximumPoolSize());
+        json.put("active", this.executor.getActiveCount());
+        json.put("deadline_ms", this.deadline);
+        json.put("count", this.count.get());
+        json.put("sufficient", this.sufficient.get());
+        json.put("merged", this.merged.get());
+        json.put("deadline_exceeded", this.deadlineExceeded.get());
+        json.put("cancelled", this.cancelled.get());
+        json.put("failed", this.failed.get());
+        return json;
+    }
+
+    public void close() {
+        this.executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,260 @@
+/**
+ *  SearchExecutionService
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.data;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+/**
+ * The shared execution service of search requests. Each search source has its own bounded pool,
+ * so a slow source cannot take the threads of the other sources and a traffic spike does not create
+ * more threads than configured. If the queue of a pool is full, the task is rejected and the search
+ * goes on without that source.
+ * Requests must be admitted before they start any work: a request is shed if too many requests are
+ * in flight or if the free heap is below a limit, before the load would turn into memory pressure.
+ * The heap usage is the usage of the old generation after its last collection: the current usage includes
+ * garbage which is not collected yet and would shed requests while there is plenty of memory.
+ */
+public class SearchExecutionService {
+
+    public enum Source {
+        twitter,  // the twitter scraper
+        cache,    // the local search index
+        backend,  // the search on the backend peers
+        scrapers; // the scrapers of the scraper= parameter
+    }
+
+    private final static MemoryPoolMXBean oldGen = oldGen();
+
+    private final Map<Source, Pool> pools;
+    private final int maxRequests;
+    private final double heapLimit;
+    private final AtomicInteger inFlight;
+    private final AtomicLong admitted, shedRequests, shedHeap;
+
+    /**
+     * @param maxRequests the maximum number of search requests at the same time
+     * @param heapLimit the maximum fraction of the heap which may be used when a request is admitted
+     */
+    public SearchExecutionService(final int maxRequests, final double heapLimit) {
+        this.pools = new EnumMap<>(Source.class);
+        this.maxRequests = maxRequests;
+        this.heapLimit = heapLimit;
+        this.inFlight = new AtomicInteger(0);
+        this.admitted = new AtomicLong(0);
+        this.shedRequests = new AtomicLong(0);
+        this.shedHeap = new AtomicLong(0);
+    }
+
+    /**
+     * define the pool of a source; sources without a pool are rejected
+     */
+    public SearchExecutionService pool(final Source source, final int threads, final int queueSize) {
+        this.pools.put(source, new Pool(source, threads, queueSize));
+        return this;
+    }
+
+    /**
+     * admit a request. Each admitted request must call release() when it is finished.
+     * @return true if the request can be processed, false if it must be rejected
+     */
+    public boolean admit() {
+        if (this.inFlight.incrementAndGet() > this.maxRequests) {
+            this.inFlight.decrementAndGet();
+            this.shedRequests.incrementAndGet();
+            return false;
+        }
+        if (heapUsage() > this.heapLimit) {
+            this.inFlight.decrementAndGet();
+            this.shedHeap.incrementAndGet();
+            return false;
+        }
+        this.admitted.incrementAndGet();
+        return true;
+    }
+
+    public void release() {
+        this.inFlight.decrementAndGet();
+    }
+
+    /**
+     * find the memory pool of the old generation: the pool which is named like that or the largest collected heap pool
+     */
+    private static MemoryPoolMXBean oldGen() {
+        MemoryPoolMXBean old = null;
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported()) continue;
+            String name = pool.getName();
+            if (name.contains("Old") || name.contains("Tenured")) return pool;
+            if (old == null || pool.getUsage().getMax() > old.getUsage().getMax()) old = pool;
+        }
+        return old;
+    }
+
+    /**
+     * @return the fraction of the old generation which was used after its last collection, 0 if this is unknown
+     */
+    private static double heapUsage() {
+        if (oldGen == null) return 0.0d;
+        MemoryUsage usage = oldGen.getCollectionUsage();
+        if (usage == null) return 0.0d;
+        long max = usage.getMax() > 0 ? usage.getMax() : Runtime.getRuntime().maxMemory();
+        return ((double) usage.getUsed()) / max;
+    }
+
+    /**
+     * submit a task to the pool of a source
+     * @return the future of the task or null if the pool rejected the task
+     */
+    public Future<?> submit(final Source source, final Runnable task) {
+        Pool pool = this.pools.get(source);
+        if (pool == null) return null;
+        return pool.submit(task);
+    }
+
+    /**
+     * wait for a task until the deadline
+     * @param task the future of a task, may be null
+     * @param deadline the time in milliseconds since epoch when waiting ends
+     * @return true if the task is done
+     */
+    public static boolean await(final Future<?> task, final long deadline) {
+        if (task == null) return true;
+        try {
+            task.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | CancellationException e) {
+            // the task logs its own failure
+        }
+        return true;
+    }
+
+    /**
+     * cancel all tasks which are not done. This is done when the deadline of a request is reached,
+     * so the work is not done for a response that has been written already.
+     * @return the number of cancelled tasks
+     */
+    public int cancel(final Future<?>... tasks) {
+        int c = 0;
+        for (Future<?> task: tasks) {
+            if (task != null && !task.isDone() && task.cancel(true)) c++;
+        }
+        return c;
+    }
+
+    public JSONObject getStats() {
+        JSONObject json = new JSONObject(true);
+        json.put("in_flight", this.inFlight.get());
+        json.put("max_requests", this.maxRequests);
+        json.put("admitted", this.admitted.get());
+        json.put("shed_requests", this.shedRequests.get());
+        json.put("shed_heap", this.shedHeap.get());
+        json.put("heap_usage", heapUsage());
+        JSONObject pools = new JSONObject(true);
+        for (Pool pool: this.pools.values()) pools.put(pool.source.name(), pool.getStats());
+        json.put("pools", pools);
+        return json;
+    }
+
+    public void close() {
+        for (Pool pool: this.pools.values()) pool.executor.shutdownNow();
+    }
+
+    private static class Pool {
+
+        private final Source source;
+        private final ThreadPoolExecutor executor;
+        private final AtomicLong count, rejected, failed;
+
+        public Pool(final Source source, final int threads, final int queueSize) {
+            this.source = source;
+            this.count = new AtomicLong(0);
+            this.rejected = new AtomicLong(0);
+            this.failed = new AtomicLong(0);
+            final AtomicInteger threadCount = new AtomicInteger(0);
+            ThreadFactory threadFactory = new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "SEARCH-" + source.name().toUpperCase() + "-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            };
+            int t = Math.max(1, threads);
+            this.executor = new ThreadPoolExecutor(
+                    t, t, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+                    threadFactory, new ThreadPoolExecutor.AbortPolicy());
+            this.executor.allowCoreThreadTimeOut(true);
+        }
+
+        public Future<?> submit(final Runnable task) {
+            try {
+                return this.executor.submit(() -> {
+                    try {
+                        task.run();
+                    } catch (Throwable e) {
+                        this.failed.incrementAndGet();
+                        DAO.severe("search on " + this.source.name() + " failed", e);
+                    } finally {
+                        this.count.incrementAndGet();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                this.rejected.incrementAndGet();
+                return null;
+            }
+        }
+
+        public JSONObject getStats() {
+            JSONObject json = new JSONObject(true);
+            json.put("threads", this.executor.getMaximumPoolSize());
+            json.put("active", this.executor.getActiveCount());
+            json.put("queue", this.executor.getQueue().size());
+            json.put("queue_capacity", this.executor.getQueue().size() + this.executor.getQueue().remainingCapacity());
+            json.put("count", this.count.get());
+            json.put("rejected", this.rejected.get());
+            json.put("failed", this.failed.get());
+            return json;
+        }
+    }
+
+}
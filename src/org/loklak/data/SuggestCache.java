@@ -0,0 +1,238 @@
+/**
+ *  SuggestCache
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.data;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.json.JSONObject;
+import org.loklak.objects.QueryEntry;
+import org.loklak.objects.ResultList;
+import org.loklak.tools.ConcurrentCacheMap;
+
+/**
+ * A cache for the query lists of the suggest api.
+ * - lists are cached per query, order, count and time range for a ttl
+ * - writes and deletions of query entries invalidate only the lists which may contain the written query:
+ *   lists of queries which are a part of the written query, lists which contain the written query and
+ *   lists of the empty query
+ * - the list of queries which are due for retrieval (empty query, ordered by retrieval_next, until now),
+ *   which the harvesters poll all the time, is not computed per request: a top-N list is refreshed
+ *   in the background while it is requested and the requests take their prefix of that list
+ */
+public class SuggestCache {
+
+    private final long ttl;
+    private final int topSize;
+    private final ConcurrentCacheMap<String, Entry> cache;
+    private final Map<String, Set<String>> keysByQuery;  // the query of a list -> keys of all lists with that query
+    private final Map<String, Set<String>> keysByResult; // a query in a list -> keys of all lists which contain it
+    private final Set<Integer> queryLengths;             // the lengths of the queries in keysByQuery
+    private final Supplier<ResultList<QueryEntry>> dueSupplier;
+    private final ScheduledExecutorService refresher;
+    private final AtomicBoolean dueRequested;
+    private volatile ResultList<QueryEntry> due;
+    private final AtomicLong hit, miss, invalidated, dueHit, dueRefresh;
+
+    private static class Entry {
+        private final long created;
+        private final ResultList<QueryEntry> list;
+        private Entry(final ResultList<QueryEntry> list) {
+            this.created = System.currentTimeMillis();
+            this.list = list;
+        }
+    }
+
+    /**
+     * @param maxSize the maximum number of cached lists
+     * @param ttl the time in milliseconds after which a list is computed again
+     * @param topSize the size of the list of due queries
+     * @param refreshInterval the time in milliseconds between two refreshes of the list of due queries
+     * @param dueSupplier computes the list of due queries, ordered by retrieval_next
+     */
+    public SuggestCache(final int maxSize, final long ttl, final int topSize, final long refreshInterval, final Supplier<ResultList<QueryEntry>> dueSupplier) {
+        this.ttl = ttl;
+        this.topSize = topSize;
+        this.cache = new ConcurrentCacheMap<>(maxSize);
+        this.keysByQuery = new ConcurrentHashMap<>();
+        this.keysByResult = new ConcurrentHashMap<>();
+        this.queryLengths = new ConcurrentSkipListSet<>();
+        this.dueSupplier = dueSupplier;
+        this.dueRequested = new AtomicBoolean(false);
+        this.due = null;
+        this.hit = new AtomicLong(0);
+        this.miss = new AtomicLong(0);
+        this.invalidated = new AtomicLong(0);
+        this.dueHit = new AtomicLong(0);
+        this.dueRefresh = new AtomicLong(0);
+        this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "SUGGEST-CACHE-REFRESH");
+            t.setDaemon(true);
+            return t;
+        });
+        this.refresher.scheduleWithFixedDelay(() -> {
+            // refresh only if the list was requested since the last refresh, idle peers do not query the index
+            if (this.dueRequested.compareAndSet(true, false)) try {
+                refreshDue();
+            } catch (Throwable e) {
+                DAO.severe("cannot refresh the list of due queries", e);
+            }
+        }, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * compute the key of a list; since and until are the request parameters, not the dates, so that "now" is one key
+     */
+    public static String key(String q, String orderby, String order, int count, String since, String until, String selectby) {
+        return q.toLowerCase() + "|" + orderby + "|" + order + "|" + count + "|" + since + "|" + until + "|" + selectby;
+    }
+
+    /**
+     * get a query list from the cache or compute it
+     * @param reduced true if the service is reduced; then an expired list is returned as well, as long as it was not invalidated
+     * @return a copy of the list which may be modified by the caller
+     */
+    public ResultList<QueryEntry> get(final String q, final String key, final boolean reduced, final Supplier<ResultList<QueryEntry>> compute) {
+        Entry entry = this.cache.get(key);
+        if (entry != null && (reduced || entry.created + this.ttl >= System.currentTimeMillis())) {
+            this.hit.incrementAndGet();
+            return copy(entry.list);
+        }
+        this.miss.incrementAndGet();
+        ResultList<QueryEntry> list = compute.get();
+        put(q.toLowerCase(), key, copy(list));
+        return list;
+    }
+
+    private void put(final String q, final String key, final ResultList<QueryEntry> list) {
+        this.cache.put(key, new Entry(list));
+        this.keysByQuery.computeIfAbsent(q, k -> ConcurrentHashMap.newKeySet()).add(key);
+        this.queryLengths.add(q.length());
+        for (QueryEntry qe: list) this.keysByResult.computeIfAbsent(qe.getQuery().toLowerCase(), k -> ConcurrentHashMap.newKeySet()).add(key);
+        // the index holds keys of evicted lists as well; it is dropped as a whole when it grows too large
+        if (this.keysByResult.size() > this.cache.size() * 100 + 10000) {
+            this.keysByResult.clear();
+            this.keysByQuery.clear();
+            this.queryLengths.clear();
+            this.cache.clear();
+        }
+    }
+
+    /**
+     * get the list of queries which are due for retrieval, ordered by retrieval_next
+     * @param count the maximum number of queries
+     * @return null if count is larger than the top-N list, then the list must be computed by the caller
+     */
+    public ResultList<QueryEntry> due(final int count) {
+        if (count > this.topSize) return null;
+        this.dueRequested.set(true);
+        ResultList<QueryEntry> d = this.due;
+        if (d == null) d = refreshDue(); else this.dueHit.incrementAndGet();
+        // entries of the list may have been retrieved since the last refresh; those are removed from the list by invalidate
+        long now = System.currentTimeMillis();
+        ResultList<QueryEntry> list = new ResultList<>();
+        for (QueryEntry qe: d) {
+            if (list.size() >= count) break;
+            if (qe.getRetrievalNext() != null && qe.getRetrievalNext().getTime() > now) continue;
+            list.add(qe);
+        }
+        list.setHits(d.getHits());
+        return list;
+    }
+
+    private synchronized ResultList<QueryEntry> refreshDue() {
+        ResultList<QueryEntry> d = this.dueSupplier.get();
+        this.due = d;
+        this.dueRefresh.incrementAndGet();
+        return d;
+    }
+
+    /**
+     * invalidate all lists which may change because a query entry was written or deleted
+     * @param query the query of the written entry
+     */
+    public void invalidate(final String query) {
+        String s = query.toLowerCase();
+        Set<String> keys = this.keysByResult.remove(s);
+        if (keys != null) for (String key: keys) remove(key);
+        // the lists of parts of the query are found by looking up the substrings of the query which have the
+        // length of a cached query; this does not depend on the number of cached lists
+        for (int length: this.queryLengths) {
+            if (length > s.length()) break;
+            for (int i = 0; i + length <= s.length(); i++) {
+                keys = this.keysByQuery.get(s.substring(i, i + length));
+                if (keys != null) for (String key: keys) remove(key);
+            }
+        }
+        // the top-N list is not computed again but the written query is removed; its retrieval_next has changed
+        ResultList<QueryEntry> d = this.due;
+        if (d != null) {
+            for (QueryEntry qe: d) {
+                if (qe.getQuery().toLowerCase().equals(s)) {
+                    ResultList<QueryEntry> n = new ResultList<>();
+                    for (QueryEntry other: d) if (other != qe) n.add(other);
+                    n.setHits(Math.max(0, d.getHits() - 1));
+                    this.due = n;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * remove the list of a key from the cache
+     */
+    public void remove(final String key) {
+        if (this.cache.remove(key) != null) this.invalidated.incrementAndGet();
+    }
+
+    private static ResultList<QueryEntry> copy(final ResultList<QueryEntry> list) {
+        ResultList<QueryEntry> c = new ResultList<>();
+        c.addAll(list);
+        c.setHits(list.getHits());
+        return c;
+    }
+
+    public JSONObject getStats() {
+        JSONObject json = new JSONObject(true);
+        json.put("size", this.cache.size());
+        json.put("ttl", this.ttl);
+        json.put("hit", this.hit.get());
+        json.put("miss", this.miss.get());
+        json.put("invalidated", this.invalidated.get());
+        ResultList<QueryEntry> d = this.due;
+        json.put("due_size", d == null ? 0 : d.size());
+        json.put("due_hit", this.dueHit.get());
+        json.put("due_refresh", this.dueRefresh.get());
+        return json;
+    }
+
+    public void close() {
+        this.refresher.shutdownNow();
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ *  GeoIndex
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.geo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A read-only spatial index of locations, built once from a collection of locations.
+ * - nearest neighbour queries use a k-d tree over the positions on the unit sphere. The straight distance
+ *   of two points on the sphere grows with their great-circle distance, so the nearest point in the tree
+ *   is also the nearest location on the earth surface, without special cases at the date line or the poles.
+ * - bounding box queries use a grid of cells of one degree; the locations of each cell are ordered by
+ *   population, the largest first, so the largest location in a box is found without visiting all locations.
+ */
+public class GeoIndex {
+
+    private final static int GRID_LAT = 180, GRID_LON = 360; // one cell per degree
+
+    // the k-d tree, stored in an array: the node of a range is in the middle of the range,
+    // the left half is the subtree of the smaller, the right half the subtree of the larger positions.
+    // The split dimension alternates with the depth.
+    private final GeoLocation[] tree;
+    private final double[] xyz; // the position of each node on the unit sphere, three values per node
+
+    // the grid: the locations of cell c are cellLocations[cellStart[c] .. cellStart[c + 1] - 1]
+    private final int[] cellStart;
+    private final GeoLocation[] cellLocations;
+
+    public GeoIndex(final Collection<GeoLocation> locations) {
+        GeoLocation[] a = locations.toArray(new GeoLocation[locations.size()]);
+        double[][] p = new double[a.length][];
+        for (int i = 0; i < a.length; i++) p[i] = position(a[i].lat(), a[i].lon());
+        Integer[] order = new Integer[a.length];
+        for (int i = 0; i < a.length; i++) order[i] = i;
+        build(p, order, 0, a.length, 0);
+        this.tree = new GeoLocation[a.length];
+        this.xyz = new double[a.length * 3];
+        for (int i = 0; i < a.length; i++) {
+            this.tree[i] = a[order[i]];
+            System.arraycopy(p[order[i]], 0, this.xyz, i * 3, 3);
+        }
+
+        // the grid
+        this.cellStart = new int[GRID_LAT * GRID_LON + 1];
+        for (GeoLocation g: a) this.cellStart[cell(g.lat(), g.lon()) + 1]++;
+        for (int c = 0; c < GRID_LAT * GRID_LON; c++) this.cellStart[c + 1] += this.cellStart[c];
+        this.cellLocations = new GeoLocation[a.length];
+        int[] fill = Arrays.copyOf(this.cellStart, GRID_LAT * GRID_LON);
+        for (GeoLocation g: a) this.cellLocations[fill[cell(g.lat(), g.lon())]++] = g;
+        Comparator<GeoLocation> largestFirst = (g1, g2) -> Long.compare(g2.getPopulation(), g1.getPopulation());
+        for (int c = 0; c < GRID_LAT * GRID_LON; c++) {
+            if (this.cellStart[c + 1] - this.cellStart[c] > 1) Arrays.sort(this.cellLocations, this.cellStart[c], this.cellStart[c + 1], largestFirst);
+        }
+    }
+
+    private static double[] position(final double lat, final double lon) {
+        double la = Math.toRadians(lat), lo = Math.toRadians(lon);
+        double c = Math.cos(la);
+        return new double[]{c * Math.cos(lo), c * Math.sin(lo), Math.sin(la)};
+    }
+
+    /**
+     * order a range of positions so the median is in the middle, the smaller positions left and the larger right;
+     * then the same for both halves with the next dimension
+     */
+    private static void build(final double[][] p, final Integer[] order, final int from, final int to, final int depth) {
+        if (to - from <= 1) return;
+        final int dim = depth % 3;
+        Arrays.sort(order, from, to, (i, j) -> Double.compare(p[i][dim], p[j][dim]));
+        int mid = (from + to) >>> 1;
+        build(p, order, from, mid, depth + 1);
+        build(p, order, mid + 1, to, depth + 1);
+    }
+
+    /**
+     * find the location which is closest to the given coordinates
+     * @return the location or null if the index is empty
+     */
+    public GeoLocation nearest(final double lat, final double lon) {
+        if (this.tree.length == 0) return null;
+        Nearest best = new Nearest();
+        nearest(position(lat, lon), 0, this.tree.length, 0, best);
+        return best.location;
+    }
+
+    private static class Nearest {
+        private GeoLocation location = null;
+        private double d2 = Double.MAX_VALUE;
+    }
+
+    private void nearest(final double[] q, final int from, final int to, final int depth, final Nearest best) {
+        if (from >= to) return;
+        int mid = (from + to) >>> 1, o = mid * 3;
+        double dx = q[0] - this.xyz[o], dy = q[1] - this.xyz[o + 1], dz = q[2] - this.xyz[o + 2];
+        double d2 = dx * dx + dy * dy + dz * dz;
+        if (d2 < best.d2) {
+            best.d2 = d2;
+            best.location = this.tree[mid];
+        }
+        int dim = depth % 3;
+        double diff = q[dim] - this.xyz[o + dim];
+        // search the side of the query first; the other side only if it can contain a closer position
+        if (diff < 0) {
+            nearest(q, from, mid, depth + 1, best);
+            if (diff * diff < best.d2) nearest(q, mid + 1, to, depth + 1, best);
+        } else {
+            nearest(q, mid + 1, to, depth + 1, best);
+            if (diff * diff < best.d2) nearest(q, from, mid, depth + 1, best);
+        }
+    }
+
+    private static int latCell(final double lat) {
+        return Math.max(0, Math.min(GRID_LAT - 1, (int) Math.floor(lat + 90.0d)));
+    }
+
+    private static int lonCell(final double lon) {
+        return Math.max(0, Math.min(GRID_LON - 1, (int) Math.floor(lon + 180.0d)));
+    }
+
+    private static int cell(final double lat, final double lon) {
+        return latCell(lat) * GRID_LON + lonCell(lon);
+    }
+
+    private static boolean inside(final GeoLocation g, final double lon_west, final double lat_south, final double lon_east, final double lat_north) {
+        double lat = g.lat(), lon = g.lon();
+        return lat >= lat_south && lat <= lat_north && lon >= lon_west && lon <= lon_east;
+    }
+
+    /**
+     * find all locations within a bounding box; the border is included
+     * @return the locations, ordered by grid cell and within a cell by population, the largest first
+     */
+    public List<GeoLocation> inBox(final double lon_west, final double lat_south, final double lon_east, final double lat_north) {
+        List<GeoLocation> l = new ArrayList<>();
+        if (lat_south > lat_north || lon_west > lon_east) return l;
+        for (int la = latCell(lat_south); la <= latCell(lat_north); la++) {
+            for (int lo = lonCell(lon_west); lo <= lonCell(lon_east); lo++) {
+                int c = la * GRID_LON + lo;
+                for (int i = this.cellStart[c]; i < this.cellStart[c + 1]; i++) {
+                    GeoLocation g = this.cellLocations[i];
+                    if (inside(g, lon_west, lat_south, lon_east, lat_north)) l.add(g);
+                }
+            }
+        }
+        return l;
+    }
+
+    /**
+     * find the location with the largest population within a bounding box
+     * @return the location or null if there is no location in the box
+     */
+    public GeoLocation largest(final double lon_west, final double lat_south, final double lon_east, final double lat_north) {
+        GeoLocation largest = null;
+        if (lat_south > lat_north || lon_west > lon_east) return null;
+        for (int la = latCell(lat_south); la <= latCell(lat_north); la++) {
+            for (int lo = lonCell(lon_west); lo <= lonCell(lon_east); lo++) {
+                int c = la * GRID_LON + lo;
+                for (int i = this.cellStart[c]; i < this.cellStart[c + 1]; i++) {
+                    GeoLocation g = this.cellLocations[i];
+                    if (largest != null && g.getPopulation() <= largest.getPopulation()) break; // the rest of the cell is smaller
+                    if (inside(g, lon_west, lat_south, lon_east, lat_north)) {
+                        largest = g;
+                        break; // the first location inside the box is the largest of this cell
+                    }
+                }
+            }
+        }
+        return largest;
+    }
+
+    public int size() {
+        return this.cellLocations.length;
+    }
+
+}
@@ -55,6 +55,8 @@ public class GeoNames {
     private final HashMap<Integer, List<Integer>> hash2ids;
     private final Set<Integer> stopwordHashes;
     private final Map<String, double[]> countryCenter; // mapping from the  ISO-3166 country code to [longitude, latitude], the country central
+    private final GeoIndex spatialIndex; // nearest-neighbour and bounding box search over all locations
+    private final GeoSuggestIndex suggestIndex; // autocomplete over all location names
     private Map<String, String> iso3166toCountry;
 
     public static class CountryBounds {
@@ -83,6 +85,15 @@ public class GeoNames {
     }
 
     public GeoNames(final File cities1000_zip, final File iso3166json, long minPopulation) throws IOException{
+        this(cities1000_zip, iso3166json, minPopulation, null);
+    }
+
+    /**
+     * @param suggestIndexFile a file where the index for suggest() is stored, or null if it shall not be stored.
+     *   If the file exists and belongs to the cities1000_zip, the index is loaded from the file, otherwise it is built
+     *   from the location names and written to the file.
+     */
+    public GeoNames(final File cities1000_zip, final File iso3166json, long minPopulation, final File suggestIndexFile) throws IOException{
 
         // load iso3166 info
         this.iso3166toCountry = new HashMap<>();
@@ -202,6 +213,10 @@ public class GeoNames {
             }
         } catch (final IOException e ) {}
 
+        // index the locations by their position and by their names
+        this.spatialIndex = new GeoIndex(this.id2loc.values());
+        this.suggestIndex = suggestIndex(cities1000_zip, suggestIndexFile);
+
         // calculate the center of the countries
         for (Map.Entry<String, CountryBounds> country: countryBounds.entrySet()) {
             this.countryCenter.put(country.getKey(), new double[]{(country.getValue().lon_west - country.getValue().lon_east) / 2.0, (country.getValue().lat_north - country.getValue().lat_south) / 2.0}); // [longitude, latitude]
@@ -290,14 +305,9 @@ public class GeoNames {
         if (lon < -180.0d || lon > 180.0d) {
             return null;
         }
-        double mind = 40000000.0d;
-        GeoLocation ming = null;
-        for (GeoLocation g: id2loc.values()) {
-            double d = IntegerGeoPoint.distance(lat, lon, g.lat(), g.lon());
-            if (d < mind) {
-                mind = d;
-                ming = g;
-            }
+        GeoLocation ming = this.spatialIndex.nearest(lat, lon);
+        if (ming == null) {
+            return null;
         }
         return new GeoMark(ming, lat, lon);
     }
@@ -315,37 +325,14 @@ public class GeoNames {
         if (lon_east < -180.0d || lon_east > 180.0d) {
             return null;
         }
-        List<GeoLocation> l = new ArrayList<>();
-        for (GeoLocation g: id2loc.values()) {
-            if (g.lat() < lat_south) {
-                continue;
-            }
-            if (g.lat() > lat_north) {
-                continue;
-            }
-            if (g.lon() < lon_west) {
-                continue;
-            }
-            if (g.lon() > lon_east) {
-                continue;
-            }
-            l.add(g);
-        }
-        return l;
+        return this.spatialIndex.inBox(lon_west, lat_south, lon_east, lat_north);
     }
 
     public GeoLocation getLargestCity(double lon_west, double lat_south, double lon_east, double lat_north) {
         assert lon_west < lon_east;
         assert lat_north > lat_south;
         // find largest city around to compute a 'near:' operator for twitter
-        List<GeoLocation> cities = citiesInBB(lon_west, lat_south, lon_east, lat_north);
-        GeoLocation largestCity = null;
-        for (GeoLocation city: cities) {
-            if (largestCity == null || city.getPopulation() > largestCity.getPopulation()) {
-                largestCity = city;
-            }
-        }
-        return largestCity;
+        return this.spatialIndex.largest(lon_west, lat_south, lon_east, lat_north);
     }
 
     /**
@@ -573,58 +560,41 @@ public class GeoNames {
         return a;
     }
 
-    public LinkedHashSet<String> suggest(String q, int count, int distance) {
-        TreeMap<Long, String> a = new TreeMap<>();
-        String ql = normalize(q);
-        boolean exact = false;
-        String exactTerm = null;
-        seekloop: for (GeoLocation g: id2loc.values()) {
-            termloop: for (String n: g.getNames()) {
-                if (n.length() > 3 && n.length() < ql.length() * 4) {
-                    String nn = normalize(n);
-                    if (!exact && nn.equals(ql)) {
-                        exact = true;
-                        exactTerm = n;
-                        continue seekloop;
-                    }
-                    // starts-with:
-                    if (nn.startsWith(ql)) {
-                        a.put(g.getPopulation() + a.size(), n);
-                        if (a.size() > count * 2) break seekloop;
-                    }
-                    // distance
-                    
-                    if (nn.length() == ql.length()) {
-                        int errorcount = 0;
-                        for (int i = 0; i < nn.length(); i++) {
-                            if (nn.charAt(i) != ql.charAt(i)) {
-                                errorcount ++;
-                                if (errorcount > distance) {
-                                    continue termloop;
-                                }
-                            }
-                        }
-                        a.put(g.getPopulation() + a.size(), n);
-                        if (a.size() > count * 2) {
-                            break seekloop;
-                        }
-                    }
+    private GeoSuggestIndex suggestIndex(final File source, final File indexFile) {
+        long start = System.currentTimeMillis();
+        if (indexFile != null && indexFile.exists()) {
+            try {
+                GeoSuggestIndex index = GeoSuggestIndex.read(indexFile, source, this.id2loc);
+                if (index != null) {
+                    DAO.log("loaded suggest index with " + index.size() + " names in " + (System.currentTimeMillis() - start) + " ms");
+                    return index;
                 }
+            } catch (IOException e) {
+                DAO.severe(e);
             }
         }
-        // order by population
-        LinkedHashSet<String> list = new LinkedHashSet<>();
-        int i = 0;
-        if (exact) {
-            list.add(exactTerm);
-        }
-        for (Long p: a.descendingKeySet()) {
-            list.add(a.get(p));
-            if (i >= list.size()) {
-                break;
+        GeoSuggestIndex index = new GeoSuggestIndex(this.id2loc);
+        DAO.log("computed suggest index with " + index.size() + " names in " + (System.currentTimeMillis() - start) + " ms");
+        if (indexFile != null) {
+            try {
+                index.write(indexFile, source, this.id2loc.size());
+            } catch (IOException e) {
+                DAO.severe("cannot write suggest index " + indexFile, e);
             }
         }
-        return list;
+        return index;
+    }
+
+    /**
+     * suggest location names for a query: the exact match first, then names which start with the query or which
+     * have an edit distance of at most the given distance, ordered by population.
+     * @param q the query
+     * @param count the maximum number of suggestions
+     * @param distance the maximum edit distance, 0 for prefix matches only
+     * @return the location names
+     */
+    public LinkedHashSet<String> suggest(String q, int count, int distance) {
+        return this.suggestIndex.suggest(q, count, distance);
     }
     
     public static String normalize(final String text) {
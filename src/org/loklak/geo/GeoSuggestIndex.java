@@ -0,0 +1,379 @@
+/**
+ *  GeoSuggestIndex
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.geo;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * An autocomplete index over the normalized names of locations.
+ * The names are stored sorted in one char array; a sorted array is a trie where each node is a range
+ * of names with a common prefix:
+ * - a prefix query is a binary search for the range of the prefix. The names of the range are returned
+ *   by population, the largest first, with a segment tree which holds the largest name of each part
+ *   of the array, so only the returned names are visited.
+ * - a fuzzy query walks the trie depth-first and computes one row of the Levenshtein matrix per trie node.
+ *   A branch is left as soon as all values of the row exceed the distance, so only names within the
+ *   distance and their prefixes are visited.
+ * The index can be written to a file and loaded together with the locations it was built from.
+ */
+public class GeoSuggestIndex {
+
+    private final static int FILE_MAGIC = 0x6c6b4773; // "lkGs"
+    private final static int FILE_VERSION = 1;
+    private final static int MIN_MAXLENGTH = 16;      // the length limit of suggested names for short queries
+    private final static int CANDIDATES_PER_RESULT = 64; // the number of candidates which are checked for each result
+
+    private final char[] chars; // all normalized names in sorted order
+    private final int[] start; // name i is chars[start[i] .. start[i + 1] - 1]
+    private final int[] geonameid; // the id of the location of each name
+    private final short[] nameNumber; // the position of the original name in the names of the location
+    private final GeoLocation[] location; // the location of each name
+    private final int size; // the number of leaves of the segment tree, a power of two
+    private final int[] largest; // segment tree: node k covers the leaves of 2k and 2k+1; leaves are at size + i
+
+    private static class Entry implements Comparable<Entry> {
+        private final String name;
+        private final int geonameid;
+        private final short nameNumber;
+        private Entry(String name, int geonameid, short nameNumber) {
+            this.name = name;
+            this.geonameid = geonameid;
+            this.nameNumber = nameNumber;
+        }
+        @Override
+        public int compareTo(Entry o) {
+            return this.name.compareTo(o.name);
+        }
+    }
+
+    /**
+     * build the index from all names with more than three characters
+     * @param id2loc a mapping from the geonames id to the location
+     */
+    public GeoSuggestIndex(final Map<Integer, GeoLocation> id2loc) {
+        List<Entry> entries = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        int length = 0;
+        for (Map.Entry<Integer, GeoLocation> loc: id2loc.entrySet()) {
+            seen.clear();
+            short n = 0;
+            for (String name: loc.getValue().getNames()) {
+                if (name.length() > 3 && n < Short.MAX_VALUE) {
+                    String normalized = GeoNames.normalize(name);
+                    if (normalized.length() > 0 && seen.add(normalized)) {
+                        entries.add(new Entry(normalized, loc.getKey(), n));
+                        length += normalized.length();
+                    }
+                }
+                n++;
+            }
+        }
+        Entry[] a = entries.toArray(new Entry[entries.size()]);
+        entries = null;
+        Arrays.sort(a);
+        this.chars = new char[length];
+        this.start = new int[a.length + 1];
+        this.geonameid = new int[a.length];
+        this.nameNumber = new short[a.length];
+        int p = 0;
+        for (int i = 0; i < a.length; i++) {
+            this.start[i] = p;
+            a[i].name.getChars(0, a[i].name.length(), this.chars, p);
+            p += a[i].name.length();
+            this.geonameid[i] = a[i].geonameid;
+            this.nameNumber[i] = a[i].nameNumber;
+        }
+        this.start[a.length] = p;
+        this.location = locations(this.geonameid, id2loc);
+        this.size = leaves(a.length);
+        this.largest = segmentTree();
+    }
+
+    private GeoSuggestIndex(final char[] chars, final int[] start, final int[] geonameid, final short[] nameNumber, final GeoLocation[] location) {
+        this.chars = chars;
+        this.start = start;
+        this.geonameid = geonameid;
+        this.nameNumber = nameNumber;
+        this.location = location;
+        this.size = leaves(geonameid.length);
+        this.largest = segmentTree();
+    }
+
+    private static GeoLocation[] locations(final int[] geonameid, final Map<Integer, GeoLocation> id2loc) {
+        GeoLocation[] location = new GeoLocation[geonameid.length];
+        for (int i = 0; i < geonameid.length; i++) location[i] = id2loc.get(geonameid[i]);
+        return location;
+    }
+
+    private static int leaves(final int count) {
+        int size = 1;
+        while (size < count) size <<= 1;
+        return size;
+    }
+
+    private int[] segmentTree() {
+        int[] tree = new int[this.size * 2];
+        Arrays.fill(tree, -1);
+        for (int i = 0; i < this.location.length; i++) tree[this.size + i] = i;
+        for (int k = this.size - 1; k > 0; k--) tree[k] = larger(tree[2 * k], tree[2 * k + 1]);
+        return tree;
+    }
+
+    private long population(final int i) {
+        return i < 0 ? -1 : this.location[i].getPopulation();
+    }
+
+    private int larger(final int i, final int j) {
+        return population(j) > population(i) ? j : i;
+    }
+
+    public int size() {
+        return this.location.length;
+    }
+
+    private int length(final int i) {
+        return this.start[i + 1] - this.start[i];
+    }
+
+    /**
+     * the original name of an entry
+     */
+    private String name(final int i) {
+        Iterable<String> names = this.location[i].getNames();
+        if (names instanceof List) return ((List<String>) names).get(this.nameNumber[i]);
+        Iterator<String> n = names.iterator();
+        for (int j = 0; j < this.nameNumber[i]; j++) n.next();
+        return n.next();
+    }
+
+    /**
+     * compare the first characters of a name with a prefix
+     * @return a negative number if the name is smaller, 0 if the name starts with the prefix, a positive number otherwise
+     */
+    private int comparePrefix(final int i, final String prefix) {
+        int s = this.start[i], l = length(i);
+        for (int j = 0; j < prefix.length(); j++) {
+            if (j == l) return -1;
+            int d = this.chars[s + j] - prefix.charAt(j);
+            if (d != 0) return d;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the first name which is not smaller than the prefix, and the first name after that which does not start with the prefix
+     */
+    private int[] prefixRange(final String prefix) {
+        int lo = 0, hi = this.location.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comparePrefix(mid, prefix) < 0) lo = mid + 1; else hi = mid;
+        }
+        int from = lo;
+        hi = this.location.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comparePrefix(mid, prefix) <= 0) lo = mid + 1; else hi = mid;
+        }
+        return new int[]{from, lo};
+    }
+
+    /**
+     * enumerate the names of a range by population, the largest first
+     */
+    private class LargestFirst {
+        private final PriorityQueue<Integer> nodes = new PriorityQueue<>((k1, k2) -> Long.compare(population(GeoSuggestIndex.this.largest[k2]), population(GeoSuggestIndex.this.largest[k1])));
+        private LargestFirst(int from, int to) {
+            // the nodes which cover the range
+            for (from += GeoSuggestIndex.this.size, to += GeoSuggestIndex.this.size; from < to; from >>= 1, to >>= 1) {
+                if ((from & 1) == 1) this.nodes.add(from++);
+                if ((to & 1) == 1) this.nodes.add(--to);
+            }
+        }
+        private int next() {
+            while (!this.nodes.isEmpty()) {
+                int k = this.nodes.poll();
+                if (k >= GeoSuggestIndex.this.size) return GeoSuggestIndex.this.largest[k];
+                if (GeoSuggestIndex.this.largest[2 * k] >= 0) this.nodes.add(2 * k);
+                if (GeoSuggestIndex.this.largest[2 * k + 1] >= 0) this.nodes.add(2 * k + 1);
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * find all names within an edit distance of the query
+     * @return the names
+     */
+    private List<Integer> fuzzy(final String q, final int distance) {
+        List<Integer> matches = new ArrayList<>();
+        int[] row = new int[q.length() + 1];
+        for (int j = 0; j < row.length; j++) row[j] = j;
+        fuzzy(q, distance, 0, this.location.length, 0, row, matches);
+        return matches;
+    }
+
+    private void fuzzy(final String q, final int distance, int lo, final int hi, final int depth, final int[] row, final List<Integer> matches) {
+        // names which end here
+        while (lo < hi && length(lo) == depth) {
+            if (row[q.length()] <= distance) matches.add(lo);
+            lo++;
+        }
+        // the children of this trie node: the groups of names with the same next character
+        while (lo < hi) {
+            char c = this.chars[this.start[lo] + depth];
+            int end = lo + 1, h = hi;
+            while (end < h) {
+                int mid = (end + h) >>> 1;
+                if (this.chars[this.start[mid] + depth] == c) end = mid + 1; else h = mid;
+            }
+            int[] next = new int[row.length];
+            next[0] = row[0] + 1;
+            int min = next[0];
+            for (int j = 1; j < row.length; j++) {
+                next[j] = Math.min(Math.min(next[j - 1] + 1, row[j] + 1), row[j - 1] + (q.charAt(j - 1) == c ? 0 : 1));
+                min = Math.min(min, next[j]);
+            }
+            if (min <= distance) fuzzy(q, distance, lo, end, depth + 1, next, matches);
+            lo = end;
+        }
+    }
+
+    /**
+     * suggest location names for a query. If a name is equal to the query, it is the first suggestion.
+     * The other suggestions are names which start with the query or have an edit distance of at most the given
+     * distance to the query, ordered by the population of the location, the largest first.
+     * Names which are four times longer than the query and longer than MIN_MAXLENGTH are not suggested;
+     * at most CANDIDATES_PER_RESULT candidates are checked for each suggestion, so short queries with a large
+     * prefix range do not walk through the whole range.
+     * @param q the query, it is normalized like the names
+     * @param count the maximum number of suggestions
+     * @param distance the maximum edit distance for fuzzy suggestions, 0 for exact and prefix matches only
+     * @return the original names of the suggested locations
+     */
+    public LinkedHashSet<String> suggest(final String q, final int count, final int distance) {
+        LinkedHashSet<String> list = new LinkedHashSet<>();
+        String ql = GeoNames.normalize(q);
+        int maxlength = Math.max(ql.length() * 4, MIN_MAXLENGTH);
+        long candidates = (long) count * CANDIDATES_PER_RESULT;
+        int[] range = prefixRange(ql);
+
+        // the exact match of the largest location
+        int exact = -1;
+        for (int i = range[0]; i < range[1] && length(i) == ql.length(); i++) exact = larger(exact, i);
+        if (exact >= 0) list.add(name(exact));
+
+        // merge the prefix matches and the fuzzy matches by population
+        LargestFirst prefix = new LargestFirst(range[0], range[1]);
+        List<Integer> fuzzy = distance > 0 ? fuzzy(ql, distance) : new ArrayList<Integer>(0);
+        fuzzy.sort((i, j) -> Long.compare(population(j), population(i)));
+        int p = prefix.next(), f = 0;
+        while (list.size() < count && candidates-- > 0 && (p >= 0 || f < fuzzy.size())) {
+            int i;
+            if (p >= 0 && (f >= fuzzy.size() || population(p) >= population(fuzzy.get(f)))) {
+                i = p;
+                p = prefix.next();
+            } else {
+                i = fuzzy.get(f++);
+            }
+            String name = name(i);
+            if (name.length() < maxlength) list.add(name);
+        }
+        return list;
+    }
+
+    /**
+     * write the index to a file
+     * @param file the target file
+     * @param source the file which the locations are read from; the index is only valid for this file
+     * @param locations the number of locations which were read from the source
+     */
+    public void write(final File file, final File source, final int locations) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        try {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeLong(source.length());
+            out.writeLong(source.lastModified());
+            out.writeInt(locations);
+            out.writeInt(this.geonameid.length);
+            out.writeInt(this.chars.length);
+            for (char c: this.chars) out.writeChar(c);
+            for (int s: this.start) out.writeInt(s);
+            for (int id: this.geonameid) out.writeInt(id);
+            for (short n: this.nameNumber) out.writeShort(n);
+        } finally {
+            out.close();
+        }
+        if (file.exists()) file.delete();
+        if (!tmp.renameTo(file)) throw new IOException("cannot rename " + tmp + " to " + file);
+    }
+
+    /**
+     * read an index from a file
+     * @param file the index file
+     * @param source the file which the locations are read from
+     * @param id2loc the locations
+     * @return the index or null if the file does not belong to the source file or to the locations
+     * @throws IOException
+     */
+    public static GeoSuggestIndex read(final File file, final File source, final Map<Integer, GeoLocation> id2loc) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            ByteBuffer b = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (b.getInt() != FILE_MAGIC || b.getInt() != FILE_VERSION) return null;
+            if (b.getLong() != source.length() || b.getLong() != source.lastModified() || b.getInt() != id2loc.size()) return null;
+            int count = b.getInt();
+            char[] chars = new char[b.getInt()];
+            int[] start = new int[count + 1];
+            int[] geonameid = new int[count];
+            short[] nameNumber = new short[count];
+            b.asCharBuffer().get(chars);
+            b.position(b.position() + chars.length * 2);
+            b.asIntBuffer().get(start);
+            b.position(b.position() + start.length * 4);
+            b.asIntBuffer().get(geonameid);
+            b.position(b.position() + geonameid.length * 4);
+            b.asShortBuffer().get(nameNumber);
+            GeoLocation[] location = locations(geonameid, id2loc);
+            for (GeoLocation loc: location) if (loc == null) return null;
+            return new GeoSuggestIndex(chars, start, geonameid, nameNumber, location);
+        } catch (RuntimeException e) {
+            throw new IOException("broken suggest index " + file, e);
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ *  IncrementalHarvester
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.harvester;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+import org.loklak.data.DAO;
+import org.loklak.data.IndexEntry;
+import org.loklak.objects.QueryEntry;
+import org.loklak.objects.SourceType;
+import org.loklak.objects.TwitterTimeline;
+import org.loklak.objects.BasicTimeline.Order;
+
+/**
+ * Re-harvesting of queries which are due for retrieval. Each query entry stores the id of the newest
+ * tweet that was seen; the next retrieval requests only tweets which are newer than that id and
+ * tweets which are in the exist cache of the message index are skipped before they are enriched.
+ * The retrieval interval is computed from the number of new tweets since the last retrieval.
+ * A retrieval without new tweets does not delete the query, it only moves the next retrieval into the future.
+ */
+public class IncrementalHarvester {
+
+    private final static AtomicLong harvested = new AtomicLong(0), items = new AtomicLong(0), known = new AtomicLong(0), empty = new AtomicLong(0);
+
+    /**
+     * harvest the tweets of a query entry which are newer than the last retrieval and write the updated entry
+     * @param qe the query entry, it is updated with the new retrieval time and since_id
+     * @return the new tweets which were not known before
+     */
+    public static TwitterTimeline harvest(final QueryEntry qe) {
+        final String q = qe.getQuery();
+        final String sinceId = qe.getSinceId();
+        TwitterScraper.Increment increment = new TwitterScraper.Increment(sinceId);
+        TwitterTimeline tl = TwitterScraper.search(q, new HashSet<>(), Order.CREATED_AT, true, true, 400, increment);
+        if (tl == null) tl = new TwitterTimeline(Order.CREATED_AT);
+
+        // the first retrieval has no since_id, then the period is computed from the time span of the result
+        if (sinceId == null) qe.update(increment.period(), false); else qe.updateIncremental(increment.getItems(), false);
+        qe.setSinceId(increment.getNewestId());
+        try {
+            DAO.queries.writeEntryAsync(new IndexEntry<QueryEntry>(q, qe.getSourceType() == null ? SourceType.TWITTER : qe.getSourceType(), qe));
+        } catch (IOException e) {
+            DAO.severe(e);
+        }
+
+        harvested.incrementAndGet();
+        items.addAndGet(increment.getItems());
+        known.addAndGet(increment.getKnown());
+        if (increment.getItems() == 0) empty.incrementAndGet();
+        return tl;
+    }
+
+    public static JSONObject getStats() {
+        JSONObject json = new JSONObject(true);
+        json.put("harvested", harvested.get());
+        json.put("items", items.get());
+        json.put("known", known.get());
+        json.put("empty", empty.get());
+        return json;
+    }
+}
@@ -162,8 +162,8 @@ public class Post extends JSONObject implements ObjectEntry {
      */
     public final void publishToMQTT() {
         if (DAO.mqttPublisher != null) {
-            // Will be null if stream is disabled
-            DAO.mqttPublisher.publish(this.getStreamChannels(), this.toString());
+            // Will be null if stream is disabled; the channels and the message are only computed if the publisher accepts the message
+            DAO.mqttPublisher.publish(this::getStreamChannels, this::toString);
         }
     }
 
@@ -0,0 +1,498 @@
+/**
+ *  TwitterItemExtractor
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.harvester;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.Tag;
+import org.jsoup.select.Elements;
+
+/**
+ * Extraction of the tweets from the items_html of a twitter search result page.
+ * The streaming extractor tokenizes the html once and fills the fields of all items in that single
+ * pass; it does not build a document tree and does not search the subtree of an item for each class.
+ * The values are the same as those of the jsoup extractor, which is kept as a fallback:
+ * - attributes are taken from the first element of an item which has the class and the attribute
+ * - the counts are taken from the first child with the count attribute of the first action element
+ * - the text is the normalized text of all tweet-text elements, like Elements.text() of jsoup
+ */
+public class TwitterItemExtractor {
+
+    private static final String CLASS_ITEM = "stream-item";
+    private static final String CLASS_PROFILE = "js-profile-popup-actionable";
+    private static final String CLASS_AVATAR = "js-action-profile-avatar";
+    private static final String CLASS_TIMESTAMP = "_timestamp";
+    private static final String CLASS_TEXT = "tweet-text";
+    private static final String CLASS_REPLY = "ProfileTweet-action--reply";
+    private static final String CLASS_RETWEET = "ProfileTweet-action--retweet";
+    private static final String CLASS_FAVORITE = "ProfileTweet-action--favorite";
+    private static final String CLASS_STATUS = "tweet-timestamp";
+    private static final String ATTR_COUNT = "data-tweet-stat-count";
+
+    // the attributes which are read; the values of all other attributes are not decoded
+    private static final Set<String> ATTRIBUTES = new HashSet<>(Arrays.asList(
+            "class", "data-tweet-id", "data-conversation-id", "data-mentions", "data-user-id", "data-screen-name",
+            "data-name", "src", "data-time-ms", ATTR_COUNT, "href"));
+
+    private static final int ROLE_ITEM = 1, ROLE_TEXT = 2, ROLE_REPLY = 4, ROLE_RETWEET = 8, ROLE_FAVORITE = 16;
+
+    /**
+     * the raw values of a tweet item; missing values are empty strings
+     */
+    public static class Item {
+        public String tweetID = "", conversationID = "", mentions = "";
+        public String userID = "", screenName = "", userName = "", avatarURL = "";
+        public String timeMillis = "", text = "", statusURL = "";
+        public String replyCount = "", retweetCount = "", favouriteCount = "";
+
+        @Override
+        public String toString() {
+            return "tweetID=" + this.tweetID + ", conversationID=" + this.conversationID + ", mentions=" + this.mentions +
+                    ", userID=" + this.userID + ", screenName=" + this.screenName + ", userName=" + this.userName +
+                    ", avatarURL=" + this.avatarURL + ", timeMillis=" + this.timeMillis + ", statusURL=" + this.statusURL +
+                    ", replyCount=" + this.replyCount + ", retweetCount=" + this.retweetCount + ", favouriteCount=" + this.favouriteCount +
+                    ", text=" + this.text;
+        }
+    }
+
+    /**
+     * extract the items with jsoup; this is the fallback of the streaming extractor
+     */
+    public static List<Item> extract(final Document doc) {
+        List<Item> list = new ArrayList<>();
+        Elements items = doc.getElementsByClass(CLASS_ITEM);
+        for (int itemc = 0; itemc < items.size(); itemc++) {
+            Element item = items.get(itemc);
+            Item i = new Item();
+            if (item.children().size() > 0) {
+                Element tweeti = item.child(0);
+                i.tweetID = tweeti.attr("data-tweet-id");
+                i.conversationID = tweeti.attr("data-conversation-id");
+                i.mentions = tweeti.attr("data-mentions");
+            }
+            Elements profile = item.getElementsByClass(CLASS_PROFILE);
+            i.userID = profile.attr("data-user-id");
+            i.screenName = profile.attr("data-screen-name");
+            i.userName = profile.attr("data-name");
+            i.avatarURL = item.getElementsByClass(CLASS_AVATAR).attr("src");
+            i.timeMillis = item.getElementsByClass(CLASS_TIMESTAMP).attr("data-time-ms");
+            i.text = item.getElementsByClass(CLASS_TEXT).text();
+            i.replyCount = count(item, CLASS_REPLY);
+            i.retweetCount = count(item, CLASS_RETWEET);
+            i.favouriteCount = count(item, CLASS_FAVORITE);
+            i.statusURL = item.getElementsByClass(CLASS_STATUS).attr("href");
+            list.add(i);
+        }
+        return list;
+    }
+
+    private static String count(final Element item, final String actionClass) {
+        Elements action = item.getElementsByClass(actionClass);
+        return action.size() == 0 ? "" : action.get(0).children().attr(ATTR_COUNT);
+    }
+
+    /**
+     * extract the items in one pass over the html
+     */
+    public static List<Item> extract(final String html) {
+        return new Tokenizer(html).run();
+    }
+
+    private static class Frame {
+        private final String name;
+        private final int role;
+        private Frame(final String name, final int role) {
+            this.name = name;
+            this.role = role;
+        }
+    }
+
+    private static class Tokenizer {
+
+        private final String html;
+        private final int length;
+        private int pos;
+        private final List<Item> items;
+        private final ArrayList<Frame> stack;
+        private final Map<String, String> attributes;
+
+        // the state of the current item
+        private Item item;
+        private boolean firstChildSeen, replySeen, retweetSeen, favoriteSeen;
+        private String replyCount, retweetCount, favouriteCount;
+        private StringBuilder itemText, text;
+        private boolean blockEnded;
+
+        private Tokenizer(final String html) {
+            this.html = html;
+            this.length = html.length();
+            this.pos = 0;
+            this.items = new ArrayList<>();
+            this.stack = new ArrayList<>();
+            this.attributes = new HashMap<>();
+            this.item = null;
+        }
+
+        private List<Item> run() {
+            int textStart = 0;
+            while (this.pos < this.length) {
+                int lt = this.html.indexOf('<', this.pos);
+                if (lt < 0) lt = this.length;
+                if (lt > textStart) text(textStart, lt);
+                this.pos = lt;
+                if (lt >= this.length) break;
+                if (!tag()) {
+                    // a '<' which does not start a tag is text
+                    this.pos = lt + 1;
+                    textStart = lt;
+                    continue;
+                }
+                textStart = this.pos;
+            }
+            while (this.stack.size() > 0) pop();
+            return this.items;
+        }
+
+        /**
+         * read a tag at pos
+         * @return false if there is no tag at pos
+         */
+        private boolean tag() {
+            int p = this.pos + 1;
+            if (p >= this.length) return false;
+            char c = this.html.charAt(p);
+            if (c == '!') {
+                if (this.html.startsWith("<!--", this.pos)) {
+                    int e = this.html.indexOf("-->", this.pos + 4);
+                    this.pos = e < 0 ? this.length : e + 3;
+                } else {
+                    skipTo('>');
+                }
+                return true;
+            }
+            if (c == '?') {
+                skipTo('>');
+                return true;
+            }
+            if (c == '/') {
+                int s = p + 1;
+                int e = s;
+                while (e < this.length && isNameChar(this.html.charAt(e))) e++;
+                if (e == s) return false;
+                String name = this.html.substring(s, e).toLowerCase();
+                skipTo('>');
+                endTag(name);
+                return true;
+            }
+            if (!Character.isLetter(c)) return false;
+            int e = p;
+            while (e < this.length && isNameChar(this.html.charAt(e))) e++;
+            String name = this.html.substring(p, e).toLowerCase();
+            this.pos = e;
+            boolean selfClosing = attributes();
+            startTag(name, selfClosing);
+            if (!selfClosing && ("script".equals(name) || "style".equals(name))) {
+                // raw text, the content is not html
+                int end = indexOfEndTag(name);
+                this.pos = end < 0 ? this.length : end;
+            }
+            return true;
+        }
+
+        /**
+         * read the attributes of a start tag up to the end of the tag
+         * @return true if the tag is self-closing
+         */
+        private boolean attributes() {
+            this.attributes.clear();
+            while (this.pos < this.length) {
+                char c = this.html.charAt(this.pos);
+                if (c == '>') {
+                    this.pos++;
+                    return false;
+                }
+                if (c == '/') {
+                    this.pos++;
+                    if (this.pos < this.length && this.html.charAt(this.pos) == '>') {
+                        this.pos++;
+                        return true;
+                    }
+                    continue;
+                }
+                if (Character.isWhitespace(c)) {
+                    this.pos++;
+                    continue;
+                }
+                int s = this.pos;
+                while (this.pos < this.length) {
+                    c = this.html.charAt(this.pos);
+                    if (c == '=' || c == '>' || c == '/' || Character.isWhitespace(c)) break;
+                    this.pos++;
+                }
+                if (this.pos == s) {
+                    this.pos++; // a stray '=' without a name
+                    continue;
+                }
+                String name = this.html.substring(s, this.pos).toLowerCase();
+                while (this.pos < this.length && Character.isWhitespace(this.html.charAt(this.pos))) this.pos++;
+                String value = "";
+                int vs = -1, ve = -1;
+                if (this.pos < this.length && this.html.charAt(this.pos) == '=') {
+                    this.pos++;
+                    while (this.pos < this.length && Character.isWhitespace(this.html.charAt(this.pos))) this.pos++;
+                    if (this.pos < this.length) {
+                        char q = this.html.charAt(this.pos);
+                        if (q == '"' || q == '\'') {
+                            vs = this.pos + 1;
+                            ve = this.html.indexOf(q, vs);
+                            if (ve < 0) ve = this.length;
+                            this.pos = Math.min(this.length, ve + 1);
+                        } else {
+                            vs = this.pos;
+                            while (this.pos < this.length && this.html.charAt(this.pos) != '>' && !Character.isWhitespace(this.html.charAt(this.pos))) this.pos++;
+                            ve = this.pos;
+                        }
+                    }
+                }
+                // the first one of duplicate attributes is taken, like jsoup does it
+                if (ATTRIBUTES.contains(name) && !this.attributes.containsKey(name)) {
+                    if (vs >= 0) {
+                        value = this.html.substring(vs, ve);
+                        if (value.indexOf('&') >= 0) value = Parser.unescapeEntities(value, true);
+                    }
+                    this.attributes.put(name, value);
+                }
+            }
+            return false;
+        }
+
+        private void startTag(final String name, final boolean selfClosing) {
+            Tag tag = Tag.valueOf(name);
+            if (this.text != null) {
+                // the spaces between elements, like Element.text() of jsoup
+                if (this.blockEnded && !tag.isBlock()) space();
+                if ((tag.isBlock() || "br".equals(name)) && this.text.length() > 0) space();
+            }
+            this.blockEnded = false;
+
+            String classes = this.attributes.get("class");
+            Frame parent = this.stack.size() == 0 ? null : this.stack.get(this.stack.size() - 1);
+            int role = 0;
+            if (this.item == null) {
+                if (classes == null || !hasClass(classes, CLASS_ITEM)) {
+                    push(name, tag, selfClosing, 0);
+                    return;
+                }
+                startItem();
+                role |= ROLE_ITEM;
+            } else if (parent != null) {
+                if ((parent.role & ROLE_ITEM) != 0 && !this.firstChildSeen) {
+                    this.firstChildSeen = true;
+                    this.item.tweetID = attr("data-tweet-id");
+                    this.item.conversationID = attr("data-conversation-id");
+                    this.item.mentions = attr("data-mentions");
+                }
+                if ((parent.role & ROLE_REPLY) != 0 && this.replyCount == null) this.replyCount = this.attributes.get(ATTR_COUNT);
+                if ((parent.role & ROLE_RETWEET) != 0 && this.retweetCount == null) this.retweetCount = this.attributes.get(ATTR_COUNT);
+                if ((parent.role & ROLE_FAVORITE) != 0 && this.favouriteCount == null) this.favouriteCount = this.attributes.get(ATTR_COUNT);
+            }
+            if (classes != null) {
+                int s = 0, l = classes.length();
+                while (s < l) {
+                    while (s < l && Character.isWhitespace(classes.charAt(s))) s++;
+                    int e = s;
+                    while (e < l && !Character.isWhitespace(classes.charAt(e))) e++;
+                    if (e > s) role |= classToken(classes.substring(s, e));
+                    s = e;
+                }
+            }
+            push(name, tag, selfClosing, role);
+        }
+
+        private int classToken(final String token) {
+            // the fields are null until an element with the class and the attribute is found
+            if (token.equalsIgnoreCase(CLASS_PROFILE)) {
+                if (this.item.userID == null) this.item.userID = this.attributes.get("data-user-id");
+                if (this.item.screenName == null) this.item.screenName = this.attributes.get("data-screen-name");
+                if (this.item.userName == null) this.item.userName = this.attributes.get("data-name");
+            } else if (token.equalsIgnoreCase(CLASS_AVATAR)) {
+                if (this.item.avatarURL == null) this.item.avatarURL = this.attributes.get("src");
+            } else if (token.equalsIgnoreCase(CLASS_TIMESTAMP)) {
+                if (this.item.timeMillis == null) this.item.timeMillis = this.attributes.get("data-time-ms");
+            } else if (token.equalsIgnoreCase(CLASS_STATUS)) {
+                if (this.item.statusURL == null) this.item.statusURL = this.attributes.get("href");
+            } else if (token.equalsIgnoreCase(CLASS_TEXT)) {
+                return ROLE_TEXT;
+            } else if (token.equalsIgnoreCase(CLASS_REPLY)) {
+                if (!this.replySeen) {this.replySeen = true; return ROLE_REPLY;}
+            } else if (token.equalsIgnoreCase(CLASS_RETWEET)) {
+                if (!this.retweetSeen) {this.retweetSeen = true; return ROLE_RETWEET;}
+            } else if (token.equalsIgnoreCase(CLASS_FAVORITE)) {
+                if (!this.favoriteSeen) {this.favoriteSeen = true; return ROLE_FAVORITE;}
+            }
+            return 0;
+        }
+
+        private void push(final String name, final Tag tag, final boolean selfClosing, int role) {
+            if ((role & ROLE_TEXT) != 0) {
+                // a tweet-text inside of a tweet-text is part of the outer text
+                if (this.text == null) this.text = new StringBuilder(); else role &= ~ROLE_TEXT;
+            }
+            if (selfClosing || tag.isEmpty()) {
+                // void elements have no content, the roles end at once
+                end(role);
+                return;
+            }
+            this.stack.add(new Frame(name, role));
+        }
+
+        private void endTag(final String name) {
+            for (int i = this.stack.size() - 1; i >= 0; i--) {
+                if (this.stack.get(i).name.equals(name)) {
+                    while (this.stack.size() > i) pop();
+                    this.blockEnded = this.text != null && Tag.valueOf(name).isBlock();
+                    return;
+                }
+            }
+            // an end tag without a start tag is ignored
+        }
+
+        private void pop() {
+            Frame frame = this.stack.remove(this.stack.size() - 1);
+            end(frame.role);
+        }
+
+        private void end(final int role) {
+            if ((role & ROLE_TEXT) != 0 && this.text != null) {
+                if (this.itemText.length() != 0) this.itemText.append(' ');
+                this.itemText.append(this.text.toString().trim());
+                this.text = null;
+            }
+            if ((role & ROLE_ITEM) != 0) endItem();
+            this.blockEnded = false;
+        }
+
+        private void startItem() {
+            this.item = new Item();
+            this.item.userID = null;
+            this.item.screenName = null;
+            this.item.userName = null;
+            this.item.avatarURL = null;
+            this.item.timeMillis = null;
+            this.item.statusURL = null;
+            this.firstChildSeen = false;
+            this.replySeen = false;
+            this.retweetSeen = false;
+            this.favoriteSeen = false;
+            this.replyCount = null;
+            this.retweetCount = null;
+            this.favouriteCount = null;
+            this.itemText = new StringBuilder();
+            this.text = null;
+        }
+
+        private void endItem() {
+            if (this.text != null) end(ROLE_TEXT);
+            this.item.text = this.itemText.toString();
+            if (this.item.userID == null) this.item.userID = "";
+            if (this.item.screenName == null) this.item.screenName = "";
+            if (this.item.userName == null) this.item.userName = "";
+            if (this.item.avatarURL == null) this.item.avatarURL = "";
+            if (this.item.timeMillis == null) this.item.timeMillis = "";
+            if (this.item.statusURL == null) this.item.statusURL = "";
+            this.item.replyCount = this.replyCount == null ? "" : this.replyCount;
+            this.item.retweetCount = this.retweetCount == null ? "" : this.retweetCount;
+            this.item.favouriteCount = this.favouriteCount == null ? "" : this.favouriteCount;
+            this.items.add(this.item);
+            this.item = null;
+        }
+
+        private String attr(final String name) {
+            String value = this.attributes.get(name);
+            return value == null ? "" : value;
+        }
+
+        private void text(final int start, final int end) {
+            if (this.text == null) return;
+            String s = this.html.substring(start, end);
+            if (s.indexOf('&') >= 0) s = Parser.unescapeEntities(s, false);
+            if (this.blockEnded) space();
+            this.blockEnded = false;
+            // normalize the whitespace like jsoup
+            boolean lastWasWhite = lastCharIsWhitespace();
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r' || c == 160) {
+                    if (lastWasWhite) continue;
+                    this.text.append(' ');
+                    lastWasWhite = true;
+                } else if (c != 8203 && c != 173) {
+                    this.text.append(c);
+                    lastWasWhite = false;
+                }
+            }
+        }
+
+        private void space() {
+            if (!lastCharIsWhitespace()) this.text.append(' ');
+        }
+
+        private boolean lastCharIsWhitespace() {
+            return this.text.length() != 0 && this.text.charAt(this.text.length() - 1) == ' ';
+        }
+
+        private int indexOfEndTag(final String name) {
+            for (int i = this.html.indexOf("</", this.pos); i >= 0; i = this.html.indexOf("</", i + 2)) {
+                if (this.html.regionMatches(true, i + 2, name, 0, name.length())) return i;
+            }
+            return -1;
+        }
+
+        private void skipTo(final char c) {
+            int e = this.html.indexOf(c, this.pos);
+            this.pos = e < 0 ? this.length : e + 1;
+        }
+
+        private static boolean isNameChar(final char c) {
+            return Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == ':';
+        }
+
+        private static boolean hasClass(final String classes, final String name) {
+            int s = 0, l = classes.length();
+            while (s < l) {
+                while (s < l && Character.isWhitespace(classes.charAt(s))) s++;
+                int e = s;
+                while (e < l && !Character.isWhitespace(classes.charAt(e))) e++;
+                if (e - s == name.length() && classes.regionMatches(true, s, name, 0, name.length())) return true;
+                s = e;
+            }
+            return false;
+        }
+    }
+}
@@ -25,6 +25,7 @@ import org.loklak.objects.BasicTimeline.Order;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -35,7 +36,6 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.json.JSONObject;
-import org.json.JSONTokener;
 import org.jsoup.Jsoup;
 import org.loklak.data.Classifier;
 import org.loklak.data.DAO;
@@ -46,33 +46,42 @@ import org.loklak.geo.LocationSource;
 import org.loklak.objects.QueryEntry.PlaceContext;
 import org.loklak.tools.bayes.Classification;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.json.JSONException;
 import org.loklak.data.IncomingMessageBuffer;
-import org.loklak.http.ClientConnection;
+import org.loklak.http.AsyncFetcher;
 import org.loklak.objects.MessageEntry;
 import org.loklak.objects.ProviderType;
 import org.loklak.objects.SourceType;
 import org.loklak.objects.TwitterTimeline;
 import org.loklak.objects.UserEntry;
 
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
 public class TwitterScraper {
 
-    public static final ExecutorService executor = Executors.newFixedThreadPool(40);
+    // the unshortening of links; if the queue is full, the tweet is postprocessed in the scraping thread
+    public static final ExecutorService executor = new ThreadPoolExecutor(
+            DAO.getConfig("twitterscraper.unshorten.threads", 40), DAO.getConfig("twitterscraper.unshorten.threads", 40),
+            60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(DAO.getConfig("twitterscraper.unshorten.queue", 1000)),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    // the search result pages are fetched asynchronously, so the next page is loaded while the previous page is parsed
+    public static final AsyncFetcher fetcher = new AsyncFetcher("TWITTER",
+            DAO.getConfig("twitterscraper.fetch.threads", 20), DAO.getConfig("twitterscraper.fetch.queue", 100),
+            DAO.getConfig("twitterscraper.fetch.per_host", 10), DAO.getConfig("twitterscraper.fetch.host_timeout", 10000L));
     public static final Pattern emoji_pattern_span = Pattern.compile("<span [^>]*class=\"Emoji Emoji--forLinks\" [^>]*>[\\n]*[^<]*</span>[\\n]*<span [^>]*class=\"visuallyhidden\" [^>]*aria-hidden=\"true\"[^>]*>[\\n]*([^<]*)[\\n]*</span>");
 
     public static TwitterTimeline search(
@@ -82,7 +91,23 @@ public class TwitterScraper {
             final boolean writeToIndex,
             final boolean writeToBackend,
             int jointime) {
-        TwitterTimeline[] tl = search(query, filterList, order, writeToIndex, writeToBackend);
+        return search(query, filterList, order, writeToIndex, writeToBackend, jointime, null);
+    }
+
+    /**
+     * search incrementally: only tweets which are newer than the since id of the increment are requested
+     * and tweets which are known in the exist cache of the message index are not postprocessed again
+     * @param increment the state of the incremental search or null for a full search
+     */
+    public static TwitterTimeline search(
+            final String query,
+            final Set<String> filterList,
+            final TwitterTimeline.Order order,
+            final boolean writeToIndex,
+            final boolean writeToBackend,
+            int jointime,
+            final Increment increment) {
+        TwitterTimeline[] tl = search(query, filterList, order, writeToIndex, writeToBackend, increment);
         long timeout = System.currentTimeMillis() + jointime;
         long remainingWait = 0;
         for (TwitterTweet tt: tl[1]) {
@@ -105,11 +130,83 @@ public class TwitterScraper {
         return search(query, new HashSet<>(), order, writeToIndex, writeToBackend, jointime);
     }
 
+    /**
+     * the state of an incremental search. It counts all tweets of the result, also the known ones which are
+     * skipped, because the count and the time span are the message rate of the query.
+     */
+    public static class Increment {
+
+        public final String sinceId;
+        private String newestId;
+        private int items, known;
+        private long earliest, latest;
+
+        /**
+         * @param sinceId the id of the newest tweet of the last search or null if there was no search yet
+         */
+        public Increment(final String sinceId) {
+            this.sinceId = sinceId;
+            this.newestId = sinceId;
+            this.items = 0;
+            this.known = 0;
+            this.earliest = Long.MAX_VALUE;
+            this.latest = 0;
+        }
+
+        private void count(final String tweetID, final long time) {
+            this.items++;
+            if (isNewer(tweetID, this.newestId)) this.newestId = tweetID;
+            this.earliest = Math.min(this.earliest, time);
+            this.latest = Math.max(this.latest, time);
+        }
+
+        /**
+         * @return the id of the newest tweet which was seen, this is the since id of the next search
+         */
+        public String getNewestId() {
+            return this.newestId;
+        }
+
+        /**
+         * @return the number of tweets in the result, including the known tweets
+         */
+        public int getItems() {
+            return this.items;
+        }
+
+        /**
+         * @return the number of tweets which were skipped because they are known
+         */
+        public int getKnown() {
+            return this.known;
+        }
+
+        /**
+         * @return the average time between two tweets in the result, computed like TwitterTimeline.period()
+         */
+        public long period() {
+            if (this.items < 2) return Long.MAX_VALUE;
+            long p = 1 + (this.latest - this.earliest) / (this.items - 1);
+            return p < 4000 ? p / 4 + 3000 : p;
+        }
+
+        /**
+         * compare two tweet ids; the ids are numbers which may be too large for a long in the future
+         * @return true if id is newer than other or other is null
+         */
+        public static boolean isNewer(final String id, final String other) {
+            if (id == null || id.length() == 0) return false;
+            if (other == null || other.length() == 0) return true;
+            if (id.length() != other.length()) return id.length() > other.length();
+            return id.compareTo(other) > 0;
+        }
+    }
+
     private enum FilterType {
         tweets, image, video, geo, links, mentions, hashtags, media;
     }
     
-    private static String prepareSearchUrl(final String query, FilterType type) {
+    private static String prepareSearchUrl(final String query, FilterType type, final String sinceId) {
         // check https://twitter.com/search-advanced for a better syntax
         // https://support.twitter.com/articles/71577-how-to-use-advanced-twitter-search#
 
@@ -126,6 +223,7 @@ public class TwitterScraper {
         }
         if (type == FilterType.image && t.indexOf("has:images") < 0) t.append(" has:images");
         if (type == FilterType.video && t.indexOf("has:videos") < 0) t.append(" has:videos");
+        if (sinceId != null && sinceId.length() > 0 && t.indexOf("since_id:") < 0) t.append(" since_id:").append(sinceId);
         
         String q;
         try {
@@ -144,71 +242,111 @@ public class TwitterScraper {
             final Set<String> filterList,
             final TwitterTimeline.Order order,
             final boolean writeToIndex,
-            final boolean writeToBackend) {
+            final boolean writeToBackend,
+            final Increment increment) {
         // check
         // https://twitter.com/search-advanced for a better syntax
         // https://support.twitter.com/articles/71577-how-to-use-advanced-twitter-search#
         FilterType tt = FilterType.tweets;
         if (filterList.contains("image")) tt = FilterType.image;
         if (filterList.contains("video")) tt = FilterType.video;
-        String https_url = prepareSearchUrl(query, tt);
-        TwitterTimeline[] timelines = null;
-        try {
-            ClientConnection connection = new ClientConnection(https_url, query);
-            if (connection.getInputStream() == null) return null;
+        String https_url = prepareSearchUrl(query, tt, increment == null ? null : increment.sinceId);
+        int pages = Math.max(1, DAO.getConfig("twitterscraper.pages", 1));
+        long timeout = DAO.getConfig("twitterscraper.fetch.timeout", 20000L);
+        TwitterTimeline[] timelines = new TwitterTimeline[]{new TwitterTimeline(order), new TwitterTimeline(order)};
+
+        // the next page is fetched while the current page is parsed
+        CompletableFuture<Page> next = fetcher.fetch(https_url, query, Page::read);
+        for (int p = 0; p < pages && next != null; p++) {
+            Page page;
             try {
-                BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
-
-                JSONTokener t = new JSONTokener(br);
-                JSONObject j = new JSONObject(t);
-                String html = j.getString("items_html");
-                Document doc = Jsoup.parse(html);
-                
-                timelines = search(doc, filterList, order, writeToIndex, writeToBackend);
+                page = next.get(timeout, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                // this could mean that twitter rejected the connection (DoS protection?) or we are offline (we should be silent then)
+                break;
+            } catch (TimeoutException e) {
+                next.cancel(true);
+                break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            next = p + 1 < pages && page.hasMore && page.minPosition != null ?
+                    fetcher.fetch(https_url + "&max_position=" + urlencode(page.minPosition), query, Page::read) : null;
+            try {
+                search(page.itemsHtml, filterList, timelines[0], timelines[1], writeToIndex, writeToBackend, increment);
             } catch (IOException e) {
                 DAO.severe(e);
-            } finally {
-                connection.close();
             }
-            /*
-            HtmlUnitLoader loader = new HtmlUnitLoader(https_url, "scraper");
-            ByteArrayInputStream bais = new ByteArrayInputStream(loader.getXml().getBytes(StandardCharsets.UTF_8));
-            BufferedReader br = new BufferedReader(new InputStreamReader(bais, StandardCharsets.UTF_8));
-            timelines = search(br, filterList, order, writeToIndex, writeToBackend);
-            */
-        } catch (IOException e) {
-            // this could mean that twitter rejected the connection (DoS protection?) or we are offline (we should be silent then)
-            // DAO.severe(e);
-            if (timelines == null) timelines = new TwitterTimeline[]{new TwitterTimeline(order), new TwitterTimeline(order)};
-        };
+        }
+        if (next != null) next.cancel(true);
+        /*
+        HtmlUnitLoader loader = new HtmlUnitLoader(https_url, "scraper");
+        ByteArrayInputStream bais = new ByteArrayInputStream(loader.getXml().getBytes(StandardCharsets.UTF_8));
+        BufferedReader br = new BufferedReader(new InputStreamReader(bais, StandardCharsets.UTF_8));
+        timelines = search(br, filterList, order, writeToIndex, writeToBackend);
+        */
 
-        // wait until all messages in the timeline are ready
-        if (timelines == null) {
-            // timeout occurred
-            timelines = new TwitterTimeline[]{new TwitterTimeline(order), new TwitterTimeline(order)};
+        timelines[0].setScraperInfo("local");
+        timelines[1].setScraperInfo("local");
+        return timelines;
+    }
+
+    private static String urlencode(final String s) {
+        try {
+            return URLEncoder.encode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return s;
         }
-        if (timelines != null) {
-            if (timelines[0] != null) timelines[0].setScraperInfo("local");
-            if (timelines[1] != null) timelines[1].setScraperInfo("local");
+    }
+
+    /**
+     * a result page of the twitter search timeline. The json is decoded from the stream with the
+     * streaming parser; only the fields which are used are read, the html of the items is kept as a String
+     */
+    private static class Page {
+
+        private String minPosition = null;
+        private boolean hasMore = false;
+        private String itemsHtml = null;
+
+        private static Page read(final InputStream is) throws IOException {
+            Page page = new Page();
+            JsonParser parser = DAO.jsonFactory.createParser(is);
+            try {
+                if (parser.nextToken() != JsonToken.START_OBJECT) throw new IOException("twitter search result is not a json object");
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("items_html".equals(name)) page.itemsHtml = parser.getValueAsString();
+                    else if ("min_position".equals(name)) page.minPosition = parser.getValueAsString();
+                    else if ("has_more_items".equals(name)) page.hasMore = parser.getValueAsBoolean();
+                    else parser.skipChildren();
+                }
+            } finally {
+                parser.close();
+            }
+            if (page.itemsHtml == null) throw new IOException("twitter search result has no items_html");
+            return page;
         }
-        return timelines;
     }
 
     /**
-     * scrape messages from the reader stream: this already checks if a message is new. There are only new messages returned
-     * @param br
-     * @param order
-     * @return two timelines in one array: Timeline[0] is the one which is finished to be used, Timeline[1] contains messages which are in postprocessing
+     * scrape messages from the items html of a result page: this already checks if a message is new. There are only new messages returned
+     * @param itemsHtml
+     * @param timelineReady the timeline which gets the messages which are finished to be used
+     * @param timelineWorking the timeline which gets the messages which are in postprocessing
+     * @param increment the state of an incremental search or null
      * @throws IOException
      */
-    private static TwitterTimeline[] search(
-            final Document doc,
+    private static void search(
+            final String itemsHtml,
             final Set<String> filterList,
-            final TwitterTimeline.Order order,
+            final TwitterTimeline timelineReady,
+            final TwitterTimeline timelineWorking,
             final boolean writeToIndex,
-            final boolean writeToBackend) throws IOException {
-        TwitterTimeline timelineReady = new TwitterTimeline(order);
-        TwitterTimeline timelineWorking = new TwitterTimeline(order);
+            final boolean writeToBackend,
+            final Increment increment) throws IOException {
         Set<String> images = null;
         Set<String> videos = null;
         String place_id = "";
@@ -216,40 +354,35 @@ public class TwitterScraper {
         Set<String> mentions = new LinkedHashSet<>();
         boolean debuglog = DAO.getConfig("flag.debug.twitter_scraper", "false").equals("true");
 
-        // parse
-        Elements items = doc.getElementsByClass("stream-item");
-        itemloop: for (int itemc = 0; itemc < items.size(); itemc++) {
-            Element item = items.get(itemc);
+        // parse; the streaming extractor reads the page in one pass, jsoup is the fallback if it fails
+        List<TwitterItemExtractor.Item> items = null;
+        if ("stream".equals(DAO.getConfig("twitterscraper.extractor", "stream"))) try {
+            items = TwitterItemExtractor.extract(itemsHtml);
+            if (items.size() == 0 && itemsHtml.indexOf("stream-item") >= 0) items = null;
+        } catch (RuntimeException e) {
+            DAO.severe("streaming extraction of twitter items failed, using jsoup", e);
+        }
+        if (items == null) items = TwitterItemExtractor.extract(Jsoup.parse(itemsHtml));
+        itemloop: for (TwitterItemExtractor.Item item: items) {
             if (debuglog) System.out.println(item.toString());
     
-            Elements streamitem = item.getElementsByClass("stream-item");
-            Element tweeti = streamitem.get(0).child(0);
-            String tweetID = tweeti.attr("data-tweet-id");
-            String conversationID = tweeti.attr("data-conversation-id"); // this is the parent in a conversation
-            String mentions_screenname = tweeti.attr("data-mentions"); // the conversationID does not have a link to the user name which produces the actual tweet link. This here is a hint. But several names can be listed here.
+            String tweetID = item.tweetID;
+            String conversationID = item.conversationID; // this is the parent in a conversation
+            String mentions_screenname = item.mentions; // the conversationID does not have a link to the user name which produces the actual tweet link. This here is a hint. But several names can be listed here.
             // the first nam in mentions_screenname is the latest in the conversation chain
             Set<String> mentions_screennames = new LinkedHashSet<>(); // to preserve the order we use a linked hash set
             String[] mss= mentions_screenname.split(" ");
             for (int i = 0; i < mss.length; i++) mentions_screennames.add(mss[i]);
             if (conversationID != null && conversationID.equals(tweetID)) {conversationID = ""; mentions_screennames.clear();}
             
-            Elements profile = item.getElementsByClass("js-profile-popup-actionable");
-            Elements avatare = item.getElementsByClass("js-action-profile-avatar");
-            
-            String userid = profile.attr("data-user-id");
-            String usernickname = profile.attr("data-screen-name");
-            String useravatarurl = avatare.attr("src");
-            String userfullname = profile.attr("data-name");
-            
             UserEntry user = new UserEntry(
-                    userid,
-                    usernickname,
-                    useravatarurl,
-                    MessageEntry.html2utf8(userfullname)
+                    item.userID,
+                    item.screenName,
+                    item.avatarURL,
+                    MessageEntry.html2utf8(item.userName)
             );
     
-            Elements timestamp = item.getElementsByClass("_timestamp");
-            String rawtext = item.getElementsByClass("tweet-text").text();
+            String rawtext = item.text;
             if (mentions_screennames.size() > 0) {
                 // attention: this turns the order around! First entry will be conversation starter!
                 for (String screenname: mentions_screennames) {
@@ -257,21 +390,26 @@ public class TwitterScraper {
                 }
             }
             
-            String tweettimes = timestamp.attr("data-time-ms");
+            String tweettimes = item.timeMillis;
             if (tweettimes.length() == 0) continue itemloop; // sometimes tweets are not available any more
             long tweettime = Long.parseLong(tweettimes);
+            if (increment != null) {
+                increment.count(tweetID, tweettime);
+                // known tweets are not enriched and indexed again; a false negative of the exist cache only means that a tweet is indexed again
+                if (DAO.messages != null && DAO.messages.existsCache(tweetID)) {
+                    increment.known++;
+                    continue itemloop;
+                }
+            }
             // this assertion holds in most, but unfortunately not in all cases, so it is commented out
             // long snowflaketime = snowflake2millis(Long.parseLong(tweetID));
             // assert tweettime / 1000L == snowflaketime / 1000L : "tweettime = " + tweettime + ", snowflaketime = " + snowflaketime;
 
-            Elements reply = item.getElementsByClass("ProfileTweet-action--reply").get(0).children();
-            Elements retweet = item.getElementsByClass("ProfileTweet-action--retweet").get(0).children();
-            Elements favourite = item.getElementsByClass("ProfileTweet-action--favorite").get(0).children();
-            String tweetreplycount = reply.attr("data-tweet-stat-count");
-            String tweetretweetcount = retweet.attr("data-tweet-stat-count");
-            String tweetfavouritecount = favourite.attr("data-tweet-stat-count");
+            String tweetreplycount = item.replyCount;
+            String tweetretweetcount = item.retweetCount;
+            String tweetfavouritecount = item.favouriteCount;
             
-            String tweetstatusurl = item.getElementsByClass("tweet-timestamp").attr("href");        
+            String tweetstatusurl = item.statusURL;
             // evaluate
             
             // patch text with non-mentioned mentions (twitter obviously cuts that away)
@@ -291,9 +429,9 @@ public class TwitterScraper {
                         mentions_screennames,
                         tweetstatusurl, // like /yacy_search/status/1284585691259850753
                         rawtext,
-                        Long.parseLong(tweetreplycount),
-                        Long.parseLong(tweetretweetcount),
-                        Long.parseLong(tweetfavouritecount),
+                        count(tweetreplycount),
+                        count(tweetretweetcount),
+                        count(tweetfavouritecount),
                         images, videos, place_name, place_id,
                         user, writeToIndex, writeToBackend
                 );
@@ -331,7 +469,10 @@ public class TwitterScraper {
             //}
         }
 
-        return new TwitterTimeline[]{timelineReady, timelineWorking};
+    }
+
+    private static long count(final String count) {
+        return count.length() == 0 ? 0 : Long.parseLong(count); // an action without a count has no count attribute
     }
 
     private static long snowflake2millis(long sf) {
@@ -1109,6 +1250,27 @@ public class TwitterScraper {
             return this.links.toArray(new String[0]);
         }
 
+        /**
+         * the links of the message without a copy; the list must not be modified
+         */
+        public List<String> getLinkList() {
+            return this.links == null ? Collections.<String>emptyList() : this.links;
+        }
+
+        // the number of mentions, hashtags and links; unlike the array getters these do not copy the lists
+
+        public int getMentionCount() {
+            return this.mentions == null ? 0 : this.mentions.size();
+        }
+
+        public int getHashtagCount() {
+            return this.hashtags == null ? 0 : this.hashtags.size();
+        }
+
+        public int getLinkCount() {
+            return this.links == null ? 0 : this.links.size();
+        }
+
         public Classifier.Category getClassifier(Classifier.Context context) {
             return this.moreData.getClassifier(context);
         }
@@ -1189,7 +1351,7 @@ public class TwitterScraper {
         Set<String> filterList = new HashSet<String>();
         filterList.add("image");
         TwitterTimeline[] result = null;
-        result = search(args[0], filterList, Order.CREATED_AT, false, false);
+        result = search(args[0], filterList, Order.CREATED_AT, false, false, null);
         int all = 0;
         for (int x = 0; x < 2; x++) {
             if (x == 0) System.out.println("Timeline[0] - finished to be used:");
@@ -19,21 +19,20 @@
 
 package org.loklak.http;
 
-import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.json.JSONObject;
 import org.loklak.data.DAO;
 import org.loklak.tools.DateParser;
-import org.loklak.tools.storage.JsonRepository;
+import org.loklak.tools.storage.JsonLogWriter;
 
 public class AccessTracker extends Thread {
 
@@ -54,63 +53,88 @@ public class AccessTracker extends Thread {
     
     public final static int MAX_FINISHED = 1000;
     
-    private JsonRepository history;
+    private final JsonLogWriter log; // null if the access log is not enabled
     private long track_timeout;
     private long schedule_period;
     private boolean terminate;
-    private ConcurrentSkipListMap<Date, Track> pendingQueue, finishedQueue;
+    private final ConcurrentHashMap<Date, Track> pendingQueue;
+    private final AtomicReferenceArray<Track> finishedRing; // the latest finished tracks, read by the access servlet
+    private final AtomicLong finishedCount;
+    private final int sample;
+    private final AtomicLong lastTime, requests;
     
-    
-    public AccessTracker(File dump_dir, String dump_file_prefix, long track_timeout, long schedule_period) throws IOException {
-        this.history = new JsonRepository(dump_dir, dump_file_prefix, null, JsonRepository.Mode.COMPRESSED, false, 1);
+    /**
+     * @param log the access log or null if the access log is not enabled
+     * @param sample if the log is not enabled, only every sample-th request is tracked, to be shown in the access servlet; 0 means no tracking
+     */
+    public AccessTracker(JsonLogWriter log, long track_timeout, long schedule_period, int sample) {
+        this.log = log;
         this.track_timeout = track_timeout;
         this.schedule_period = schedule_period;
         this.terminate = false;
-        this.pendingQueue = new ConcurrentSkipListMap<>();
-        this.finishedQueue = new ConcurrentSkipListMap<>();
+        this.pendingQueue = new ConcurrentHashMap<>();
+        this.finishedRing = new AtomicReferenceArray<>(MAX_FINISHED);
+        this.finishedCount = new AtomicLong(0);
+        this.sample = sample;
+        this.lastTime = new AtomicLong(0);
+        this.requests = new AtomicLong(0);
+    }
+    
+    /**
+     * decide if a request is tracked; tracks are expensive, they are only created if the access log
+     * is enabled or for a sample of the requests
+     */
+    public boolean isTracked() {
+        if (this.log != null) return true;
+        return this.sample > 0 && this.requests.incrementAndGet() % this.sample == 0;
     }
     
+    /**
+     * get the pending tracks and the latest finished tracks, the latest first
+     */
     public Collection<Track> getTracks() {
-        List<Track> tracks = new ArrayList<>();
-        for (Track track: this.pendingQueue.descendingMap().values()) tracks.add(track);
-        for (Track track: this.finishedQueue.descendingMap().values()) tracks.add(track);
+        List<Track> tracks = new ArrayList<>(this.pendingQueue.values());
+        tracks.sort((t0, t1) -> t1.getDate().compareTo(t0.getDate()));
+        long c = this.finishedCount.get();
+        for (long i = c - 1; i >= 0 && i >= c - MAX_FINISHED; i--) {
+            Track track = this.finishedRing.get((int) (i % MAX_FINISHED));
+            if (track != null) tracks.add(track);
+        }
         return tracks;
     }
     
     public void run() {
         monitor: while (!terminate) {
-            // identify oldest track and remove it from the pending tracks if it is over timeout time
-            timeoutcheck: while (this.pendingQueue.size() > 0) {
-                Map.Entry<Date, Track> t = this.pendingQueue.firstEntry();
-                if (t == null) break timeoutcheck;
-                boolean timeout = t.getKey().getTime() + AccessTracker.this.track_timeout < System.currentTimeMillis();
-                if (timeout || t.getValue().has(FINISH_DATE_KEY)) {
-                    try {
-                        writeToHistory(t.getValue(), null);
-                        this.pendingQueue.remove(t.getKey());
-                        this.finishedQueue.put(t.getKey(), t.getValue());
-                        while (this.finishedQueue.size() > MAX_FINISHED) this.finishedQueue.remove(this.finishedQueue.firstKey());
-                        continue timeoutcheck;
-                    } catch (IOException e) {
-                    	DAO.severe(e);
-                        break monitor;
-                    }
-                }
-                break timeoutcheck;
+            // tracks which are not finished after the timeout are written without a finish time
+            long timeout = System.currentTimeMillis() - this.track_timeout;
+            for (Track track: this.pendingQueue.values()) {
+                if (track.getDate().getTime() < timeout) finish(track, null);
             }
-            
             try {Thread.sleep(this.schedule_period);} catch (InterruptedException e) {if (this.terminate) break monitor;}
         }
-        try {
-            for (Track track: this.pendingQueue.values()) writeToHistory(track, COMMENT_CLOSED);
-        } catch (IOException e) {
-        	DAO.severe(e);
+    }
+    
+    /**
+     * move a track from the pending tracks to the finished tracks and into the access log; this is done only once for each track
+     */
+    private void finish(Track track, String comment) {
+        if (track.getDate() == null || !this.pendingQueue.remove(track.getDate(), track)) return;
+        JSONObject logged;
+        synchronized (track) {
+            if (comment != null) track.put(COMMENT_KEY, comment);
+            // a finished track ignores further events; a track which is not finished may still be changed by its request, then the log gets a copy
+            logged = track.finished ? track : new JSONObject(track.toString());
         }
+        this.finishedRing.set((int) (this.finishedCount.getAndIncrement() % MAX_FINISHED), track);
+        if (this.log != null) this.log.offer(logged);
     }
     
-    private void writeToHistory(Track track, String comment) throws IOException {
-        if (comment != null) track.put(COMMENT_KEY, comment);
-        this.history.write(track, true);
+    public JSONObject getStats() {
+        JSONObject json = new JSONObject(true);
+        json.put("pending", this.pendingQueue.size());
+        json.put("finished", this.finishedCount.get());
+        if (this.log != null) json.put("log", this.log.getStats());
+        return json;
     }
     
     public void close() {
@@ -119,11 +143,8 @@ public class AccessTracker extends Thread {
         if (this.isAlive()) try {this.interrupt(); this.join(10000);} catch (InterruptedException e) {}
 
         // write remaining tracks from pending queue
-        try {
-            for (Track track: this.pendingQueue.values()) writeToHistory(track, COMMENT_CLOSED);
-        } catch (IOException e) {
-        	DAO.severe(e);
-        }
+        for (Track track: this.pendingQueue.values()) finish(track, COMMENT_CLOSED);
+        if (this.log != null) this.log.close();
     }
     
     public class Track extends JSONObject {
@@ -137,20 +158,18 @@ public class AccessTracker extends Thread {
         private long time_since_last_access;
         private boolean isLocalhost;
         private boolean DoS_blackout, DoS_servicereduction;
+        private boolean finished; // set once the request is done, guarded by the track itself
         
-        public Track(String servlet, String clientHost, String referrer) {
+        public Track(String servlet, String clientHost, boolean isLocalhost, long accessTime) {
             this.clientHost = clientHost;
-            long time = System.currentTimeMillis();
-            Date lastDate = null;
-            try {lastDate = AccessTracker.this.pendingQueue.lastKey();} catch (NoSuchElementException e) {}
-            long last = lastDate == null ? time - 1 : lastDate.getTime();
-            if (time <= last) time = last + 1;
+            // the time is the key in the queue, it must be unique
+            long time = AccessTracker.this.lastTime.accumulateAndGet(accessTime, (last, t) -> t > last ? t : last + 1);
             this.accessTime = new Date(time);
-            this.put(START_DATE_KEY, DateParser.iso8601MillisFormat.format(accessTime));
+            this.put(START_DATE_KEY, DateParser.iso8601MillisFormat.format(this.accessTime));
             this.put(CLIENT_KEY, clientHost);
-            this.isLocalhost = RemoteAccess.isLocalhost(clientHost, referrer);
+            this.isLocalhost = isLocalhost;
             this.put(LOCALHOST_FLAG, this.isLocalhost);
-            AccessTracker.this.pendingQueue.put(accessTime, this);
+            AccessTracker.this.pendingQueue.put(this.accessTime, this);
         }
         
         public Track(String serialized) {
@@ -204,6 +223,15 @@ public class AccessTracker extends Thread {
             this.put(QUERY_KEY, m);
         }
         
+        /**
+         * record an event of the request; events of tasks which outlive the request are ignored
+         * because the finished track may be serialized by the access log at the same time
+         */
+        public synchronized void recordEvent(String eventName, Object eventValue) {
+            if (this.finished) return;
+            this.put(EVENT_PREFIX + eventName, eventValue);
+        }
+        
         public String toString() {
             return new JSONObject(this).toString();
         }
@@ -211,13 +239,17 @@ public class AccessTracker extends Thread {
         public void finalize() {
             Date finishTime = new Date();
             long runtime = finishTime.getTime() - this.accessTime.getTime();
-            this.put(RUNTIME_KEY, runtime);
-            this.put(FINISH_DATE_KEY, DateParser.iso8601MillisFormat.format(finishTime));
+            synchronized (this) {
+                this.put(RUNTIME_KEY, runtime);
+                this.put(FINISH_DATE_KEY, DateParser.iso8601MillisFormat.format(finishTime));
+                this.finished = true;
+            }
+            AccessTracker.this.finish(this, null);
         }
     }
 
-    public Track startTracking(String servlet, String clientHost, String referrer) {
-        return new Track(servlet, clientHost, referrer);
+    public Track startTracking(String servlet, String clientHost, boolean isLocalhost, long accessTime) {
+        return new Track(servlet, clientHost, isLocalhost, accessTime);
     }
     
     
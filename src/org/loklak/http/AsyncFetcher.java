@@ -0,0 +1,172 @@
+/**
+ *  AsyncFetcher
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+/**
+ * Asynchronous GET requests on the shared connection pool of the ClientConnection. A fetch returns
+ * a future at once, so the caller can go on with other work, i.e. parse the previous result page while
+ * the next page is loaded. The response body is handed as a stream to a decoder which runs in the
+ * fetch thread; it is not buffered into a String first.
+ * The number of concurrent requests to the same host is limited, so a deep harvest of one host cannot
+ * take all connections of the pool.
+ */
+public class AsyncFetcher {
+
+    /**
+     * decodes a response body; the stream is closed after the decoder returns
+     */
+    public interface Decoder<T> {
+        T decode(InputStream is) throws IOException;
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final int perHost;
+    private final long hostTimeout;
+    private final ConcurrentHashMap<String, Semaphore> hosts;
+    private final AtomicLong count, failed, rejected, hostWaitTime, fetchTime;
+
+    /**
+     * @param name the name of the fetch threads
+     * @param threads the maximum number of concurrent requests
+     * @param queueSize the maximum number of waiting requests; more requests are rejected
+     * @param perHost the maximum number of concurrent requests to the same host
+     * @param hostTimeout the maximum time in milliseconds to wait for a free connection to a host
+     */
+    public AsyncFetcher(final String name, final int threads, final int queueSize, final int perHost, final long hostTimeout) {
+        this.perHost = Math.max(1, perHost);
+        this.hostTimeout = hostTimeout;
+        this.hosts = new ConcurrentHashMap<>();
+        this.count = new AtomicLong(0);
+        this.failed = new AtomicLong(0);
+        this.rejected = new AtomicLong(0);
+        this.hostWaitTime = new AtomicLong(0);
+        this.fetchTime = new AtomicLong(0);
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "FETCH-" + name + "-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        int t = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(
+                t, t, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+                threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * fetch an url
+     * @param url the url
+     * @param referer the query which is used for the Referer header, may be null
+     * @param decoder decodes the response body
+     * @return the future of the decoded body; it fails with an IOException if the request failed or was rejected
+     */
+    public <T> CompletableFuture<T> fetch(final String url, final String referer, final Decoder<T> decoder) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return get(url, referer, decoder);
+                } catch (IOException e) {
+                    this.failed.incrementAndGet();
+                    throw new CompletionException(e);
+                }
+            }, this.executor);
+        } catch (RejectedExecutionException e) {
+            this.rejected.incrementAndGet();
+            CompletableFuture<T> f = new CompletableFuture<>();
+            f.completeExceptionally(new IOException("fetch queue is full, rejected " + url));
+            return f;
+        }
+    }
+
+    private <T> T get(final String url, final String referer, final Decoder<T> decoder) throws IOException {
+        String host;
+        try {
+            host = new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            throw new IOException("bad url " + url, e);
+        }
+        Semaphore connections = this.hosts.computeIfAbsent(host, h -> new Semaphore(this.perHost));
+        long start = System.currentTimeMillis();
+        try {
+            if (!connections.tryAcquire(this.hostTimeout, TimeUnit.MILLISECONDS)) throw new IOException("no free connection to " + host);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for a connection to " + host);
+        }
+        long acquired = System.currentTimeMillis();
+        this.hostWaitTime.addAndGet(acquired - start);
+        try {
+            ClientConnection connection = new ClientConnection(url, referer);
+            try {
+                if (connection.getInputStream() == null) throw new IOException("no content from " + url);
+                return decoder.decode(connection.getInputStream());
+            } finally {
+                connection.close();
+            }
+        } finally {
+            connections.release();
+            this.count.incrementAndGet();
+            this.fetchTime.addAndGet(System.currentTimeMillis() - acquired);
+        }
+    }
+
+    public JSONObject getStats() {
+        JSONObject json = new JSONObject(true);
+        long c = this.count.get();
+        json.put("threads", this.executor.getMaximumPoolSize());
+        json.put("active", this.executor.getActiveCount());
+        json.put("queue", this.executor.getQueue().size());
+        json.put("per_host", this.perHost);
+        json.put("hosts", this.hosts.size());
+        json.put("count", c);
+        json.put("failed", this.failed.get());
+        json.put("rejected", this.rejected.get());
+        json.put("avg_host_wait_ms", c == 0 ? 0 : this.hostWaitTime.get() / c);
+        json.put("avg_fetch_ms", c == 0 ? 0 : this.fetchTime.get() / c);
+        return json;
+    }
+
+    public void close() {
+        this.executor.shutdownNow();
+    }
+}
@@ -101,6 +101,41 @@ public class ClientConnection {
     private BufferedInputStream inputStream;
     private CloseableHttpResponse httpResponse;
 
+    /**
+     * thrown if the server answers with a status other than 200
+     */
+    public static class StatusException extends IOException {
+        private static final long serialVersionUID = 5367839437521954807L;
+        private final int status;
+        private final String retryAfter;
+        private final Map<String, String> headers;
+        public StatusException(String message, int status, String retryAfter) {
+            this(message, status, retryAfter, new HashMap<String, String>());
+        }
+        public StatusException(String message, int status, String retryAfter, Map<String, String> headers) {
+            super(message);
+            this.status = status;
+            this.retryAfter = retryAfter;
+            this.headers = headers;
+        }
+        public int getStatus() {
+            return this.status;
+        }
+        /**
+         * @return the Retry-After header of the response or null if there was none
+         */
+        public String getRetryAfter() {
+            return this.retryAfter;
+        }
+        /**
+         * @param name the name of a response header, case-insensitive
+         * @return the first value of the header or null if the response did not have it
+         */
+        public String getHeader(String name) {
+            return this.headers.get(name.toLowerCase());
+        }
+    }
+
     private static class TrustAllHostNameVerifier implements HostnameVerifier {
 		public boolean verify(String hostname, SSLSession session) {
 			return true;
@@ -144,6 +179,22 @@ public class ClientConnection {
         this.executeRequest(request);
     }
 
+    /**
+     * POST request with a streamed body. The request expects a 100-continue, so the server can refuse
+     * the request before the body is written.
+     * @param urlstring
+     * @param entity
+     * @throws ClientProtocolException
+     * @throws IOException
+     */
+    public ClientConnection(String urlstring, HttpEntity entity) throws ClientProtocolException, IOException {
+        HttpPost request = new HttpPost(urlstring);
+        request.setConfig(RequestConfig.copy(defaultRequestConfig).setExpectContinueEnabled(true).build());
+        request.setEntity(entity);
+        request.setHeader("User-Agent", USER_AGENT);
+        this.executeRequest(request);
+    }
+
     public final static CloseableHttpClient getClosableHttpClient() {
         boolean trustAllCerts = !"none".equals(DAO.getConfig("httpsclient.trustselfsignedcerts", "peers"))
                 && ("all".equals(DAO.getConfig("httpsclient.trustselfsignedcerts", "peers")));
@@ -191,10 +242,11 @@ public class ClientConnection {
         		new PoolingHttpClientConnectionManager();
 
         // twitter specific options
-        cm.setMaxTotal(200);
-        cm.setDefaultMaxPerRoute(20);
-        cm.setMaxPerRoute(new HttpRoute(new HttpHost("twitter.com", 80)), 50);
-        cm.setMaxPerRoute(new HttpRoute(new HttpHost("twitter.com", 443)), 50);
+        int twitterMaxPerRoute = DAO.getConfig("httpclient.pool.max_per_route.twitter", 50);
+        cm.setMaxTotal(DAO.getConfig("httpclient.pool.max_total", 200));
+        cm.setDefaultMaxPerRoute(DAO.getConfig("httpclient.pool.max_per_route", 20));
+        cm.setMaxPerRoute(new HttpRoute(new HttpHost("twitter.com", 80)), twitterMaxPerRoute);
+        cm.setMaxPerRoute(new HttpRoute(new HttpHost("twitter.com", 443)), twitterMaxPerRoute);
 
         return cm;
     }
@@ -236,8 +288,14 @@ public class ClientConnection {
                     vals.add(h.getValue());
                 }
             } else {
+                Header retryAfter = this.httpResponse.getFirstHeader("Retry-After");
+                Map<String, String> header = new HashMap<String, String>();
+                for (Header h: httpResponse.getAllHeaders()) {
+                    if (!header.containsKey(h.getName().toLowerCase())) header.put(h.getName().toLowerCase(), h.getValue());
+                }
                 request.reset();
-                throw new IOException("client connection to " + request.getURI() + " fail: " + status + ": " + sl.getReasonPhrase());
+                throw new StatusException("client connection to " + request.getURI() + " fail: " + status + ": " + sl.getReasonPhrase(),
+                        status, retryAfter == null ? null : retryAfter.getValue(), header);
             }
         } else {
             request.reset();
@@ -0,0 +1,202 @@
+/**
+ *  RateLimiter
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.http;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.json.JSONObject;
+
+/**
+ * DoS protection with token buckets per client and servlet path.
+ * Every client has two buckets: the blackout bucket and the service reduction bucket. A request takes
+ * one token from each bucket; if the blackout bucket is empty the request is blocked, if only the
+ * service reduction bucket is empty the request is served with reduced service. The buckets are
+ * refilled with one token per interval up to the burst size, so a client may send a few requests at once
+ * but not more than one request per interval in the long run.
+ * The buckets of a servlet path are held in striped maps, each stripe has its own lock. A check does not
+ * allocate anything unless the client is new. Buckets which are idle long enough to be full again are
+ * equal to new buckets, they are evicted when a stripe is swept.
+ */
+public class RateLimiter {
+
+    public static enum Decision {
+        PASS,   // the client is within its limits
+        REDUCE, // the client is above the service reduction limit
+        BLOCK;  // the client is above the blackout limit
+    }
+
+    /**
+     * the limits of a servlet path; an interval of zero means no limit
+     */
+    public static class Limit {
+        public final long blackoutInterval, reductionInterval;
+        public final int blackoutBurst, reductionBurst;
+        private final long idle;
+        public Limit(final long blackoutInterval, final int blackoutBurst, final long reductionInterval, final int reductionBurst) {
+            this.blackoutInterval = Math.max(0, blackoutInterval);
+            this.blackoutBurst = Math.max(1, blackoutBurst);
+            this.reductionInterval = Math.max(0, reductionInterval);
+            this.reductionBurst = Math.max(1, reductionBurst);
+            this.idle = Math.max(this.blackoutInterval * this.blackoutBurst, this.reductionInterval * this.reductionBurst);
+        }
+    }
+
+    private static final class Bucket {
+        private double blackoutTokens, reductionTokens;
+        private long last;
+        private Bucket(final Limit limit, final long now) {
+            this.blackoutTokens = limit.blackoutBurst;
+            this.reductionTokens = limit.reductionBurst;
+            this.last = now;
+        }
+        private void refill(final Limit limit, final long now) {
+            long elapsed = now - this.last;
+            if (elapsed <= 0) return;
+            this.blackoutTokens = limit.blackoutInterval == 0 ? limit.blackoutBurst : Math.min(limit.blackoutBurst, this.blackoutTokens + ((double) elapsed) / limit.blackoutInterval);
+            this.reductionTokens = limit.reductionInterval == 0 ? limit.reductionBurst : Math.min(limit.reductionBurst, this.reductionTokens + ((double) elapsed) / limit.reductionInterval);
+            this.last = now;
+        }
+    }
+
+    private static final class Stripe extends HashMap<String, Bucket> {
+        private static final long serialVersionUID = 1L;
+        private long nextSweep = 0;
+    }
+
+    private static final class Table {
+        private final Limit limit;
+        private final Stripe[] stripes;
+        private Table(final Limit limit, final int stripes) {
+            this.limit = limit;
+            this.stripes = new Stripe[stripes];
+            for (int i = 0; i < stripes; i++) this.stripes[i] = new Stripe();
+        }
+    }
+
+    private final Function<String, Limit> limits;
+    private final int stripes, maxPerStripe;
+    private final long sweepInterval;
+    private final ConcurrentHashMap<String, Table> tables;
+    private final LongAdder pass, reduce, block, evicted;
+
+    /**
+     * @param limits computes the limit of a servlet path, it is called once for each path
+     * @param stripes the number of stripes per servlet path, rounded up to a power of two
+     * @param maxClients the maximum number of clients per servlet path; if a stripe is full after a sweep, it is cleared
+     * @param sweepInterval the time in milliseconds between two sweeps of a stripe to evict idle clients
+     */
+    public RateLimiter(final Function<String, Limit> limits, final int stripes, final int maxClients, final long sweepInterval) {
+        this.limits = limits;
+        int s = 1;
+        while (s < stripes) s <<= 1;
+        this.stripes = s;
+        this.maxPerStripe = Math.max(1, maxClients / s);
+        this.sweepInterval = sweepInterval;
+        this.tables = new ConcurrentHashMap<>();
+        this.pass = new LongAdder();
+        this.reduce = new LongAdder();
+        this.block = new LongAdder();
+        this.evicted = new LongAdder();
+    }
+
+    /**
+     * check a request and take a token from the buckets of the client
+     * @param path the servlet path
+     * @param client the client host
+     * @return the decision for this request
+     */
+    public Decision check(final String path, final String client) {
+        return check(path, client, System.currentTimeMillis());
+    }
+
+    public Decision check(final String path, final String client, final long now) {
+        Table table = this.tables.get(path);
+        if (table == null) table = this.tables.computeIfAbsent(path, p -> new Table(this.limits.apply(p), this.stripes));
+        Limit limit = table.limit;
+        int h = client.hashCode();
+        Stripe stripe = table.stripes[(h ^ (h >>> 16)) & (this.stripes - 1)];
+        Decision decision;
+        synchronized (stripe) {
+            Bucket bucket = stripe.get(client);
+            if (bucket == null) {
+                if (now >= stripe.nextSweep || stripe.size() >= this.maxPerStripe) sweep(stripe, limit, now);
+                bucket = new Bucket(limit, now);
+                stripe.put(client, bucket);
+            } else {
+                bucket.refill(limit, now);
+            }
+            if (limit.blackoutInterval > 0 && bucket.blackoutTokens < 1.0d) {
+                decision = Decision.BLOCK;
+            } else {
+                bucket.blackoutTokens -= 1.0d;
+                if (limit.reductionInterval > 0 && bucket.reductionTokens < 1.0d) {
+                    decision = Decision.REDUCE;
+                } else {
+                    bucket.reductionTokens -= 1.0d;
+                    decision = Decision.PASS;
+                }
+            }
+        }
+        if (decision == Decision.PASS) this.pass.increment(); else if (decision == Decision.REDUCE) this.reduce.increment(); else this.block.increment();
+        return decision;
+    }
+
+    private void sweep(final Stripe stripe, final Limit limit, final long now) {
+        Iterator<Bucket> i = stripe.values().iterator();
+        while (i.hasNext()) {
+            if (now - i.next().last > limit.idle) {
+                i.remove();
+                this.evicted.increment();
+            }
+        }
+        if (stripe.size() >= this.maxPerStripe) {
+            // too many active clients: forget them instead of growing without limit
+            this.evicted.add(stripe.size());
+            stripe.clear();
+        }
+        stripe.nextSweep = now + this.sweepInterval;
+    }
+
+    /**
+     * @return the number of clients with a bucket
+     */
+    public int size() {
+        int size = 0;
+        for (Table table: this.tables.values()) {
+            for (Stripe stripe: table.stripes) synchronized (stripe) {size += stripe.size();}
+        }
+        return size;
+    }
+
+    public JSONObject getStats() {
+        JSONObject json = new JSONObject(true);
+        json.put("paths", this.tables.size());
+        json.put("clients", size());
+        json.put("pass", this.pass.sum());
+        json.put("reduce", this.reduce.sum());
+        json.put("block", this.block.sum());
+        json.put("evicted", this.evicted.sum());
+        return json;
+    }
+}
@@ -53,6 +53,7 @@ import org.loklak.tools.UTF8;
  */
 public class RemoteAccess {
 
+    // the peers which contacted this peer, by servlet path and host; only requests with a port configuration are peers
     public static Map<String, Map<String, RemoteAccess>> history = new ConcurrentHashMap<String, Map<String, RemoteAccess>>();
     
     public static Query evaluate(final HttpServletRequest request) {
@@ -68,20 +69,18 @@ public class RemoteAccess {
         String peername = qm == null ? request.getParameter("peername") : qm.get("peername");
         if (peername == null || peername.length() > 132) peername = "anonymous";
         final String remoteHost = post.getClientHost();
-        Map<String, RemoteAccess> hmap = history.get(request.getServletPath());
-        if (hmap == null) {hmap = new ConcurrentHashMap<>(); history.put(request.getServletPath(), hmap);}
         if (httpport == null || httpsport == null) {
-            // if port configuration is omitted, just update the value if it exist
-            RemoteAccess ra = hmap.get(remoteHost);
-            if (ra == null) {
-                hmap.put(remoteHost, new RemoteAccess(remoteHost, path, httpport, httpsport, peername));
-            } else {
+            // if port configuration is omitted, just update the value if it exist; other clients are not recorded
+            Map<String, RemoteAccess> hmap = history.get(path);
+            RemoteAccess ra = hmap == null ? null : hmap.get(remoteHost);
+            if (ra != null) {
                 assert ra.remoteHost.equals(remoteHost);
                 ra.localPath = path;
                 ra.accessTime = System.currentTimeMillis();
             }
         } else {
             // overwrite if new port configuration is submitted
+            Map<String, RemoteAccess> hmap = history.computeIfAbsent(path, p -> new ConcurrentHashMap<>());
             RemoteAccess ra = new RemoteAccess(remoteHost, path, httpport, httpsport, peername);
             hmap.put(remoteHost, ra);
             DAO.updateFrontPeerCache(ra);
@@ -89,11 +88,20 @@ public class RemoteAccess {
         return post;
     }
     
-    public static long latestVisit(String servlet, String remoteHost) {
-        Map<String, RemoteAccess> hmap = history.get(servlet);
-        if (hmap == null) {hmap = new ConcurrentHashMap<>(); history.put(servlet, hmap);}
-        RemoteAccess ra = hmap.get(remoteHost);
-        return ra == null ? -1 : ra.accessTime;
+    /**
+     * remove peers which did not contact this peer for some time
+     * @param maxAge the maximum time in milliseconds since the last access of a peer
+     * @return the number of removed peers
+     */
+    public static int evict(final long maxAge) {
+        long timeout = System.currentTimeMillis() - maxAge;
+        int c = 0;
+        for (Map<String, RemoteAccess> hmap: history.values()) {
+            for (Map.Entry<String, RemoteAccess> entry: hmap.entrySet()) {
+                if (entry.getValue().accessTime < timeout && hmap.remove(entry.getKey(), entry.getValue())) c++;
+            }
+        }
+        return c;
     }
     
     public static String hostHash(String remoteHost) {
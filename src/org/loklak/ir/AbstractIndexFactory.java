@@ -19,24 +19,29 @@
 
 package org.loklak.ir;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.json.JSONObject;
+import org.loklak.data.DAO;
 import org.loklak.data.IndexEntry;
 import org.loklak.harvester.Post;
 import org.loklak.objects.AbstractObjectEntry;
 import org.loklak.objects.ObjectEntry;
 import org.loklak.objects.SourceType;
-import org.loklak.tools.CacheMap;
 import org.loklak.tools.CacheSet;
 import org.loklak.tools.CacheStats;
+import org.loklak.tools.ConcurrentCacheMap;
+import org.loklak.tools.ScalableBloomFilter;
 
 /**
  * test calls:
@@ -46,19 +51,81 @@ import org.loklak.tools.CacheStats;
 public abstract class AbstractIndexFactory<IndexObject extends ObjectEntry> implements IndexFactory<IndexObject> {
     
     protected final ElasticsearchClient elasticsearch_client;
-    protected final CacheMap<String, ObjectEntry> objectCache;
+    protected final ConcurrentCacheMap<String, ObjectEntry> objectCache;
     private CacheSet<String> existCache;
     protected final String index_name;
-    private AtomicLong indexWrite, indexExist, indexGet;
+    private AtomicLong indexWrite, indexExist, indexGet, indexGetTime, indexMultiGet;
+    private ScalableBloomFilter existFilter;
+    private File existFilterFile;
+    private volatile boolean existFilterReady;
+    private AtomicLong filterNegative, filterFalsePositive;
 
     public AbstractIndexFactory(final ElasticsearchClient elasticsearch_client, final String index_name, final int cacheSize, final int existSize) {
         this.elasticsearch_client = elasticsearch_client;
         this.index_name = index_name;
-        this.objectCache = new CacheMap<>(cacheSize);
+        this.objectCache = new ConcurrentCacheMap<>(cacheSize);
         this.existCache = new CacheSet<>(existSize);
         this.indexWrite = new AtomicLong(0);
         this.indexExist = new AtomicLong(0);
         this.indexGet = new AtomicLong(0);
+        this.indexGetTime = new AtomicLong(0);
+        this.indexMultiGet = new AtomicLong(0);
+        this.existFilter = null;
+        this.existFilterReady = false;
+        this.filterNegative = new AtomicLong(0);
+        this.filterFalsePositive = new AtomicLong(0);
+    }
+
+    /**
+     * Use a Bloom filter of all ids in the index for exist checks: ids which are not in the filter
+     * are certainly not in the index, so no index request is needed for them.
+     * The filter is loaded from the file if it was written at the last close(), otherwise it is
+     * rebuilt from the index in a concurrent thread. The filter is only used when it is complete.
+     * @param file the persistence file of the filter
+     * @param capacity the initial capacity of the filter
+     * @param fpr the false-positive rate of the filter
+     */
+    public void openExistFilter(final File file, final long capacity, final double fpr) {
+        this.existFilterFile = file;
+        if (file.exists()) try {
+            this.existFilter = ScalableBloomFilter.read(file);
+            // the file is only valid until the filter changes; it is written again at close()
+            file.delete();
+            this.existFilterReady = true;
+            DAO.log("loaded exist filter for index " + this.index_name + " with " + this.existFilter.size() + " entries");
+            return;
+        } catch (IOException e) {
+            DAO.severe("cannot read exist filter " + file, e);
+        }
+        this.existFilter = new ScalableBloomFilter(capacity, fpr);
+        if (this.elasticsearch_client == null) return;
+        new Thread("EXISTFILTER-" + this.index_name) {
+            public void run() {
+                try {
+                    DAO.wait_ready(Long.MAX_VALUE);
+                    long start = System.currentTimeMillis();
+                    long count = elasticsearch_client.scrollIds(index_name, id -> existFilter.add(id));
+                    existFilterReady = true;
+                    DAO.log("rebuilt exist filter for index " + index_name + " with " + count + " entries in " + (System.currentTimeMillis() - start) + " ms");
+                } catch (Throwable e) {
+                    DAO.severe("rebuild of exist filter for index " + index_name + " failed", e);
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * @return true if the exist filter proves that the id is not in the index
+     */
+    private boolean absent(String id) {
+        if (!this.existFilterReady || this.existFilter.mightContain(id)) return false;
+        this.filterNegative.incrementAndGet();
+        return true;
+    }
+
+    private void remember(String id) {
+        this.existCache.add(id);
+        if (this.existFilter != null) this.existFilter.add(id);
     }
     
     public CacheStats getObjectStats() {
@@ -78,32 +145,99 @@ public abstract class AbstractIndexFactory<IndexObject extends ObjectEntry> impl
         index.put("write", this.indexWrite.get());
         index.put("exist", this.indexExist.get());
         index.put("get", this.indexGet.get());
+        index.put("get_time_avg", getAverageGetTime());
+        index.put("multi_get", this.indexMultiGet.get());
         json.put("index", index);
+        if (this.existFilter != null) {
+            JSONObject filter = this.existFilter.getStats();
+            long negative = this.filterNegative.get(), falsePositive = this.filterFalsePositive.get();
+            filter.put("ready", this.existFilterReady);
+            filter.put("negative", negative);
+            filter.put("false_positive", falsePositive);
+            filter.put("observed_fpr", negative + falsePositive == 0 ? 0.0d : (double) falsePositive / (negative + falsePositive));
+            json.put("exist_filter", filter);
+        }
         return json;
     }
     
+    /**
+     * get an object from the object cache. The cache also holds the posts which are written with
+     * writeEntries(List<Post>), so its value type is ObjectEntry and not the object type of the factory.
+     */
+    @SuppressWarnings("unchecked")
+    private IndexObject cachedObject(String id) {
+        return (IndexObject) this.objectCache.get(id);
+    }
+
     public IndexObject read(String id) throws IOException {
         assert id != null;
         if (id == null) return null;
-        IndexObject entry = (IndexObject) this.objectCache.get(id);
+        IndexObject entry = cachedObject(id);
         if (entry != null) {
-            this.existCache.add(id);
+            remember(id);
             return entry;
         }
         JSONObject json = readJSON(id);
         if (json == null) return null;
         entry = init(json);
         this.objectCache.put(id, entry);
-        this.existCache.add(id);
+        remember(id);
         return entry;
     }
     
+    /**
+     * read several objects with one index request. Objects which are not in the object cache are read with
+     * a multi-get request and put into the object cache, so following calls of read() do not access the index.
+     * @param ids the ids of the objects, may contain duplicates
+     * @return a map from the id to the object for all objects which exist
+     */
+    public Map<String, IndexObject> readBulk(Collection<String> ids) throws IOException {
+        Map<String, IndexObject> result = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (String id: ids) {
+            if (id == null || result.containsKey(id)) continue;
+            IndexObject entry = cachedObject(id);
+            if (entry != null) {
+                remember(id);
+                result.put(id, entry);
+            } else if (!absent(id)) {
+                missing.add(id);
+            }
+        }
+        if (missing.size() == 0 || this.elasticsearch_client == null) return result;
+        Map<String, Map<String, Object>> maps = this.elasticsearch_client.readMapBulk(this.index_name, missing);
+        this.indexMultiGet.incrementAndGet();
+        for (Map.Entry<String, Map<String, Object>> map: maps.entrySet()) {
+            IndexObject entry = init(new JSONObject(map.getValue()));
+            this.objectCache.put(map.getKey(), entry);
+            remember(map.getKey());
+            result.put(map.getKey(), entry);
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the object is in the object cache; read() will not access the index for it
+     */
+    public boolean cached(String id) {
+        return this.objectCache.exist(id);
+    }
+
+    /**
+     * @return the average time of a single get request to the index in milliseconds, 0 if there was no request yet
+     */
+    public double getAverageGetTime() {
+        long count = this.indexGet.get();
+        return count == 0 ? 0.0d : this.indexGetTime.get() / 1000000.0d / count;
+    }
+
     @Override
     public boolean exists(String id) {
-        if (existsCache(id)) return true;
+        if (absent(id)) return false;
+        if (this.existCache.contains(id) || this.objectCache.exist(id)) return true;
         boolean exist = this.elasticsearch_client == null ? false : this.elasticsearch_client.exist(index_name, null, id);
         this.indexExist.incrementAndGet();
-        if (exist) this.existCache.add(id);
+        if (exist) remember(id); else if (this.existFilterReady) this.filterFalsePositive.incrementAndGet();
         return exist;
     }
 
@@ -112,20 +246,24 @@ public abstract class AbstractIndexFactory<IndexObject extends ObjectEntry> impl
         Set<String> result = new HashSet<>();
         List<String> check = new ArrayList<>(ids.size());
         for (String id: ids) {
-            if (existsCache(id)) result.add(id); else check.add(id);
+            if (absent(id)) continue;
+            if (this.existCache.contains(id) || this.objectCache.exist(id)) result.add(id); else check.add(id);
         }
-        this.indexExist.addAndGet(ids.size());
+        if (check.size() == 0) return result;
+        this.indexExist.addAndGet(check.size());
         Set<String> test = this.elasticsearch_client == null ? null : this.elasticsearch_client.existBulk(this.index_name, (String) null, check);
         if (test != null) for (String id: test) {
-            this.existCache.add(id);
+            remember(id);
             result.add(id);
             //assert elasticsearch_client.exist(index_name, null, id); // uncomment for production
         }
+        if (test != null && this.existFilterReady) this.filterFalsePositive.addAndGet(check.size() - test.size());
         return result;
     }
 
     @Override
     public boolean existsCache(String id) {
+        if (absent(id)) return false;
         return this.existCache.contains(id) || this.objectCache.exist(id);
     }
     
@@ -139,10 +277,12 @@ public abstract class AbstractIndexFactory<IndexObject extends ObjectEntry> impl
     @Override
     public JSONObject readJSON(String id) {
         if (this.elasticsearch_client == null) return null;
+        long start = System.nanoTime();
         Map<String, Object> map = this.elasticsearch_client.readMap(index_name, id);
+        this.indexGetTime.addAndGet(System.nanoTime() - start);
         this.indexGet.incrementAndGet();
         if (map == null) return null;
-        this.existCache.add(id);
+        remember(id);
         return new JSONObject(map);
     }
 
@@ -156,7 +296,7 @@ public abstract class AbstractIndexFactory<IndexObject extends ObjectEntry> impl
     @Override
     public boolean writeEntry(IndexEntry<IndexObject> entry) throws IOException {
         boolean newDoc = this.objectCache.put(entry.getId(), entry.getObject()) == null;
-        this.existCache.add(entry.getId());
+        remember(entry.getId());
         // record user into search index
         JSONObject json = entry.getObject().toJSON();
         if (json == null) return false;
@@ -170,7 +310,7 @@ public abstract class AbstractIndexFactory<IndexObject extends ObjectEntry> impl
     @Override
     public void writeEntryAsync(IndexEntry<IndexObject> entry) throws IOException {
         this.objectCache.put(entry.getId(), entry.getObject());
-        this.existCache.add(entry.getId());
+        remember(entry.getId());
         // record user into search index
         JSONObject json = entry.getObject().toJSON();
         if (json == null) return;
@@ -185,7 +325,9 @@ public abstract class AbstractIndexFactory<IndexObject extends ObjectEntry> impl
         if (json == null) return false;
         if (this.elasticsearch_client == null) return true;
         if (!json.has(AbstractObjectEntry.TIMESTAMP_FIELDNAME)) json.put(AbstractObjectEntry.TIMESTAMP_FIELDNAME, AbstractObjectEntry.utcFormatter.print(System.currentTimeMillis()));
-        boolean newDoc = this.elasticsearch_client.writeMap(this.index_name, json.toMap(), "local", String.valueOf(json.get("id_str")));
+        String id = String.valueOf(json.get("id_str"));
+        if (this.existFilter != null) this.existFilter.add(id);
+        boolean newDoc = this.elasticsearch_client.writeMap(this.index_name, json.toMap(), "local", id);
         this.indexWrite.incrementAndGet();
         return newDoc;
     }
@@ -195,7 +337,9 @@ public abstract class AbstractIndexFactory<IndexObject extends ObjectEntry> impl
         if (json == null) return;
         if (this.elasticsearch_client == null) return;
         if (!json.has(AbstractObjectEntry.TIMESTAMP_FIELDNAME)) json.put(AbstractObjectEntry.TIMESTAMP_FIELDNAME, AbstractObjectEntry.utcFormatter.print(System.currentTimeMillis()));
-        this.elasticsearch_client.writeMapAsync(this.index_name, json.toMap(), "local", String.valueOf(json.get("id_str")));
+        String id = String.valueOf(json.get("id_str"));
+        if (this.existFilter != null) this.existFilter.add(id);
+        this.elasticsearch_client.writeMapAsync(this.index_name, json.toMap(), "local", id);
         this.indexWrite.incrementAndGet();
     }
 
@@ -222,7 +366,7 @@ public abstract class AbstractIndexFactory<IndexObject extends ObjectEntry> impl
         List<BulkWriteEntry> jsonMapList = new ArrayList<BulkWriteEntry>();
         for (IndexEntry<IndexObject> entry: entries) {
             this.objectCache.put(entry.getId(), entry.getObject());
-            this.existCache.add(entry.getId());
+            remember(entry.getId());
             Map<String, Object> jsonMap = entry.getObject().toJSON().toMap();
             assert jsonMap != null;
             if (jsonMap == null) continue;
@@ -256,7 +400,7 @@ public abstract class AbstractIndexFactory<IndexObject extends ObjectEntry> impl
         List<BulkWriteEntry> jsonMapList = new ArrayList<BulkWriteEntry>();
         for (Post entry: entries) {
             this.objectCache.put(entry.getPostId(), entry);
-            this.existCache.add(entry.getPostId());
+            remember(entry.getPostId());
             Map<String, Object> jsonMap = entry.toJSON().toMap();
             assert jsonMap != null;
             if (jsonMap == null) continue;
@@ -267,6 +411,12 @@ public abstract class AbstractIndexFactory<IndexObject extends ObjectEntry> impl
     }
 
     public void close() {
+        if (this.existFilter != null && this.existFilterReady) try {
+            this.existFilterFile.getParentFile().mkdirs();
+            this.existFilter.write(this.existFilterFile);
+        } catch (IOException e) {
+            DAO.severe("cannot write exist filter " + this.existFilterFile, e);
+        }
     }
 
 }
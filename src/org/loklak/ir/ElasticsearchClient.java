@@ -38,6 +38,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import org.elasticsearch.action.ActionResponse;
 import org.elasticsearch.action.ActionWriteResponse;
@@ -56,6 +57,7 @@ import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.action.support.PlainListenableActionFuture;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.TransportClient;
@@ -169,6 +171,43 @@ public class ElasticsearchClient {
         }
     }
 
+    /**
+     * list the names of all indices which match a pattern
+     * @param pattern an index name with wildcards, i.e. "messages_*"
+     * @return the set of index names
+     */
+    public Set<String> indices(String pattern) {
+        Set<String> names = new HashSet<>();
+        try {
+            String[] indices = this.elasticsearchClient.admin().indices().prepareGetIndex()
+                .addIndices(pattern)
+                .setIndicesOptions(IndicesOptions.lenientExpandOpen())
+                .execute().actionGet().getIndices();
+            for (String index: indices) names.add(index);
+        } catch (Throwable e) {
+            DAO.severe(e);
+        }
+        return names;
+    }
+
+    public void addAlias(String indexName, String alias) {
+        this.elasticsearchClient.admin().indices().prepareAliases().addAlias(indexName, alias).execute().actionGet();
+    }
+
+    /**
+     * delete a whole index. This is much cheaper than a deletion of the documents with deleteByQuery.
+     * @param indexName
+     * @return true if the index was deleted
+     */
+    public boolean deleteIndex(String indexName) {
+        try {
+            return this.elasticsearchClient.admin().indices().prepareDelete(indexName).execute().actionGet().isAcknowledged();
+        } catch (Throwable e) {
+            DAO.severe(e);
+            return false;
+        }
+    }
+
     public void setMapping(String indexName, File json) {
         try {
             this.elasticsearchClient.admin().indices().preparePutMapping(indexName)
@@ -389,6 +428,28 @@ public class ElasticsearchClient {
         return deleteBulk(indexName, ids);
     }
 
+    /**
+     * iterate over the ids of all documents in an index. The documents are read in index order without their source.
+     * @param indexName
+     * @param consumer is called for each document id
+     * @return the number of documents
+     */
+    public long scrollIds(String indexName, final Consumer<String> consumer) {
+        long count = 0;
+        SearchResponse response = elasticsearchClient.prepareSearch(indexName)
+            .setScroll(new TimeValue(60000)).setQuery(QueryBuilders.matchAllQuery())
+            .addSort(SortBuilders.fieldSort("_doc")).setFetchSource(false).setSize(1000).execute().actionGet();
+        while (response.getHits().getHits().length > 0) {
+            for (SearchHit hit : response.getHits().getHits()) {
+                consumer.accept(hit.getId());
+                count++;
+            }
+            response = elasticsearchClient.prepareSearchScroll(response.getScrollId()).setScroll(new TimeValue(60000))
+                .execute().actionGet();
+        }
+        return count;
+    }
+
     /**
      * Read a json document from the search index for a given id.
      * Elasticsearch reads the '_source' field and parses the content as json.
@@ -403,6 +464,27 @@ public class ElasticsearchClient {
         return map;
     }
 
+    /**
+     * Read several json documents from the search index with one multi-get request.
+     *
+     * @param ids
+     *            the unique identifiers of the documents
+     * @return a map from the id to the document for all documents which exist
+     */
+    public Map<String, Map<String, Object>> readMapBulk(String indexName, final Collection<String> ids) {
+        Map<String, Map<String, Object>> maps = new HashMap<>();
+        if (ids == null || ids.size() == 0) return maps;
+        MultiGetResponse multiGetItemResponses = elasticsearchClient.prepareMultiGet()
+                .add(indexName, null, ids)
+                .get();
+        for (MultiGetItemResponse itemResponse : multiGetItemResponses) {
+            if (itemResponse.isFailed()) continue;
+            Map<String, Object> map = getMap(itemResponse.getResponse());
+            if (map != null) maps.put(itemResponse.getId(), map);
+        }
+        return maps;
+    }
+
     private static Map<String, Object> getMap(GetResponse response) {
         Map<String, Object> map = null;
         if (response.isExists() && (map = response.getSourceAsMap()) != null) {
@@ -552,7 +634,14 @@ public class ElasticsearchClient {
     }
 
     public Query query(final String indexName, final QueryBuilder queryBuilder, String order_field, int timezoneOffset, int resultCount, long histogram_interval, String histogram_timefield, int aggregationLimit, String... aggregationFields) {
-        return new Query(indexName,  queryBuilder, order_field, timezoneOffset, resultCount, histogram_interval, histogram_timefield, aggregationLimit, aggregationFields);
+        return query(new String[]{indexName}, queryBuilder, order_field, timezoneOffset, resultCount, histogram_interval, histogram_timefield, aggregationLimit, aggregationFields);
+    }
+
+    /**
+     * search over several indices at once, i.e. time partitions. Indices which do not exist (any more) are ignored.
+     */
+    public Query query(final String[] indexNames, final QueryBuilder queryBuilder, String order_field, int timezoneOffset, int resultCount, long histogram_interval, String histogram_timefield, int aggregationLimit, String... aggregationFields) {
+        return new Query(indexNames,  queryBuilder, order_field, timezoneOffset, resultCount, histogram_interval, histogram_timefield, aggregationLimit, aggregationFields);
     }
 
     public Query query(
@@ -560,9 +649,18 @@ public class ElasticsearchClient {
             final QueryBuilder queryBuilder,
             String order,
             int resultCount
+    ) {
+        return query(new String[]{indexName}, queryBuilder, order, resultCount);
+    }
+
+    public Query query(
+            final String[] indexNames,
+            final QueryBuilder queryBuilder,
+            String order,
+            int resultCount
     ) {
         if (queryBuilder == null) return null;
-        return new Query(indexName, queryBuilder, order, resultCount);
+        return new Query(indexNames, queryBuilder, order, resultCount);
     }
 
     public class Query {
@@ -580,9 +678,10 @@ public class ElasticsearchClient {
          * @param aggregationLimit - the maximum count of facet entities, not search results
          * @param aggregationFields - names of the aggregation fields. If no aggregation is wanted, pass no (zero) field(s)
          */
-        private Query(final String indexName, final QueryBuilder queryBuilder, String order_field, int timezoneOffset, int resultCount, long histogram_interval, String histogram_timefield, int aggregationLimit, String... aggregationFields) {
+        private Query(final String[] indexNames, final QueryBuilder queryBuilder, String order_field, int timezoneOffset, int resultCount, long histogram_interval, String histogram_timefield, int aggregationLimit, String... aggregationFields) {
             // prepare request
-            SearchRequestBuilder request = elasticsearchClient.prepareSearch(indexName)
+            SearchRequestBuilder request = elasticsearchClient.prepareSearch(indexNames)
+                    .setIndicesOptions(IndicesOptions.lenientExpandOpen())
                     .setSearchType(SearchType.QUERY_THEN_FETCH)
                     .setQuery(queryBuilder)
                     .setFrom(0)
@@ -668,10 +767,11 @@ public class ElasticsearchClient {
             }
         }
 
-        private Query(final String indexName, QueryBuilder queryBuilder, String order_field, int resultCount) {
+        private Query(final String[] indexNames, QueryBuilder queryBuilder, String order_field, int resultCount) {
             //TODO: sort data using order_field
             // prepare request
-            SearchRequestBuilder request = elasticsearchClient.prepareSearch(indexName)
+            SearchRequestBuilder request = elasticsearchClient.prepareSearch(indexNames)
+                    .setIndicesOptions(IndicesOptions.lenientExpandOpen())
                     .setSearchType(SearchType.QUERY_THEN_FETCH)
                     .setQuery(queryBuilder)
                     .setFrom(0)
@@ -697,16 +797,16 @@ public class ElasticsearchClient {
          */
         public void add(Query other) {
 
-            // add new hits
-            otherLoop: for (Map<String, Object> otherEntry: other.result) {
+            // add new hits; the ids of the own hits are collected once, so the check is not a nested loop
+            Set<String> ownIDs = new HashSet<>(this.result.size() * 2);
+            for (Map<String, Object> ownEntry: this.result) {
+                String ownID = (String) ownEntry.get("id_str");
+                if (ownID != null) ownIDs.add(ownID);
+            }
+            for (Map<String, Object> otherEntry: other.result) {
                 String otherID = (String) otherEntry.get("id_str");
-                if (otherID == null) continue otherLoop;
-                ownLoop: for (Map<String, Object> ownEntry: this.result) {
-                    String ownID = (String) ownEntry.get("id_str");
-                    if (ownID == null) continue ownLoop;
-                    if (ownID.equals(otherID)) continue otherLoop;
-                }
-                this.result.add(otherEntry); // this is a new one
+                if (otherID == null) continue;
+                if (ownIDs.add(otherID)) this.result.add(otherEntry); // this is a new one
             }
 
             // check overall hits
@@ -722,13 +822,14 @@ public class ElasticsearchClient {
                 }
 
                 List<Map.Entry<String, AtomicLong>> ownList = this.aggregations.get(key);
-                otherLoop: for (Map.Entry<String, AtomicLong> otherPair: otherList) {
-                    for (Map.Entry<String, AtomicLong> ownPair: ownList) {
-                        if (ownPair.getKey().equals(otherPair.getKey())) {
-                            ownPair.getValue().set(Math.max(ownPair.getValue().get(), otherPair.getValue().get())); // probably this is not correct but the correct value is also not computable. This is the lower approximation of the correct value.
-                            continue otherLoop;
-                        }
+                Map<String, AtomicLong> ownCounts = new HashMap<>();
+                for (Map.Entry<String, AtomicLong> ownPair: ownList) ownCounts.put(ownPair.getKey(), ownPair.getValue());
+                for (Map.Entry<String, AtomicLong> otherPair: otherList) {
+                    AtomicLong ownCount = ownCounts.get(otherPair.getKey());
+                    if (ownCount == null) {
                         ownList.add(otherPair); // because we did not see the key we can just add this here
+                    } else {
+                        ownCount.set(Math.max(ownCount.get(), otherPair.getValue().get())); // probably this is not correct but the correct value is also not computable. This is the lower approximation of the correct value.
                     }
                 }
             }
@@ -19,11 +19,19 @@
 
 package org.loklak.ir;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.function.Consumer;
+
 import org.json.JSONObject;
+import org.loklak.data.IndexEntry;
 import org.loklak.objects.QueryEntry;
+import org.loklak.objects.SourceType;
 
 public class QueryFactory extends AbstractIndexFactory<QueryEntry> implements IndexFactory<QueryEntry> {
 
+    private volatile Consumer<String> writeListener = null;
+
     public QueryFactory(final ElasticsearchClient elasticsearch_client, final String index_name, final int cacheSize, final int existSize) {
         super(elasticsearch_client, index_name, cacheSize, existSize);
     }
@@ -32,5 +40,50 @@ public class QueryFactory extends AbstractIndexFactory<QueryEntry> implements In
     public QueryEntry init(JSONObject json) {
         return new QueryEntry(json);
     }
-    
-}
\ No newline at end of file
+
+    /**
+     * set a listener which is called with the query of every written or deleted query entry
+     */
+    public void setWriteListener(Consumer<String> writeListener) {
+        this.writeListener = writeListener;
+    }
+
+    private void written(String query) {
+        Consumer<String> listener = this.writeListener;
+        if (listener != null && query != null) listener.accept(query);
+    }
+
+    @Override
+    public boolean writeEntry(IndexEntry<QueryEntry> entry) throws IOException {
+        boolean newDoc = super.writeEntry(entry);
+        written(entry.getId());
+        return newDoc;
+    }
+
+    @Override
+    public void writeEntryAsync(IndexEntry<QueryEntry> entry) throws IOException {
+        super.writeEntryAsync(entry);
+        written(entry.getId());
+    }
+
+    @Override
+    public BulkWriteResult writeEntries(Collection<IndexEntry<QueryEntry>> entries) throws IOException {
+        BulkWriteResult result = super.writeEntries(entries);
+        for (IndexEntry<QueryEntry> entry: entries) written(entry.getId());
+        return result;
+    }
+
+    @Override
+    public void writeEntriesAsync(Collection<IndexEntry<QueryEntry>> entries) throws IOException {
+        super.writeEntriesAsync(entries);
+        for (IndexEntry<QueryEntry> entry: entries) written(entry.getId());
+    }
+
+    @Override
+    public boolean delete(String id, SourceType sourceType) {
+        boolean deleted = super.delete(id, sourceType);
+        written(id);
+        return deleted;
+    }
+
+}
@@ -0,0 +1,376 @@
+/**
+ *  TimePartitionedIndex
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.loklak.data.DAO;
+import org.loklak.data.IndexEntry;
+import org.loklak.harvester.Post;
+import org.loklak.harvester.TwitterScraper.TwitterTweet;
+import org.loklak.objects.AbstractObjectEntry;
+import org.loklak.tools.DateParser;
+
+/**
+ * A message store which is split into one index per day of the message creation date. All partitions
+ * are members of an alias, so the whole store can be searched with the alias name. A search for a time
+ * range can be routed to the partitions which overlap with that range.
+ * Only messages within the retention time are stored; old messages are removed by deleting whole partitions.
+ * Partition names are the base name with the day appended, i.e. messages_20261018.
+ * The partitions are filled only with messages which are written after they were introduced, so the partitions
+ * of the days before the first day on which they were written completely are not used for searches; such
+ * searches are routed to the full index until the retention time has passed.
+ */
+public class TimePartitionedIndex {
+
+    private final static DateTimeFormatter DAY_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private final ElasticsearchClient elasticsearch_client;
+    private final String baseName, alias;
+    private final File mapping;
+    private final int shards, replicas, retentionDays;
+    private final TreeMap<Long, String> partitions; // key is the day number since epoch
+    private volatile long completeDay;              // the first day which is complete in the partitions
+    private File state;                             // the file which stores completeDay
+
+    /**
+     * @param elasticsearch_client the client, may be null if no index is used
+     * @param baseName the name prefix of the partitions
+     * @param alias the name of the alias which includes all partitions
+     * @param mapping the mapping file of the partitions
+     * @param shards number of shards for each partition
+     * @param replicas number of replicas for each partition
+     * @param retentionDays number of days before the current day which are stored
+     */
+    public TimePartitionedIndex(final ElasticsearchClient elasticsearch_client, final String baseName, final String alias, final File mapping, final int shards, final int replicas, final int retentionDays) {
+        this.elasticsearch_client = elasticsearch_client;
+        this.baseName = baseName;
+        this.alias = alias;
+        this.mapping = mapping;
+        this.shards = shards;
+        this.replicas = replicas;
+        this.retentionDays = Math.max(1, retentionDays);
+        this.partitions = new TreeMap<>();
+        this.completeDay = 0;
+    }
+
+    /**
+     * find existing partitions and make sure that the partition for the current day exists,
+     * so the alias can always be resolved
+     * @param state the file which stores the first complete day; if it does not exist, the partitions are
+     *   new and they are complete from the next day on
+     */
+    public void open(final File state) {
+        this.state = state;
+        this.completeDay = loadCompleteDay(state);
+        if (this.elasticsearch_client == null) return;
+        for (String index: this.elasticsearch_client.indices(this.baseName + "_*")) register(index);
+        partition(today());
+        DAO.log("opened " + this.partitions.size() + " partitions of " + this.alias + ", complete since " + LocalDate.ofEpochDay(this.completeDay));
+    }
+
+    void register(final String index) {
+        long day = day(index);
+        if (day >= 0) synchronized (this.partitions) {this.partitions.put(day, index);}
+    }
+
+    private static long loadCompleteDay(final File state) {
+        if (state == null) return 0;
+        try {
+            if (state.exists()) return Long.parseLong(new String(Files.readAllBytes(state.toPath()), StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            DAO.severe("cannot read " + state + ", the partitions are treated as new", e);
+        }
+        // messages of the current day were written before into the full index only
+        long day = today() + 1;
+        storeCompleteDay(state, day);
+        return day;
+    }
+
+    private static void storeCompleteDay(final File state, final long day) {
+        if (state == null) return;
+        try {
+            state.getParentFile().mkdirs();
+            Files.write(state.toPath(), Long.toString(day).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            DAO.severe("cannot write " + state, e);
+        }
+    }
+
+    /**
+     * mark the partition of a day as incomplete because messages of that day could not be written into it;
+     * searches which include that day are then routed to the full index
+     */
+    void incomplete(final long day) {
+        synchronized (this.partitions) {
+            if (day < this.completeDay) return;
+            this.completeDay = day + 1;
+            storeCompleteDay(this.state, this.completeDay);
+        }
+        DAO.log("partition " + partitionName(day) + " is incomplete, " + this.alias + " is complete since " + LocalDate.ofEpochDay(this.completeDay));
+    }
+
+    public String getAlias() {
+        return this.alias;
+    }
+
+    private static long today() {
+        return System.currentTimeMillis() / DateParser.DAY_MILLIS;
+    }
+
+    private static long day(final Date date) {
+        return Math.floorDiv(date.getTime(), DateParser.DAY_MILLIS);
+    }
+
+    /**
+     * the partition of a message is chosen by the creation date which is also used in search time ranges
+     */
+    private static long day(final Post post) {
+        Date created = post instanceof TwitterTweet ? ((TwitterTweet) post).getCreatedAt() : post.getCreated();
+        return day(created == null ? new Date() : created);
+    }
+
+    private long day(final String index) {
+        if (!index.startsWith(this.baseName + "_")) return -1;
+        try {
+            return LocalDate.parse(index.substring(this.baseName.length() + 1), DAY_FORMAT).toEpochDay();
+        } catch (DateTimeParseException e) {
+            return -1; // not a partition
+        }
+    }
+
+    public String partitionName(final long day) {
+        return this.baseName + "_" + LocalDate.ofEpochDay(day).format(DAY_FORMAT);
+    }
+
+    /**
+     * @return the first day which is stored in the partitions
+     */
+    private long firstDay() {
+        return today() - this.retentionDays;
+    }
+
+    /**
+     * @return the start time of the oldest partition which is kept
+     */
+    public Date getRetentionStart() {
+        return new Date(firstDay() * DateParser.DAY_MILLIS);
+    }
+
+    /**
+     * @return the first day which is stored completely in the partitions
+     */
+    private long firstCompleteDay() {
+        return Math.max(firstDay(), this.completeDay);
+    }
+
+    /**
+     * @param since the start of a search time range
+     * @return true if all messages since the given date are in the partitions
+     */
+    public boolean covers(final Date since) {
+        return since != null && day(since) >= firstCompleteDay();
+    }
+
+    /**
+     * get the partition for a day; the partition is created if it does not exist
+     * @param day the day number since epoch
+     * @return the partition name or null if the partition cannot be created or added to the alias
+     */
+    private String partition(final long day) {
+        synchronized (this.partitions) {
+            String name = this.partitions.get(day);
+            if (name != null) return name;
+            name = partitionName(day);
+            try {
+                this.elasticsearch_client.createIndexIfNotExists(name, this.shards, this.replicas);
+                this.elasticsearch_client.setMapping(name, this.mapping);
+                this.elasticsearch_client.addAlias(name, this.alias);
+                this.partitions.put(day, name);
+                DAO.log("created partition " + name);
+            } catch (Throwable e) {
+                DAO.severe("cannot create partition " + name, e);
+                return null;
+            }
+            return name;
+        }
+    }
+
+    /**
+     * get the complete partitions which hold messages within a time range
+     * @param since the start of the time range
+     * @param until the end of the time range
+     * @return an array of partition names, can be empty
+     */
+    public String[] partitions(final Date since, final Date until) {
+        long from = Math.max(firstCompleteDay(), since == null ? 0 : day(since));
+        long to = until == null || until.getTime() == Long.MAX_VALUE ? Long.MAX_VALUE : day(until);
+        synchronized (this.partitions) {
+            if (from > to) return new String[0];
+            Collection<String> names = to == Long.MAX_VALUE ?
+                    this.partitions.tailMap(from, true).values() :
+                    this.partitions.subMap(from, true, to, true).values();
+            return names.toArray(new String[names.size()]);
+        }
+    }
+
+    /**
+     * compute the indices which are searched for a time range. If the complete partitions cover the range,
+     * only the partitions of that range are searched. Otherwise the search can be widened step by step:
+     * first the partitions of the last day, then all complete partitions and finally the full index.
+     * Each step contains all messages of the step before.
+     * @param since the start of the time range
+     * @param until the end of the time range
+     * @param widen true if the steps shall be added, false if only the full index shall be searched
+     * @param fullIndex the name of the index which holds all messages
+     * @return a list of index name arrays, one for each search step
+     */
+    public List<String[]> route(final Date since, final Date until, final boolean widen, final String fullIndex) {
+        List<String[]> steps = new ArrayList<>(3);
+        String[] full = new String[]{fullIndex};
+        if (covers(since)) {
+            String[] partitions = partitions(since, until);
+            steps.add(partitions.length > 0 ? partitions : full);
+            return steps;
+        }
+        if (widen) {
+            String[] lastDay = partitions(DateParser.oneDayAgo(), until);
+            String[] all = partitions(null, until);
+            if (lastDay.length > 0 && lastDay.length < all.length) steps.add(lastDay);
+            if (all.length > 0) steps.add(all);
+        }
+        steps.add(full);
+        return steps;
+    }
+
+    /**
+     * write messages into the partitions of their creation date. Messages older than the retention time are omitted.
+     * @param entries the messages
+     * @return the joined write results of all partitions
+     */
+    public BulkWriteResult writeEntries(final Collection<IndexEntry<Post>> entries) {
+        Map<Long, List<BulkWriteEntry>> bulks = new TreeMap<>();
+        long first = firstDay();
+        for (IndexEntry<Post> entry: entries) {
+            long day = day(entry.getObject());
+            if (day < first) continue;
+            Map<String, Object> jsonMap = entry.getObject().toJSON().toMap();
+            if (jsonMap == null) continue;
+            add(bulks, day, new BulkWriteEntry(entry.getId(), entry.getType().toString(), AbstractObjectEntry.TIMESTAMP_FIELDNAME, null, jsonMap));
+        }
+        return write(bulks);
+    }
+
+    public BulkWriteResult writePosts(final Collection<Post> posts) {
+        Map<Long, List<BulkWriteEntry>> bulks = new TreeMap<>();
+        long first = firstDay();
+        for (Post post: posts) {
+            long day = day(post);
+            if (day < first) continue;
+            Map<String, Object> jsonMap = post.toJSON().toMap();
+            if (jsonMap == null) continue;
+            add(bulks, day, new BulkWriteEntry(post.getPostId(), "local", "timestamp_id", null, jsonMap));
+        }
+        return write(bulks);
+    }
+
+    private static void add(final Map<Long, List<BulkWriteEntry>> bulks, final long day, final BulkWriteEntry entry) {
+        List<BulkWriteEntry> bulk = bulks.get(day);
+        if (bulk == null) {
+            bulk = new ArrayList<>();
+            bulks.put(day, bulk);
+        }
+        bulk.add(entry);
+    }
+
+    private BulkWriteResult write(final Map<Long, List<BulkWriteEntry>> bulks) {
+        if (bulks.size() == 0) return ElasticsearchClient.EMPTY_BULK_RESULT;
+        BulkWriteResult result = new BulkWriteResult();
+        if (this.elasticsearch_client == null) return result;
+        for (Map.Entry<Long, List<BulkWriteEntry>> bulk: bulks.entrySet()) {
+            String partition = partition(bulk.getKey());
+            if (partition == null) {
+                // the messages are written into the full index at the same time, they are only missing in the partition
+                incomplete(bulk.getKey());
+                continue;
+            }
+            BulkWriteResult r = this.elasticsearch_client.writeMapBulk(partition, bulk.getValue());
+            result.getCreated().addAll(r.getCreated());
+            result.getErrors().putAll(r.getErrors());
+        }
+        return result;
+    }
+
+    /**
+     * count the messages in all partitions
+     * @param field the date field for the time range
+     * @param millis the time range in milliseconds before now or -1 for all messages
+     * @return the number of messages
+     */
+    public long count(final String field, final long millis) {
+        if (this.elasticsearch_client == null) return 0;
+        return this.elasticsearch_client.count(this.alias, field, millis);
+    }
+
+    /**
+     * delete all partitions which are older than the retention time
+     * @return the number of deleted partitions
+     */
+    public int dropExpired() {
+        if (this.elasticsearch_client == null) return 0;
+        List<String> expired = new ArrayList<>();
+        synchronized (this.partitions) {
+            Map<Long, String> head = this.partitions.headMap(firstDay(), false);
+            expired.addAll(head.values());
+            head.clear();
+        }
+        int dropped = 0;
+        for (String name: expired) {
+            if (this.elasticsearch_client.deleteIndex(name)) dropped++;
+        }
+        return dropped;
+    }
+
+    public JSONObject getStats() {
+        JSONObject json = new JSONObject(true);
+        json.put("alias", this.alias);
+        json.put("retention_days", this.retentionDays);
+        json.put("complete_since", LocalDate.ofEpochDay(firstCompleteDay()).toString());
+        synchronized (this.partitions) {
+            json.put("partitions", new JSONArray(this.partitions.values()));
+        }
+        return json;
+    }
+
+}
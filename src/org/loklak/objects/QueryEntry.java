@@ -31,6 +31,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import org.elasticsearch.common.unit.DistanceUnit;
 import org.elasticsearch.index.query.BoolQueryBuilder;
@@ -41,9 +42,11 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.loklak.data.Classifier;
 import org.loklak.data.DAO;
+import org.loklak.harvester.TwitterScraper;
 import org.loklak.harvester.TwitterScraper.TwitterTweet;
 import org.loklak.geo.GeoLocation;
 import org.loklak.geo.GeoMark;
+import org.loklak.tools.ConcurrentCacheMap;
 import org.loklak.tools.DateParser;
 
 import com.google.common.collect.HashMultimap;
@@ -82,6 +85,7 @@ public class QueryEntry extends AbstractObjectEntry implements ObjectEntry {
     protected int messages_per_day;   // a message frequency based on the last query
     protected long score_retrieval;   // score for the retrieval order
     protected long score_suggest;     // score for the suggest order
+    protected String since_id;        // the id of the newest message of the last retrieval, null if unknown
 
     /**
      * This initializer can only be used for first-time creation of a query track.
@@ -101,6 +105,7 @@ public class QueryEntry extends AbstractObjectEntry implements ObjectEntry {
         this.messages_per_day = 0; // means: unknown
         this.score_retrieval = 0;
         this.score_suggest = 0;
+        this.since_id = null;
         update(message_period, byUserQuery);
         this.query_first = retrieval_last;
     }
@@ -128,6 +133,7 @@ public class QueryEntry extends AbstractObjectEntry implements ObjectEntry {
         this.messages_per_day = (int) parseLong((Number) json.get("messages_per_day"));
         this.score_retrieval = (int) parseLong((Number) json.get("score_retrieval"));
         this.score_suggest = (int) parseLong((Number) json.get("score_suggest"));
+        this.since_id = json.has("since_id") ? (String) json.get("since_id") : null;
     }
     
     /**
@@ -150,6 +156,7 @@ public class QueryEntry extends AbstractObjectEntry implements ObjectEntry {
         } else {
             this.message_period = this.message_period == 0 ? new_message_period : (this.message_period + new_message_period) / 2;
         }
+        if (this.message_period <= 0) this.message_period = 1; // a timeline of messages with the same date has the period 0
         this.messages_per_day = (int) (DAY_MILLIS / this.message_period);
         double ttl_factor = DAO.getConfig("retrieval.queries.ttlfactor", 0.75d);
         long pivot_period = DAO.getConfig("retrieval.queries.pivotfrequency", 10000);
@@ -161,6 +168,20 @@ public class QueryEntry extends AbstractObjectEntry implements ObjectEntry {
         long waitingtime = Math.min(DAY_MILLIS, (long) (ttl_factor * RETRIEVAL_CONSTANT * strategic_period));
         this.retrieval_next = new Date(this.retrieval_last.getTime() + waitingtime);
     }
+
+    /**
+     * update the retrieval time after an incremental retrieval which returned only the messages which are
+     * newer than the since_id. The message period is then the time since the last retrieval divided by the
+     * number of new messages; if there was no new message the period is at least twice that time.
+     * @param newMessages the number of messages which are newer than the since_id
+     * @param byUserQuery is true, if the query was submitted by the user; false if the query was submitted by an automatic system
+     */
+    public void updateIncremental(final int newMessages, final boolean byUserQuery) {
+        long interval = Math.max(1000, System.currentTimeMillis() - this.retrieval_last.getTime());
+        long observed = newMessages > 0 ? interval / newMessages : 2 * interval;
+        update(Math.min(DAY_MILLIS, observed), byUserQuery);
+    }
+
     // to check the retrieval order created by the update method, call
     // http://localhost:9000/api/suggest.json?orderby=retrieval_next&order=asc
     
@@ -226,6 +247,18 @@ public class QueryEntry extends AbstractObjectEntry implements ObjectEntry {
         return this.messages_per_day;
     }
 
+    public String getSinceId() {
+        return this.since_id;
+    }
+
+    /**
+     * set the id of the newest retrieved message; an id which is not newer than the current one is ignored
+     * @param since_id a numeric message id
+     */
+    public void setSinceId(final String since_id) {
+        if (TwitterScraper.Increment.isNewer(since_id, this.since_id)) this.since_id = since_id;
+    }
+
     @Override
     public JSONObject toJSON() {
         JSONObject m = new JSONObject();
@@ -244,6 +277,7 @@ public class QueryEntry extends AbstractObjectEntry implements ObjectEntry {
         m.put("messages_per_day", this.messages_per_day);
         m.put("score_retrieval", this.score_retrieval);
         m.put("score_suggest", this.score_suggest);
+        if (this.since_id != null) m.put("since_id", this.since_id);
         return m;
     }
 
@@ -280,6 +314,7 @@ public class QueryEntry extends AbstractObjectEntry implements ObjectEntry {
         public Multimap<String, String> modifier;
         public PlaceContext place_context;
         public double[] bbox; // double[]{lon_west,lat_south,lon_east,lat_north}
+        private ConstraintFilter filter;
         
         public Tokens(final String q) {
             this.original = q;
@@ -345,6 +380,14 @@ public class QueryEntry extends AbstractObjectEntry implements ObjectEntry {
             }
         }
         
+        /**
+         * @return the compiled constraints of the query
+         */
+        public ConstraintFilter getFilter() {
+            if (this.filter == null) this.filter = ConstraintFilter.get(this);
+            return this.filter;
+        }
+        
         public String translate4scraper() {
             // check if a location constraint was given
             String dateclean = this.raw.replace(" since:hour", "").replace(" since:day", "").replace(" since:week", "").replace(" since:all", "").replace(" since:alltime", "").replace(" since:wholetime", "");
@@ -374,91 +417,165 @@ public class QueryEntry extends AbstractObjectEntry implements ObjectEntry {
     
     public static TwitterTimeline applyConstraint(TwitterTimeline tl0, Tokens tokens, boolean applyLocationConstraint) {
          if (tokens.constraints_positive.size() == 0 && tokens.constraints_negative.size() == 0 && tokens.modifier.size() == 0) return tl0;
+        ConstraintFilter filter = tokens.getFilter();
         TwitterTimeline tl1 = new TwitterTimeline(tl0.getOrder());
-        messageloop: for (TwitterTweet message: tl0) {
+        for (TwitterTweet message: tl0) {
+            if (filter.accept(message, applyLocationConstraint)) tl1.add(message, tl0.getUser(message.getScreenName()));
+        }
+        return tl1;
+    }
+
+    private final static ConcurrentCacheMap<String, ConstraintFilter> constraintFilterCache = new ConcurrentCacheMap<>(1000);
+
+    /**
+     * The constraints and modifiers of a query, compiled into an array of checks. Each check rejects messages
+     * for one constraint; a message is accepted if no check rejects it. Bounding boxes are parsed and link
+     * patterns are compiled once, and the checks are ordered by their cost, the cheapest first, so most
+     * messages are rejected before the expensive checks are done.
+     * Filters are cached by the query string, so all results of the same query share one filter.
+     */
+    public static class ConstraintFilter {
+
+        private interface Check {
+            boolean accept(TwitterTweet message);
+        }
+
+        private final Check[] checks; // the checks of the constraints, the cheapest first
+        private final Check bbox; // the check of the bounding box of the query, only applied if a location constraint is requested
+
+        private ConstraintFilter(final Tokens tokens) {
+            final Set<String> positive = tokens.constraints_positive, negative = tokens.constraints_negative;
+            final PlaceContext place_context = tokens.place_context;
+            List<Check> checks = new ArrayList<>();
+
+            // checks of numbers and sizes
+            int maxlength = Integer.MAX_VALUE;
+            if (positive.contains("len25")) maxlength = 25;
+            else if (positive.contains("len50")) maxlength = 50;
+            else if (positive.contains("len75")) maxlength = 75;
+            else if (positive.contains("len100")) maxlength = 100;
+            if (maxlength < Integer.MAX_VALUE) {
+                final int l = maxlength;
+                checks.add(message -> message.getTextLength() <= l);
+            }
+            if (positive.contains("pure")) checks.add(message ->
+                    message.getImages().size() == 0 && message.getMentionCount() == 0 && message.getLinkCount() == 0 && message.getHashtagCount() == 0);
+            if (positive.contains("image")) checks.add(message -> message.getImages().size() != 0);
+            if (negative.contains("image")) checks.add(message -> message.getImages().size() == 0);
+            if (positive.contains("place")) checks.add(message -> message.getPlaceName().length() != 0);
+            if (negative.contains("place")) checks.add(message -> message.getPlaceName().length() == 0);
+            if (positive.contains("location")) checks.add(message -> message.getLocationPoint() != null && message.getPlaceContext() == place_context);
+            if (negative.contains("location")) checks.add(message -> message.getLocationPoint() == null);
+            if (positive.contains("link")) checks.add(message -> message.getLinkCount() != 0);
+            if (negative.contains("link")) checks.add(message -> message.getLinkCount() == 0);
+            if (positive.contains("mention")) checks.add(message -> message.getMentionCount() != 0);
+            if (negative.contains("mention")) checks.add(message -> message.getMentionCount() == 0);
+            if (positive.contains("hashtag")) checks.add(message -> message.getHashtagCount() != 0);
+            if (negative.contains("hashtag")) checks.add(message -> message.getHashtagCount() == 0);
 
-            // check modifier
+            // checks of the author
             if (tokens.modifier.containsKey("from")) {
-                for (String screen_name: tokens.modifier.get("from")) {
-                    if (!message.getScreenName().equals(screen_name)) continue messageloop;
-                }
+                final String[] from = tokens.modifier.get("from").toArray(new String[0]);
+                checks.add(message -> {
+                    for (String screen_name: from) if (!message.getScreenName().equals(screen_name)) return false;
+                    return true;
+                });
             }
             if (tokens.modifier.containsKey("-from")) {
-                for (String screen_name: tokens.modifier.get("-from")) {
-                    if (message.getScreenName().equals(screen_name)) continue messageloop;
-                }
+                final String[] notfrom = tokens.modifier.get("-from").toArray(new String[0]);
+                checks.add(message -> {
+                    for (String screen_name: notfrom) if (message.getScreenName().equals(screen_name)) return false;
+                    return true;
+                });
             }
-            if (applyLocationConstraint && tokens.bbox != null) {
-                double[] location_point = message.getLocationPoint();
-                if (location_point == null || location_point.length < 2) continue messageloop; //longitude, latitude
-                if (location_point[0] < tokens.bbox[0] || location_point[0] > tokens.bbox[2] ||  // double[]{lon_west,lat_south,lon_east,lat_north}
-                    location_point[1] > tokens.bbox[1] || location_point[1] < tokens.bbox[3]) continue messageloop;
-            }
-            
-            // check constraints
-            if (tokens.constraints_positive.contains("pure") && (
-                    message.getImages().size() != 0 ||
-                    message.getMentions().length != 0 ||
-                    message.getLinks().length != 0 ||
-                    message.getHashtags().length != 0
-               )) continue;
-            
-            if (tokens.constraints_positive.contains("len25") && message.getTextLength() > 25) continue;
-            if (tokens.constraints_positive.contains("len50") && message.getTextLength() > 50) continue;
-            if (tokens.constraints_positive.contains("len75") && message.getTextLength() > 75) continue;
-            if (tokens.constraints_positive.contains("len100") && message.getTextLength() > 100) continue;
-            
-            if (tokens.constraints_positive.contains("image") && message.getImages().size() == 0) continue;
-            if (tokens.constraints_negative.contains("image") && message.getImages().size() != 0) continue;
-            if (tokens.constraints_positive.contains("place") && message.getPlaceName().length() == 0) continue;
-            if (tokens.constraints_negative.contains("place") && message.getPlaceName().length() != 0) continue;
-            if (tokens.constraints_positive.contains("location") && (message.getLocationPoint() == null || message.getPlaceContext() != tokens.place_context)) continue;
-            if (tokens.constraints_negative.contains("location") && message.getLocationPoint() != null) continue;
-            if (tokens.constraints_positive.contains("link") && message.getLinks().length == 0) continue;
-            if (tokens.constraints_negative.contains("link") && message.getLinks().length != 0) continue;
-            if (tokens.constraints_positive.contains("mention") && message.getMentions().length == 0) continue;
-            if (tokens.constraints_negative.contains("mention") && message.getMentions().length != 0) continue;
-            if (tokens.constraints_positive.contains("hashtag") && message.getHashtags().length == 0) continue;
-            if (tokens.constraints_negative.contains("hashtag") && message.getHashtags().length != 0) continue;
-            for (Classifier.Context context: Classifier.Context.values()) {
-                if (tokens.constraints_positive.contains(context.name()) && message.getClassifier(context) == null) continue messageloop;
-                if (tokens.constraints_negative.contains(context.name()) && message.getClassifier(context) != null) continue messageloop;
+
+            // checks of the classification
+            for (final Classifier.Context context: Classifier.Context.values()) {
+                if (positive.contains(context.name())) checks.add(message -> message.getClassifier(context) != null);
+                if (negative.contains(context.name())) checks.add(message -> message.getClassifier(context) == null);
             }
-            
-            // special treatment of location and link constraint
-            constraintCheck: for (String cs: tokens.constraints_positive) {
+
+            // checks of location and link parameters
+            List<Check> patterns = new ArrayList<>();
+            for (String cs: positive) {
                 if (cs.startsWith(Constraint.location.name() + "=")) {
-                    if (message.getLocationPoint() == null) continue messageloop;
-                    if (message.getPlaceContext() != tokens.place_context) continue messageloop;
-                    String params = cs.substring(Constraint.location.name().length() + 1);
-                    String[] coord = params.split(",");
-                    if (coord.length == 4) {
-                        double lon = message.getLocationPoint()[0];
-                        double lon_west  = Double.parseDouble(coord[0]);
-                        double lon_east  = Double.parseDouble(coord[2]);
-                        assert lon_west < lon_east;
-                        if (lon < lon_west || lon > lon_east) continue messageloop;
-                        double lat = message.getLocationPoint()[1];
-                        double lat_south = Double.parseDouble(coord[1]);
-                        double lat_north = Double.parseDouble(coord[3]);
-                        assert lat_north > lat_south;
-                        if (lat < lat_south || lat > lat_north) continue messageloop;
+                    String[] coord = cs.substring(Constraint.location.name().length() + 1).split(",");
+                    double[] box = null;
+                    if (coord.length == 4) try {
+                        box = new double[4];
+                        for (int i = 0; i < 4; i++) box[i] = Double.parseDouble(coord[i]);
+                    } catch (NumberFormatException e) {
+                        checks.add(message -> false); // a broken bounding box does not match
+                        continue;
                     }
+                    final double[] b = box; // double[]{lon_west,lat_south,lon_east,lat_north}
+                    checks.add(message -> {
+                        double[] location_point = message.getLocationPoint();
+                        if (location_point == null || message.getPlaceContext() != place_context) return false;
+                        return b == null || (location_point[0] >= b[0] && location_point[0] <= b[2] && location_point[1] >= b[1] && location_point[1] <= b[3]);
+                    });
                 }
                 if (cs.startsWith(Constraint.link.name() + "=")) {
-                    if (message.getLinks().length == 0) continue messageloop;
-                    Pattern regex = Pattern.compile(cs.substring(Constraint.link.name().length() + 1));
-                    for (String link: message.getLinks()) {
-                        if (regex.matcher(link).matches()) continue constraintCheck;
+                    final Pattern regex;
+                    try {
+                        regex = Pattern.compile(cs.substring(Constraint.link.name().length() + 1));
+                    } catch (PatternSyntaxException e) {
+                        checks.add(message -> false); // a broken pattern does not match
+                        continue;
                     }
-                    // no match
-                    continue messageloop;
+                    final ThreadLocal<Matcher> matcher = ThreadLocal.withInitial(() -> regex.matcher("")); // reused for all links of a thread
+                    patterns.add(message -> {
+                        if (message.getLinkCount() == 0) return false;
+                        Matcher m = matcher.get();
+                        for (String link: message.getLinkList()) if (m.reset(link).matches()) return true;
+                        return false;
+                    });
                 }
             }
-            
-            tl1.add(message, tl0.getUser(message.getScreenName()));
+            checks.addAll(patterns);
+            this.checks = checks.toArray(new Check[checks.size()]);
+
+            // the bbox of a location constraint is ordered south to north, the bbox of a near modifier north to south
+            if (tokens.bbox == null) {
+                this.bbox = null;
+            } else {
+                final double lon_west = tokens.bbox[0], lon_east = tokens.bbox[2]; // double[]{lon_west,lat_south,lon_east,lat_north}
+                final double lat_south = Math.min(tokens.bbox[1], tokens.bbox[3]), lat_north = Math.max(tokens.bbox[1], tokens.bbox[3]);
+                this.bbox = message -> {
+                    double[] location_point = message.getLocationPoint();
+                    if (location_point == null || location_point.length < 2) return false; //longitude, latitude
+                    return location_point[0] >= lon_west && location_point[0] <= lon_east && location_point[1] >= lat_south && location_point[1] <= lat_north;
+                };
+            }
+        }
+
+        /**
+         * get the filter of a query
+         * @param tokens the tokens of the query
+         * @return the filter from the cache or a new filter
+         */
+        public static ConstraintFilter get(final Tokens tokens) {
+            ConstraintFilter filter = constraintFilterCache.get(tokens.original);
+            if (filter == null) {
+                filter = new ConstraintFilter(tokens);
+                constraintFilterCache.put(tokens.original, filter);
+            }
+            return filter;
+        }
+
+        /**
+         * test a message against all constraints of the query
+         * @param message the message
+         * @param applyLocationConstraint if true, the message must be inside the bounding box of the query
+         * @return true if the message matches all constraints
+         */
+        public boolean accept(final TwitterTweet message, final boolean applyLocationConstraint) {
+            if (applyLocationConstraint && this.bbox != null && !this.bbox.accept(message)) return false;
+            for (int i = 0; i < this.checks.length; i++) {
+                if (!this.checks[i].accept(message)) return false;
+            }
+            return true;
         }
-        return tl1;
     }
     
     private final static Pattern term4ORPattern = Pattern.compile("(?:^| )(\\S*(?: OR \\S*)+)(?: |$)"); // Pattern.compile("(^\\s*(?: OR ^\\s*+)+)");
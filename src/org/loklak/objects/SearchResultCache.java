@@ -0,0 +1,226 @@
+/**
+ *  SearchResultCache
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.objects;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+import org.loklak.tools.ConcurrentCacheMap;
+
+/**
+ * A cache of search results which is shared by all clients, in contrast to the TimelineCache which
+ * holds the paginated results of one client. The key is the normalized query together with all
+ * parameters which change the result. Entries expire after the ttl; expired entries are removed when
+ * they are accessed and the size bound evicts with the CLOCK policy of the ConcurrentCacheMap, so there
+ * is no cleaning run over the whole cache.
+ * Concurrent misses of the same key are coalesced: the first caller computes the result, all others
+ * wait for it until the deadline of the first caller. Only complete results are shared; if a source of the
+ * search was cancelled or rejected, the result is neither cached nor handed to the waiting callers.
+ */
+public class SearchResultCache {
+
+    private final long ttl;
+    private final ConcurrentCacheMap<String, Entry> cache;
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> inFlight;
+    private final AtomicLong hit, coalesced, miss, expired, partial;
+
+    public SearchResultCache(final int maxSize, final long ttl) {
+        this.ttl = ttl;
+        this.cache = new ConcurrentCacheMap<>(maxSize);
+        this.inFlight = new ConcurrentHashMap<>();
+        this.hit = new AtomicLong(0);
+        this.coalesced = new AtomicLong(0);
+        this.miss = new AtomicLong(0);
+        this.expired = new AtomicLong(0);
+        this.partial = new AtomicLong(0);
+    }
+
+    /**
+     * compute the key of a search; the query is normalized, filters and fields are sorted
+     */
+    public static String key(String query, String source, Collection<String> filters, TwitterTimeline.Order order,
+            int count, int timezoneOffset, int aggregationLimit, String[] fields) {
+        StringBuilder sb = new StringBuilder(query.length() + 64);
+        sb.append(query.trim().replaceAll("\\s+", " ")).append('|').append(source).append('|');
+        for (String filter: new TreeSet<>(filters)) if (filter.length() > 0) sb.append(filter).append(',');
+        sb.append('|').append(order.name()).append('|').append(count).append('|').append(timezoneOffset).append('|').append(aggregationLimit).append('|');
+        String[] f = fields.clone();
+        Arrays.sort(f);
+        for (String field: f) sb.append(field).append(',');
+        return sb.toString();
+    }
+
+    /**
+     * look up a search result. If there is no valid entry and no other caller is computing it,
+     * the caller must compute the result and publish it with the returned ticket.
+     * @param key the key of the search
+     * @param deadline the time in milliseconds since epoch when a computation of this key ends at the latest;
+     *        a computation of another caller is awaited until then
+     * @return a ticket which contains the entry or, if entry() is null, must be published and released
+     */
+    public Ticket acquire(final String key, final long deadline) {
+        Entry entry = get(key);
+        if (entry != null) {
+            this.hit.incrementAndGet();
+            return new Ticket(key, entry, null);
+        }
+        CompletableFuture<Entry> flight = new CompletableFuture<>();
+        CompletableFuture<Entry> running = this.inFlight.putIfAbsent(key, flight);
+        if (running == null) {
+            this.miss.incrementAndGet();
+            return new Ticket(key, null, flight);
+        }
+        try {
+            entry = running.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+        }
+        if (entry != null) {
+            this.coalesced.incrementAndGet();
+            return new Ticket(key, entry, null);
+        }
+        // the other computation failed or is too slow; compute it without coalescing
+        this.miss.incrementAndGet();
+        return new Ticket(key, null, null);
+    }
+
+    private Entry get(final String key) {
+        Entry entry = this.cache.get(key);
+        if (entry == null) return null;
+        if (entry.created + this.ttl < System.currentTimeMillis()) {
+            this.cache.remove(key);
+            this.expired.incrementAndGet();
+            return null;
+        }
+        return entry;
+    }
+
+    public int size() {
+        return this.cache.size();
+    }
+
+    public JSONObject getStats() {
+        JSONObject json = new JSONObject(true);
+        json.put("size", this.cache.size());
+        json.put("in_flight", this.inFlight.size());
+        json.put("ttl", this.ttl);
+        json.put("hit", this.hit.get());
+        json.put("coalesced", this.coalesced.get());
+        json.put("miss", this.miss.get());
+        json.put("expired", this.expired.get());
+        json.put("partial", this.partial.get());
+        json.put("cache", this.cache.getStatsJson());
+        return json;
+    }
+
+    public class Ticket {
+
+        private final String key;
+        private final Entry entry;
+        private final CompletableFuture<Entry> flight;
+
+        private Ticket(final String key, final Entry entry, final CompletableFuture<Entry> flight) {
+            this.key = key;
+            this.entry = entry;
+            this.flight = flight;
+        }
+
+        /**
+         * @return the shared result or null if the caller must compute it
+         */
+        public Entry entry() {
+            return this.entry;
+        }
+
+        /**
+         * store a computed result and hand it to the callers which are waiting for it
+         * @param complete true if all sources of the search finished; a partial result is only counted,
+         *        the waiting callers then compute the result on their own when the ticket is released
+         */
+        public void publish(final TwitterTimeline timeline, final JSONObject hits, final JSONObject aggregations, final boolean complete) {
+            if (!complete) {
+                partial.incrementAndGet();
+                return;
+            }
+            Entry e = new Entry(timeline, hits, aggregations);
+            cache.put(this.key, e);
+            if (this.flight != null) this.flight.complete(e);
+        }
+
+        /**
+         * must be called after the computation, also if it failed; waiting callers then compute on their own
+         */
+        public void release() {
+            if (this.flight == null) return;
+            this.flight.complete(null);
+            inFlight.remove(this.key, this.flight);
+        }
+    }
+
+    public static class Entry {
+
+        private final long created;
+        private final TwitterTimeline timeline;
+        private final JSONObject hits, aggregations;
+
+        private Entry(final TwitterTimeline timeline, final JSONObject hits, final JSONObject aggregations) {
+            this.created = System.currentTimeMillis();
+            // the timeline is copied because the timeline of the computing client may be extended later
+            this.timeline = new TwitterTimeline(timeline.getOrder());
+            this.timeline.putAll(timeline);
+            this.timeline.setHits(timeline.getHits());
+            this.timeline.setResultIndex(timeline.getResultIndex());
+            this.timeline.setScraperInfo(timeline.getScraperInfo());
+            this.hits = hits == null ? null : new JSONObject(hits.toString());
+            this.aggregations = aggregations == null ? null : new JSONObject(aggregations.toString());
+        }
+
+        /**
+         * copy the result into the timeline of a client
+         */
+        public void copyTo(final TwitterTimeline tl) {
+            tl.putAll(this.timeline);
+            tl.setHits(this.timeline.getHits());
+            tl.setResultIndex(this.timeline.getResultIndex());
+            tl.setScraperInfo(this.timeline.getScraperInfo());
+        }
+
+        /**
+         * copy the hit counts into the hits object of a response
+         */
+        public void copyHitsTo(final JSONObject hits) {
+            if (this.hits == null) return;
+            for (String key: this.hits.keySet()) hits.put(key, this.hits.get(key));
+        }
+
+        public JSONObject getAggregations() {
+            return this.aggregations == null ? null : new JSONObject(this.aggregations.toString());
+        }
+    }
+}
@@ -22,6 +22,7 @@ package org.loklak.objects;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.loklak.server.ClientIdentity;
 
@@ -32,14 +33,20 @@ public class TimelineCache {
 
     private final long ttl;
     private final Map<String, TwitterTimeline> cache;
+    private final AtomicLong lastClean;
     
     
     public TimelineCache(long ttl) {
         this.ttl = ttl;
         this.cache = new ConcurrentHashMap<>();
+        this.lastClean = new AtomicLong(System.currentTimeMillis());
     }
     
     public TimelineCache clean() {
+        // the full scan is done at most ten times per ttl and only by one thread, not on every request
+        long now = System.currentTimeMillis();
+        long last = this.lastClean.get();
+        if (now - last < this.ttl / 10 || !this.lastClean.compareAndSet(last, now)) return this;
         Iterator<Map.Entry<String, TwitterTimeline>> i = this.cache.entrySet().iterator();
         long duetime = System.currentTimeMillis() - this.ttl;
         while (i.hasNext()) {
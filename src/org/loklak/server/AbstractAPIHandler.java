@@ -20,7 +20,6 @@
 package org.loklak.server;
 
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
@@ -169,11 +168,7 @@ public abstract class AbstractAPIHandler extends HttpServlet implements APIHandl
             // write json
             query.setResponse(response, "application/javascript");
             response.setCharacterEncoding("UTF-8");
-            PrintWriter sos = response.getWriter();
-            if (jsonp) sos.print(callback + "(");
-            sos.print(json.toString(minified ? 0 : 2));
-            if (jsonp) sos.println(");");
-            sos.println();
+            JsonStreamWriter.write(response.getOutputStream(), jsonp ? callback : null, minified, json);
             query.finalize();
         } catch (APIException e) {
             response.sendError(e.getStatusCode(), e.getMessage());
@@ -0,0 +1,205 @@
+/**
+ *  JsonStreamWriter
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONString;
+import org.loklak.data.DAO;
+import org.loklak.tools.UTF8;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes a json response directly to an output stream with a Jackson JsonGenerator. Large responses,
+ * like the statuses of a search result, are written element by element instead of building a
+ * JSONObject tree first and copying it into a String. Values of the org.json classes are written
+ * in the same way as JSONObject.toString() writes them; also JSONP and minified output are supported.
+ */
+public class JsonStreamWriter implements Closeable {
+
+    private final OutputStream os;
+    private final JsonGenerator generator;
+    private final boolean jsonp;
+
+    /**
+     * @param os the target stream; it is not closed by close()
+     * @param callback the JSONP callback function name or null/empty if no JSONP is wanted
+     * @param minified if false, the json is indented
+     */
+    public JsonStreamWriter(final OutputStream os, final String callback, final boolean minified) throws IOException {
+        this.os = os;
+        this.jsonp = callback != null && callback.length() > 0;
+        if (this.jsonp) os.write(UTF8.getBytes(callback + "("));
+        this.generator = DAO.jsonFactory.createGenerator(os);
+        this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        if (!minified) this.generator.useDefaultPrettyPrinter();
+    }
+
+    /**
+     * open a stream writer on a servlet response
+     */
+    public static JsonStreamWriter open(final HttpServletResponse response, final String callback, final boolean minified) throws IOException {
+        response.setCharacterEncoding("UTF-8");
+        return new JsonStreamWriter(response.getOutputStream(), callback, minified);
+    }
+
+    public JsonGenerator generator() {
+        return this.generator;
+    }
+
+    public JsonStreamWriter startObject() throws IOException {
+        this.generator.writeStartObject();
+        return this;
+    }
+
+    public JsonStreamWriter endObject() throws IOException {
+        this.generator.writeEndObject();
+        return this;
+    }
+
+    /**
+     * start an array as a field of the current object
+     */
+    public JsonStreamWriter startArray(final String key) throws IOException {
+        this.generator.writeArrayFieldStart(key);
+        return this;
+    }
+
+    public JsonStreamWriter endArray() throws IOException {
+        this.generator.writeEndArray();
+        return this;
+    }
+
+    /**
+     * write a field of the current object
+     */
+    public JsonStreamWriter field(final String key, final Object value) throws IOException {
+        this.generator.writeFieldName(key);
+        write(this.generator, value);
+        return this;
+    }
+
+    /**
+     * write all fields of a JSONObject into the current object
+     */
+    public JsonStreamWriter fields(final JSONObject json) throws IOException {
+        for (String key: json.keySet()) field(key, json.opt(key));
+        return this;
+    }
+
+    /**
+     * write a value, i.e. an element of the current array
+     */
+    public JsonStreamWriter value(final Object value) throws IOException {
+        write(this.generator, value);
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.generator.flush();
+        if (this.jsonp) this.os.write(UTF8.getBytes(");\n"));
+        this.os.write('\n');
+        this.generator.close();
+        this.os.flush();
+    }
+
+    /**
+     * write a complete JSONObject
+     */
+    public static void write(final OutputStream os, final String callback, final boolean minified, final JSONObject json) throws IOException {
+        JsonStreamWriter writer = new JsonStreamWriter(os, callback, minified);
+        writer.value(json);
+        writer.close();
+    }
+
+    /**
+     * write any value which may be contained in a JSONObject. This is the same type mapping as
+     * in JSONObject.writeValue
+     */
+    public static void write(final JsonGenerator g, final Object value) throws IOException {
+        if (value == null || value.equals(null)) {
+            g.writeNull();
+        } else if (value instanceof String) {
+            g.writeString((String) value);
+        } else if (value instanceof JSONString) {
+            String s = ((JSONString) value).toJSONString();
+            if (s == null) g.writeString(value.toString()); else g.writeRawValue(s);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            g.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) g.writeString(value.toString()); else g.writeNumber(d);
+        } else if (value instanceof BigDecimal) {
+            g.writeNumber((BigDecimal) value);
+        } else if (value instanceof BigInteger) {
+            g.writeNumber((BigInteger) value);
+        } else if (value instanceof Number) {
+            g.writeString(value.toString());
+        } else if (value instanceof Boolean) {
+            g.writeBoolean((Boolean) value);
+        } else if (value instanceof Enum<?>) {
+            g.writeString(((Enum<?>) value).name());
+        } else if (value instanceof JSONObject) {
+            JSONObject json = (JSONObject) value;
+            g.writeStartObject();
+            for (String key: json.keySet()) {
+                g.writeFieldName(key);
+                write(g, json.opt(key));
+            }
+            g.writeEndObject();
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            g.writeStartArray();
+            for (int i = 0; i < array.length(); i++) write(g, array.opt(i));
+            g.writeEndArray();
+        } else if (value instanceof Map) {
+            g.writeStartObject();
+            for (Map.Entry<?, ?> entry: ((Map<?, ?>) value).entrySet()) {
+                g.writeFieldName(String.valueOf(entry.getKey()));
+                write(g, entry.getValue());
+            }
+            g.writeEndObject();
+        } else if (value instanceof Collection) {
+            g.writeStartArray();
+            for (Object o: (Collection<?>) value) write(g, o);
+            g.writeEndArray();
+        } else if (value.getClass().isArray()) {
+            g.writeStartArray();
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) write(g, Array.get(value, i));
+            g.writeEndArray();
+        } else {
+            g.writeString(value.toString());
+        }
+    }
+}
@@ -33,6 +33,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.loklak.LoklakServer;
 import org.loklak.data.DAO;
 import org.loklak.http.AccessTracker;
+import org.loklak.http.RateLimiter;
 import org.loklak.http.RemoteAccess;
 import org.loklak.tools.DateParser;
 
@@ -40,7 +41,10 @@ public class Query {
     
     private HttpServletRequest request;
     private Map<String, String> qm;
-    public AccessTracker.Track track;
+    private final String clientHost;
+    private final long accessTime;
+    private final boolean isLocalhost, DoS_blackout, DoS_servicereduction;
+    public AccessTracker.Track track; // null if this request is not tracked
     
     public Query(final HttpServletRequest request) {
         this.qm = new HashMap<>();
@@ -59,16 +63,29 @@ public class Query {
         String XRealIP = request.getHeader("X-Real-IP");
         if (XRealIP != null && XRealIP.length() > 0) clientHost = XRealIP; // get IP through nginx config "proxy_set_header X-Real-IP $remote_addr;"
         
-        // start tracking: get calling thread and start tracking for that
-        this.track = DAO.access.startTracking(request.getServletPath(), clientHost, request.getHeader("Referer"));
-        this.track.setTimeSinceLastAccess(this.track.getDate().getTime() - RemoteAccess.latestVisit(request.getServletPath(), clientHost));
-        this.track.setDoSBlackout(LoklakServer.blacklistedHosts.contains(clientHost) || (!this.track.isLocalhostAccess() && (this.track.getTimeSinceLastAccess() < DAO.getConfig("DoS.blackout", 100))));
-        this.track.setDoSServicereduction(!this.track.isLocalhostAccess() && (this.track.getTimeSinceLastAccess() < DAO.getConfig("DoS.servicereduction", 1000)));
-        this.track.setQuery(qm);
+        this.clientHost = clientHost;
+        this.accessTime = System.currentTimeMillis();
+        this.isLocalhost = RemoteAccess.isLocalhost(clientHost, request.getHeader("Referer"));
+
+        // DoS protection: localhost is not limited, blacklisted hosts are always blocked
+        RateLimiter.Decision decision =
+                LoklakServer.blacklistedHosts.contains(clientHost) ? RateLimiter.Decision.BLOCK :
+                this.isLocalhost ? RateLimiter.Decision.PASS :
+                DAO.rateLimiter.check(request.getServletPath(), clientHost, this.accessTime);
+        this.DoS_blackout = decision == RateLimiter.Decision.BLOCK;
+        this.DoS_servicereduction = decision != RateLimiter.Decision.PASS;
+
+        // start tracking only if the access log is enabled or the request is in the sample
+        if (DAO.access.isTracked()) {
+            this.track = DAO.access.startTracking(request.getServletPath(), clientHost, this.isLocalhost, this.accessTime);
+            this.track.setDoSBlackout(this.DoS_blackout);
+            this.track.setDoSServicereduction(this.DoS_servicereduction);
+            this.track.setQuery(qm);
+        }
     }
 
     public void finalize() {
-        this.track.finalize();
+        if (this.track != null) this.track.finalize();
     }
 
     public void initGET(final Map<String, String> q) {
@@ -83,31 +100,27 @@ public class Query {
     }
 
     public String getClientHost() {
-        return this.track.getClientHost();
+        return this.clientHost;
     }
 
     public boolean isLocalhostAccess() {
-        return this.track.isLocalhostAccess();
+        return this.isLocalhost;
     }
 
     public long getAccessTime() {
-        return this.track.getDate().getTime();
-    }
-
-    public long getTimeSinceLastAccess() {
-        return this.track.getTimeSinceLastAccess();
+        return this.accessTime;
     }
 
     public boolean isDoS_blackout() {
-        return this.track.isDoSBlackout();
+        return this.DoS_blackout;
     }
 
     public boolean isDoS_servicereduction() {
-        return this.track.isDoSServicereduction();
+        return this.DoS_servicereduction;
     }
 
     public void recordEvent(String eventName, Object eventValue) {
-        this.track.put(AccessTracker.EVENT_PREFIX + eventName, eventValue);
+        if (this.track != null) this.track.recordEvent(eventName, eventValue);
     }
 
     public String get(String key, String dflt) {
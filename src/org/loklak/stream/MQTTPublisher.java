@@ -1,30 +1,118 @@
 package org.loklak.stream;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
-import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.json.JSONObject;
 import org.loklak.data.DAO;
 
+/**
+ * Publishes messages to the channels of an MQTT broker. Publishing does not block the caller:
+ * a message is serialized once and put into a bounded queue, a publisher thread takes the messages
+ * in batches and sends them to all their channels.
+ * - if the queue is filled above the high watermark, only every sample-th message is accepted;
+ *   if it is full, messages are dropped. The channels and the payload of a message which is not
+ *   accepted are not computed at all.
+ * - within a batch the messages are grouped by channel; a channel gets at most topicLimit messages
+ *   per batch, the latest ones, so a busy channel cannot delay all others
+ * - the messages are also dispatched to the local SubscriptionHub if one is set; without a broker
+ *   address the publisher only dispatches locally
+ */
 public class MQTTPublisher {
 
+    private static class Message {
+        private final String[] channels;
+        private final String text;
+        private byte[] payload; // computed by the publisher thread
+        private Message(final String[] channels, final String text) {
+            this.channels = channels;
+            this.text = text;
+        }
+        private byte[] getPayload() {
+            if (this.payload == null) this.payload = this.text.getBytes(StandardCharsets.UTF_8);
+            return this.payload;
+        }
+    }
+
     private MqttClient client;
     private String clientId;
     private MemoryPersistence persistence = new MemoryPersistence();
     private int qos;
+    private volatile SubscriptionHub hub;
+    private final ArrayBlockingQueue<Message> queue;
+    private final int highWatermark, sample, batchSize, topicLimit;
+    private final Thread publisher;
+    private volatile boolean running;
+    private final AtomicLong offered;
+    private final LongAdder accepted, sampled, dropped, coalesced, published, failed, batches;
 
-    public MQTTPublisher(String address, String clientId, boolean cleanSession, int qos) throws MqttException {
+    /**
+     * @param address the address of the broker or null if messages are only dispatched to the local hub
+     * @param clientId the client id of this publisher
+     * @param cleanSession the clean session flag of the connection
+     * @param qos the quality of service of the published messages
+     * @param capacity the maximum number of waiting messages
+     * @param sample if the queue is filled above three quarters, only every sample-th message is accepted
+     * @param batchSize the maximum number of messages in one batch
+     * @param topicLimit the maximum number of messages for one channel in one batch
+     * @throws MqttException if the broker cannot be connected
+     */
+    public MQTTPublisher(String address, String clientId, boolean cleanSession, int qos, int capacity, int sample, int batchSize, int topicLimit) throws MqttException {
         this.clientId = clientId;
         this.qos = qos;
-        this.client = new MqttClient(address, clientId, persistence);
-        MqttConnectOptions connOpts = new MqttConnectOptions();
-        connOpts.setCleanSession(cleanSession);
-        this.client.connect();
+        this.hub = null;
+        if (address == null) {
+            this.client = null;
+        } else {
+            this.client = new MqttClient(address, clientId, persistence);
+            MqttConnectOptions connOpts = new MqttConnectOptions();
+            connOpts.setCleanSession(cleanSession);
+            connOpts.setAutomaticReconnect(true);
+            this.client.connect(connOpts);
+        }
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.highWatermark = Math.max(1, capacity * 3 / 4);
+        this.sample = Math.max(1, sample);
+        this.batchSize = Math.max(1, batchSize);
+        this.topicLimit = Math.max(1, topicLimit);
+        this.offered = new AtomicLong(0);
+        this.accepted = new LongAdder();
+        this.sampled = new LongAdder();
+        this.dropped = new LongAdder();
+        this.coalesced = new LongAdder();
+        this.published = new LongAdder();
+        this.failed = new LongAdder();
+        this.batches = new LongAdder();
+        this.running = true;
+        this.publisher = new Thread("MQTT-PUBLISHER") {
+            @Override
+            public void run() {
+                publishLoop();
+            }
+        };
+        this.publisher.setDaemon(true);
+        this.publisher.start();
     }
 
     public MQTTPublisher(String address) throws MqttException {
-        this(address, "loklak_server", true, 0);
+        this(address, "loklak_server", true, 0,
+                DAO.getConfig("stream.mqtt.queue", 10000),
+                DAO.getConfig("stream.mqtt.sample", 10),
+                DAO.getConfig("stream.mqtt.batch", 500),
+                DAO.getConfig("stream.mqtt.topic_limit", 20));
     }
 
     public MemoryPersistence getMemoryPersistence() {
@@ -39,20 +127,41 @@ public class MQTTPublisher {
         return this.client;
     }
 
-    public void publish(String channel, String message) {
-        channel = channel.replaceAll("#", "");
-        DAO.log("Publishing " + message.substring(0, 10) + " to " + channel);
-        MqttMessage msg = new MqttMessage(message.getBytes());
-        msg.setQos(this.qos);
-        try {
-            this.client.publish(channel, msg);
-        } catch (MqttException e) {
-            DAO.severe("Failed to publish message to channel " + channel + " due to MQTT exception", e);
-        } catch (IllegalArgumentException e) {
-            DAO.severe("Failed to publish message to channel " + channel + " because of invalid channel name", e);
-        } catch (Exception e) {
-            DAO.severe("Failed to publish message to channel " + channel + " due to unknown exception", e);
+    /**
+     * dispatch all published messages also to the given hub, which then does not need a broker connection
+     * @param hub the subscription hub of this peer or null to stop the local dispatching
+     */
+    public void setHub(SubscriptionHub hub) {
+        this.hub = hub;
+    }
+
+    /**
+     * publish a message to channels; this does not block. The channels and the message are only computed
+     * if the message is accepted.
+     * @param channels computes the channels of the message
+     * @param message computes the message, it is serialized once for all channels
+     * @return true if the message was accepted, false if it was sampled out or dropped
+     */
+    public boolean publish(Supplier<String[]> channels, Supplier<String> message) {
+        if (!this.running) {
+            this.dropped.increment();
+            return false;
+        }
+        long count = this.offered.incrementAndGet();
+        if (this.queue.size() >= this.highWatermark && count % this.sample != 0) {
+            this.sampled.increment();
+            return false;
+        }
+        if (!this.queue.offer(new Message(channels.get(), message.get()))) {
+            this.dropped.increment();
+            return false;
         }
+        this.accepted.increment();
+        return true;
+    }
+
+    public void publish(String channel, String message) {
+        publish(() -> new String[]{channel}, () -> message);
     }
 
     public void publish(String channel, String[] messages) {
@@ -62,14 +171,109 @@ public class MQTTPublisher {
     }
 
     public void publish(String[] channels, String message) {
-        for (String channel : channels) {
-            this.publish(channel, message);
-        }
+        publish(() -> channels, () -> message);
     }
 
     public void publish(String[] channels, String[] messages) {
-        for (String channel : channels) {
-            this.publish(channel, messages);
+        for (String message : messages) {
+            this.publish(channels, message);
+        }
+    }
+
+    private void publishLoop() {
+        List<Message> batch = new ArrayList<>(this.batchSize);
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                Message first = this.queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                this.queue.drainTo(batch, this.batchSize - 1);
+                publish(batch);
+            } catch (InterruptedException e) {
+                if (!this.running) break;
+            } catch (Throwable e) {
+                DAO.severe("MQTT publisher failed", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void publish(final List<Message> batch) {
+        // group the messages by channel, in the order of the messages; a channel keeps only its latest messages
+        Map<String, ArrayDeque<Message>> topics = new LinkedHashMap<>();
+        for (Message message: batch) {
+            for (String channel: message.channels) {
+                ArrayDeque<Message> payloads = topics.get(channel);
+                if (payloads == null) {
+                    payloads = new ArrayDeque<>(4);
+                    topics.put(channel, payloads);
+                }
+                if (payloads.size() >= this.topicLimit) {
+                    payloads.removeFirst();
+                    this.coalesced.increment();
+                }
+                payloads.addLast(message);
+            }
+        }
+        SubscriptionHub hub = this.hub;
+        for (Map.Entry<String, ArrayDeque<Message>> entry: topics.entrySet()) {
+            String channel = entry.getKey();
+            String topic = channel.indexOf('#') < 0 ? channel : channel.replace("#", "");
+            if (hub != null) for (Message message: entry.getValue()) hub.dispatch(topic, message.text);
+            if (this.client == null) {
+                this.published.add(entry.getValue().size());
+                continue;
+            }
+            for (Message message: entry.getValue()) {
+                try {
+                    this.client.publish(topic, message.getPayload(), this.qos, false);
+                    this.published.increment();
+                } catch (MqttException e) {
+                    this.failed.increment();
+                    if (!this.client.isConnected()) {
+                        // do not spend the batch on a lost connection, the client reconnects automatically
+                        DAO.severe("Failed to publish message to channel " + channel + " due to MQTT exception", e);
+                        return;
+                    }
+                } catch (IllegalArgumentException e) {
+                    this.failed.increment();
+                    DAO.severe("Failed to publish message to channel " + channel + " because of invalid channel name", e);
+                    break; // next channel
+                }
+            }
+        }
+        this.batches.increment();
+    }
+
+    public JSONObject getStats() {
+        JSONObject json = new JSONObject(true);
+        json.put("connected", this.client != null && this.client.isConnected());
+        json.put("local", this.hub != null);
+        json.put("queue", this.queue.size());
+        json.put("accepted", this.accepted.sum());
+        json.put("sampled", this.sampled.sum());
+        json.put("dropped", this.dropped.sum());
+        json.put("coalesced", this.coalesced.sum());
+        json.put("published", this.published.sum());
+        json.put("failed", this.failed.sum());
+        json.put("batches", this.batches.sum());
+        return json;
+    }
+
+    /**
+     * publish the waiting messages and disconnect
+     * @param timeout the maximum time in milliseconds to wait for the waiting messages
+     */
+    public void close(long timeout) {
+        this.running = false;
+        try {this.publisher.join(timeout);} catch (InterruptedException e) {}
+        if (this.publisher.isAlive()) this.publisher.interrupt();
+        if (this.client != null) try {
+            if (this.client.isConnected()) this.client.disconnect();
+            this.client.close();
+        } catch (MqttException e) {
+            DAO.severe("Error closing the MQTT publisher", e);
         }
     }
 }
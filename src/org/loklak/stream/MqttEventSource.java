@@ -1,22 +1,24 @@
 package org.loklak.stream;
 
 import org.eclipse.jetty.servlets.EventSource;
-import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
-import org.eclipse.paho.client.mqttv3.MqttCallback;
-import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttException;
-import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.loklak.data.DAO;
 
 import java.io.IOException;
 
-public class MqttEventSource implements EventSource, MqttCallback {
+/**
+ * An event source for one stream client. The client does not open its own broker connection,
+ * it is subscribed to the shared SubscriptionHub of this peer.
+ */
+public class MqttEventSource implements EventSource, SubscriptionHub.Sink {
 
+    private final SubscriptionHub hub;
+    private final String channel;
     private Emitter emitter;
-    private MqttClient mqttClient;
-    private String channel;
+    private SubscriptionHub.Subscriber subscriber;
 
-    MqttEventSource(String channel) {
+    MqttEventSource(SubscriptionHub hub, String channel) {
+        this.hub = hub;
         this.channel = channel;
     }
 
@@ -24,37 +26,25 @@ public class MqttEventSource implements EventSource, MqttCallback {
     public void onOpen(Emitter emitter) throws IOException {
         this.emitter = emitter;
         try {
-            this.mqttClient = new MqttClient(DAO.getConfig("stream.mqtt.address", "tcp://127.0.0.1:1883"), "loklak_server_subscriber");
-            this.mqttClient.connect();
-            this.mqttClient.setCallback(this);
-            this.mqttClient.subscribe(this.channel);
-        } catch (MqttException e) {
+            this.subscriber = this.hub.subscribe(this.channel, this);
+        } catch (MqttException | IllegalArgumentException e) {
+            DAO.severe("Cannot subscribe the stream client to channel " + this.channel, e);
             this.emitter.close();
         }
     }
 
     @Override
     public void onClose() {
-        try {
-            this.mqttClient.close();
-            this.mqttClient.disconnect();
-        } catch (MqttException e) {
-            DAO.severe("Error terminating the stream client for API request", e);
-        }
-    }
-
-    @Override
-    public void connectionLost(Throwable cause) {
-        DAO.severe("Connection lost for Stream request at channel " + this.channel, cause);
+        if (this.subscriber != null) this.hub.unsubscribe(this.subscriber);
     }
 
     @Override
-    public void messageArrived(String topic, MqttMessage message) throws Exception {
-        this.emitter.data(message.toString());
+    public void send(String data) throws IOException {
+        this.emitter.data(data);
     }
 
     @Override
-    public void deliveryComplete(IMqttDeliveryToken token) {
-        // Cool! nothing to do here.
+    public void close() {
+        this.emitter.close();
     }
 }
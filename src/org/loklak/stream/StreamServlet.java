@@ -2,6 +2,7 @@ package org.loklak.stream;
 
 import org.eclipse.jetty.servlets.EventSource;
 import org.eclipse.jetty.servlets.EventSourceServlet;
+import org.loklak.data.DAO;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -23,7 +24,10 @@ public class StreamServlet extends EventSourceServlet {
         if (channel.isEmpty()) {
             return null;
         }
-        return new MqttEventSource(channel);
+        if (DAO.streamHub == null) {
+            return null;
+        }
+        return new MqttEventSource(DAO.streamHub, channel);
     }
 
     @Override
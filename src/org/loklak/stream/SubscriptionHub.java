@@ -0,0 +1,333 @@
+/**
+ *  SubscriptionHub
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.stream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.json.JSONObject;
+import org.loklak.data.DAO;
+
+/**
+ * The subscriptions of all stream clients of this peer.
+ * - there is only one connection to the MQTT broker; a topic filter is subscribed at the broker when the
+ *   first client subscribes to it and unsubscribed when the last client leaves. In local mode there is no
+ *   broker connection at all, the MQTTPublisher of this peer hands its messages directly to the hub.
+ * - messages are dispatched to the subscribers with a trie of the topic filters, which knows the
+ *   MQTT wildcards + (one level) and # (all remaining levels)
+ * - each subscriber has a bounded queue which is sent by a shared thread pool; dispatching never waits for a
+ *   client. If the queue of a client is full the message is dropped for that client; a client which drops
+ *   too many messages in a row is a slow consumer and is closed.
+ */
+public class SubscriptionHub implements MqttCallbackExtended {
+
+    /**
+     * the connection to a stream client
+     */
+    public interface Sink {
+        void send(String data) throws IOException;
+        void close();
+    }
+
+    public final class Subscriber {
+        private final String filter;
+        private final Sink sink;
+        private final ArrayBlockingQueue<String> queue;
+        private final AtomicBoolean scheduled;
+        private final AtomicInteger drops; // drops since the last message which was sent
+        private volatile boolean active;
+        private Subscriber(final String filter, final Sink sink) {
+            this.filter = filter;
+            this.sink = sink;
+            this.queue = new ArrayBlockingQueue<>(SubscriptionHub.this.queueSize);
+            this.scheduled = new AtomicBoolean(false);
+            this.drops = new AtomicInteger(0);
+            this.active = true;
+        }
+        public String getFilter() {
+            return this.filter;
+        }
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new ConcurrentHashMap<>();
+        private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+        private boolean isEmpty() {
+            return this.children.isEmpty() && this.subscribers.isEmpty();
+        }
+    }
+
+    private final Node root;
+    private final Map<String, Integer> filters; // the subscribed filters with the number of subscribers, guarded by root
+    private final int queueSize, maxDrops;
+    private final ThreadPoolExecutor sender;
+    private final MqttClient client; // null in local mode
+    private final AtomicInteger subscribers;
+    private final LongAdder dispatched, delivered, dropped, evicted;
+
+    /**
+     * @param address the address of the MQTT broker or null for the local mode
+     * @param threads the number of threads which send messages to the clients
+     * @param queueSize the maximum number of waiting messages of a client
+     * @param maxDrops the number of dropped messages in a row after which a client is closed
+     * @throws MqttException if the broker cannot be connected
+     */
+    public SubscriptionHub(final String address, final int threads, final int queueSize, final int maxDrops) throws MqttException {
+        this.root = new Node();
+        this.filters = new HashMap<>();
+        this.queueSize = Math.max(1, queueSize);
+        this.maxDrops = Math.max(1, maxDrops);
+        this.subscribers = new AtomicInteger(0);
+        this.dispatched = new LongAdder();
+        this.delivered = new LongAdder();
+        this.dropped = new LongAdder();
+        this.evicted = new LongAdder();
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        int t = Math.max(1, threads);
+        this.sender = new ThreadPoolExecutor(t, t, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+            Thread thread = new Thread(r, "STREAM-SENDER-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sender.allowCoreThreadTimeOut(true);
+        if (address == null) {
+            this.client = null;
+        } else {
+            // the client id must be unique, otherwise the broker drops the connection of another peer with the same id
+            this.client = new MqttClient(address, "loklak_server_hub_" + Long.toHexString(System.nanoTime()), new MemoryPersistence());
+            this.client.setCallback(this);
+            MqttConnectOptions connOpts = new MqttConnectOptions();
+            connOpts.setCleanSession(true);
+            connOpts.setAutomaticReconnect(true);
+            this.client.connect(connOpts);
+        }
+    }
+
+    /**
+     * @return true if the hub has no broker connection and gets its messages from the local publisher
+     */
+    public boolean isLocal() {
+        return this.client == null;
+    }
+
+    /**
+     * subscribe a client to a topic filter
+     * @param filter a topic or a topic filter with wildcards
+     * @param sink the connection to the client
+     * @return the subscriber which is used to unsubscribe
+     * @throws IllegalArgumentException if the filter is not a valid MQTT topic filter
+     */
+    public Subscriber subscribe(final String filter, final Sink sink) throws MqttException {
+        String[] levels = filter.split("/", -1);
+        for (int i = 0; i < levels.length; i++) {
+            String level = levels[i];
+            if (level.length() > 1 && (level.indexOf('#') >= 0 || level.indexOf('+') >= 0) ||
+                level.equals("#") && i < levels.length - 1) throw new IllegalArgumentException("invalid topic filter " + filter);
+        }
+        Subscriber s = new Subscriber(filter, sink);
+        boolean first;
+        synchronized (this.root) {
+            Node node = this.root;
+            for (String level: levels) node = node.children.computeIfAbsent(level, k -> new Node());
+            node.subscribers.add(s);
+            Integer c = this.filters.get(filter);
+            first = c == null;
+            this.filters.put(filter, first ? 1 : c + 1);
+        }
+        this.subscribers.incrementAndGet();
+        if (first && this.client != null) {
+            try {
+                this.client.subscribe(filter);
+            } catch (MqttException e) {
+                unsubscribe(s);
+                throw e;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * remove a subscriber; this can be called more than once
+     */
+    public void unsubscribe(final Subscriber s) {
+        boolean last = false;
+        synchronized (this.root) {
+            if (!s.active) return;
+            s.active = false;
+            String[] levels = s.filter.split("/", -1);
+            Node[] path = new Node[levels.length + 1];
+            path[0] = this.root;
+            for (int i = 0; i < levels.length && path[i] != null; i++) path[i + 1] = path[i].children.get(levels[i]);
+            if (path[levels.length] != null) path[levels.length].subscribers.remove(s);
+            // remove the nodes which are empty now
+            for (int i = levels.length; i > 0; i--) {
+                if (path[i] == null || !path[i].isEmpty()) break;
+                path[i - 1].children.remove(levels[i - 1], path[i]);
+            }
+            Integer c = this.filters.get(s.filter);
+            if (c != null) {
+                if (c <= 1) {this.filters.remove(s.filter); last = true;} else this.filters.put(s.filter, c - 1);
+            }
+        }
+        this.subscribers.decrementAndGet();
+        s.queue.clear();
+        if (last && this.client != null && this.client.isConnected()) try {
+            this.client.unsubscribe(s.filter);
+        } catch (MqttException e) {
+            DAO.severe("cannot unsubscribe " + s.filter, e);
+        }
+    }
+
+    /**
+     * dispatch a message to all subscribers of the topic; this does not block
+     * @param topic the topic of the message, without wildcards
+     * @param data the message
+     * @return the number of subscribers which got the message into their queue
+     */
+    public int dispatch(final String topic, final String data) {
+        this.dispatched.increment();
+        if (this.subscribers.get() == 0) return 0;
+        List<Subscriber> matches = new ArrayList<>();
+        match(this.root, topic.split("/", -1), 0, matches);
+        int c = 0;
+        for (Subscriber s: matches) {
+            if (s.queue.offer(data)) {
+                c++;
+                if (s.scheduled.compareAndSet(false, true)) this.sender.execute(() -> send(s));
+            } else {
+                this.dropped.increment();
+                if (s.drops.incrementAndGet() >= this.maxDrops) evict(s);
+            }
+        }
+        return c;
+    }
+
+    private static void match(final Node node, final String[] levels, final int i, final List<Subscriber> matches) {
+        Node any = node.children.get("#");
+        if (any != null) matches.addAll(any.subscribers);
+        if (i == levels.length) {
+            matches.addAll(node.subscribers);
+            return;
+        }
+        Node child = node.children.get(levels[i]);
+        if (child != null) match(child, levels, i + 1, matches);
+        child = node.children.get("+");
+        if (child != null) match(child, levels, i + 1, matches);
+    }
+
+    private void send(final Subscriber s) {
+        try {
+            String data;
+            int n = 0;
+            // send a limited number of messages, then give other clients a chance
+            while (s.active && n++ < 100 && (data = s.queue.poll()) != null) {
+                s.sink.send(data);
+                s.drops.set(0);
+                this.delivered.increment();
+            }
+        } catch (IOException | RuntimeException e) {
+            evict(s);
+        } finally {
+            s.scheduled.set(false);
+        }
+        if (s.active && !s.queue.isEmpty() && s.scheduled.compareAndSet(false, true)) this.sender.execute(() -> send(s));
+    }
+
+    private void evict(final Subscriber s) {
+        if (!s.active) return;
+        unsubscribe(s);
+        this.evicted.increment();
+        this.sender.execute(() -> s.sink.close());
+    }
+
+    public int getSubscriberCount() {
+        return this.subscribers.get();
+    }
+
+    public JSONObject getStats() {
+        JSONObject json = new JSONObject(true);
+        json.put("local", isLocal());
+        if (this.client != null) json.put("connected", this.client.isConnected());
+        json.put("subscribers", this.subscribers.get());
+        synchronized (this.root) {json.put("filters", this.filters.size());}
+        json.put("dispatched", this.dispatched.sum());
+        json.put("delivered", this.delivered.sum());
+        json.put("dropped", this.dropped.sum());
+        json.put("evicted", this.evicted.sum());
+        return json;
+    }
+
+    @Override
+    public void connectComplete(boolean reconnect, String serverURI) {
+        if (!reconnect) return;
+        // the session is clean after a reconnect, all filters must be subscribed again
+        String[] f;
+        synchronized (this.root) {f = this.filters.keySet().toArray(new String[0]);}
+        for (String filter: f) try {
+            this.client.subscribe(filter);
+        } catch (MqttException e) {
+            DAO.severe("cannot subscribe " + filter + " after reconnect", e);
+        }
+    }
+
+    @Override
+    public void connectionLost(Throwable cause) {
+        DAO.severe("Connection lost for the stream subscription hub", cause);
+    }
+
+    @Override
+    public void messageArrived(String topic, MqttMessage message) {
+        dispatch(topic, message.toString());
+    }
+
+    @Override
+    public void deliveryComplete(IMqttDeliveryToken token) {
+        // nothing to do, the hub does not publish
+    }
+
+    public void close() {
+        if (this.client != null) try {
+            if (this.client.isConnected()) this.client.disconnect();
+            this.client.close();
+        } catch (MqttException e) {
+            DAO.severe("Error closing the stream subscription hub", e);
+        }
+        this.sender.shutdownNow();
+    }
+}
@@ -19,48 +19,52 @@
 
 package org.loklak.tools;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.json.JSONObject;
 
+/**
+ * hit and miss counters of a cache. The counters are striped adders because they are
+ * updated by all threads which use the cache.
+ */
 public class CacheStats {
 
-    private AtomicLong update, hit, miss;
+    private LongAdder update, hit, miss;
     
     public CacheStats() {
-        this.update = new AtomicLong(0);
-        this.hit = new AtomicLong(0);
-        this.miss = new AtomicLong(0);
+        this.update = new LongAdder();
+        this.hit = new LongAdder();
+        this.miss = new LongAdder();
     }
 
     public void clear() {
-        this.update.set(0);
-        this.hit.set(0);
-        this.miss.set(0);
+        this.update.reset();
+        this.hit.reset();
+        this.miss.reset();
     }
 
     public void update() {
-        this.update.incrementAndGet();
+        this.update.increment();
     }
 
     public void hit() {
-        this.hit.incrementAndGet();
+        this.hit.increment();
     }
 
     public void miss() {
-        this.miss.incrementAndGet();
+        this.miss.increment();
     }
     
     public long getUpdate() {
-        return this.update.get();
+        return this.update.sum();
     }
 
     public long getHit() {
-        return this.hit.get();
+        return this.hit.sum();
     }
 
     public long getMiss() {
-        return this.miss.get();
+        return this.miss.sum();
     }
     
     public JSONObject getJSON() {
@@ -35,7 +35,7 @@ import java.util.zip.GZIPOutputStream;
 public class Compression {
 
     public static void gzip(File source, File dest, boolean deleteSource) throws IOException {
-        byte[] buffer = new byte[2^20];
+        byte[] buffer = new byte[1 << 20];
         GZIPOutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(dest), 65536)){{def.setLevel(Deflater.BEST_COMPRESSION);}};
         FileInputStream in = new FileInputStream(source);
         int l; while ((l = in.read(buffer)) > 0) out.write(buffer, 0, l);
@@ -60,7 +60,7 @@ public class Compression {
     }
 
     public static void gunzip(File source, File dest, boolean deleteSource) throws IOException {
-        byte[] buffer = new byte[2^20];
+        byte[] buffer = new byte[1 << 20];
         FileOutputStream out = new FileOutputStream(dest);
         GZIPInputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(source)));
         int l; while ((l = in.read(buffer)) > 0) out.write(buffer, 0, l);
@@ -69,7 +69,7 @@ public class Compression {
     }
 
     public static byte[] gunzipBytes(byte[] b) {
-        byte[] buffer = new byte[Math.min(2^20, b.length)];
+        byte[] buffer = new byte[Math.min(1 << 20, b.length)];
         try {
             ByteArrayOutputStream baos = new ByteArrayOutputStream(b.length * 2);
             GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(b), Math.min(65536, b.length));
@@ -0,0 +1,216 @@
+/**
+ *  ConcurrentCacheMap
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.tools;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+/**
+ * A size-bounded cache with the same interface as CacheMap which can be used by many threads at once.
+ * Lookups go to a ConcurrentHashMap and do not lock; a hit only sets the reference bit of the entry.
+ * The keys are split into segments by their hash and each segment evicts with the CLOCK policy:
+ * when a segment is full, its entries are inspected in insertion order; referenced entries get a
+ * second chance and move to the end, the first unreferenced entry is removed. Only writes lock, and
+ * only the segment of the key, so writers of different segments do not block each other.
+ */
+public class ConcurrentCacheMap<K,V> {
+
+    private final static int MAX_SEGMENTS = 64;
+    private final static int MIN_SEGMENT_SIZE = 16;
+
+    private final int maxSize;
+    private final ConcurrentHashMap<K, Node<K,V>> map;
+    private final Segment<K,V>[] segments;
+    private final int mask;
+    private final CacheStats stats;
+    private final AtomicLong evictions;
+
+    private static class Node<K,V> {
+        private final K key;
+        private volatile V value;
+        private volatile boolean referenced;
+        private boolean removed; // guarded by the segment
+        private Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+            this.referenced = false;
+            this.removed = false;
+        }
+    }
+
+    private static class Segment<K,V> {
+        private final int capacity;
+        private final ArrayDeque<Node<K,V>> clock; // the clock hand is the head of the queue
+        private int size, stale;
+        private Segment(int capacity) {
+            this.capacity = capacity;
+            this.clock = new ArrayDeque<>();
+            this.size = 0;
+            this.stale = 0;
+        }
+    }
+
+    public ConcurrentCacheMap(int maxSize) {
+        this.maxSize = maxSize;
+        int count = 1;
+        while (count < MAX_SEGMENTS && count * 2 * MIN_SEGMENT_SIZE <= maxSize) count *= 2;
+        @SuppressWarnings("unchecked")
+        Segment<K,V>[] segments = (Segment<K,V>[]) new Segment<?,?>[count];
+        this.segments = segments;
+        for (int i = 0; i < count; i++) this.segments[i] = new Segment<K,V>(maxSize / count + (i < maxSize % count ? 1 : 0));
+        this.mask = count - 1;
+        this.map = new ConcurrentHashMap<>(Math.min(maxSize, 1 << 16), 0.75f, count);
+        this.stats = new CacheStats();
+        this.evictions = new AtomicLong(0);
+    }
+
+    private Segment<K,V> segment(K key) {
+        int h = key.hashCode();
+        return this.segments[(h ^ (h >>> 16)) & this.mask];
+    }
+
+    public void clear() {
+        for (Segment<K,V> segment: this.segments) synchronized (segment) {
+            for (Node<K,V> node: segment.clock) this.map.remove(node.key, node);
+            segment.clock.clear();
+            segment.size = 0;
+            segment.stale = 0;
+        }
+        this.stats.clear();
+        this.evictions.set(0);
+    }
+
+    public CacheStats getStats() {
+        return this.stats;
+    }
+
+    public JSONObject getStatsJson() {
+        JSONObject json = this.stats.getJSON();
+        json.put("size", this.map.size());
+        json.put("maxsize", this.maxSize);
+        json.put("segments", this.segments.length);
+        json.put("evictions", this.evictions.get());
+        return json;
+    }
+
+    public int size() {
+        return this.map.size();
+    }
+
+    public boolean full() {
+        return this.map.size() >= this.maxSize;
+    }
+
+    public V put(K key, V value) {
+        this.stats.update();
+        Segment<K,V> segment = segment(key);
+        synchronized (segment) {
+            Node<K,V> node = this.map.get(key);
+            if (node != null) {
+                V oldval = node.value;
+                node.value = value;
+                node.referenced = true;
+                return oldval;
+            }
+            // make room; this may remove entries of this segment
+            while (segment.size >= segment.capacity && evict(segment)) {}
+            node = new Node<>(key, value);
+            segment.clock.addLast(node);
+            segment.size++;
+            this.map.put(key, node);
+        }
+        return null;
+    }
+
+    /**
+     * move the clock hand of a segment until an entry is evicted
+     * @return false if the segment is empty
+     */
+    private boolean evict(Segment<K,V> segment) {
+        Node<K,V> node;
+        while ((node = segment.clock.pollFirst()) != null) {
+            if (node.removed) {
+                segment.stale--;
+                continue;
+            }
+            if (node.referenced) {
+                node.referenced = false;
+                segment.clock.addLast(node);
+                continue;
+            }
+            node.removed = true;
+            segment.size--;
+            this.map.remove(node.key, node);
+            this.evictions.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    public V get(K key) {
+        Node<K,V> node = this.map.get(key);
+        if (node == null) {
+            this.stats.miss();
+            return null;
+        }
+        node.referenced = true;
+        this.stats.hit();
+        return node.value;
+    }
+
+    public V remove(K key) {
+        Segment<K,V> segment = segment(key);
+        synchronized (segment) {
+            Node<K,V> node = this.map.remove(key);
+            if (node == null) return null;
+            node.removed = true;
+            segment.size--;
+            // removed entries stay in the clock until the hand passes them; compact if they pile up
+            if (++segment.stale > segment.capacity) {
+                Iterator<Node<K,V>> i = segment.clock.iterator();
+                while (i.hasNext()) if (i.next().removed) i.remove();
+                segment.stale = 0;
+            }
+            return node.value;
+        }
+    }
+
+    public boolean exist(K key) {
+        boolean exist = this.map.containsKey(key);
+        if (exist) this.stats.hit(); else this.stats.miss();
+        return exist;
+    }
+
+    /**
+     * @return a copy of the cache content
+     */
+    public LinkedHashMap<K,V> getMap() {
+        LinkedHashMap<K,V> copy = new LinkedHashMap<>();
+        for (Map.Entry<K, Node<K,V>> entry: this.map.entrySet()) copy.put(entry.getKey(), entry.getValue().value);
+        return copy;
+    }
+
+}
@@ -0,0 +1,273 @@
+/**
+ *  ScalableBloomFilter
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONObject;
+
+/**
+ * A Bloom filter for long keys which grows with the number of entries. The filter is a list of
+ * plain Bloom filters; when the last one has reached its capacity, a new one with twice the capacity
+ * and half the false-positive rate is added. That keeps the overall false-positive rate below
+ * twice the configured rate, regardless of how many entries are added.
+ * The filter never reports a key as absent which had been added. Keys cannot be removed.
+ * All operations are lock-free except the addition of a new sub-filter.
+ */
+public class ScalableBloomFilter {
+
+    private final static int FILE_MAGIC = 0x6c6b4266; // "lkBf"
+    private final static int FILE_VERSION = 1;
+    private final static String MAX_NUMERIC = Long.toString(Long.MAX_VALUE);
+
+    private final long initialCapacity;
+    private final double fpr;
+    private final List<Filter> filters;
+
+    private static class Filter {
+        private final long capacity;
+        private final int hashes;
+        private final long bits;
+        private final AtomicLongArray words;
+        private final AtomicLong count;
+
+        private Filter(final long capacity, final double fpr) {
+            this.capacity = capacity;
+            long m = (long) Math.ceil(-capacity * Math.log(fpr) / (Math.log(2) * Math.log(2)));
+            this.bits = Math.max(64, (m + 63) / 64 * 64);
+            this.hashes = Math.max(1, (int) Math.round((double) this.bits / capacity * Math.log(2)));
+            this.words = new AtomicLongArray((int) (this.bits / 64));
+            this.count = new AtomicLong(0);
+        }
+
+        private Filter(final long capacity, final int hashes, final long count, final long[] words) {
+            this.capacity = capacity;
+            this.hashes = hashes;
+            this.bits = words.length * 64L;
+            this.words = new AtomicLongArray(words);
+            this.count = new AtomicLong(count);
+        }
+
+        /**
+         * @return true if the key was not contained before
+         */
+        private boolean add(final long hash) {
+            int h1 = (int) hash, h2 = (int) (hash >>> 32);
+            boolean changed = false;
+            for (int i = 0; i < this.hashes; i++) {
+                long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % this.bits;
+                int w = (int) (bit >>> 6);
+                long mask = 1L << (bit & 63);
+                long old;
+                while (((old = this.words.get(w)) & mask) == 0) {
+                    if (this.words.compareAndSet(w, old, old | mask)) {changed = true; break;}
+                }
+            }
+            if (changed) this.count.incrementAndGet();
+            return changed;
+        }
+
+        private boolean mightContain(final long hash) {
+            int h1 = (int) hash, h2 = (int) (hash >>> 32);
+            for (int i = 0; i < this.hashes; i++) {
+                long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % this.bits;
+                if ((this.words.get((int) (bit >>> 6)) & (1L << (bit & 63))) == 0) return false;
+            }
+            return true;
+        }
+
+        private double fpr() {
+            return Math.pow(1.0d - Math.exp(-this.hashes * (double) this.count.get() / this.bits), this.hashes);
+        }
+    }
+
+    /**
+     * @param initialCapacity the number of entries of the first sub-filter
+     * @param fpr the false-positive rate of the first sub-filter
+     */
+    public ScalableBloomFilter(final long initialCapacity, final double fpr) {
+        this.initialCapacity = Math.max(1024, initialCapacity);
+        this.fpr = fpr;
+        this.filters = new CopyOnWriteArrayList<>();
+        this.filters.add(new Filter(this.initialCapacity, this.fpr));
+    }
+
+    /**
+     * mix the bits of a key; the two halves of the result are used as independent hash values
+     */
+    private static long hash(long key) {
+        key = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+        key = (key ^ (key >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33);
+    }
+
+    /**
+     * compute a key for a string id: numeric ids (like tweet ids) are used as they are,
+     * other ids are hashed into a 64 bit value
+     */
+    public static long key(final String id) {
+        int len = id.length();
+        if (len > 0 && (len < 19 || (len == 19 && id.compareTo(MAX_NUMERIC) <= 0))) {
+            long n = 0;
+            int i = 0;
+            for (; i < len; i++) {
+                char c = id.charAt(i);
+                if (c < '0' || c > '9') break;
+                n = n * 10 + (c - '0');
+            }
+            if (i == len) return n;
+        }
+        long h = 0xcbf29ce484222325L; // FNV-1a
+        for (byte b: id.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h | Long.MIN_VALUE; // keep apart from numeric keys
+    }
+
+    public void add(final long key) {
+        long hash = hash(key);
+        Filter last = this.filters.get(this.filters.size() - 1);
+        if (last.count.get() >= last.capacity) last = grow(last);
+        last.add(hash);
+    }
+
+    public void add(final String id) {
+        add(key(id));
+    }
+
+    private synchronized Filter grow(final Filter full) {
+        Filter last = this.filters.get(this.filters.size() - 1);
+        if (last != full) return last; // another thread was first
+        int n = this.filters.size();
+        Filter next = new Filter(this.initialCapacity << Math.min(n, 30), this.fpr * Math.pow(0.5, n));
+        this.filters.add(next);
+        return next;
+    }
+
+    /**
+     * @return false if the key was certainly never added, true if it may have been added
+     */
+    public boolean mightContain(final long key) {
+        long hash = hash(key);
+        for (Filter filter: this.filters) if (filter.mightContain(hash)) return true;
+        return false;
+    }
+
+    public boolean mightContain(final String id) {
+        return mightContain(key(id));
+    }
+
+    /**
+     * @return the approximate number of added keys
+     */
+    public long size() {
+        long size = 0;
+        for (Filter filter: this.filters) size += filter.count.get();
+        return size;
+    }
+
+    /**
+     * @return the size of the bit arrays in bytes
+     */
+    public long memory() {
+        long bits = 0;
+        for (Filter filter: this.filters) bits += filter.bits;
+        return bits / 8;
+    }
+
+    /**
+     * @return the expected false-positive rate for the current fill level
+     */
+    public double expectedFpr() {
+        double p = 1.0d;
+        for (Filter filter: this.filters) p *= 1.0d - filter.fpr();
+        return 1.0d - p;
+    }
+
+    public JSONObject getStats() {
+        JSONObject json = new JSONObject(true);
+        json.put("size", size());
+        json.put("filters", this.filters.size());
+        json.put("memory_bytes", memory());
+        json.put("expected_fpr", expectedFpr());
+        return json;
+    }
+
+    public void write(final File file) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+        try {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeLong(this.initialCapacity);
+            out.writeDouble(this.fpr);
+            out.writeInt(this.filters.size());
+            for (Filter filter: this.filters) {
+                out.writeLong(filter.capacity);
+                out.writeInt(filter.hashes);
+                out.writeLong(filter.count.get());
+                int words = filter.words.length();
+                out.writeInt(words);
+                for (int i = 0; i < words; i++) out.writeLong(filter.words.get(i));
+            }
+        } finally {
+            out.close();
+        }
+        if (file.exists()) file.delete();
+        if (!tmp.renameTo(file)) throw new IOException("cannot rename " + tmp + " to " + file);
+    }
+
+    public static ScalableBloomFilter read(final File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+        try {
+            if (in.readInt() != FILE_MAGIC) throw new IOException("not a filter file: " + file);
+            if (in.readInt() != FILE_VERSION) throw new IOException("unknown filter file version: " + file);
+            ScalableBloomFilter bloom = new ScalableBloomFilter(in.readLong(), in.readDouble());
+            bloom.filters.clear();
+            int n = in.readInt();
+            for (int f = 0; f < n; f++) {
+                long capacity = in.readLong();
+                int hashes = in.readInt();
+                long count = in.readLong();
+                long[] words = new long[in.readInt()];
+                for (int i = 0; i < words.length; i++) words[i] = in.readLong();
+                bloom.filters.add(new Filter(capacity, hashes, count, words));
+            }
+            if (bloom.filters.isEmpty()) throw new IOException("empty filter file: " + file);
+            return bloom;
+        } finally {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,410 @@
+/**
+ *  BinaryJsonCodec
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.tools.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A compact binary encoding of json objects. Keys are replaced by numbers from a key table which is shared
+ * by all objects of the codec; values are stored with a type tag, numbers as variable-length integers.
+ * The encoded objects are compressed with deflate and a preset dictionary which is shared by all objects,
+ * too. The dictionary is trained once from the first TRAINING_SAMPLES objects; objects which are encoded
+ * before the dictionary exists stay uncompressed. An object is also stored uncompressed if compression
+ * does not make it smaller.
+ * Decoding restores the json object with the original keys in the original order in one pass.
+ */
+public class BinaryJsonCodec {
+
+    private final static byte RAW = 0, DEFLATED = 1;
+    private final static byte T_NULL = 0, T_FALSE = 1, T_TRUE = 2, T_INT = 3, T_LONG = 4, T_DOUBLE = 5,
+            T_STRING = 6, T_OBJECT = 7, T_ARRAY = 8, T_BIGINTEGER = 9, T_BIGDECIMAL = 10;
+
+    private final static int TRAINING_SAMPLES = 2000;
+    private final static int GRAM = 8; // length of the byte sequences which are counted for the dictionary training
+    private final static int SEGMENT = 32; // length of the byte sequences which are candidates for the dictionary
+    private final static int POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors()); // idle deflaters and inflaters which are kept
+
+    private final int dictionarySize;
+    private final ConcurrentHashMap<String, Integer> key2id;
+    private volatile String[] id2key;
+    private List<byte[]> samples; // null once the dictionary is trained
+    private volatile byte[] dictionary;
+
+    // deflaters and inflaters hold native zlib memory which is only released with end(); they are pooled
+    // instead of bound to threads so that the surplus of a burst of threads is ended at once
+    private final ArrayBlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final ArrayBlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * @param dictionarySize the size of the compression dictionary in bytes, at most 32768; 0 switches compression off
+     */
+    public BinaryJsonCodec(final int dictionarySize) {
+        this.dictionarySize = Math.min(32768, Math.max(0, dictionarySize));
+        this.key2id = new ConcurrentHashMap<>();
+        this.id2key = new String[0];
+        this.samples = this.dictionarySize == 0 ? null : new ArrayList<>();
+        this.dictionary = null;
+    }
+
+    /**
+     * @return the trained dictionary or null if there is none (yet)
+     */
+    public byte[] getDictionary() {
+        return this.dictionary;
+    }
+
+    public int getKeyCount() {
+        return this.id2key.length;
+    }
+
+    public byte[] encode(final JSONObject json) {
+        Output out = new Output(256);
+        out.write(RAW);
+        writeObject(out, json);
+        byte[] dict = this.dictionary;
+        if (dict == null) {
+            if (this.samples != null) sample(out);
+            return out.toByteArray();
+        }
+        Deflater d = this.deflaters.poll();
+        if (d == null) d = new Deflater(Deflater.DEFAULT_COMPRESSION, true); else d.reset();
+        try {
+            d.setDictionary(dict);
+            d.setInput(out.buffer(), 1, out.size() - 1);
+            d.finish();
+            byte[] c = new byte[out.size()];
+            c[0] = DEFLATED;
+            int length = 1;
+            while (!d.finished() && length < c.length) length += d.deflate(c, length, c.length - length);
+            if (!d.finished()) return out.toByteArray(); // compression would not make it smaller
+            return Arrays.copyOf(c, length);
+        } finally {
+            if (!this.deflaters.offer(d)) d.end();
+        }
+    }
+
+    public JSONObject decode(final byte[] capsule) {
+        if (capsule[0] == RAW) return readObject(new Input(capsule, 1, capsule.length));
+        Inflater i = this.inflaters.poll();
+        if (i == null) i = new Inflater(true); else i.reset();
+        byte[] b = new byte[capsule.length * 4];
+        int length = 0;
+        try {
+            i.setDictionary(this.dictionary);
+            i.setInput(capsule, 1, capsule.length - 1);
+            while (!i.finished()) {
+                if (length == b.length) b = Arrays.copyOf(b, b.length * 2);
+                int n = i.inflate(b, length, b.length - length);
+                if (n == 0 && (i.needsInput() || i.needsDictionary())) throw new IllegalStateException("truncated capsule");
+                length += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("broken capsule", e);
+        } finally {
+            if (!this.inflaters.offer(i)) i.end();
+        }
+        return readObject(new Input(b, 0, length));
+    }
+
+    /**
+     * release the native memory of the pooled deflaters and inflaters. The codec can still be used afterwards,
+     * it then allocates new ones.
+     */
+    public void close() {
+        Deflater d;
+        while ((d = this.deflaters.poll()) != null) d.end();
+        Inflater i;
+        while ((i = this.inflaters.poll()) != null) i.end();
+    }
+
+    private int keyId(final String key) {
+        Integer id = this.key2id.get(key);
+        if (id != null) return id;
+        synchronized (this.key2id) {
+            id = this.key2id.get(key);
+            if (id != null) return id;
+            String[] keys = Arrays.copyOf(this.id2key, this.id2key.length + 1);
+            keys[keys.length - 1] = key;
+            this.id2key = keys; // publish the key before the id can be used
+            this.key2id.put(key, keys.length - 1);
+            return keys.length - 1;
+        }
+    }
+
+    private void writeObject(final Output out, final JSONObject json) {
+        out.writeVarint(json.length());
+        for (String key: json.keySet()) {
+            out.writeVarint(keyId(key));
+            writeValue(out, json.opt(key));
+        }
+    }
+
+    private void writeValue(final Output out, Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            out.write(T_NULL);
+        } else if (value instanceof Boolean) {
+            out.write(((Boolean) value) ? T_TRUE : T_FALSE);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.write(T_INT);
+            out.writeVarlong(zigzag(((Number) value).longValue()));
+        } else if (value instanceof Long) {
+            out.write(T_LONG);
+            out.writeVarlong(zigzag((Long) value));
+        } else if (value instanceof Double || value instanceof Float) {
+            out.write(T_DOUBLE);
+            out.writeLong(Double.doubleToLongBits(((Number) value).doubleValue()));
+        } else if (value instanceof String) {
+            out.write(T_STRING);
+            out.writeString((String) value);
+        } else if (value instanceof JSONObject) {
+            out.write(T_OBJECT);
+            writeObject(out, (JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            JSONArray a = (JSONArray) value;
+            out.write(T_ARRAY);
+            out.writeVarint(a.length());
+            for (int i = 0; i < a.length(); i++) writeValue(out, a.opt(i));
+        } else if (value instanceof BigInteger) {
+            out.write(T_BIGINTEGER);
+            out.writeString(value.toString());
+        } else if (value instanceof BigDecimal) {
+            out.write(T_BIGDECIMAL);
+            out.writeString(value.toString());
+        } else {
+            Object wrapped = JSONObject.wrap(value); // collections, maps, arrays and beans
+            if (wrapped instanceof JSONObject || wrapped instanceof JSONArray) {
+                writeValue(out, wrapped);
+            } else {
+                out.write(T_STRING);
+                out.writeString(value.toString());
+            }
+        }
+    }
+
+    private JSONObject readObject(final Input in) {
+        String[] keys = this.id2key;
+        int count = in.readVarint();
+        JSONObject json = new JSONObject(true);
+        for (int i = 0; i < count; i++) {
+            int id = in.readVarint();
+            if (id >= keys.length) keys = this.id2key;
+            json.put(keys[id], readValue(in));
+        }
+        return json;
+    }
+
+    private Object readValue(final Input in) {
+        byte type = in.read();
+        switch (type) {
+            case T_NULL: return JSONObject.NULL;
+            case T_FALSE: return Boolean.FALSE;
+            case T_TRUE: return Boolean.TRUE;
+            case T_INT: return (int) unzigzag(in.readVarlong());
+            case T_LONG: return unzigzag(in.readVarlong());
+            case T_DOUBLE: return Double.longBitsToDouble(in.readLong());
+            case T_STRING: return in.readString();
+            case T_OBJECT: return readObject(in);
+            case T_ARRAY:
+                int count = in.readVarint();
+                JSONArray a = new JSONArray();
+                for (int i = 0; i < count; i++) a.put(readValue(in));
+                return a;
+            case T_BIGINTEGER: return new BigInteger(in.readString());
+            case T_BIGDECIMAL: return new BigDecimal(in.readString());
+            default: throw new IllegalStateException("unknown type " + type);
+        }
+    }
+
+    private static long zigzag(final long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static long unzigzag(final long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private void sample(final Output out) {
+        List<byte[]> ready = null;
+        synchronized (this) {
+            if (this.samples == null) return;
+            this.samples.add(Arrays.copyOfRange(out.buffer(), 1, out.size()));
+            if (this.samples.size() >= TRAINING_SAMPLES) {
+                ready = this.samples;
+                this.samples = null;
+            }
+        }
+        if (ready != null) this.dictionary = train(ready, this.dictionarySize);
+    }
+
+    /**
+     * compute a compression dictionary from sample data. The samples are cut into segments; each segment is
+     * scored with the number of samples which contain its byte sequences. The segments with the highest score are
+     * taken into the dictionary, skipping segments which are mostly covered by already chosen segments.
+     * The best segments are placed at the end of the dictionary because deflate encodes shorter distances cheaper.
+     * @param samples the encoded objects
+     * @param size the maximum size of the dictionary
+     * @return the dictionary
+     */
+    public static byte[] train(final List<byte[]> samples, final int size) {
+        // count in how many samples each byte sequence appears
+        Map<Long, Integer> frequency = new HashMap<>();
+        Set<Long> seen = new HashSet<>();
+        for (byte[] sample: samples) {
+            seen.clear();
+            for (int i = 0; i + GRAM <= sample.length; i++) {
+                long gram = gram(sample, i);
+                if (seen.add(gram)) frequency.merge(gram, 1, Integer::sum);
+            }
+        }
+
+        // score the segments
+        List<long[]> segments = new ArrayList<>(); // score, sample number, start position
+        for (int s = 0; s < samples.size(); s++) {
+            byte[] sample = samples.get(s);
+            for (int start = 0; start + GRAM <= sample.length; start += SEGMENT) {
+                long score = score(sample, start, frequency, null);
+                if (score > 0) segments.add(new long[]{score, s, start});
+            }
+        }
+        Collections.sort(segments, (a, b) -> Long.compare(b[0], a[0]));
+
+        // pick the segments
+        List<byte[]> chosen = new ArrayList<>();
+        Set<Long> covered = new HashSet<>();
+        int length = 0;
+        for (long[] segment: segments) {
+            if (length >= size) break;
+            byte[] sample = samples.get((int) segment[1]);
+            int start = (int) segment[2];
+            if (score(sample, start, frequency, covered) * 2 < segment[0]) continue;
+            int end = Math.min(sample.length, start + SEGMENT + GRAM - 1);
+            for (int i = start; i + GRAM <= end; i++) covered.add(gram(sample, i));
+            byte[] b = Arrays.copyOfRange(sample, start, Math.min(end, start + size - length));
+            chosen.add(b);
+            length += b.length;
+        }
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(length);
+        for (int i = chosen.size() - 1; i >= 0; i--) dictionary.write(chosen.get(i), 0, chosen.get(i).length);
+        return dictionary.toByteArray();
+    }
+
+    private static long score(final byte[] sample, final int start, final Map<Long, Integer> frequency, final Set<Long> covered) {
+        long score = 0;
+        int end = Math.min(sample.length, start + SEGMENT + GRAM - 1);
+        for (int i = start; i + GRAM <= end; i++) {
+            long gram = gram(sample, i);
+            if (covered != null && covered.contains(gram)) continue;
+            int f = frequency.get(gram);
+            if (f > 1) score += f;
+        }
+        return score;
+    }
+
+    private static long gram(final byte[] b, final int pos) {
+        long g = 0;
+        for (int i = 0; i < GRAM; i++) g = (g << 8) | (b[pos + i] & 0xff);
+        return g;
+    }
+
+    private static class Output extends ByteArrayOutputStream {
+        private Output(int size) {
+            super(size);
+        }
+        private byte[] buffer() {
+            return this.buf;
+        }
+        private void writeVarint(int n) {
+            writeVarlong(n & 0xffffffffL);
+        }
+        private void writeVarlong(long n) {
+            while ((n & ~0x7fL) != 0) {
+                write((int) ((n & 0x7f) | 0x80));
+                n >>>= 7;
+            }
+            write((int) n);
+        }
+        private void writeLong(long n) {
+            for (int i = 56; i >= 0; i -= 8) write((int) (n >>> i));
+        }
+        private void writeString(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(b.length);
+            write(b, 0, b.length);
+        }
+    }
+
+    private static class Input {
+        private final byte[] b;
+        private final int end;
+        private int pos;
+        private Input(byte[] b, int pos, int end) {
+            this.b = b;
+            this.pos = pos;
+            this.end = end;
+        }
+        private byte read() {
+            if (this.pos >= this.end) throw new IllegalStateException("unexpected end of capsule");
+            return this.b[this.pos++];
+        }
+        private int readVarint() {
+            return (int) readVarlong();
+        }
+        private long readVarlong() {
+            long n = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte x = read();
+                n |= (long) (x & 0x7f) << shift;
+                if ((x & 0x80) == 0) return n;
+            }
+        }
+        private long readLong() {
+            long n = 0;
+            for (int i = 0; i < 8; i++) n = (n << 8) | (read() & 0xff);
+            return n;
+        }
+        private String readString() {
+            int length = readVarint();
+            if (this.pos + length > this.end) throw new IllegalStateException("unexpected end of capsule");
+            String s = new String(this.b, this.pos, length, StandardCharsets.UTF_8);
+            this.pos += length;
+            return s;
+        }
+    }
+
+}
@@ -24,9 +24,12 @@ import java.io.IOException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -39,6 +42,8 @@ public class JsonDataset {
     final Map<String, JsonFactoryIndex> index; // a mapping from a search key to the search index
     private final JsonMinifier minifier; // a minifier for json which learns about json mapping key names
     private final Map<String, Boolean> columns; // a mapping from the column key to a boolean which is true if the column value is case-insensitive
+    private final Column[] columnOrder; // the columns in the order of the definition, this is also the order in the sidecar index files
+    private final List<MappedJsonFile> mapped; // the memory-mapped dump files
     private final String dateFieldName; // a name of a date field which shows the update time of the record
     private final DateFormat dateFieldFormat; 
     
@@ -56,7 +61,8 @@ public class JsonDataset {
      * @param dump_dir the path where the subdirectories for this data set shall be stored
      * @param dump_file_prefix a prefix for the file names
      * @param index_keys the names of the json property keys where their content shall be indexed by this field
-     * @param mode the indexing mode, either completely in RAM with Mode.COMPRESSED or with file handles with Mode.REWRITABLE
+     * @param mode the indexing mode, either completely in RAM with Mode.COMPRESSED or with file handles with Mode.REWRITABLE.
+     *   In Mode.REWRITABLE the dump files are mapped into memory and the index is loaded from a sidecar file for each dump
      * @throws IOException
      */
     public JsonDataset(
@@ -65,13 +71,29 @@ public class JsonDataset {
             String dateFieldName, String dateFieldFormat,
             JsonRepository.Mode mode, final boolean dailyDump,
             int count) throws IOException {
+        this(dump_dir, dump_file_prefix, columns, dateFieldName, dateFieldFormat, mode, JsonMinifier.Format.BINARY, dailyDump, count);
+    }
+    
+    /**
+     * define a data set with a given capsule format for Mode.COMPRESSED
+     * @param capsuleFormat the format of the objects which are held in RAM in Mode.COMPRESSED
+     * @throws IOException
+     */
+    public JsonDataset(
+            File dump_dir, String dump_file_prefix,
+            Column[] columns,
+            String dateFieldName, String dateFieldFormat,
+            JsonRepository.Mode mode, JsonMinifier.Format capsuleFormat, final boolean dailyDump,
+            int count) throws IOException {
         
         // initialize class objects
         int concurrency = Runtime.getRuntime().availableProcessors();
         this.indexDump = new JsonRepository(dump_dir, dump_file_prefix, null, mode, dailyDump, concurrency);
         this.index = new ConcurrentHashMap<>();
-        this.minifier = new JsonMinifier();
+        this.minifier = new JsonMinifier(capsuleFormat);
         this.columns = new HashMap<>();
+        this.columnOrder = columns;
+        this.mapped = new ArrayList<>();
         this.dateFieldName = dateFieldName == null ? "" : dateFieldName;
         this.dateFieldFormat = this.dateFieldName.length() == 0 ? null : new SimpleDateFormat(dateFieldFormat);
         for (Column column: columns) this.columns.put(column.key, column.caseInsensitive);
@@ -84,6 +106,14 @@ public class JsonDataset {
 
         // for each reader one threqd is started which does Json parsing and indexing
         if (dumps != null) for (final File dump: dumps) {
+            if (mode == JsonRepository.REWRITABLE_MODE && dump.getName().endsWith(".txt")) {
+                try {
+                    loadMapped(dump, concurrency);
+                    continue;
+                } catch (IOException e) {
+                    DAO.severe("cannot map " + dump + ", reading it sequentially", e);
+                }
+            }
             final JsonReader reader = indexDump.getDumpReader(dump);
             DAO.log("loading " + reader.getName());
             Thread[] indexerThreads = new Thread[concurrency];
@@ -103,12 +133,12 @@ public class JsonDataset {
                                     jsonFactory = ((JsonRandomAccessFile) reader).getJsonFactory(handle.getIndex(), handle.getLength());
                                 } else {
                                     assert JsonDataset.this.indexDump.getMode() == JsonRepository.COMPRESSED_MODE;
-                                    // create the json minifier object which contains the json in minified version
+                                    // create the json capsule object which contains the json in minified version
                                     // before we create the minifier, we remove the meta keys from the json to further minify it
                                     for (String meta_key: JsonRepository.META_KEYS_STRINGS) {
                                         op.remove(meta_key);
                                     }
-                                    jsonFactory = JsonDataset.this.minifier.minify(op);
+                                    jsonFactory = JsonDataset.this.minifier.capsule(op);
                                 }
                                 // the resulting json factory is written to each search index
                                 for (Map.Entry<String, Boolean> column: JsonDataset.this.columns.entrySet()) {
@@ -141,6 +171,105 @@ public class JsonDataset {
         }
     }
     
+    /**
+     * load the index of a dump with the help of its sidecar index file. Only the lines which are not yet in the
+     * sidecar are read and parsed; they are appended to the sidecar afterwards. The index points to slices
+     * of the memory-mapped dump.
+     * @param dump a plain text dump file
+     * @param concurrency the number of threads which parse new lines
+     * @throws IOException
+     */
+    private void loadMapped(final File dump, final int concurrency) throws IOException {
+        final MappedJsonFile mappedDump = new MappedJsonFile(dump);
+        String[] keys = new String[this.columnOrder.length];
+        for (int i = 0; i < keys.length; i++) keys[i] = this.columnOrder[i].key;
+        JsonDumpIndex sidecar = new JsonDumpIndex(this.indexDump.getIndexFile(dump), keys);
+        long covered = sidecar.getCoveredLength();
+        if (covered > mappedDump.length() || (covered > 0 && mappedDump.slice(covered - 1, 1).get() != '\n')) {
+            DAO.log("sidecar index of " + dump + " does not match the dump, rebuilding it");
+            sidecar.reset();
+            covered = 0;
+        }
+        long loaded = sidecar.read((offset, length, values) -> index(mappedDump.getJsonFactory(offset, length), values));
+
+        // collect the lines which are not covered by the sidecar
+        final LineList lines = new LineList();
+        long end = mappedDump.scan(sidecar.getCoveredLength(), (offset, length) -> lines.add(offset, length));
+
+        // parse the new lines concurrently; the index is filled afterwards in the order of the dump, so later lines win
+        if (lines.size > 0) {
+            final Object[][] values = new Object[lines.size][];
+            Thread[] parserThreads = new Thread[concurrency];
+            for (int t = 0; t < concurrency; t++) {
+                final int start = t;
+                parserThreads[t] = new Thread() {
+                    public void run() {
+                        for (int i = start; i < lines.size; i += concurrency) {
+                            try {
+                                values[i] = values(mappedDump.getJSON(lines.offsets[i], lines.lengths[i]));
+                            } catch (Throwable e) {
+                                DAO.severe("cannot parse line in file " + dump + " at " + lines.offsets[i], e);
+                                values[i] = new Object[JsonDataset.this.columnOrder.length];
+                            }
+                        }
+                    }
+                };
+                parserThreads[t].start();
+            }
+            for (int t = 0; t < concurrency; t++) {
+                try {parserThreads[t].join();} catch (InterruptedException e) {}
+            }
+            for (int i = 0; i < lines.size; i++) index(mappedDump.getJsonFactory(lines.offsets[i], lines.lengths[i]), values[i]);
+            try {
+                sidecar.append(end, lines.offsets, lines.lengths, values, lines.size);
+            } catch (IOException e) {
+                DAO.severe("cannot write sidecar index of " + dump, e);
+            }
+        }
+        synchronized (this.mapped) {this.mapped.add(mappedDump);}
+        DAO.log("loaded " + dump + ": " + loaded + " entries from the sidecar index, " + lines.size + " new entries");
+    }
+
+    /**
+     * get the search values of the columns from an object
+     * @param op the object
+     * @return the values in the order of the columns, null for missing values
+     */
+    private Object[] values(final JSONObject op) {
+        Object[] values = new Object[this.columnOrder.length];
+        for (int i = 0; i < values.length; i++) {
+            Column column = this.columnOrder[i];
+            Object searchValue = op.has(column.key) ? op.get(column.key) : null;
+            if (searchValue instanceof String && column.caseInsensitive) searchValue = ((String) searchValue).toLowerCase();
+            values[i] = searchValue;
+        }
+        return values;
+    }
+
+    private void index(final JsonFactory jsonFactory, final Object[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) this.index.get(this.columnOrder[i].key).put(values[i], jsonFactory);
+        }
+    }
+
+    /**
+     * a growing list of line positions
+     */
+    private static class LineList {
+        private long[] offsets = new long[1024];
+        private int[] lengths = new int[1024];
+        private int size = 0;
+        private void add(final long offset, final int length) {
+            if (this.size == this.offsets.length) {
+                this.offsets = Arrays.copyOf(this.offsets, this.size * 2);
+                this.lengths = Arrays.copyOf(this.lengths, this.size * 2);
+            }
+            this.offsets[this.size] = offset;
+            this.lengths[this.size] = length;
+            this.size++;
+        }
+    }
+
     /**
      * put an object into the index, but do not overwrite existing pairs
      * @param key
@@ -182,6 +311,10 @@ public class JsonDataset {
     
     public void close() {
         this.indexDump.close();
+        synchronized (this.mapped) {
+            for (MappedJsonFile m: this.mapped) try {m.close();} catch (IOException e) {}
+        }
+        this.minifier.close();
     }
     
     public static class JsonFactoryIndex extends ConcurrentHashMap<Object, JsonFactory> implements Map<Object, JsonFactory> {
@@ -0,0 +1,249 @@
+/**
+ *  JsonDumpIndex
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.tools.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A sidecar file for a json dump which stores the position, the length and the search keys of each line.
+ * With the sidecar, the index of a JsonDataset can be loaded without reading and parsing the dump.
+ * The file consists of a header with the column names and a sequence of blocks; each block covers the
+ * lines of the dump up to an end position. When lines have been appended to the dump, only these lines
+ * must be indexed and are appended to the sidecar as a new block. A block which was not written
+ * completely (i.e. because of a crash) is ignored and overwritten with the next append.
+ */
+public class JsonDumpIndex {
+
+    private final static int FILE_MAGIC = 0x6c6b4469; // "lkDi"
+    private final static int FILE_VERSION = 1;
+
+    private final static byte KEY_NONE = 0, KEY_STRING = 1, KEY_INTEGER = 2, KEY_LONG = 3, KEY_DOUBLE = 4, KEY_BOOLEAN = 5;
+
+    private final File file;
+    private final String[] columns;
+    private long headerSize, validSize, coveredLength;
+
+    public interface EntryHandler {
+        /**
+         * @param offset the position of the line in the dump
+         * @param length the length of the line in bytes
+         * @param keys the search keys in the order of the columns; null for lines which have no value for a column
+         */
+        public void entry(long offset, int length, Object[] keys);
+    }
+
+    /**
+     * open a sidecar file; this reads the header and the block heads.
+     * If the file does not exist or has other columns, it is empty and will be overwritten with the first append.
+     * @param file the sidecar file
+     * @param columns the names of the indexed columns
+     */
+    public JsonDumpIndex(final File file, final String[] columns) {
+        this.file = file;
+        this.columns = columns;
+        this.headerSize = 0;
+        this.validSize = 0;
+        this.coveredLength = 0;
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) return;
+            String[] c = new String[in.readInt()];
+            for (int i = 0; i < c.length; i++) c[i] = in.readUTF();
+            if (!Arrays.equals(c, columns)) return;
+            long pos = header(columns).length;
+            this.headerSize = pos;
+            this.validSize = pos;
+            while (true) {
+                long end = in.readLong();
+                in.readInt(); // count
+                int size = in.readInt();
+                if (end < this.coveredLength || pos + 16 + size > file.length()) break;
+                in.skipBytes(size);
+                pos += 16 + size;
+                this.validSize = pos;
+                this.coveredLength = end;
+            }
+        } catch (EOFException e) {
+            // the last block is incomplete or there is no block
+        } catch (IOException e) {
+            this.headerSize = 0;
+            this.validSize = 0;
+            this.coveredLength = 0;
+        }
+    }
+
+    private static byte[] header(final String[] columns) throws IOException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(b);
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeInt(columns.length);
+        for (String column: columns) out.writeUTF(column);
+        out.close();
+        return b.toByteArray();
+    }
+
+    /**
+     * @return the position in the dump after the last indexed line; lines behind that position are not in the sidecar
+     */
+    public long getCoveredLength() {
+        return this.coveredLength;
+    }
+
+    /**
+     * forget all blocks; the next append rewrites the file
+     */
+    public void reset() {
+        this.headerSize = 0;
+        this.validSize = 0;
+        this.coveredLength = 0;
+    }
+
+    /**
+     * read all entries of the complete blocks in the order of the dump
+     * @param handler the receiver of the entries
+     * @return the number of entries
+     * @throws IOException
+     */
+    public long read(final EntryHandler handler) throws IOException {
+        if (this.validSize <= this.headerSize) return 0;
+        long count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file), 1 << 20))) {
+            in.skipBytes((int) this.headerSize);
+            long pos = this.headerSize;
+            while (pos < this.validSize) {
+                in.readLong(); // end
+                int entries = in.readInt();
+                int size = in.readInt();
+                for (int i = 0; i < entries; i++) {
+                    long offset = in.readLong();
+                    int length = in.readInt();
+                    Object[] keys = new Object[this.columns.length];
+                    for (int k = 0; k < keys.length; k++) keys[k] = readKey(in);
+                    handler.entry(offset, length, keys);
+                }
+                pos += 16 + size;
+                count += entries;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * append a block of entries to the sidecar
+     * @param end the position in the dump after the last line of the block
+     * @param offsets the positions of the lines
+     * @param lengths the lengths of the lines
+     * @param keys the search keys for each line
+     * @param count the number of entries
+     * @throws IOException
+     */
+    public void append(final long end, final long[] offsets, final int[] lengths, final Object[][] keys, final int count) throws IOException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream(count * 32 + 16);
+        DataOutputStream block = new DataOutputStream(b);
+        for (int i = 0; i < count; i++) {
+            block.writeLong(offsets[i]);
+            block.writeInt(lengths[i]);
+            for (int k = 0; k < this.columns.length; k++) writeKey(block, keys[i][k]);
+        }
+        block.close();
+        this.file.getParentFile().mkdirs();
+        if (this.validSize == 0) {
+            byte[] header = header(this.columns);
+            try (FileOutputStream out = new FileOutputStream(this.file)) {
+                out.write(header);
+            }
+            this.headerSize = header.length;
+            this.validSize = header.length;
+        } else {
+            try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+                raf.setLength(this.validSize); // remove a torn block
+            }
+        }
+        FileOutputStream fos = new FileOutputStream(this.file, true);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 65536))) {
+            out.writeLong(end);
+            out.writeInt(count);
+            out.writeInt(b.size());
+            b.writeTo(out);
+            out.flush();
+            fos.getFD().sync();
+        }
+        this.validSize += 16 + b.size();
+        this.coveredLength = end;
+    }
+
+    private static void writeKey(final DataOutputStream out, final Object key) throws IOException {
+        if (key instanceof String) {
+            byte[] s = ((String) key).getBytes(StandardCharsets.UTF_8);
+            out.writeByte(KEY_STRING);
+            out.writeInt(s.length);
+            out.write(s);
+        } else if (key instanceof Integer) {
+            out.writeByte(KEY_INTEGER);
+            out.writeInt((Integer) key);
+        } else if (key instanceof Long) {
+            out.writeByte(KEY_LONG);
+            out.writeLong((Long) key);
+        } else if (key instanceof Double) {
+            out.writeByte(KEY_DOUBLE);
+            out.writeDouble((Double) key);
+        } else if (key instanceof Boolean) {
+            out.writeByte(KEY_BOOLEAN);
+            out.writeBoolean((Boolean) key);
+        } else {
+            out.writeByte(KEY_NONE);
+        }
+    }
+
+    private static Object readKey(final DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case KEY_NONE: return null;
+            case KEY_STRING:
+                byte[] s = new byte[in.readInt()];
+                in.readFully(s);
+                return new String(s, StandardCharsets.UTF_8);
+            case KEY_INTEGER: return in.readInt();
+            case KEY_LONG: return in.readLong();
+            case KEY_DOUBLE: return in.readDouble();
+            case KEY_BOOLEAN: return in.readBoolean();
+            default: throw new IOException("unknown key type " + type);
+        }
+    }
+
+    public void delete() {
+        this.file.delete();
+        reset();
+    }
+
+}
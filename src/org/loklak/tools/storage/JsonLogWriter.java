@@ -0,0 +1,499 @@
+/**
+ *  JsonLogWriter
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.tools.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPInputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.loklak.data.DAO;
+import org.loklak.tools.Compression;
+
+/**
+ * An asynchronous log of json objects.
+ * - offer() puts an object into a bounded lock-free ring buffer and returns at once; if the ring is full the
+ *   object is dropped and counted, a log must never slow down the request which is logged
+ * - a single writer thread takes all objects from the ring and appends them as one batch; the file is
+ *   flushed once per batch
+ * - a log file is rolled when it exceeds a size or an age, rolled files are compressed in the background
+ * - the objects are written as json lines or in a compact binary format: each file has its own key table,
+ *   a key is written once as string and later as number; numbers are variable-length integers
+ * Log files are named like the dumps of a JsonRepository: prefix, date, random number and suffix.
+ */
+public class JsonLogWriter {
+
+    public static enum Format {
+        JSON(".txt"),   // one json object per line
+        BINARY(".bin"); // length-prefixed records with a key table per file
+        public final String suffix;
+        private Format(final String suffix) {
+            this.suffix = suffix;
+        }
+    }
+
+    private final static byte[] BINARY_MAGIC = "LKB1".getBytes(StandardCharsets.US_ASCII);
+    private final static byte T_NULL = 0, T_FALSE = 1, T_TRUE = 2, T_LONG = 3, T_DOUBLE = 4, T_STRING = 5, T_OBJECT = 6, T_ARRAY = 7;
+
+    private final static SimpleDateFormat fileDateFormat = new SimpleDateFormat("yyyyMMddHHmmss", Locale.US);
+    static {
+        fileDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+    }
+
+    private final File dir;
+    private final String prefix;
+    private final Format format;
+    private final int batchSize;
+    private final long maxSize, maxAge, flushInterval;
+    private final AtomicReferenceArray<JSONObject> ring;
+    private final int mask;
+    private final AtomicLong tail; // the next sequence number which is claimed by a producer
+    private volatile long head;    // the next sequence number which is read by the writer, written only by the writer
+    private final Thread writer;
+    private final ExecutorService compressor;
+    private volatile boolean running;
+    private final LongAdder dropped;
+    private final AtomicLong written, batches, bytes, rolled;
+
+    // the current file, only used by the writer thread
+    private File file;
+    private OutputStream out;
+    private long fileSize, fileCreated;
+    private final Map<String, Integer> keys; // the key table of a binary file
+    private final ByteArrayOutputStream record;
+
+    /**
+     * @param dir the directory of the log files
+     * @param prefix the name prefix of the log files
+     * @param format the format of the log files
+     * @param capacity the number of objects in the ring buffer, rounded up to a power of two
+     * @param maxSize the size in bytes after which a new file is started
+     * @param maxAge the time in milliseconds after which a new file is started
+     * @param flushInterval the time in milliseconds the writer waits when the ring is empty
+     */
+    public JsonLogWriter(final File dir, final String prefix, final Format format, final int capacity, final long maxSize, final long maxAge, final long flushInterval) {
+        this.dir = dir;
+        this.dir.mkdirs();
+        this.prefix = prefix;
+        this.format = format;
+        int c = 2;
+        while (c < capacity) c <<= 1;
+        this.ring = new AtomicReferenceArray<>(c);
+        this.mask = c - 1;
+        this.batchSize = Math.max(1, c / 2);
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+        this.flushInterval = Math.max(1, flushInterval);
+        this.tail = new AtomicLong(0);
+        this.head = 0;
+        this.dropped = new LongAdder();
+        this.written = new AtomicLong(0);
+        this.batches = new AtomicLong(0);
+        this.bytes = new AtomicLong(0);
+        this.rolled = new AtomicLong(0);
+        this.keys = new HashMap<>();
+        this.record = new ByteArrayOutputStream(1024);
+        this.file = null;
+        this.out = null;
+        this.compressor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "LOG-COMPRESSOR-" + prefix);
+            t.setDaemon(true);
+            return t;
+        });
+        // files which are left over from a previous run are compressed
+        String[] names = dir.list();
+        if (names != null) for (String name: names) {
+            if (name.startsWith(prefix) && (name.endsWith(Format.JSON.suffix) || name.endsWith(Format.BINARY.suffix))) compress(new File(dir, name));
+        }
+        this.running = true;
+        this.writer = new Thread("LOG-WRITER-" + prefix) {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        };
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * put an object into the log. This does not block; the object must not be changed afterwards.
+     * @return false if the ring buffer is full and the object was dropped
+     */
+    public boolean offer(final JSONObject json) {
+        long t;
+        do {
+            t = this.tail.get();
+            if (t - this.head >= this.ring.length() || !this.running) {
+                this.dropped.increment();
+                return false;
+            }
+        } while (!this.tail.compareAndSet(t, t + 1));
+        this.ring.lazySet((int) t & this.mask, json);
+        return true;
+    }
+
+    private void writeLoop() {
+        while (this.running) {
+            try {
+                if (drain() == 0) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(this.flushInterval));
+            } catch (Throwable e) {
+                DAO.severe("writing log " + this.prefix + " failed", e);
+                closeFile();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(this.flushInterval));
+            }
+        }
+    }
+
+    /**
+     * write all objects which are in the ring as one batch. If the batch cannot be written, the objects which
+     * were taken out of the ring until then are lost, but the ring stays usable.
+     * @return the number of written objects
+     */
+    private int drain() throws IOException {
+        long h = this.head;
+        int n = 0;
+        try {
+            while (n < this.batchSize) {
+                int i = (int) h & this.mask;
+                JSONObject json = this.ring.get(i);
+                if (json == null) break; // the slot is claimed but not yet filled, or the ring is empty
+                this.ring.lazySet(i, null);
+                h++;
+                n++;
+                try {
+                    append(json);
+                } catch (RuntimeException e) {
+                    DAO.severe("cannot serialize log entry", e); // a broken object must not stop the log
+                }
+            }
+            if (n == 0) {
+                // roll an old file also if there is nothing to write
+                if (this.file != null && System.currentTimeMillis() - this.fileCreated > this.maxAge) roll();
+                return 0;
+            }
+            this.out.flush();
+        } finally {
+            // the slots are empty now; if head stayed behind them, the writer would wait for them forever
+            this.head = h;
+        }
+        this.batches.incrementAndGet();
+        this.written.addAndGet(n);
+        return n;
+    }
+
+    private void append(final JSONObject json) throws IOException {
+        if (this.file == null || this.fileSize > this.maxSize || System.currentTimeMillis() - this.fileCreated > this.maxAge) roll();
+        this.record.reset();
+        if (this.format == Format.JSON) {
+            byte[] b = json.toString().getBytes(StandardCharsets.UTF_8);
+            this.record.write(b, 0, b.length);
+            this.record.write('\n');
+        } else {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+            writeObject(body, json);
+            writeVarLong(this.record, body.size());
+            body.writeTo(this.record);
+        }
+        this.record.writeTo(this.out);
+        this.fileSize += this.record.size();
+        this.bytes.addAndGet(this.record.size());
+    }
+
+    private void roll() throws IOException {
+        File old = this.file;
+        closeFile();
+        if (old != null) {
+            compress(old);
+            this.rolled.incrementAndGet();
+        }
+        long now = System.currentTimeMillis();
+        String date;
+        synchronized (fileDateFormat) {date = fileDateFormat.format(now);}
+        String random = (Long.toString(Math.abs(new Random(now).nextLong())) + "00000000").substring(0, 8);
+        File f = new File(this.dir, this.prefix + date + "_" + random + this.format.suffix);
+        this.out = new BufferedOutputStream(new FileOutputStream(f, true), 65536);
+        this.file = f;
+        this.fileSize = this.file.length();
+        this.fileCreated = now;
+        this.keys.clear();
+        if (this.format == Format.BINARY && this.fileSize == 0) {
+            this.out.write(BINARY_MAGIC);
+            this.fileSize += BINARY_MAGIC.length;
+        }
+    }
+
+    private void closeFile() {
+        if (this.out != null) try {this.out.close();} catch (IOException e) {}
+        this.out = null;
+        this.file = null;
+    }
+
+    private void compress(final File source) {
+        final File dest = new File(source.getParentFile(), source.getName() + ".gz");
+        this.compressor.execute(() -> {
+            try {
+                if (dest.exists()) dest.delete();
+                Compression.gzip(source, dest, true);
+            } catch (IOException e) {
+                DAO.log("gzip of " + source + " failed: " + e.getMessage());
+            }
+        });
+    }
+
+    private void writeObject(final ByteArrayOutputStream os, final JSONObject json) {
+        writeVarLong(os, json.length());
+        for (String key: json.keySet()) {
+            Integer k = this.keys.get(key);
+            if (k == null) {
+                // a new key: 0 followed by the key, then it gets the next number
+                writeVarLong(os, 0);
+                writeString(os, key);
+                this.keys.put(key, this.keys.size() + 1);
+            } else {
+                writeVarLong(os, k);
+            }
+            writeValue(os, json.opt(key));
+        }
+    }
+
+    private void writeValue(final ByteArrayOutputStream os, final Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            os.write(T_NULL);
+        } else if (value instanceof Boolean) {
+            os.write(((Boolean) value).booleanValue() ? T_TRUE : T_FALSE);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            os.write(T_LONG);
+            long l = ((Number) value).longValue();
+            writeVarLong(os, (l << 1) ^ (l >> 63));
+        } else if (value instanceof Double || value instanceof Float) {
+            os.write(T_DOUBLE);
+            long l = Double.doubleToLongBits(((Number) value).doubleValue());
+            for (int i = 56; i >= 0; i -= 8) os.write((int) (l >>> i));
+        } else if (value instanceof JSONObject) {
+            os.write(T_OBJECT);
+            writeObject(os, (JSONObject) value);
+        } else if (value instanceof Map) {
+            os.write(T_OBJECT);
+            writeObject(os, new JSONObject((Map<?, ?>) value));
+        } else if (value instanceof JSONArray) {
+            JSONArray a = (JSONArray) value;
+            os.write(T_ARRAY);
+            writeVarLong(os, a.length());
+            for (int i = 0; i < a.length(); i++) writeValue(os, a.opt(i));
+        } else {
+            os.write(T_STRING);
+            writeString(os, value.toString());
+        }
+    }
+
+    private static void writeString(final ByteArrayOutputStream os, final String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(os, b.length);
+        os.write(b, 0, b.length);
+    }
+
+    private static void writeVarLong(final OutputStream os, long v) {
+        try {
+            while ((v & ~0x7FL) != 0) {
+                os.write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            os.write((int) v);
+        } catch (IOException e) {
+            throw new RuntimeException(e); // does not happen with a ByteArrayOutputStream
+        }
+    }
+
+    /**
+     * read a log file; the file may be compressed
+     * @param file a file which was written by a JsonLogWriter
+     * @return the objects in the file
+     */
+    public static List<JSONObject> read(final File file) throws IOException {
+        String name = file.getName();
+        boolean gz = name.endsWith(".gz");
+        if (gz) name = name.substring(0, name.length() - 3);
+        List<JSONObject> list = new ArrayList<>();
+        try (InputStream is = gz ? new GZIPInputStream(new BufferedInputStream(new FileInputStream(file), 65536)) : new BufferedInputStream(new FileInputStream(file), 65536)) {
+            if (name.endsWith(Format.BINARY.suffix)) {
+                for (int i = 0; i < BINARY_MAGIC.length; i++) {
+                    if (is.read() != BINARY_MAGIC[i]) throw new IOException("not a binary log: " + file);
+                }
+                List<String> keys = new ArrayList<>();
+                keys.add(null); // key numbers start with 1
+                while (true) {
+                    long length;
+                    try {
+                        length = readVarLong(is);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (length < 0) break;
+                    list.add(readObject(is, keys));
+                }
+            } else {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.length() > 0) list.add(new JSONObject(line));
+                }
+            }
+        }
+        return list;
+    }
+
+    private static JSONObject readObject(final InputStream is, final List<String> keys) throws IOException {
+        int n = (int) readVarLong(is);
+        JSONObject json = new JSONObject(true);
+        for (int i = 0; i < n; i++) {
+            int k = (int) readVarLong(is);
+            String key;
+            if (k == 0) {
+                key = readString(is);
+                keys.add(key);
+            } else {
+                key = keys.get(k);
+            }
+            json.put(key, readValue(is, keys));
+        }
+        return json;
+    }
+
+    private static Object readValue(final InputStream is, final List<String> keys) throws IOException {
+        int tag = is.read();
+        switch (tag) {
+        case T_NULL: return JSONObject.NULL;
+        case T_FALSE: return Boolean.FALSE;
+        case T_TRUE: return Boolean.TRUE;
+        case T_LONG: {
+            long z = readVarLong(is);
+            long l = (z >>> 1) ^ -(z & 1);
+            return l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE ? (Object) Integer.valueOf((int) l) : (Object) Long.valueOf(l);
+        }
+        case T_DOUBLE: {
+            long l = 0;
+            for (int i = 0; i < 8; i++) l = (l << 8) | readByte(is);
+            return Double.longBitsToDouble(l);
+        }
+        case T_STRING: return readString(is);
+        case T_OBJECT: return readObject(is, keys);
+        case T_ARRAY: {
+            int n = (int) readVarLong(is);
+            JSONArray a = new JSONArray();
+            for (int i = 0; i < n; i++) a.put(readValue(is, keys));
+            return a;
+        }
+        default: throw new IOException("unknown type " + tag);
+        }
+    }
+
+    private static String readString(final InputStream is) throws IOException {
+        int length = (int) readVarLong(is);
+        byte[] b = new byte[length];
+        int p = 0;
+        while (p < length) {
+            int c = is.read(b, p, length - p);
+            if (c < 0) throw new EOFException();
+            p += c;
+        }
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static int readByte(final InputStream is) throws IOException {
+        int b = is.read();
+        if (b < 0) throw new EOFException();
+        return b;
+    }
+
+    private static long readVarLong(final InputStream is) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte(is);
+            v |= ((long) (b & 0x7F)) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IOException("malformed number");
+    }
+
+    /**
+     * @return the number of objects which are in the ring and not yet written
+     */
+    public long pending() {
+        return this.tail.get() - this.head;
+    }
+
+    public JSONObject getStats() {
+        JSONObject json = new JSONObject(true);
+        json.put("format", this.format.name().toLowerCase());
+        json.put("capacity", this.ring.length());
+        json.put("pending", pending());
+        json.put("written", this.written.get());
+        json.put("dropped", this.dropped.sum());
+        json.put("batches", this.batches.get());
+        json.put("bytes", this.bytes.get());
+        json.put("rolled", this.rolled.get());
+        return json;
+    }
+
+    /**
+     * write all pending objects and close the log
+     */
+    public void close() {
+        this.running = false;
+        LockSupport.unpark(this.writer);
+        try {this.writer.join(10000);} catch (InterruptedException e) {}
+        try {
+            while (drain() > 0);
+        } catch (IOException e) {
+            DAO.severe("writing log " + this.prefix + " failed", e);
+        }
+        closeFile();
+        this.compressor.shutdown();
+        try {this.compressor.awaitTermination(10, TimeUnit.SECONDS);} catch (InterruptedException e) {}
+    }
+}
@@ -34,11 +34,48 @@ import org.loklak.tools.UTF8;
 
 public class JsonMinifier {
 
+    private final static int DICTIONARY_SIZE = 16384;
+
+    public static enum Format {
+        GZIP,   // each capsule is the json with shortened keys, gzipped on its own
+        BINARY; // each capsule is a binary encoding, compressed with a dictionary which is shared by all capsules
+    }
+
     private final ConcurrentHashMap<String, String> key2short, short2key;
+    private final Format format;
+    private final BinaryJsonCodec codec;
     
     public JsonMinifier() {
+        this(Format.GZIP);
+    }
+    
+    public JsonMinifier(Format format) {
         this.key2short = new ConcurrentHashMap<>();
         this.short2key = new ConcurrentHashMap<>();
+        this.format = format;
+        this.codec = format == Format.BINARY ? new BinaryJsonCodec(DICTIONARY_SIZE) : null;
+    }
+    
+    public Format getFormat() {
+        return this.format;
+    }
+    
+    /**
+     * release the compression resources of the binary format
+     */
+    public void close() {
+        if (this.codec != null) this.codec.close();
+    }
+    
+    /**
+     * create a capsule in the format of this minifier
+     * @param json the object
+     * @return a factory which restores the object
+     */
+    public JsonFactory capsule(JSONObject json) {
+        if (json == null) return null;
+        if (this.format == Format.BINARY) return new BinaryCapsuleFactory(this.codec.encode(json));
+        return minify(json);
     }
     
     public JsonCapsuleFactory minify(JSONObject json) {
@@ -115,5 +152,27 @@ public class JsonMinifier {
         }
 
     }
+
+    public class BinaryCapsuleFactory implements JsonFactory {
+
+        private final byte[] capsule;
+
+        private BinaryCapsuleFactory(byte[] capsule) {
+            this.capsule = capsule;
+        }
+
+        public JSONObject getJSON() {
+            return JsonMinifier.this.codec.decode(this.capsule);
+        }
+
+        public String getString() {
+            return getJSON().toString(0);
+        }
+
+        public int getSize() {
+            return this.capsule.length;
+        }
+
+    }
     
 }
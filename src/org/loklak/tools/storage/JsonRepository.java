@@ -29,15 +29,12 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.Locale;
-import java.util.Map;
 import java.util.Random;
 import java.util.SortedSet;
 import java.util.TimeZone;
-import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.zip.GZIPInputStream;
 
-import org.json.JSONArray;
 import org.json.JSONObject;
 import org.loklak.data.DAO;
 import org.loklak.tools.Compression;
@@ -54,6 +51,11 @@ public class JsonRepository {
     public static final Mode COMPRESSED_MODE = Mode.COMPRESSED;
     public static final Mode REWRITABLE_MODE = Mode.REWRITABLE;
 
+    // the buffer is a spill log; a segment is synced every BUFFER_SYNC_COUNT appends or BUFFER_SYNC_INTERVAL milliseconds
+    private final static long BUFFER_SEGMENT_SIZE = 8L * 1024L * 1024L;
+    private final static int BUFFER_SYNC_COUNT = 500;
+    private final static long BUFFER_SYNC_INTERVAL = 1000;
+
 
     private final static SimpleDateFormat dateFomatMonthly = new SimpleDateFormat("yyyyMM", Locale.US);
     private final static SimpleDateFormat dateFomatDaily = new SimpleDateFormat("yyyyMMdd", Locale.US);
@@ -76,7 +78,7 @@ public class JsonRepository {
     private final Mode mode;
     private final int concurrency;
     private final boolean dailyDump;
-    private final Map<String, JsonRandomAccessFile> buffers;
+    private final SpillLog buffer;
     private JsonRandomAccessFile json_log;
     private long write_counter_reset_time, write_counter, not_in_index_write_counter;
     
@@ -106,7 +108,7 @@ public class JsonRepository {
                 w.close();
             }
         }
-        this.buffers = new TreeMap<>();
+        this.buffer = new SpillLog(this.dump_dir_buffer, this.dump_file_prefix, BUFFER_SEGMENT_SIZE, BUFFER_SYNC_COUNT, BUFFER_SYNC_INTERVAL);
         open();
     }
     
@@ -245,26 +247,62 @@ public class JsonRepository {
         return jf;
     }
     
-    public void buffer(Date created_at, Map<String, Object> map) throws IOException {
-        // compute a buffer name from the created_at date
-        String bufferName = dateSuffix(true, created_at);
-        
-        synchronized (this.buffers) {
-            this.buffers.get(bufferName);
-        }
-        // TODO: THIS IS INCOMPLETE!
+    /**
+     * write a json into the buffer. Buffered objects are not in the dump and not in any index;
+     * they are taken back with getBufferShard() when there is time to process them.
+     * @param json the object
+     * @throws IOException
+     */
+    public void buffer(JSONObject json) throws IOException {
+        this.buffer.append(json);
     }
     
-    public JSONArray getBufferShard() {
-        return null;
+    /**
+     * take the oldest shard out of the buffer. The shard is removed from the buffer when it is committed
+     * and it is put back into the buffer when it is rolled back.
+     * @return the shard or null if the buffer is empty
+     */
+    public SpillLog.Segment getBufferShard() {
+        try {
+            return this.buffer.takeSegment();
+        } catch (IOException e) {
+            DAO.severe("reading buffer shard failed", e);
+            return null;
+        }
     }
     
     public int getBufferShardCount() {
-        return 0;
+        return this.buffer.getSegmentCount();
+    }
+    
+    /**
+     * write pending buffer appends to the disk
+     */
+    public void syncBuffer() {
+        try {
+            this.buffer.sync();
+        } catch (IOException e) {
+            DAO.severe("sync of buffer failed", e);
+        }
+    }
+    
+    public JSONObject getBufferStats() {
+        return this.buffer.getStats();
     }
     
     public void close() {
         try {this.json_log.close();} catch (IOException e) {}
+        this.buffer.close();
+    }
+    
+    /**
+     * get the location of the sidecar index file of a dump. Sidecar files are stored in the index subdirectory
+     * of the dump directory, so they are not mistaken for dumps.
+     * @param dump the dump file
+     * @return the sidecar file, which may not exist
+     */
+    public File getIndexFile(File dump) {
+        return new File(new File(this.dump_dir, "index"), dump.getName() + ".idx");
     }
     
     public SortedSet<File> getOwnDumps(int count) {
@@ -0,0 +1,198 @@
+/**
+ *  MappedJsonFile
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.tools.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONObject;
+import org.loklak.data.DAO;
+
+/**
+ * A read-only view on a json dump file which is mapped into memory. The file is mapped in windows
+ * of WINDOW_STEP bytes which overlap by WINDOW_OVERLAP bytes, so every line which is shorter than the
+ * overlap is completely inside the window of its start position and can be read as a slice of the
+ * mapped buffer without copying. Longer lines are read from the file channel.
+ * Only the part of the file which exists when it is opened is mapped; lines which are appended later
+ * must be read with another reader.
+ */
+public class MappedJsonFile {
+
+    private final static long WINDOW_STEP = 1L << 30;
+    private final static long WINDOW_OVERLAP = 1L << 24;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long length;
+    private final MappedByteBuffer[] windows;
+
+    public interface LineHandler {
+        public void line(long offset, int length);
+    }
+
+    public MappedJsonFile(final File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = this.raf.getChannel();
+        this.length = this.channel.size();
+        int count = (int) ((this.length + WINDOW_STEP - 1) / WINDOW_STEP);
+        this.windows = new MappedByteBuffer[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                long start = i * WINDOW_STEP;
+                this.windows[i] = this.channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_STEP + WINDOW_OVERLAP, this.length - start));
+            }
+        } catch (IOException e) {
+            this.raf.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * @return the number of mapped bytes
+     */
+    public long length() {
+        return this.length;
+    }
+
+    /**
+     * get the bytes of a line
+     * @param offset the start position of the line
+     * @param length the number of bytes of the line
+     * @return a buffer with the line between position and limit; this is a slice of the mapped file if possible
+     * @throws IOException
+     */
+    public ByteBuffer slice(final long offset, final int length) throws IOException {
+        if (offset < 0 || offset + length > this.length) throw new IOException("line at " + offset + " is outside of " + this.file);
+        int w = (int) (offset / WINDOW_STEP);
+        long base = w * WINDOW_STEP;
+        if (offset + length <= base + this.windows[w].capacity()) {
+            ByteBuffer b = this.windows[w].duplicate();
+            b.position((int) (offset - base));
+            b.limit((int) (offset - base) + length);
+            return b;
+        }
+        ByteBuffer b = ByteBuffer.allocate(length);
+        while (b.hasRemaining()) {
+            if (this.channel.read(b, offset + b.position()) < 0) throw new IOException("unexpected end of " + this.file);
+        }
+        b.flip();
+        return b;
+    }
+
+    public String getString(final long offset, final int length) throws IOException {
+        return StandardCharsets.UTF_8.decode(slice(offset, length)).toString();
+    }
+
+    public JSONObject getJSON(final long offset, final int length) throws IOException {
+        return new JSONObject(getString(offset, length));
+    }
+
+    /**
+     * enumerate all complete lines, starting at a given position. Empty lines are skipped.
+     * @param from the start position of the first line
+     * @param handler the receiver of the line positions
+     * @return the position after the last complete line; a line without a line end at the end of the file is not complete
+     */
+    public long scan(final long from, final LineHandler handler) {
+        long pos = from, lineStart = from;
+        while (pos < this.length) {
+            int w = (int) (pos / WINDOW_STEP);
+            long base = w * WINDOW_STEP;
+            long end = Math.min(base + WINDOW_STEP, this.length);
+            MappedByteBuffer b = this.windows[w];
+            for (; pos < end; pos++) {
+                if (b.get((int) (pos - base)) != '\n') continue;
+                long lineEnd = pos;
+                if (lineEnd > lineStart && byteAt(lineEnd - 1) == '\r') lineEnd--;
+                if (lineEnd > lineStart) handler.line(lineStart, (int) (lineEnd - lineStart));
+                lineStart = pos + 1;
+            }
+        }
+        return lineStart;
+    }
+
+    private byte byteAt(final long pos) {
+        int w = (int) (pos / WINDOW_STEP);
+        return this.windows[w].get((int) (pos - w * WINDOW_STEP));
+    }
+
+    public JsonFactory getJsonFactory(final long offset, final int length) {
+        return new MappedJsonFactory(offset, length);
+    }
+
+    /**
+     * a handle to a line in the mapped file; the json is parsed from the mapped bytes each time it is requested
+     */
+    public class MappedJsonFactory implements JsonFactory {
+
+        private final long index;
+        private final int length;
+
+        public MappedJsonFactory(final long index, final int length) {
+            this.index = index;
+            this.length = length;
+        }
+
+        @Override
+        public JSONObject getJSON() throws IOException {
+            return MappedJsonFile.this.getJSON(this.index, this.length);
+        }
+        public long getIndex() {
+            return this.index;
+        }
+        public int getLength() {
+            return this.length;
+        }
+        public File getFile() {
+            return MappedJsonFile.this.file;
+        }
+        @Override
+        public String getString() throws IOException {
+            return MappedJsonFile.this.getString(this.index, this.length);
+        }
+        public String toString() {
+            try {
+                return this.getString();
+            } catch (IOException e) {
+                DAO.severe(e);
+                return "";
+            }
+        }
+    }
+
+    /**
+     * close the file. The mapped windows are released when they are garbage collected.
+     */
+    public void close() throws IOException {
+        this.raf.close();
+    }
+
+}
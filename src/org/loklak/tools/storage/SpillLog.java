@@ -0,0 +1,288 @@
+/**
+ *  SpillLog
+ *  Copyright 18.10.2026 by loklak.org
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.loklak.tools.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.loklak.data.DAO;
+
+/**
+ * An append-only log of json objects, split into numbered segment files. Objects which cannot be
+ * processed at the time they arrive are appended here and taken back segment by segment later on.
+ * - appends go to the current segment; when it exceeds the segment size a new segment is started
+ * - the segment is fsync'ed after a number of appends or after a time interval, whatever comes first,
+ *   so a crash loses at most one sync batch
+ * - takeSegment() returns the oldest segment as a whole; its file is deleted only when the segment is committed
+ *   after its objects have been processed, a segment which is rolled back is taken again later on
+ * Segments which are left over from a previous run, including segments which were taken but not committed
+ * before a crash, are found again when the log is opened.
+ */
+public class SpillLog {
+
+    private final static String SEGMENT_SUFFIX = ".txt";
+
+    private final File dir;
+    private final String prefix;
+    private final long segmentSize, syncInterval;
+    private final int syncCount;
+    private final TreeMap<Long, File> segments; // all segment files which are not the current one
+    private long currentNumber;
+    private File currentFile;
+    private FileOutputStream currentStream;
+    private BufferedOutputStream currentOut;
+    private long currentSize, lastSync;
+    private int pendingSync;
+    private final AtomicLong appended, taken, syncs, rollbacks;
+    private int processing; // the number of taken segments which are neither committed nor rolled back
+
+    /**
+     * @param dir the directory of the segment files
+     * @param prefix the name prefix of the segment files
+     * @param segmentSize the size in bytes after which a new segment is started
+     * @param syncCount the number of appends after which the current segment is synced
+     * @param syncInterval the time in milliseconds after which pending appends are synced
+     */
+    public SpillLog(final File dir, final String prefix, final long segmentSize, final int syncCount, final long syncInterval) {
+        this.dir = dir;
+        this.prefix = prefix;
+        this.segmentSize = segmentSize;
+        this.syncCount = Math.max(1, syncCount);
+        this.syncInterval = syncInterval;
+        this.segments = new TreeMap<>();
+        this.appended = new AtomicLong(0);
+        this.taken = new AtomicLong(0);
+        this.syncs = new AtomicLong(0);
+        this.rollbacks = new AtomicLong(0);
+        this.processing = 0;
+        this.dir.mkdirs();
+        String[] list = this.dir.list();
+        if (list != null) for (String name: list) {
+            long number = segmentNumber(name);
+            if (number >= 0) this.segments.put(number, new File(this.dir, name));
+        }
+        this.currentNumber = this.segments.isEmpty() ? 0 : this.segments.lastKey() + 1;
+        this.currentFile = null;
+        this.currentStream = null;
+        this.currentOut = null;
+        this.currentSize = 0;
+        this.pendingSync = 0;
+        this.lastSync = System.currentTimeMillis();
+    }
+
+    private long segmentNumber(final String name) {
+        if (!name.startsWith(this.prefix) || !name.endsWith(SEGMENT_SUFFIX)) return -1;
+        try {
+            return Long.parseLong(name.substring(this.prefix.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private File segmentFile(final long number) {
+        String n = Long.toString(number);
+        while (n.length() < 12) n = "0" + n;
+        return new File(this.dir, this.prefix + n + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * append one object to the log
+     * @param json the object
+     * @throws IOException
+     */
+    public synchronized void append(final JSONObject json) throws IOException {
+        byte[] b = json.toString().getBytes(StandardCharsets.UTF_8);
+        if (this.currentOut == null) {
+            this.currentFile = segmentFile(this.currentNumber);
+            this.currentStream = new FileOutputStream(this.currentFile, true);
+            this.currentOut = new BufferedOutputStream(this.currentStream, 65536);
+            this.currentSize = this.currentFile.length();
+        }
+        this.currentOut.write(b);
+        this.currentOut.write('\n');
+        this.currentSize += b.length + 1;
+        this.pendingSync++;
+        this.appended.incrementAndGet();
+        if (this.currentSize >= this.segmentSize) {
+            roll();
+        } else if (this.pendingSync >= this.syncCount || System.currentTimeMillis() - this.lastSync >= this.syncInterval) {
+            sync();
+        }
+    }
+
+    /**
+     * write all pending appends to the disk
+     * @throws IOException
+     */
+    public synchronized void sync() throws IOException {
+        if (this.currentOut == null || this.pendingSync == 0) return;
+        this.currentOut.flush();
+        this.currentStream.getFD().sync();
+        this.pendingSync = 0;
+        this.lastSync = System.currentTimeMillis();
+        this.syncs.incrementAndGet();
+    }
+
+    /**
+     * close the current segment and start a new one with the next append
+     * @throws IOException
+     */
+    private void roll() throws IOException {
+        if (this.currentOut == null) return;
+        sync();
+        this.currentOut.close();
+        this.segments.put(this.currentNumber, this.currentFile);
+        this.currentNumber++;
+        this.currentFile = null;
+        this.currentStream = null;
+        this.currentOut = null;
+        this.currentSize = 0;
+    }
+
+    /**
+     * A segment which was taken out of the log. Exactly one of commit() and rollback() must be called
+     * when the objects of the segment are processed; until then the segment file stays on disk.
+     */
+    public class Segment {
+
+        private final long number;
+        private final File file;
+        private final JSONArray objects;
+        private final AtomicBoolean finished;
+
+        private Segment(final long number, final File file, final JSONArray objects) {
+            this.number = number;
+            this.file = file;
+            this.objects = objects;
+            this.finished = new AtomicBoolean(false);
+        }
+
+        public JSONArray getObjects() {
+            return this.objects;
+        }
+
+        /**
+         * the objects of the segment are processed: delete the segment
+         */
+        public void commit() {
+            if (!this.finished.compareAndSet(false, true)) return;
+            if (!this.file.delete()) DAO.log("cannot delete spill segment " + this.file.getAbsolutePath());
+            taken.addAndGet(this.objects.length());
+            synchronized (SpillLog.this) {
+                processing--;
+            }
+        }
+
+        /**
+         * the objects of the segment could not be processed: put the segment back into the log
+         */
+        public void rollback() {
+            if (!this.finished.compareAndSet(false, true)) return;
+            rollbacks.incrementAndGet();
+            synchronized (SpillLog.this) {
+                segments.put(this.number, this.file);
+                processing--;
+            }
+        }
+    }
+
+    /**
+     * take the oldest segment out of the log. If there is only the current segment, it is closed and taken.
+     * Lines which cannot be parsed (i.e. a torn write at the end of a segment after a crash) are skipped.
+     * @return the segment or null if the log is empty; it must be committed or rolled back by the caller
+     * @throws IOException
+     */
+    public Segment takeSegment() throws IOException {
+        Map.Entry<Long, File> entry;
+        synchronized (this) {
+            if (this.segments.isEmpty() && this.currentSize > 0) roll();
+            if (this.segments.isEmpty()) return null;
+            entry = this.segments.pollFirstEntry();
+            this.processing++;
+        }
+        File segment = entry.getValue();
+        JSONArray shard = new JSONArray();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(segment), StandardCharsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.length() == 0) continue;
+                    try {
+                        shard.put(new JSONObject(line));
+                    } catch (JSONException e) {
+                        DAO.log("skipped broken line in spill segment " + segment.getName());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                this.segments.put(entry.getKey(), segment);
+                this.processing--;
+            }
+            throw e;
+        }
+        return new Segment(entry.getKey(), segment, shard);
+    }
+
+    /**
+     * @return the number of segments which contain data, including the current one
+     */
+    public synchronized int getSegmentCount() {
+        return this.segments.size() + (this.currentSize > 0 ? 1 : 0);
+    }
+
+    public synchronized JSONObject getStats() {
+        JSONObject json = new JSONObject(true);
+        json.put("segments", getSegmentCount());
+        json.put("appended", this.appended.get());
+        json.put("taken", this.taken.get());
+        json.put("processing", this.processing);
+        json.put("rollbacks", this.rollbacks.get());
+        json.put("pending_sync", this.pendingSync);
+        json.put("syncs", this.syncs.get());
+        return json;
+    }
+
+    public synchronized void close() {
+        if (this.currentOut == null) return;
+        try {
+            roll();
+        } catch (IOException e) {
+            DAO.severe("closing spill log failed", e);
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+package org.loklak.api.p2p;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.loklak.harvester.TwitterScraper.TwitterTweet;
+import org.loklak.objects.TwitterTimeline;
+import org.loklak.objects.UserEntry;
+import org.loklak.tools.IO;
+
+public class PushStreamTest {
+
+    private static String body(int count, boolean signed) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"search_metadata\":{\"query\":\"fossasia\",\"count\":\"" + count + "\"},\"peer_hash\":\"abc\"}\n");
+        for (int i = 0; i < count; i++) {
+            sb.append("{\"id_str\":\"" + i + "\",\"text\":\"message " + i + "\",\"location_point\":[3.05,50.63],")
+              .append("\"user\":{\"screen_name\":\"user" + i + "\",\"name\":\"User " + i + "\"}}\n");
+        }
+        if (signed) sb.append("{\"LOKLAK_SIGNATURE\":\"c2lnbmF0dXJl\"}\n");
+        return sb.toString();
+    }
+
+    private static byte[] encode(String body, PushStream.Encoding encoding) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        OutputStream os = encoding.encode(baos);
+        os.write(body.getBytes(StandardCharsets.UTF_8));
+        os.close();
+        return baos.toByteArray();
+    }
+
+    private static void roundTrip(PushStream.Encoding encoding) throws IOException {
+        byte[] b = encode(body(1000, true), encoding);
+        try (PushStream.Reader reader = new PushStream.Reader(new ByteArrayInputStream(b), encoding, 1L << 30)) {
+            assertEquals("fossasia", reader.getMetadata().getString("query"));
+            int count = 0;
+            JSONObject status;
+            while ((status = reader.next()) != null) {
+                assertEquals(Integer.toString(count), status.getString("id_str"));
+                assertEquals("user" + count, status.getJSONObject("user").getString("screen_name"));
+                assertEquals(2, status.getJSONArray("location_point").length());
+                count++;
+            }
+            assertEquals(1000, count);
+            assertFalse(reader.isVerified()); // the head has no key
+        }
+    }
+
+    @Test
+    public void identity() throws IOException {
+        roundTrip(PushStream.Encoding.IDENTITY);
+    }
+
+    @Test
+    public void gzip() throws IOException {
+        roundTrip(PushStream.Encoding.GZIP);
+    }
+
+    @Test
+    public void lzf() throws IOException {
+        roundTrip(PushStream.Encoding.LZF);
+    }
+
+    private static TwitterTimeline timeline(int count) {
+        TwitterTimeline timeline = new TwitterTimeline(TwitterTimeline.Order.CREATED_AT);
+        for (int i = 0; i < count; i++) {
+            JSONObject tweet = new JSONObject(true);
+            tweet.put("id_str", Integer.toString(1000 + i));
+            tweet.put("screen_name", "user" + i);
+            tweet.put("created_at", "2026-10-18T12:00:0" + (i % 10) + ".000Z");
+            tweet.put("text", "message " + i);
+            JSONObject user = new JSONObject(true);
+            user.put("screen_name", "user" + i);
+            user.put("user_id", Integer.toString(i));
+            user.put("name", "User " + i);
+            timeline.add(new TwitterTweet(tweet), new UserEntry(user));
+        }
+        return timeline;
+    }
+
+    private static byte[] signed(KeyPair keys, String peerHash) throws Exception {
+        JSONObject head = new JSONObject(true);
+        head.put("search_metadata", new JSONObject(true).put("count", "10"));
+        head.put("peer_hash", peerHash);
+        head.put("peer_hash_algorithm", "SHA-256");
+        head.put("peer_key", IO.getKeyAsString(keys.getPublic()));
+        head.put("peer_key_algorithm", "RSA");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PushStream.write(baos, head, timeline(10), keys.getPrivate());
+        return baos.toByteArray();
+    }
+
+    private static boolean verified(byte[] body) throws IOException {
+        try (PushStream.Reader reader = new PushStream.Reader(new ByteArrayInputStream(body), PushStream.Encoding.IDENTITY, 1L << 30)) {
+            int count = 0;
+            while (reader.next() != null) count++;
+            assertEquals(10, count);
+            return reader.isVerified();
+        }
+    }
+
+    @Test
+    public void signatureIsVerified() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keys = generator.genKeyPair();
+        byte[] body = signed(keys, IO.getKeyHash(keys.getPublic()));
+        assertTrue(verified(body));
+
+        // a changed status
+        String changed = new String(body, StandardCharsets.UTF_8).replace("message 5", "massage 5");
+        assertFalse(verified(changed.getBytes(StandardCharsets.UTF_8)));
+
+        // a key which does not belong to the peer hash
+        assertFalse(verified(signed(keys, IO.getKeyHash(generator.genKeyPair().getPublic()))));
+
+        // a status after the signature
+        String appended = new String(body, StandardCharsets.UTF_8) + "{\"id_str\":\"x\",\"user\":{}}\n";
+        try (PushStream.Reader reader = new PushStream.Reader(new ByteArrayInputStream(appended.getBytes(StandardCharsets.UTF_8)), PushStream.Encoding.IDENTITY, 1L << 30)) {
+            while (reader.next() != null);
+            assertFalse(reader.isVerified());
+        }
+    }
+
+    @Test
+    public void compressionReducesSize() throws IOException {
+        String body = body(1000, false);
+        assertTrue(encode(body, PushStream.Encoding.GZIP).length * 4 < body.length());
+    }
+
+    @Test
+    public void metadataIsOptional() throws IOException {
+        String body = "{\"id_str\":\"1\",\"user\":{}}\n{\"id_str\":\"2\",\"user\":{}}";
+        try (PushStream.Reader reader = new PushStream.Reader(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), PushStream.Encoding.IDENTITY, 1000)) {
+            assertNull(reader.getMetadata());
+            assertEquals("1", reader.next().getString("id_str"));
+            assertEquals("2", reader.next().getString("id_str"));
+            assertNull(reader.next());
+            assertFalse(reader.isVerified());
+        }
+    }
+
+    @Test
+    public void limitIsEnforcedOnUncompressedBytes() throws IOException {
+        String body = body(1000, false);
+        byte[] b = encode(body, PushStream.Encoding.GZIP);
+        try (PushStream.Reader reader = new PushStream.Reader(new ByteArrayInputStream(b), PushStream.Encoding.GZIP, b.length * 2)) {
+            while (reader.next() != null);
+            fail("the limit was not enforced");
+        } catch (PushStream.TooLargeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void encodingNames() {
+        assertEquals(PushStream.Encoding.IDENTITY, PushStream.Encoding.parse(null));
+        assertEquals(PushStream.Encoding.GZIP, PushStream.Encoding.parse("gzip"));
+        assertEquals(PushStream.Encoding.LZF, PushStream.Encoding.parse("x-lzf"));
+        assertNull(PushStream.Encoding.parse("br"));
+    }
+}
@@ -0,0 +1,42 @@
+package org.loklak.data;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.Test;
+
+public class AdaptiveBatcherTest {
+
+    @Test
+    public void adaptBulkSize() {
+        AdaptiveBatcher batcher = new AdaptiveBatcher(10, 100, 40, 1000, 100);
+        assertEquals(40, batcher.getBulkSize());
+        // fast full bulks with a backlog grow the bulk size
+        batcher.observe(40, 100, 1000);
+        assertEquals(50, batcher.getBulkSize());
+        // without a backlog the size is kept
+        batcher.observe(50, 100, 0);
+        assertEquals(50, batcher.getBulkSize());
+        // slow bulks shrink the bulk size
+        batcher.observe(50, 2000, 1000);
+        assertEquals(25, batcher.getBulkSize());
+        // limits
+        for (int i = 0; i < 20; i++) batcher.observe(batcher.getBulkSize(), 100, 1000);
+        assertEquals(100, batcher.getBulkSize());
+        for (int i = 0; i < 20; i++) batcher.observe(batcher.getBulkSize(), 5000, 1000);
+        assertEquals(10, batcher.getBulkSize());
+    }
+
+    @Test
+    public void pollDeadline() throws InterruptedException {
+        LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        queue.add("a");
+        long deadline = System.currentTimeMillis() + 50;
+        assertEquals("a", AdaptiveBatcher.poll(queue, deadline));
+        assertNull(AdaptiveBatcher.poll(queue, deadline));
+        assertTrue(System.currentTimeMillis() >= deadline);
+        queue.add("b");
+        assertEquals("b", AdaptiveBatcher.poll(queue, deadline)); // available entries are returned after the deadline
+    }
+}
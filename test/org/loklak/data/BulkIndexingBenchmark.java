@@ -0,0 +1,126 @@
+package org.loklak.data;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.settings.Settings;
+import org.json.JSONObject;
+import org.loklak.ir.BulkWriteEntry;
+import org.loklak.ir.ElasticsearchClient;
+import org.loklak.tools.BufferedRandomAccessFile;
+
+/**
+ * Replays a message dump through the bulk loop of the IncomingMessageBuffer into an embedded
+ * elasticsearch and prints the throughput for different producer rates, once with the former
+ * fixed bulk size of 200 and once with the adaptive batcher.
+ *
+ * run with:
+ * java -cp <classpath> org.loklak.data.BulkIndexingBenchmark [dumpfile] [messages]
+ */
+public class BulkIndexingBenchmark {
+
+    private final static int[] RATES = new int[]{500, 2000, 10000, 0}; // messages per second, 0 = unlimited
+
+    private static class Timed {
+        private final long enqueued;
+        private final BulkWriteEntry entry;
+        private Timed(BulkWriteEntry entry) {
+            this.enqueued = System.currentTimeMillis();
+            this.entry = entry;
+        }
+    }
+
+    private static List<JSONObject> readDump(File dump) throws IOException {
+        List<JSONObject> templates = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(dump), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.length() > 0 && line.charAt(0) == '{') templates.add(new JSONObject(line));
+        }
+        reader.close();
+        return templates;
+    }
+
+    private static String run(final ElasticsearchClient client, final String indexName, final AdaptiveBatcher batcher,
+            final List<JSONObject> templates, final int count, final int rate) throws InterruptedException {
+        final LinkedBlockingDeque<Timed> queue = new LinkedBlockingDeque<>(20000);
+        final long idBase = System.nanoTime();
+        Thread producer = new Thread() {
+            public void run() {
+                long start = System.currentTimeMillis();
+                for (int i = 0; i < count; i++) {
+                    Map<String, Object> map = templates.get(i % templates.size()).toMap();
+                    String id = Long.toString(idBase + i);
+                    map.put("id_str", id);
+                    try {
+                        queue.put(new Timed(new BulkWriteEntry(id, "local", "timestamp_id", null, map)));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (rate > 0) {
+                        long due = start + (i + 1) * 1000L / rate;
+                        long wait = due - System.currentTimeMillis();
+                        if (wait > 0) try {Thread.sleep(wait);} catch (InterruptedException e) {return;}
+                    }
+                }
+            }
+        };
+        long start = System.currentTimeMillis();
+        producer.start();
+        int written = 0, bulks = 0;
+        long latency = 0;
+        while (written < count) {
+            Timed first = queue.poll(batcher.getMaxLinger(), TimeUnit.MILLISECONDS);
+            if (first == null) continue;
+            int maxBulkSize = batcher.getBulkSize();
+            long deadline = batcher.deadline();
+            List<Timed> bulk = new ArrayList<>();
+            for (Timed t = first; t != null; t = bulk.size() < maxBulkSize ? AdaptiveBatcher.poll(queue, deadline) : null) bulk.add(t);
+            List<BulkWriteEntry> entries = new ArrayList<>(bulk.size());
+            for (Timed t: bulk) entries.add(t.entry);
+            long writestart = System.currentTimeMillis();
+            client.writeMapBulk(indexName, entries);
+            long writefinish = System.currentTimeMillis();
+            batcher.observe(bulk.size(), writefinish - writestart, queue.size());
+            for (Timed t: bulk) latency += writefinish - t.enqueued;
+            written += bulk.size();
+            bulks++;
+        }
+        producer.join();
+        long time = Math.max(1, System.currentTimeMillis() - start);
+        return String.format("rate %6s msg/s: %7d msg/s written, %5d bulks, avg bulk %5d, avg latency %6d ms, final bulk size %5d",
+                rate == 0 ? "max" : Integer.toString(rate), written * 1000L / time, bulks, written / Math.max(1, bulks), latency / Math.max(1, written), batcher.getBulkSize());
+    }
+
+    public static void main(String[] args) throws Exception {
+        File dump = new File(args.length > 0 ? args[0] : "test/org/loklak/tools/storage/messages_20170411_17092725.txt");
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+        List<JSONObject> templates = readDump(dump);
+        if (templates.size() == 0) throw new IOException("no messages in " + dump);
+
+        File testFile = BufferedRandomAccessFile.Test.getTestFile();
+        Settings.Builder settings = Settings.builder();
+        settings.put("path.home", testFile.getAbsolutePath());
+        settings.put("path.data", testFile.getAbsolutePath());
+        ElasticsearchClient client = new ElasticsearchClient(settings);
+        try {
+            for (int rate: RATES) {
+                System.out.println("fixed    " + run(client, "fixed_" + rate, new AdaptiveBatcher(200, 200, 200, 1000, 2000), templates, count, rate));
+                System.out.println("adaptive " + run(client, "adaptive_" + rate, AdaptiveBatcher.fromConfig(), templates, count, rate));
+            }
+        } finally {
+            client.close();
+            testFile.delete();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.loklak.data;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class IndexingPipelineTest {
+
+    @Test
+    public void indexStageRunsConcurrently() throws Exception {
+        IndexingPipeline pipeline = new IndexingPipeline(1, 4);
+        // the four time windows must be written at the same time, each task waits for all others
+        final CountDownLatch latch = new CountDownLatch(4);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            results.add(pipeline.index(() -> {
+                latch.countDown();
+                return latch.await(10, TimeUnit.SECONDS);
+            }));
+        }
+        for (Future<Boolean> result: results) assertTrue(result.get());
+        pipeline.close(1000);
+    }
+
+    @Test
+    public void stats() throws Exception {
+        IndexingPipeline pipeline = new IndexingPipeline(2, 2);
+        pipeline.bulk(() -> {}).get();
+        pipeline.dump(() -> {}).get();
+        JSONObject stats = pipeline.getStats();
+        assertEquals(1, stats.getJSONObject("bulk").getLong("count"));
+        assertEquals(1, stats.getJSONObject("dump").getLong("count"));
+        assertEquals(0, stats.getJSONObject("users").getLong("count"));
+        assertEquals(1, stats.getJSONObject("dump").getInt("threads"));
+        assertEquals(0, pipeline.getQueueSize());
+        pipeline.close(1000);
+    }
+
+    @Test
+    public void submitAfterCloseIsRejected() throws Exception {
+        IndexingPipeline pipeline = new IndexingPipeline(1, 1);
+        pipeline.close(1000);
+        try {
+            pipeline.bulk(() -> {});
+            fail("a closed stage accepted a task");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals(1, pipeline.getStats().getJSONObject("bulk").getLong("rejected"));
+    }
+
+    @Test
+    public void failureIsReported() throws Exception {
+        IndexingPipeline pipeline = new IndexingPipeline(1, 1);
+        Future<Object> result = pipeline.index(() -> {throw new IllegalStateException("index down");});
+        try {
+            result.get(10, TimeUnit.SECONDS);
+            fail("the failure was not reported");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(1, pipeline.getStats().getJSONObject("index").getLong("failed"));
+        pipeline.close(1000);
+    }
+
+    @Test
+    public void fullQueueRunsInCaller() throws Exception {
+        IndexingPipeline pipeline = new IndexingPipeline(1, 1);
+        // occupy the only thread and the only queue slot of the bulk stage
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch running = new CountDownLatch(1);
+        Future<?> busy = pipeline.bulk(() -> {
+            running.countDown();
+            try {release.await(10, TimeUnit.SECONDS);} catch (InterruptedException e) {}
+        });
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        Future<?> queued = pipeline.bulk(() -> {});
+        final List<String> threads = new ArrayList<>();
+        Future<?> overflow = pipeline.bulk(() -> threads.add(Thread.currentThread().getName()));
+        assertTrue(overflow.isDone());
+        assertEquals(Thread.currentThread().getName(), threads.get(0));
+        release.countDown();
+        busy.get(10, TimeUnit.SECONDS);
+        queued.get(10, TimeUnit.SECONDS);
+        assertEquals(0, pipeline.getStats().getJSONObject("bulk").getLong("rejected"));
+        pipeline.close(1000);
+    }
+}
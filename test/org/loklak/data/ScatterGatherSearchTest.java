@@ -0,0 +1,85 @@
+package org.loklak.data;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ScatterGatherSearchTest {
+
+    private static Callable<List<String>> step(final long sleep, final String... ids) {
+        return () -> {
+            Thread.sleep(sleep);
+            return new ArrayList<>(Arrays.asList(ids));
+        };
+    }
+
+    private static List<String> merge(List<String> narrow, List<String> wide) {
+        for (String id: wide) if (!narrow.contains(id)) narrow.add(id);
+        return narrow;
+    }
+
+    @Test
+    public void firstSufficientResultWins() throws Exception {
+        ScatterGatherSearch search = new ScatterGatherSearch(4, 10000);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        List<Callable<List<String>>> steps = new ArrayList<>();
+        steps.add(step(0, "a"));
+        steps.add(step(50, "a", "b", "c"));
+        steps.add(() -> {
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return null;
+        });
+        ScatterGatherSearch.Result<List<String>> result = search.search(steps, r -> r.size() >= 3, ScatterGatherSearchTest::merge);
+        assertEquals(1, result.step);
+        assertEquals(3, result.value.size());
+        // the widest step is cancelled
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, search.getStats().getLong("cancelled"));
+        search.close();
+    }
+
+    @Test
+    public void insufficientResultsAreMerged() throws Exception {
+        ScatterGatherSearch search = new ScatterGatherSearch(4, 10000);
+        List<Callable<List<String>>> steps = new ArrayList<>();
+        steps.add(step(20, "a", "b"));
+        steps.add(step(0, "b", "c"));
+        ScatterGatherSearch.Result<List<String>> result = search.search(steps, r -> r.size() >= 10, ScatterGatherSearchTest::merge);
+        assertEquals(1, result.step);
+        assertEquals(Arrays.asList("a", "b", "c"), result.value);
+        search.close();
+    }
+
+    @Test
+    public void deadline() throws Exception {
+        ScatterGatherSearch search = new ScatterGatherSearch(4, 100);
+        List<Callable<List<String>>> steps = new ArrayList<>();
+        steps.add(step(0, "a"));
+        steps.add(step(10000, "a", "b"));
+        ScatterGatherSearch.Result<List<String>> result = search.search(steps, r -> r.size() >= 2, ScatterGatherSearchTest::merge);
+        assertEquals(0, result.step);
+        assertEquals(1, search.getStats().getLong("deadline_exceeded"));
+        search.close();
+    }
+
+    @Test
+    public void sequential() throws Exception {
+        List<Callable<List<String>>> steps = new ArrayList<>();
+        steps.add(step(0, "a"));
+        steps.add(step(0, "a", "b"));
+        steps.add(() -> {throw new AssertionError("must not be called");});
+        ScatterGatherSearch.Result<List<String>> result = ScatterGatherSearch.sequential(steps, r -> r.size() >= 2);
+        assertEquals(1, result.step);
+    }
+}
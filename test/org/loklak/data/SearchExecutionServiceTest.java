@@ -0,0 +1,62 @@
+package org.loklak.data;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class SearchExecutionServiceTest {
+
+    @Test
+    public void admission() {
+        SearchExecutionService service = new SearchExecutionService(2, 1.0d);
+        assertTrue(service.admit());
+        assertTrue(service.admit());
+        assertFalse(service.admit());
+        service.release();
+        assertTrue(service.admit());
+        JSONObject stats = service.getStats();
+        assertEquals(3, stats.getLong("admitted"));
+        assertEquals(1, stats.getLong("shed_requests"));
+        assertEquals(2, stats.getInt("in_flight"));
+        service.close();
+    }
+
+    @Test
+    public void fullPoolRejects() throws Exception {
+        SearchExecutionService service = new SearchExecutionService(10, 1.0d).pool(SearchExecutionService.Source.cache, 1, 1);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<?> first = service.submit(SearchExecutionService.Source.cache, () -> {
+            running.countDown();
+            try {release.await();} catch (InterruptedException e) {}
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        Future<?> queued = service.submit(SearchExecutionService.Source.cache, () -> {});
+        assertNotNull(queued);
+        assertNull(service.submit(SearchExecutionService.Source.cache, () -> {}));
+        assertNull(service.submit(SearchExecutionService.Source.backend, () -> {})); // no pool
+        release.countDown();
+        assertTrue(SearchExecutionService.await(first, System.currentTimeMillis() + 5000));
+        assertTrue(SearchExecutionService.await(queued, System.currentTimeMillis() + 5000));
+        assertEquals(1, service.getStats().getJSONObject("pools").getJSONObject("cache").getLong("rejected"));
+        service.close();
+    }
+
+    @Test
+    public void deadlineCancels() throws Exception {
+        SearchExecutionService service = new SearchExecutionService(10, 1.0d).pool(SearchExecutionService.Source.twitter, 1, 1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        Future<?> task = service.submit(SearchExecutionService.Source.twitter, () -> {
+            try {Thread.sleep(10000);} catch (InterruptedException e) {interrupted.countDown();}
+        });
+        assertFalse(SearchExecutionService.await(task, System.currentTimeMillis() + 50));
+        assertEquals(1, service.cancel(task, null));
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        service.close();
+    }
+}
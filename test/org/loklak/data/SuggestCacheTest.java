@@ -0,0 +1,114 @@
+package org.loklak.data;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.loklak.objects.QueryEntry;
+import org.loklak.objects.ResultList;
+import org.loklak.objects.SourceType;
+
+public class SuggestCacheTest {
+
+    private static QueryEntry entry(String query, long retrievalNext) {
+        return new QueryEntry(query, 0, 60000, SourceType.TWITTER, false) {{
+            this.retrieval_next = new Date(retrievalNext);
+        }};
+    }
+
+    private static ResultList<QueryEntry> list(QueryEntry... entries) {
+        ResultList<QueryEntry> rl = new ResultList<>();
+        for (QueryEntry qe: entries) rl.add(qe);
+        rl.setHits(entries.length);
+        return rl;
+    }
+
+    private static String key(String q) {
+        return SuggestCache.key(q, "query_count", "ASC", 10, "", "", "retrieval_next");
+    }
+
+    @Test
+    public void listIsCached() {
+        SuggestCache cache = new SuggestCache(100, 60000, 100, 60000, () -> list());
+        AtomicInteger computed = new AtomicInteger(0);
+        for (int i = 0; i < 3; i++) {
+            ResultList<QueryEntry> rl = cache.get("fossasia", key("fossasia"), false, () -> {
+                computed.incrementAndGet();
+                return list(entry("fossasia", 0));
+            });
+            assertEquals(1, rl.size());
+            rl.clear(); // the caller gets a copy
+        }
+        assertEquals(1, computed.get());
+        assertEquals(2, cache.getStats().getLong("hit"));
+        assertEquals(1, cache.getStats().getLong("miss"));
+        cache.close();
+    }
+
+    @Test
+    public void writeInvalidatesListsWhichContainTheQuery() {
+        SuggestCache cache = new SuggestCache(100, 60000, 100, 60000, () -> list());
+        AtomicInteger computed = new AtomicInteger(0);
+        cache.get("foss", key("foss"), false, () -> {computed.incrementAndGet(); return list(entry("fossasia", 0));});
+        cache.get("loklak", key("loklak"), false, () -> {computed.incrementAndGet(); return list(entry("loklak", 0));});
+        cache.invalidate("FOSSASIA");
+        cache.get("foss", key("foss"), false, () -> {computed.incrementAndGet(); return list(entry("fossasia", 0));});
+        cache.get("loklak", key("loklak"), false, () -> {computed.incrementAndGet(); return list(entry("loklak", 0));});
+        assertEquals(3, computed.get());
+        cache.close();
+    }
+
+    @Test
+    public void writeInvalidatesListsOfPartsOfTheQuery() {
+        SuggestCache cache = new SuggestCache(100, 60000, 100, 60000, () -> list());
+        AtomicInteger computed = new AtomicInteger(0);
+        // the list of "loklak" is empty, a new query "loklak server" would be a part of it
+        cache.get("loklak", key("loklak"), false, () -> {computed.incrementAndGet(); return list();});
+        cache.get("", key(""), false, () -> {computed.incrementAndGet(); return list();});
+        cache.invalidate("loklak server");
+        cache.get("loklak", key("loklak"), false, () -> {computed.incrementAndGet(); return list();});
+        cache.get("", key(""), false, () -> {computed.incrementAndGet(); return list();});
+        assertEquals(4, computed.get());
+        assertEquals(2, cache.getStats().getLong("invalidated"));
+        cache.close();
+    }
+
+    @Test
+    public void expiredListIsServedWithServiceReduction() throws Exception {
+        SuggestCache cache = new SuggestCache(100, 10, 100, 60000, () -> list());
+        AtomicInteger computed = new AtomicInteger(0);
+        cache.get("loklak", key("loklak"), false, () -> {computed.incrementAndGet(); return list(entry("loklak", 0));});
+        Thread.sleep(50);
+        assertEquals(1, cache.get("loklak", key("loklak"), true, () -> {computed.incrementAndGet(); return list();}).size());
+        assertEquals(1, computed.get());
+        cache.remove(key("loklak"));
+        assertEquals(0, cache.get("loklak", key("loklak"), true, () -> {computed.incrementAndGet(); return list();}).size());
+        assertEquals(2, computed.get());
+        cache.close();
+    }
+
+    @Test
+    public void dueListIsPrefixOfTopList() {
+        long now = System.currentTimeMillis();
+        AtomicInteger computed = new AtomicInteger(0);
+        SuggestCache cache = new SuggestCache(100, 60000, 3, 60000, () -> {
+            computed.incrementAndGet();
+            return list(entry("a", now - 3000), entry("b", now - 2000), entry("c", now + 60000));
+        });
+        assertNull(cache.due(4)); // larger than the top-N list
+        ResultList<QueryEntry> due = cache.due(3);
+        assertEquals(2, due.size());
+        assertEquals("a", due.get(0).getQuery());
+        assertEquals(1, cache.due(1).size());
+
+        // a retrieved query is removed from the list without computing it again
+        cache.invalidate("a");
+        due = cache.due(3);
+        assertEquals(1, due.size());
+        assertEquals("b", due.get(0).getQuery());
+        assertEquals(1, computed.get());
+        cache.close();
+    }
+}
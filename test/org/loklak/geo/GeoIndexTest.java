@@ -0,0 +1,65 @@
+package org.loklak.geo;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GeoIndexTest {
+
+    private static List<GeoLocation> locations(int count, Random random) {
+        List<GeoLocation> locations = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            GeoLocation g = new GeoLocation(random.nextDouble() * 180.0d - 90.0d, random.nextDouble() * 360.0d - 180.0d, Arrays.asList("city" + i), "XX");
+            g.setPopulation(random.nextInt(1000000));
+            locations.add(g);
+        }
+        return locations;
+    }
+
+    @Test
+    public void nearest() {
+        Random random = new Random(0);
+        List<GeoLocation> locations = locations(5000, random);
+        GeoIndex index = new GeoIndex(locations);
+        for (int q = 0; q < 1000; q++) {
+            // include the poles and the date line
+            double lat = q < 10 ? 90.0d - q * 20.0d : random.nextDouble() * 180.0d - 90.0d;
+            double lon = q < 10 ? 180.0d : random.nextDouble() * 360.0d - 180.0d;
+            double mind = Double.MAX_VALUE;
+            for (GeoLocation g: locations) mind = Math.min(mind, AbstractGeoPoint.distance(lat, lon, g.lat(), g.lon()));
+            GeoLocation n = index.nearest(lat, lon);
+            assertEquals(mind, AbstractGeoPoint.distance(lat, lon, n.lat(), n.lon()), 1.0d);
+        }
+        assertNull(new GeoIndex(new ArrayList<GeoLocation>()).nearest(0.0d, 0.0d));
+    }
+
+    @Test
+    public void boundingBox() {
+        Random random = new Random(1);
+        List<GeoLocation> locations = locations(5000, random);
+        GeoIndex index = new GeoIndex(locations);
+        assertEquals(5000, index.inBox(-180.0d, -90.0d, 180.0d, 90.0d).size());
+        for (int q = 0; q < 200; q++) {
+            double lon_west = random.nextDouble() * 340.0d - 180.0d, lat_south = random.nextDouble() * 160.0d - 90.0d;
+            double lon_east = lon_west + random.nextDouble() * 20.0d, lat_north = lat_south + random.nextDouble() * 20.0d;
+            HashSet<GeoLocation> expected = new HashSet<>();
+            GeoLocation largest = null;
+            for (GeoLocation g: locations) {
+                if (g.lat() < lat_south || g.lat() > lat_north || g.lon() < lon_west || g.lon() > lon_east) continue;
+                expected.add(g);
+                if (largest == null || g.getPopulation() > largest.getPopulation()) largest = g;
+            }
+            List<GeoLocation> found = index.inBox(lon_west, lat_south, lon_east, lat_north);
+            assertEquals(expected.size(), found.size());
+            assertEquals(expected, new HashSet<>(found));
+            GeoLocation l = index.largest(lon_west, lat_south, lon_east, lat_north);
+            if (largest == null) assertNull(l); else assertEquals(largest.getPopulation(), l.getPopulation());
+        }
+    }
+}
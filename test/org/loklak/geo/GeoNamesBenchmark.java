@@ -0,0 +1,177 @@
+package org.loklak.geo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Compares the linear scan over all locations, which GeoNames did before the spatial index, with the
+ * indexed lookups of GeoNames.cityNear and GeoNames.getLargestCity. A synthetic cities1000.zip with the
+ * given number of places is written first; the places are clustered around random centers like real cities.
+ * The result is the number of lookups per second.
+ * GeoNames.suggest is compared with the linear scan over all names which it did before the suggest index,
+ * for random prefixes of the place names; the suggest index is loaded once computed and once from its file.
+ *
+ * run with:
+ * java -cp <classpath> org.loklak.geo.GeoNamesBenchmark [places] [seconds]
+ */
+public class GeoNamesBenchmark {
+
+    private static File writeCities(File dir, int count, Random random) throws IOException {
+        File zip = new File(dir, "cities1000.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("cities1000.txt"));
+            Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            double[][] centers = new double[500][];
+            for (int c = 0; c < centers.length; c++) centers[c] = new double[]{random.nextDouble() * 120.0d - 55.0d, random.nextDouble() * 360.0d - 180.0d};
+            for (int i = 0; i < count; i++) {
+                double[] center = centers[random.nextInt(centers.length)];
+                double lat = Math.max(-90.0d, Math.min(90.0d, center[0] + random.nextGaussian() * 5.0d));
+                double lon = Math.max(-180.0d, Math.min(180.0d, center[1] + random.nextGaussian() * 5.0d));
+                String name = "Place" + Integer.toString(i, 36);
+                w.write((1000000 + i) + "\t" + name + "\t" + name + "\t" + name.toLowerCase() + "," + name.toUpperCase() + "\t" +
+                        String.format("%.5f", lat) + "\t" + String.format("%.5f", lon) + "\tP\tPPL\tXX\t\t\t\t\t\t" +
+                        (1000 + (long) (Math.pow(random.nextDouble(), 8) * 10000000)) + "\t\t0\tEurope/Berlin\t2016-01-01\n");
+            }
+            w.flush();
+            out.closeEntry();
+        }
+        return zip;
+    }
+
+    private interface Lookup {
+        Object lookup(double lat, double lon);
+    }
+
+    private static long run(Lookup lookup, long millis, Random random) {
+        long count = 0;
+        long deadline = System.currentTimeMillis() + millis;
+        while ((count & 63) != 0 || System.currentTimeMillis() < deadline) {
+            if (lookup.lookup(random.nextDouble() * 120.0d - 55.0d, random.nextDouble() * 360.0d - 180.0d) == null) count--;
+            count++;
+        }
+        return count * 1000L / millis;
+    }
+
+    private interface Suggest {
+        LinkedHashSet<String> suggest(String q);
+    }
+
+    private static long run(Suggest suggest, long millis, Random random) {
+        long count = 0;
+        long deadline = System.currentTimeMillis() + millis;
+        while ((count & 63) != 0 || System.currentTimeMillis() < deadline) {
+            if (suggest.suggest("place" + Integer.toString(random.nextInt(36 * 36), 36)).isEmpty()) count--;
+            count++;
+        }
+        return count * 1000L / millis;
+    }
+
+    /**
+     * the suggest method of GeoNames before the suggest index
+     */
+    private static LinkedHashSet<String> linearSuggest(List<GeoLocation> locations, String q, int count, int distance) {
+        TreeMap<Long, String> a = new TreeMap<>();
+        String ql = GeoNames.normalize(q);
+        boolean exact = false;
+        String exactTerm = null;
+        seekloop: for (GeoLocation g: locations) {
+            termloop: for (String n: g.getNames()) {
+                if (n.length() > 3 && n.length() < ql.length() * 4) {
+                    String nn = GeoNames.normalize(n);
+                    if (!exact && nn.equals(ql)) {
+                        exact = true;
+                        exactTerm = n;
+                        continue seekloop;
+                    }
+                    if (nn.startsWith(ql)) {
+                        a.put(g.getPopulation() + a.size(), n);
+                        if (a.size() > count * 2) break seekloop;
+                    }
+                    if (nn.length() == ql.length()) {
+                        int errorcount = 0;
+                        for (int i = 0; i < nn.length(); i++) {
+                            if (nn.charAt(i) != ql.charAt(i)) {
+                                errorcount ++;
+                                if (errorcount > distance) continue termloop;
+                            }
+                        }
+                        a.put(g.getPopulation() + a.size(), n);
+                        if (a.size() > count * 2) break seekloop;
+                    }
+                }
+            }
+        }
+        LinkedHashSet<String> list = new LinkedHashSet<>();
+        if (exact) list.add(exactTerm);
+        for (Long p: a.descendingKeySet()) list.add(a.get(p));
+        return list;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int places = args.length > 0 ? Integer.parseInt(args[0]) : 150000;
+        long millis = (args.length > 1 ? Long.parseLong(args[1]) : 3) * 1000L;
+        File dir = Files.createTempDirectory("geonames").toFile();
+        File zip = writeCities(dir, places, new Random(0));
+        File suggestIndex = new File(dir, "cities1000.suggest");
+        long start = System.currentTimeMillis();
+        new GeoNames(zip, new File(dir, "iso3166.json"), 0, suggestIndex);
+        System.out.println("loaded " + places + " places in " + (System.currentTimeMillis() - start) + " ms, suggest index computed");
+        start = System.currentTimeMillis();
+        GeoNames geoNames = new GeoNames(zip, new File(dir, "iso3166.json"), 0, suggestIndex);
+        System.out.println("loaded " + places + " places in " + (System.currentTimeMillis() - start) + " ms, suggest index from file");
+        suggestIndex.delete();
+        zip.delete();
+        dir.delete();
+
+        // the locations for the linear scan
+        final List<GeoLocation> locations = new ArrayList<>(geoNames.citiesInBB(-180.0d, -90.0d, 180.0d, 90.0d));
+
+        Lookup linearNear = (lat, lon) -> {
+            double mind = 40000000.0d;
+            GeoLocation ming = null;
+            for (GeoLocation g: locations) {
+                double d = IntegerGeoPoint.distance(lat, lon, g.lat(), g.lon());
+                if (d < mind) {mind = d; ming = g;}
+            }
+            return ming;
+        };
+        Lookup indexedNear = (lat, lon) -> geoNames.cityNear(lat, lon);
+        Lookup linearLargest = (lat, lon) -> {
+            GeoLocation largest = null;
+            for (GeoLocation g: locations) {
+                if (g.lat() < lat - 0.5d || g.lat() > lat + 0.5d || g.lon() < lon - 0.5d || g.lon() > lon + 0.5d) continue;
+                if (largest == null || g.getPopulation() > largest.getPopulation()) largest = g;
+            }
+            return largest == null ? locations : largest;
+        };
+        Lookup indexedLargest = (lat, lon) -> {
+            GeoLocation largest = geoNames.getLargestCity(lon - 0.5d, lat - 0.5d, lon + 0.5d, lat + 0.5d);
+            return largest == null ? locations : largest;
+        };
+        Suggest linearSuggest = q -> linearSuggest(locations, q, 10, 1);
+        Suggest indexedSuggest = q -> geoNames.suggest(q, 10, 1);
+
+        System.out.println(String.format("%-16s %14s %14s %8s", "lookup", "linear op/s", "indexed op/s", "factor"));
+        for (int round = 0; round < 2; round++) {
+            long ln = run(linearNear, millis, new Random(1)), in = run(indexedNear, millis, new Random(1));
+            long ll = run(linearLargest, millis, new Random(2)), il = run(indexedLargest, millis, new Random(2));
+            long ls = run(linearSuggest, millis, new Random(3)), is = run(indexedSuggest, millis, new Random(3));
+            if (round == 0) continue; // warmup
+            System.out.println(String.format("%-16s %14d %14d %8.0f", "cityNear", ln, in, (double) in / Math.max(1, ln)));
+            System.out.println(String.format("%-16s %14d %14d %8.0f", "getLargestCity", ll, il, (double) il / Math.max(1, ll)));
+            System.out.println(String.format("%-16s %14d %14d %8.0f", "suggest", ls, is, (double) is / Math.max(1, ls)));
+        }
+    }
+}
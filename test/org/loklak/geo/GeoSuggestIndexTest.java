@@ -0,0 +1,86 @@
+package org.loklak.geo;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class GeoSuggestIndexTest {
+
+    private static Map<Integer, GeoLocation> locations() {
+        Map<Integer, GeoLocation> id2loc = new HashMap<>();
+        add(id2loc, 1, 3500000, "Berlin", "BERLIN"); // names with the same normalization are suggested once
+        add(id2loc, 2, 1500, "Berlingen");
+        add(id2loc, 3, 20000, "Bernau");
+        add(id2loc, 4, 5000, "Berlin Heights");
+        add(id2loc, 5, 700000, "Frankfurt am Main", "Frankfurt");
+        add(id2loc, 6, 60000, "Frankfurt (Oder)");
+        add(id2loc, 7, 100, "Bern");
+        add(id2loc, 8, 130000, "Bernburg Saale Extra Long Name");
+        return id2loc;
+    }
+
+    private static void add(Map<Integer, GeoLocation> id2loc, int id, long population, String... names) {
+        GeoLocation g = new GeoLocation(50.0d, 10.0d, new ArrayList<>(Arrays.asList(names)), "DE");
+        g.setPopulation(population);
+        id2loc.put(id, g);
+    }
+
+    @Test
+    public void prefix() {
+        GeoSuggestIndex index = new GeoSuggestIndex(locations());
+        assertEquals(Arrays.asList("Berlin", "Berlin Heights", "Berlingen"), new ArrayList<>(index.suggest("berlin", 10, 0)));
+        assertEquals(Arrays.asList("Berlin", "Bernau"), new ArrayList<>(index.suggest("Ber", 2, 0)));
+        // the exact match comes first, regardless of the population
+        assertEquals("Bern", index.suggest("bern", 10, 0).iterator().next());
+        // long names are omitted for short queries
+        assertFalse(index.suggest("bern", 10, 0).contains("Bernburg Saale Extra Long Name"));
+        assertEquals(Arrays.asList("Frankfurt", "Frankfurt am Main", "Frankfurt (Oder)"), new ArrayList<>(index.suggest("frankfurt", 10, 0)));
+        assertEquals(Arrays.asList("Frankfurt (Oder)"), new ArrayList<>(index.suggest("Frankfurt-Oder", 10, 0)));
+        assertTrue(index.suggest("xyz", 10, 0).isEmpty());
+    }
+
+    @Test
+    public void shortQueries() {
+        GeoSuggestIndex index = new GeoSuggestIndex(locations());
+        assertEquals(Arrays.asList("Berlin", "Bernau", "Berlin Heights"), new ArrayList<>(index.suggest("b", 3, 0)));
+        assertEquals(Arrays.asList("Berlin"), new ArrayList<>(index.suggest("", 1, 0)));
+    }
+
+    @Test
+    public void fuzzy() {
+        GeoSuggestIndex index = new GeoSuggestIndex(locations());
+        assertTrue(index.suggest("berlni", 10, 0).isEmpty());
+        assertEquals(Arrays.asList("Berlin", "Bern"), new ArrayList<>(index.suggest("berlni", 10, 2)));
+        assertEquals(Arrays.asList("Berlin", "Bern"), new ArrayList<>(index.suggest("berln", 10, 1))); // insertion and deletion
+        assertEquals(Arrays.asList("Bernau"), new ArrayList<>(index.suggest("bernao", 10, 1))); // substitution
+    }
+
+    @Test
+    public void persistence() throws IOException {
+        File dir = Files.createTempDirectory("suggest").toFile();
+        File source = new File(dir, "cities1000.zip");
+        Files.write(source.toPath(), new byte[]{1, 2, 3});
+        File file = new File(dir, "cities1000.suggest");
+        Map<Integer, GeoLocation> id2loc = locations();
+        new GeoSuggestIndex(id2loc).write(file, source, id2loc.size());
+        GeoSuggestIndex index = GeoSuggestIndex.read(file, source, id2loc);
+        assertEquals(new GeoSuggestIndex(id2loc).size(), index.size());
+        assertEquals(Arrays.asList("Berlin", "Berlin Heights", "Berlingen"), new ArrayList<>(index.suggest("berlin", 10, 0)));
+        // the index does not belong to other locations or another source file
+        id2loc.remove(7);
+        assertNull(GeoSuggestIndex.read(file, source, id2loc));
+        Files.write(source.toPath(), new byte[]{1, 2, 3, 4});
+        assertNull(GeoSuggestIndex.read(file, source, locations()));
+        file.delete();
+        source.delete();
+        dir.delete();
+    }
+}
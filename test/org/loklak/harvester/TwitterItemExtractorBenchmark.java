@@ -0,0 +1,50 @@
+package org.loklak.harvester;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import org.jsoup.Jsoup;
+
+/**
+ * Compares the extraction of the tweets from a search result page with jsoup, which parses the page
+ * into a document and searches the subtree of each item for each class, with the streaming extractor.
+ * The page is the saved result page of the TwitterItemExtractorTest, repeated to get pages of
+ * several sizes; twitter delivers 20 items per page.
+ *
+ * run with:
+ * java -cp <classpath> org.loklak.harvester.TwitterItemExtractorBenchmark [rounds]
+ */
+public class TwitterItemExtractorBenchmark {
+
+    private final static int[] REPEAT = new int[]{1, 7, 35}; // 3 items in the saved page
+
+    private static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) throws IOException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        String page = TwitterItemExtractorTest.page();
+        System.out.println(String.format("%6s %10s %10s %12s %12s", "items", "jsoup ms", "stream ms", "jsoup bytes", "stream bytes"));
+        for (int repeat: REPEAT) {
+            StringBuilder sb = new StringBuilder(page.length() * repeat);
+            for (int i = 0; i < repeat; i++) sb.append(page);
+            String html = sb.toString();
+            int items = 0;
+            long jsoupTime = Long.MAX_VALUE, streamTime = Long.MAX_VALUE, jsoupBytes = Long.MAX_VALUE, streamBytes = Long.MAX_VALUE;
+            for (int round = 0; round < rounds; round++) {
+                long a = allocated(), t = System.nanoTime();
+                items = TwitterItemExtractor.extract(Jsoup.parse(html)).size();
+                jsoupTime = Math.min(jsoupTime, System.nanoTime() - t);
+                jsoupBytes = Math.min(jsoupBytes, allocated() - a);
+
+                a = allocated();
+                t = System.nanoTime();
+                TwitterItemExtractor.extract(html);
+                streamTime = Math.min(streamTime, System.nanoTime() - t);
+                streamBytes = Math.min(streamBytes, allocated() - a);
+            }
+            System.out.println(String.format("%6d %10.3f %10.3f %12d %12d", items, jsoupTime / 1e6, streamTime / 1e6, jsoupBytes, streamBytes));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.loklak.harvester;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.jsoup.Jsoup;
+import org.junit.Test;
+import org.loklak.harvester.TwitterItemExtractor.Item;
+
+/**
+ * The streaming extractor must produce the same items as the jsoup extractor on the saved result page.
+ */
+public class TwitterItemExtractorTest {
+
+    public static final String PAGE = "test/org/loklak/harvester/twitter_search_items.html";
+
+    public static String page() throws IOException {
+        return new String(Files.readAllBytes(Paths.get(PAGE)), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void streamExtractionEqualsJsoup() throws IOException {
+        String html = page();
+        List<Item> stream = TwitterItemExtractor.extract(html);
+        List<Item> jsoup = TwitterItemExtractor.extract(Jsoup.parse(html));
+        assertEquals(3, jsoup.size());
+        assertEquals(jsoup.size(), stream.size());
+        for (int i = 0; i < jsoup.size(); i++) assertEquals(jsoup.get(i).toString(), stream.get(i).toString());
+    }
+
+    @Test
+    public void golden() throws IOException {
+        List<Item> items = TwitterItemExtractor.extract(page());
+
+        Item first = items.get(0);
+        assertEquals("1284585691259850753", first.tweetID);
+        assertEquals("1125637874", first.userID);
+        assertEquals("yacy_search", first.screenName);
+        assertEquals("YaCy & Friends", first.userName);
+        assertEquals("1595104127000", first.timeMillis);
+        assertEquals("/yacy_search/status/1284585691259850753", first.statusURL);
+        assertEquals("3", first.replyCount);
+        assertEquals("12", first.retweetCount);
+        assertEquals("27", first.favouriteCount);
+        assertEquals("YaCy 1.924 is out: the #opensource search engine, now with \"faster\" crawling <3 https://yacy.net/release/1.924", first.text);
+
+        Item reply = items.get(1);
+        assertEquals("1284532773563359233", reply.conversationID);
+        assertEquals("fossasia loklak_app", reply.mentions);
+        assertEquals("", reply.replyCount);
+        assertEquals("Danke! Ünïcödé text with a line break and a @loklak_app mention the quoted tweet with a block after the block", reply.text);
+
+        Item unavailable = items.get(2);
+        assertEquals("", unavailable.timeMillis);
+        assertEquals("This Tweet is unavailable.", unavailable.text);
+    }
+}
@@ -0,0 +1,20 @@
+package org.loklak.http;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class AccessTrackerTest {
+
+    @Test
+    public void eventsAfterFinishAreIgnored() {
+        AccessTracker tracker = new AccessTracker(null, 10000, 1000, 1);
+        AccessTracker.Track track = tracker.startTracking("/api/search.json", "127.0.0.1", true, System.currentTimeMillis());
+        track.recordEvent("backend_time", 12);
+        track.finalize();
+        track.recordEvent("twitterscraper_time", 34); // a cancelled task which is still running
+        assertEquals(12, track.getInt(AccessTracker.EVENT_PREFIX + "backend_time"));
+        assertFalse(track.has(AccessTracker.EVENT_PREFIX + "twitterscraper_time"));
+        assertEquals(1, tracker.getTracks().size());
+    }
+}
@@ -0,0 +1,92 @@
+package org.loklak.http;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class AsyncFetcherTest {
+
+    private HttpServer server;
+    private final AtomicInteger running = new AtomicInteger(0);
+    private final AtomicInteger maxRunning = new AtomicInteger(0);
+
+    @Before
+    public void start() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", exchange -> {
+            int r = this.running.incrementAndGet();
+            this.maxRunning.accumulateAndGet(r, Math::max);
+            try {Thread.sleep(50);} catch (InterruptedException e) {}
+            this.running.decrementAndGet(); // before the response, the client may start the next request when it is received
+            byte[] b = exchange.getRequestURI().getPath().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, b.length);
+            try (OutputStream os = exchange.getResponseBody()) {os.write(b);}
+        });
+        this.server.setExecutor(Executors.newFixedThreadPool(8));
+        this.server.start();
+    }
+
+    @After
+    public void stop() {
+        this.server.stop(0);
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort() + path;
+    }
+
+    private static String read(InputStream is) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = is.read()) >= 0) sb.append((char) c);
+        return sb.toString();
+    }
+
+    @Test
+    public void bodyIsDecodedFromStream() throws Exception {
+        AsyncFetcher fetcher = new AsyncFetcher("TEST", 2, 10, 2, 1000);
+        assertEquals("/page/1", fetcher.fetch(url("/page/1"), null, AsyncFetcherTest::read).get(10, TimeUnit.SECONDS));
+        assertEquals(1, fetcher.getStats().getLong("count"));
+        fetcher.close();
+    }
+
+    @Test
+    public void concurrencyPerHostIsLimited() throws Exception {
+        AsyncFetcher fetcher = new AsyncFetcher("TEST", 8, 100, 2, 10000);
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) futures.add(fetcher.fetch(url("/" + i), null, AsyncFetcherTest::read));
+        for (int i = 0; i < 8; i++) assertEquals("/" + i, futures.get(i).get(10, TimeUnit.SECONDS));
+        assertTrue(this.maxRunning.get() <= 2);
+        fetcher.close();
+    }
+
+    @Test
+    public void failureIsReportedInFuture() throws Exception {
+        AsyncFetcher fetcher = new AsyncFetcher("TEST", 2, 10, 2, 1000);
+        try {
+            fetcher.fetch("no url", null, AsyncFetcherTest::read).get(10, TimeUnit.SECONDS);
+            fail("a bad url must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals(1, fetcher.getStats().getLong("failed"));
+        fetcher.close();
+    }
+}
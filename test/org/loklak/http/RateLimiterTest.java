@@ -0,0 +1,60 @@
+package org.loklak.http;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.loklak.http.RateLimiter.Decision;
+import org.loklak.http.RateLimiter.Limit;
+
+public class RateLimiterTest {
+
+    private static RateLimiter limiter() {
+        // blackout: one token per 100ms, burst 3; service reduction: one token per 500ms, burst 2
+        return new RateLimiter(path -> path.equals("/api/free.json") ? new Limit(0, 1, 0, 1) : new Limit(100, 3, 500, 2), 4, 1000, 1000);
+    }
+
+    @Test
+    public void burstThenReductionThenBlock() {
+        RateLimiter limiter = limiter();
+        long t = 1000000;
+        assertEquals(Decision.PASS, limiter.check("/api/search.json", "1.2.3.4", t));
+        assertEquals(Decision.PASS, limiter.check("/api/search.json", "1.2.3.4", t));
+        assertEquals(Decision.REDUCE, limiter.check("/api/search.json", "1.2.3.4", t));
+        assertEquals(Decision.BLOCK, limiter.check("/api/search.json", "1.2.3.4", t));
+        assertEquals(Decision.BLOCK, limiter.check("/api/search.json", "1.2.3.4", t + 50));
+
+        // other clients and other paths have their own buckets
+        assertEquals(Decision.PASS, limiter.check("/api/search.json", "5.6.7.8", t));
+        assertEquals(Decision.PASS, limiter.check("/api/suggest.json", "1.2.3.4", t));
+
+        // a blackout token is refilled after 100ms, a service reduction token after 500ms
+        assertEquals(Decision.REDUCE, limiter.check("/api/search.json", "1.2.3.4", t + 100));
+        assertEquals(Decision.PASS, limiter.check("/api/search.json", "1.2.3.4", t + 700));
+        assertEquals(2, limiter.getStats().getLong("block"));
+    }
+
+    @Test
+    public void pathWithoutLimit() {
+        RateLimiter limiter = limiter();
+        for (int i = 0; i < 100; i++) assertEquals(Decision.PASS, limiter.check("/api/free.json", "1.2.3.4", 1000000));
+    }
+
+    @Test
+    public void idleClientsAreEvicted() {
+        RateLimiter limiter = limiter();
+        long t = 1000000;
+        for (int i = 0; i < 100; i++) limiter.check("/api/search.json", "10.0.0." + i, t);
+        assertEquals(100, limiter.size());
+        // after the idle time the buckets are full again; new clients sweep the stripes
+        for (int i = 0; i < 4; i++) limiter.check("/api/search.json", "10.0.1." + i, t + 2000);
+        assertTrue(limiter.size() < 100);
+        assertTrue(limiter.getStats().getLong("evicted") > 0);
+    }
+
+    @Test
+    public void numberOfClientsIsLimited() {
+        RateLimiter limiter = new RateLimiter(path -> new Limit(100, 3, 500, 2), 4, 40, 1000000);
+        for (int i = 0; i < 1000; i++) limiter.check("/api/search.json", "10.0." + (i / 256) + "." + (i % 256), 1000000);
+        assertTrue(limiter.size() <= 40);
+    }
+}
@@ -0,0 +1,102 @@
+package org.loklak.ir;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+import org.loklak.tools.DateParser;
+
+public class TimePartitionedIndexTest {
+
+    @Test
+    public void partitionNames() {
+        TimePartitionedIndex index = new TimePartitionedIndex(null, "messages", "messages_recent", null, 1, 0, 7);
+        assertEquals("messages_19700101", index.partitionName(0));
+        assertEquals("messages_20170411", index.partitionName(new Date(1491927621000L).getTime() / DateParser.DAY_MILLIS));
+    }
+
+    @Test
+    public void retention() {
+        TimePartitionedIndex index = new TimePartitionedIndex(null, "messages", "messages_recent", null, 1, 0, 7);
+        assertTrue(index.covers(DateParser.oneHourAgo()));
+        assertTrue(index.covers(DateParser.oneWeekAgo()));
+        assertFalse(index.covers(DateParser.oneMonthAgo()));
+        assertFalse(index.covers(null));
+        assertEquals(0, index.partitions(null, new Date(Long.MAX_VALUE)).length);
+        assertEquals(0, index.dropExpired());
+    }
+
+    private static long today() {
+        return System.currentTimeMillis() / DateParser.DAY_MILLIS;
+    }
+
+    /**
+     * an index with partitions for the last six days and the state file in a new directory
+     * @param completeDay the first complete day or -1 if there is no state file
+     */
+    private static TimePartitionedIndex index(long completeDay) throws IOException {
+        File state = new File(Files.createTempDirectory("partitions").toFile(), "messages_recent.complete");
+        if (completeDay >= 0) Files.write(state.toPath(), Long.toString(completeDay).getBytes(StandardCharsets.UTF_8));
+        TimePartitionedIndex index = new TimePartitionedIndex(null, "messages", "messages_recent", null, 1, 0, 7);
+        index.open(state);
+        for (long day = today() - 5; day <= today(); day++) index.register(index.partitionName(day));
+        assertTrue(state.exists());
+        return index;
+    }
+
+    @Test
+    public void newPartitionsAreNotSearched() throws IOException {
+        // right after an upgrade the partitions do not hold the messages which were written before
+        TimePartitionedIndex index = index(-1);
+        assertFalse(index.covers(DateParser.oneHourAgo()));
+        List<String[]> steps = index.route(DateParser.oneHourAgo(), new Date(), true, "messages");
+        assertEquals(1, steps.size());
+        assertArrayEquals(new String[]{"messages"}, steps.get(0));
+    }
+
+    @Test
+    public void completePartitionsAreSearched() throws IOException {
+        TimePartitionedIndex index = index(today() - 3);
+        List<String[]> steps = index.route(new Date(), new Date(), true, "messages");
+        assertEquals(1, steps.size());
+        assertArrayEquals(new String[]{index.partitionName(today())}, steps.get(0));
+    }
+
+    @Test
+    public void incompletePartitionsAreSkippedWhenWidening() throws IOException {
+        TimePartitionedIndex index = index(today() - 3);
+        assertFalse(index.covers(new Date((today() - 4) * DateParser.DAY_MILLIS)));
+        List<String[]> steps = index.route(DateParser.oneMonthAgo(), new Date(), true, "messages");
+        String[] all = steps.get(steps.size() - 2);
+        assertEquals(4, all.length);
+        assertEquals(index.partitionName(today() - 3), all[0]);
+        assertArrayEquals(new String[]{"messages"}, steps.get(steps.size() - 1));
+        for (int i = 1; i < steps.size() - 1; i++) assertTrue(steps.get(i - 1).length < steps.get(i).length);
+
+        steps = index.route(DateParser.oneMonthAgo(), new Date(), false, "messages");
+        assertEquals(1, steps.size());
+        assertArrayEquals(new String[]{"messages"}, steps.get(0));
+    }
+
+    @Test
+    public void failedPartitionIsNotSearched() throws IOException {
+        File state = new File(Files.createTempDirectory("partitions").toFile(), "messages_recent.complete");
+        Files.write(state.toPath(), Long.toString(today() - 3).getBytes(StandardCharsets.UTF_8));
+        TimePartitionedIndex index = new TimePartitionedIndex(null, "messages", "messages_recent", null, 1, 0, 7);
+        index.open(state);
+        for (long day = today() - 5; day <= today(); day++) index.register(index.partitionName(day));
+        index.incomplete(today() - 1);
+        assertFalse(index.covers(new Date((today() - 1) * DateParser.DAY_MILLIS)));
+        assertTrue(index.covers(new Date()));
+        assertEquals(Long.toString(today()), new String(Files.readAllBytes(state.toPath()), StandardCharsets.UTF_8));
+        // an older day does not move the complete day back
+        index.incomplete(today() - 2);
+        assertTrue(index.covers(new Date()));
+    }
+}
@@ -0,0 +1,163 @@
+package org.loklak.objects;
+
+import java.lang.management.ManagementFactory;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.loklak.data.Classifier;
+import org.loklak.harvester.TwitterScraper.TwitterTweet;
+import org.loklak.objects.QueryEntry.ConstraintFilter;
+import org.loklak.objects.QueryEntry.PlaceContext;
+import org.loklak.objects.QueryEntry.Tokens;
+
+/**
+ * Compares the constraint checks of QueryEntry.applyConstraint before the compiled filter, which tested every
+ * constraint of the query for every message and parsed bounding boxes and link patterns again for every message,
+ * with the compiled ConstraintFilter. 100000 synthetic messages are filtered with a set of queries; the result
+ * is the time and the allocated memory to filter all messages with one query.
+ *
+ * run with:
+ * java -cp <classpath> org.loklak.objects.ApplyConstraintBenchmark [messages] [rounds]
+ */
+public class ApplyConstraintBenchmark {
+
+    private final static String[] QUERIES = new String[]{
+            "loklak /image",
+            "loklak -/link -/mention",
+            "loklak /location=-10,30,40,60",
+            "loklak /link=https?://github\\.com/.*",
+            "loklak /link=https?://github\\.com/.* /location=-10,30,40,60 -/profanity from:user7"
+    };
+
+    private static List<TwitterTweet> messages(int count) throws MalformedURLException {
+        Random random = new Random(0);
+        List<TwitterTweet> messages = new ArrayList<>(count);
+        String[] hosts = new String[]{"github.com", "loklak.org", "example.com", "t.co"};
+        for (int i = 0; i < count; i++) {
+            TwitterTweet t = new TwitterTweet();
+            t.postId = Integer.toString(i);
+            t.setCreatedAt(new Date(1500000000000L + i * 1000L));
+            t.setScreenName("user" + random.nextInt(100));
+            StringBuilder text = new StringBuilder("a message about loklak number ").append(i);
+            if (random.nextInt(3) == 0) text.append(" https://").append(hosts[random.nextInt(hosts.length)]).append("/loklak/").append(i);
+            if (random.nextInt(4) == 0) text.append(" @user").append(random.nextInt(100));
+            if (random.nextInt(4) == 0) text.append(" #loklak");
+            t.setText(text.toString());
+            if (random.nextInt(2) == 0) {
+                t.setLocationPoint(new double[]{random.nextDouble() * 360.0d - 180.0d, random.nextDouble() * 180.0d - 90.0d});
+                t.setPlaceName("Place " + i, PlaceContext.FROM);
+            }
+            if (random.nextInt(5) == 0) t.setImages("https://pbs.twimg.com/media/" + i + ".jpg");
+            t.enrich();
+            messages.add(t);
+        }
+        return messages;
+    }
+
+    /**
+     * the constraint checks of applyConstraint before the compiled filter
+     */
+    private static boolean interpreted(TwitterTweet message, Tokens tokens, boolean applyLocationConstraint) {
+        if (tokens.modifier.containsKey("from")) {
+            for (String screen_name: tokens.modifier.get("from")) {
+                if (!message.getScreenName().equals(screen_name)) return false;
+            }
+        }
+        if (tokens.modifier.containsKey("-from")) {
+            for (String screen_name: tokens.modifier.get("-from")) {
+                if (message.getScreenName().equals(screen_name)) return false;
+            }
+        }
+        if (applyLocationConstraint && tokens.bbox != null) {
+            double[] location_point = message.getLocationPoint();
+            if (location_point == null || location_point.length < 2) return false;
+            if (location_point[0] < tokens.bbox[0] || location_point[0] > tokens.bbox[2] ||
+                location_point[1] > tokens.bbox[1] || location_point[1] < tokens.bbox[3]) return false;
+        }
+        if (tokens.constraints_positive.contains("pure") && (
+                message.getImages().size() != 0 ||
+                message.getMentions().length != 0 ||
+                message.getLinks().length != 0 ||
+                message.getHashtags().length != 0
+           )) return false;
+        if (tokens.constraints_positive.contains("len25") && message.getTextLength() > 25) return false;
+        if (tokens.constraints_positive.contains("len50") && message.getTextLength() > 50) return false;
+        if (tokens.constraints_positive.contains("len75") && message.getTextLength() > 75) return false;
+        if (tokens.constraints_positive.contains("len100") && message.getTextLength() > 100) return false;
+        if (tokens.constraints_positive.contains("image") && message.getImages().size() == 0) return false;
+        if (tokens.constraints_negative.contains("image") && message.getImages().size() != 0) return false;
+        if (tokens.constraints_positive.contains("place") && message.getPlaceName().length() == 0) return false;
+        if (tokens.constraints_negative.contains("place") && message.getPlaceName().length() != 0) return false;
+        if (tokens.constraints_positive.contains("location") && (message.getLocationPoint() == null || message.getPlaceContext() != tokens.place_context)) return false;
+        if (tokens.constraints_negative.contains("location") && message.getLocationPoint() != null) return false;
+        if (tokens.constraints_positive.contains("link") && message.getLinks().length == 0) return false;
+        if (tokens.constraints_negative.contains("link") && message.getLinks().length != 0) return false;
+        if (tokens.constraints_positive.contains("mention") && message.getMentions().length == 0) return false;
+        if (tokens.constraints_negative.contains("mention") && message.getMentions().length != 0) return false;
+        if (tokens.constraints_positive.contains("hashtag") && message.getHashtags().length == 0) return false;
+        if (tokens.constraints_negative.contains("hashtag") && message.getHashtags().length != 0) return false;
+        for (Classifier.Context context: Classifier.Context.values()) {
+            if (tokens.constraints_positive.contains(context.name()) && message.getClassifier(context) == null) return false;
+            if (tokens.constraints_negative.contains(context.name()) && message.getClassifier(context) != null) return false;
+        }
+        constraintCheck: for (String cs: tokens.constraints_positive) {
+            if (cs.startsWith("location=")) {
+                if (message.getLocationPoint() == null) return false;
+                if (message.getPlaceContext() != tokens.place_context) return false;
+                String[] coord = cs.substring(9).split(",");
+                if (coord.length == 4) {
+                    double lon = message.getLocationPoint()[0];
+                    if (lon < Double.parseDouble(coord[0]) || lon > Double.parseDouble(coord[2])) return false;
+                    double lat = message.getLocationPoint()[1];
+                    if (lat < Double.parseDouble(coord[1]) || lat > Double.parseDouble(coord[3])) return false;
+                }
+            }
+            if (cs.startsWith("link=")) {
+                if (message.getLinks().length == 0) return false;
+                Pattern regex = Pattern.compile(cs.substring(5));
+                for (String link: message.getLinks()) {
+                    if (regex.matcher(link).matches()) continue constraintCheck;
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) throws MalformedURLException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        List<TwitterTweet> messages = messages(count);
+        System.out.println(String.format("%-86s %8s %8s %8s %10s %10s", "query", "accepted", "old ms", "new ms", "old bytes", "new bytes"));
+        for (String q: QUERIES) {
+            Tokens tokens = new Tokens(q);
+            long oldTime = Long.MAX_VALUE, newTime = Long.MAX_VALUE, oldBytes = 0, newBytes = 0;
+            int oldAccepted = 0, newAccepted = 0;
+            for (int round = 0; round < rounds; round++) {
+                long a = allocated(), t = System.nanoTime();
+                oldAccepted = 0;
+                for (TwitterTweet message: messages) if (interpreted(message, tokens, false)) oldAccepted++;
+                oldTime = Math.min(oldTime, System.nanoTime() - t);
+                oldBytes = allocated() - a;
+
+                a = allocated();
+                t = System.nanoTime();
+                ConstraintFilter filter = tokens.getFilter();
+                newAccepted = 0;
+                for (TwitterTweet message: messages) if (filter.accept(message, false)) newAccepted++;
+                newTime = Math.min(newTime, System.nanoTime() - t);
+                newBytes = allocated() - a;
+            }
+            if (oldAccepted != newAccepted) throw new AssertionError("different results for " + q + ": " + oldAccepted + " and " + newAccepted);
+            System.out.println(String.format("%-86s %8d %8.1f %8.1f %10d %10d", q, newAccepted, oldTime / 1e6, newTime / 1e6, oldBytes, newBytes));
+        }
+    }
+}
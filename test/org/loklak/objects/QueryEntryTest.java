@@ -0,0 +1,136 @@
+package org.loklak.objects;
+
+import static org.junit.Assert.*;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+import org.loklak.harvester.TwitterScraper.TwitterTweet;
+import org.loklak.objects.QueryEntry.PlaceContext;
+import org.loklak.objects.QueryEntry.Tokens;
+
+public class QueryEntryTest {
+
+    private static TwitterTweet tweet(int id, String screen_name, String text, double[] location_point) throws MalformedURLException {
+        TwitterTweet t = new TwitterTweet();
+        t.postId = Integer.toString(id);
+        t.setCreatedAt(new Date(1500000000000L + id * 1000L));
+        t.setScreenName(screen_name);
+        t.setText(text);
+        t.setLocationPoint(location_point);
+        if (location_point != null) t.setPlaceName("Frankfurt", PlaceContext.FROM);
+        t.enrich();
+        return t;
+    }
+
+    private static UserEntry user(String screen_name) {
+        return new UserEntry(screen_name, screen_name, "", screen_name);
+    }
+
+    private static TwitterTimeline timeline() throws MalformedURLException {
+        TwitterTimeline tl = new TwitterTimeline(TwitterTimeline.Order.CREATED_AT);
+        tl.add(tweet(1, "alice", "a plain message", null), user("alice"));
+        tl.add(tweet(2, "alice", "a message with a link https://loklak.org/about", null), user("alice"));
+        tl.add(tweet(3, "bob", "#loklak to @alice with https://github.com/loklak", null), user("bob"));
+        tl.add(tweet(4, "bob", "a message from Frankfurt", new double[]{8.68, 50.11}), user("bob"));
+        tl.add(tweet(5, "carol", "a message from Berlin with a very long text, longer than twenty-five characters", new double[]{13.4, 52.52}), user("carol"));
+        return tl;
+    }
+
+    private static List<String> ids(String q, boolean applyLocationConstraint) throws MalformedURLException {
+        List<String> ids = new ArrayList<>();
+        for (TwitterTweet t: QueryEntry.applyConstraint(timeline(), new Tokens(q), applyLocationConstraint)) ids.add(t.getPostId());
+        ids.sort(null);
+        return ids;
+    }
+
+    private static List<String> ids(String... ids) {
+        List<String> l = new ArrayList<>();
+        for (String id: ids) l.add(id);
+        return l;
+    }
+
+    @Test
+    public void applyConstraint() throws MalformedURLException {
+        assertEquals(ids("1", "2", "3", "4", "5"), ids("message", false));
+        assertEquals(ids("2", "3"), ids("message /link", false));
+        assertEquals(ids("1", "4", "5"), ids("message -/link", false));
+        assertEquals(ids("1", "4", "5"), ids("message /pure", false));
+        assertEquals(ids("3"), ids("loklak /hashtag /mention", false));
+        assertEquals(ids("1", "2", "4", "5"), ids("message -/mention", false));
+        assertEquals(ids("1", "4"), ids("message /len25", false));
+        assertEquals(ids("4", "5"), ids("message /location", false));
+        assertEquals(ids("1", "2", "3"), ids("message -/location", false));
+        assertEquals(ids("3", "4"), ids("message from:bob", false));
+        assertEquals(ids("1", "2", "5"), ids("message -from:bob", false));
+        assertEquals(ids("3"), ids("loklak /link=https://github\\.com/.*", false));
+        assertEquals(ids(), ids("loklak /link=[", false)); // a broken pattern matches nothing
+        assertEquals(ids("4"), ids("message /location=8,50,9,51", false));
+        assertEquals(ids("4", "5"), ids("message /location=8,50,14,53", true));
+        assertEquals(ids("5"), ids("message /location=10,50,14,53", true));
+        assertEquals(ids(), ids("message /about /location", false));
+    }
+
+    @Test
+    public void filterCache() {
+        Tokens t1 = new Tokens("loklak /image"), t2 = new Tokens("loklak /image");
+        assertSame(t1.getFilter(), t2.getFilter());
+        assertNotSame(t1.getFilter(), new Tokens("loklak -/image").getFilter());
+    }
+
+    private static QueryEntry retrieved(long retrievalLast) {
+        return new QueryEntry("loklak", 0, 600000, SourceType.TWITTER, false) {{
+            this.retrieval_last = new Date(retrievalLast);
+        }};
+    }
+
+    @Test
+    public void sinceIdRoundTrip() {
+        QueryEntry qe = new QueryEntry("loklak", 0, 600000, SourceType.TWITTER, false);
+        assertNull(qe.getSinceId());
+        assertFalse(qe.toJSON().has("since_id"));
+        qe.setSinceId("900000000000000001");
+        assertEquals("900000000000000001", new QueryEntry(qe.toJSON()).getSinceId());
+        assertNull(new QueryEntry(new QueryEntry("loklak", 0, 600000, SourceType.TWITTER, false).toJSON()).getSinceId());
+    }
+
+    @Test
+    public void sinceIdIsOnlyMovedForward() {
+        QueryEntry qe = new QueryEntry("loklak", 0, 600000, SourceType.TWITTER, false);
+        qe.setSinceId("900000000000000001");
+        qe.setSinceId("800000000000000002");
+        assertEquals("900000000000000001", qe.getSinceId());
+        qe.setSinceId("99999999999999999"); // shorter means smaller
+        assertEquals("900000000000000001", qe.getSinceId());
+        qe.setSinceId("");
+        qe.setSinceId(null);
+        assertEquals("900000000000000001", qe.getSinceId());
+        qe.setSinceId("1000000000000000000");
+        assertEquals("1000000000000000000", qe.getSinceId());
+    }
+
+    @Test
+    public void zeroMessagePeriod() {
+        // all messages of the timeline have the same date
+        QueryEntry qe = new QueryEntry("loklak", 0, 0, SourceType.TWITTER, false);
+        assertEquals(1, qe.getMessagePeriod());
+        assertEquals(QueryEntry.DAY_MILLIS, qe.getMessagesPerDay());
+        assertNotNull(qe.getRetrievalNext());
+    }
+
+    @Test
+    public void updateIncrementalAdaptsToMessageRate() {
+        long hourAgo = System.currentTimeMillis() - 3600000L;
+        QueryEntry busy = retrieved(hourAgo), quiet = retrieved(hourAgo);
+        busy.updateIncremental(60, false);
+        quiet.updateIncremental(0, false);
+        assertTrue(busy.getMessagePeriod() < 600000);
+        assertTrue(quiet.getMessagePeriod() > 600000);
+        assertTrue(quiet.getMessagePeriod() <= QueryEntry.DAY_MILLIS);
+        assertTrue(busy.getRetrievalNext().before(quiet.getRetrievalNext()));
+        assertTrue(busy.getRetrievalLast().getTime() > hourAgo);
+    }
+}
@@ -0,0 +1,130 @@
+package org.loklak.objects;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class SearchResultCacheTest {
+
+    private static String key(String query) {
+        return SearchResultCache.key(query, "all", new HashSet<>(), TwitterTimeline.Order.CREATED_AT, 10, 0, 10, new String[0]);
+    }
+
+    @Test
+    public void keyIsNormalized() {
+        assertEquals(key("fossasia loklak"), key("  fossasia   loklak "));
+        assertNotEquals(key("fossasia"), key("loklak"));
+        assertEquals(
+                SearchResultCache.key("q", "all", new HashSet<>(Arrays.asList("image", "video")), TwitterTimeline.Order.CREATED_AT, 10, 0, 10, new String[]{"hashtags", "mentions"}),
+                SearchResultCache.key("q", "all", new HashSet<>(Arrays.asList("video", "image")), TwitterTimeline.Order.CREATED_AT, 10, 0, 10, new String[]{"mentions", "hashtags"}));
+        assertNotEquals(
+                SearchResultCache.key("q", "all", new HashSet<>(), TwitterTimeline.Order.CREATED_AT, 10, 0, 10, new String[0]),
+                SearchResultCache.key("q", "cache", new HashSet<>(), TwitterTimeline.Order.CREATED_AT, 10, 0, 10, new String[0]));
+    }
+
+    @Test
+    public void publishedResultIsShared() {
+        SearchResultCache cache = new SearchResultCache(100, 60000);
+        SearchResultCache.Ticket first = cache.acquire(key("q"), System.currentTimeMillis() + 1000);
+        assertNull(first.entry());
+        TwitterTimeline tl = new TwitterTimeline(TwitterTimeline.Order.CREATED_AT);
+        tl.setHits(42);
+        JSONObject hits = new JSONObject(true);
+        hits.put("cache_hits", 42);
+        first.publish(tl, hits, null, true);
+        first.release();
+
+        SearchResultCache.Ticket second = cache.acquire(key("q"), System.currentTimeMillis() + 1000);
+        assertNotNull(second.entry());
+        TwitterTimeline copy = new TwitterTimeline(TwitterTimeline.Order.CREATED_AT);
+        second.entry().copyTo(copy);
+        assertEquals(42, copy.getHits());
+        JSONObject copyHits = new JSONObject(true);
+        second.entry().copyHitsTo(copyHits);
+        assertEquals(42, copyHits.getInt("cache_hits"));
+        assertEquals(1, cache.getStats().getLong("hit"));
+    }
+
+    @Test
+    public void expiredResultIsComputedAgain() throws Exception {
+        SearchResultCache cache = new SearchResultCache(100, 10);
+        SearchResultCache.Ticket first = cache.acquire(key("q"), System.currentTimeMillis() + 1000);
+        first.publish(new TwitterTimeline(TwitterTimeline.Order.CREATED_AT), null, null, true);
+        first.release();
+        Thread.sleep(50);
+        assertNull(cache.acquire(key("q"), System.currentTimeMillis() + 1000).entry());
+        assertEquals(1, cache.getStats().getLong("expired"));
+    }
+
+    @Test
+    public void concurrentMissesAreCoalesced() throws Exception {
+        final SearchResultCache cache = new SearchResultCache(100, 60000);
+        SearchResultCache.Ticket leader = cache.acquire(key("q"), System.currentTimeMillis() + 1000);
+        assertNull(leader.entry());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        final CountDownLatch started = new CountDownLatch(4);
+        Future<?>[] followers = new Future<?>[4];
+        for (int i = 0; i < followers.length; i++) followers[i] = executor.submit(() -> {
+            started.countDown();
+            return cache.acquire(key("q"), System.currentTimeMillis() + 10000).entry();
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        leader.publish(new TwitterTimeline(TwitterTimeline.Order.CREATED_AT), null, null, true);
+        leader.release();
+        for (Future<?> follower: followers) assertNotNull(follower.get(5, TimeUnit.SECONDS));
+        assertEquals(1, cache.getStats().getLong("miss"));
+        executor.shutdown();
+    }
+
+    @Test
+    public void failedComputationReleasesFollowers() throws Exception {
+        final SearchResultCache cache = new SearchResultCache(100, 60000);
+        SearchResultCache.Ticket leader = cache.acquire(key("q"), System.currentTimeMillis() + 1000);
+        leader.release(); // the leader failed without a result
+        SearchResultCache.Ticket next = cache.acquire(key("q"), System.currentTimeMillis() + 1000);
+        assertNull(next.entry());
+        next.release();
+    }
+
+    @Test
+    public void partialResultIsNotShared() throws Exception {
+        final SearchResultCache cache = new SearchResultCache(100, 60000);
+        SearchResultCache.Ticket leader = cache.acquire(key("q"), System.currentTimeMillis() + 1000);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<SearchResultCache.Entry> follower = executor.submit(() -> cache.acquire(key("q"), System.currentTimeMillis() + 10000).entry());
+        Thread.sleep(50);
+        leader.publish(new TwitterTimeline(TwitterTimeline.Order.CREATED_AT), null, null, false);
+        leader.release();
+        assertNull(follower.get(5, TimeUnit.SECONDS));
+        assertNull(cache.acquire(key("q"), System.currentTimeMillis() + 1000).entry());
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getStats().getLong("partial"));
+        executor.shutdown();
+    }
+
+    @Test
+    public void followersWaitUntilTheDeadline() throws Exception {
+        final SearchResultCache cache = new SearchResultCache(100, 60000);
+        final long deadline = System.currentTimeMillis() + 10000;
+        SearchResultCache.Ticket leader = cache.acquire(key("q"), deadline);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<SearchResultCache.Entry> follower = executor.submit(() -> cache.acquire(key("q"), deadline).entry());
+        // the leader takes longer than a search timeout but finishes before its deadline
+        Thread.sleep(2500);
+        leader.publish(new TwitterTimeline(TwitterTimeline.Order.CREATED_AT), null, null, true);
+        leader.release();
+        assertNotNull(follower.get(5, TimeUnit.SECONDS));
+        assertEquals(1, cache.getStats().getLong("coalesced"));
+        executor.shutdown();
+    }
+}
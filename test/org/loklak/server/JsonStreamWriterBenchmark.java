@@ -0,0 +1,119 @@
+package org.loklak.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.loklak.harvester.TwitterScraper.TwitterTweet;
+import org.loklak.objects.UserEntry;
+
+/**
+ * Compares the json output of a search result as it was written by SearchServlet.dataOutput before the
+ * stream writer, which built a JSONObject tree of all statuses and copied it into a String, with the
+ * JsonStreamWriter. The result is the time and the allocated memory of one response, for several result
+ * sizes and for indented and minified output.
+ *
+ * run with:
+ * java -cp <classpath> org.loklak.server.JsonStreamWriterBenchmark [rounds]
+ */
+public class JsonStreamWriterBenchmark {
+
+    private final static int[] COUNTS = new int[]{10, 100, 1000};
+
+    private static List<TwitterTweet> messages(int count) throws MalformedURLException {
+        Random random = new Random(0);
+        List<TwitterTweet> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            TwitterTweet t = new TwitterTweet();
+            t.postId = Integer.toString(i);
+            t.setCreatedAt(new Date(1500000000000L + i * 1000L));
+            t.setScreenName("user" + random.nextInt(100));
+            StringBuilder text = new StringBuilder("a message about loklak number ").append(i);
+            if (random.nextInt(3) == 0) text.append(" https://loklak.org/").append(i);
+            if (random.nextInt(4) == 0) text.append(" @user").append(random.nextInt(100));
+            if (random.nextInt(4) == 0) text.append(" #loklak");
+            t.setText(text.toString());
+            t.enrich();
+            messages.add(t);
+        }
+        return messages;
+    }
+
+    private static UserEntry user(TwitterTweet t) {
+        return new UserEntry(t.getScreenName().substring(4), t.getScreenName(), "https://pbs.twimg.com/profile_images/" + t.getScreenName() + ".jpg", t.getScreenName());
+    }
+
+    private static JSONObject metadata(int count) {
+        JSONObject metadata = new JSONObject(true);
+        metadata.put("startRecord", 1);
+        metadata.put("maximumRecords", count);
+        metadata.put("count", count);
+        metadata.put("hits", count);
+        metadata.put("query", "loklak");
+        return metadata;
+    }
+
+    private static void tree(List<TwitterTweet> messages, boolean minified, ByteArrayOutputStream os) {
+        JSONObject m = new JSONObject(true);
+        JSONArray statuses = new JSONArray();
+        for (TwitterTweet t: messages) statuses.put(t.toJSON(user(t), true, Integer.MAX_VALUE, ""));
+        m.put("search_metadata", metadata(messages.size()));
+        m.put("statuses", statuses);
+        PrintWriter sos = new PrintWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+        sos.print(m.toString(minified ? 0 : 2));
+        sos.println();
+        sos.flush();
+    }
+
+    private static void stream(List<TwitterTweet> messages, boolean minified, ByteArrayOutputStream os) throws IOException {
+        JsonStreamWriter json = new JsonStreamWriter(os, null, minified);
+        json.startObject();
+        json.field("search_metadata", metadata(messages.size()));
+        json.startArray("statuses");
+        for (TwitterTweet t: messages) json.value(t.toJSON(user(t), true, Integer.MAX_VALUE, ""));
+        json.endArray();
+        json.endObject();
+        json.close();
+    }
+
+    private static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) throws IOException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        System.out.println(String.format("%6s %8s %8s %8s %12s %12s", "count", "minified", "old ms", "new ms", "old bytes", "new bytes"));
+        for (int count: COUNTS) {
+            List<TwitterTweet> messages = messages(count);
+            for (boolean minified: new boolean[]{false, true}) {
+                long oldTime = Long.MAX_VALUE, newTime = Long.MAX_VALUE, oldBytes = Long.MAX_VALUE, newBytes = Long.MAX_VALUE;
+                for (int round = 0; round < rounds; round++) {
+                    // the response buffer is allocated outside of the measurement, it is the servlet container's buffer
+                    ByteArrayOutputStream os = new ByteArrayOutputStream(count * 4096);
+                    long a = allocated(), t = System.nanoTime();
+                    tree(messages, minified, os);
+                    oldTime = Math.min(oldTime, System.nanoTime() - t);
+                    oldBytes = Math.min(oldBytes, allocated() - a);
+
+                    os = new ByteArrayOutputStream(count * 4096);
+                    a = allocated();
+                    t = System.nanoTime();
+                    stream(messages, minified, os);
+                    newTime = Math.min(newTime, System.nanoTime() - t);
+                    newBytes = Math.min(newBytes, allocated() - a);
+                }
+                System.out.println(String.format("%6d %8s %8.2f %8.2f %12d %12d", count, minified, oldTime / 1e6, newTime / 1e6, oldBytes, newBytes));
+            }
+        }
+    }
+}
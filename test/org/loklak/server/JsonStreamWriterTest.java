@@ -0,0 +1,57 @@
+package org.loklak.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.loklak.objects.SourceType;
+import org.loklak.tools.UTF8;
+
+public class JsonStreamWriterTest {
+
+    private static JSONObject sample() {
+        JSONObject json = new JSONObject(true);
+        json.put("string", "a \"quoted\" text\nwith ümlauts");
+        json.put("int", 42);
+        json.put("long", 1500000000000L);
+        json.put("double", 1.5d);
+        json.put("boolean", true);
+        json.put("enum", SourceType.TWITTER);
+        json.put("null", JSONObject.NULL);
+        json.put("array", new double[]{8.5d, 50.25d});
+        json.put("list", Arrays.asList("a", "b"));
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("k", 1);
+        json.put("map", map);
+        JSONArray array = new JSONArray();
+        array.put(new JSONObject(true).put("inner", "value"));
+        json.put("jsonarray", array);
+        return json;
+    }
+
+    @Test
+    public void sameAsToString() throws Exception {
+        JSONObject json = sample();
+        for (boolean minified: new boolean[]{true, false}) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            JsonStreamWriter.write(baos, null, minified, json);
+            JSONObject streamed = new JSONObject(UTF8.String(baos.toByteArray()));
+            assertTrue(streamed.similar(new JSONObject(json.toString())));
+        }
+    }
+
+    @Test
+    public void jsonp() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        JsonStreamWriter writer = new JsonStreamWriter(baos, "p", true);
+        writer.startObject().startArray("statuses").value(new JSONObject(true).put("id_str", "1")).endArray().endObject();
+        writer.close();
+        assertEquals("p({\"statuses\":[{\"id_str\":\"1\"}]});\n\n", UTF8.String(baos.toByteArray()));
+    }
+}
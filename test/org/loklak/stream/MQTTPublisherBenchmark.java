@@ -0,0 +1,36 @@
+package org.loklak.stream;
+
+/**
+ * Measures the throughput of the MQTTPublisher against the minimal broker of the MQTTPublisherTest
+ * on the loopback interface. Every message is published to a hashtag channel and to the 'all' channel.
+ * Reported are the time to offer all messages to the publisher, the time until the broker has
+ * received all of them and the resulting number of messages per second.
+ *
+ * run with:
+ * java -cp <classpath> org.loklak.stream.MQTTPublisherBenchmark [messages] [rounds]
+ */
+public class MQTTPublisherBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String message = "{\"text\":\"" + new String(new char[200]).replace('\0', 'x') + "\"}";
+        for (int round = 0; round < rounds; round++) {
+            MQTTPublisherTest.Broker broker = new MQTTPublisherTest.Broker(false);
+            MQTTPublisher publisher = new MQTTPublisher(broker.address(), "benchmark_publisher", true, 0, 4 * count, 10, 500, 4 * count);
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                String hashtag = "twitter/hashtag/h" + (i % 100);
+                publisher.publish(() -> new String[]{hashtag, "all"}, () -> message);
+            }
+            long offered = System.nanoTime() - start;
+            MQTTPublisherTest.waitFor(broker, 2L * publisher.getStats().getLong("accepted"), 600000);
+            long published = System.nanoTime() - start;
+            System.out.println("round " + round + ": " + count + " messages to 2 channels offered in " + offered / 1000000 + " ms, published in " +
+                    published / 1000000 + " ms, " + (broker.messages.get() * 1000000000L / published) + " messages/s, sampled " +
+                    publisher.getStats().getLong("sampled") + ", dropped " + publisher.getStats().getLong("dropped"));
+            publisher.close(10000);
+            broker.close();
+        }
+    }
+}
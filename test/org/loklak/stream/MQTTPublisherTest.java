@@ -0,0 +1,166 @@
+package org.loklak.stream;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class MQTTPublisherTest {
+
+    /**
+     * a minimal MQTT 3.1.1 broker which accepts connections and counts the published messages per topic;
+     * if it is stalled it does not read anything after the connection is acknowledged
+     */
+    static class Broker extends Thread {
+        private final ServerSocket server;
+        private final boolean stall;
+        private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+        private final Map<String, AtomicInteger> topics = new ConcurrentHashMap<>();
+        final AtomicLong messages = new AtomicLong(0);
+
+        Broker(boolean stall) throws IOException {
+            this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            this.stall = stall;
+            this.setDaemon(true);
+            this.start();
+        }
+
+        String address() {
+            return "tcp://127.0.0.1:" + this.server.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Socket socket = this.server.accept();
+                    this.sockets.add(socket);
+                    Thread t = new Thread(() -> serve(socket));
+                    t.setDaemon(true);
+                    t.start();
+                }
+            } catch (IOException e) {}
+        }
+
+        private void serve(Socket socket) {
+            try {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                while (true) {
+                    int header = in.read();
+                    if (header < 0) return;
+                    int length = 0, shift = 0, b;
+                    do {b = in.readUnsignedByte(); length |= (b & 0x7F) << shift; shift += 7;} while ((b & 0x80) != 0);
+                    byte[] body = new byte[length];
+                    in.readFully(body);
+                    switch (header >> 4) {
+                    case 1: // CONNECT
+                        out.write(new byte[]{0x20, 0x02, 0x00, 0x00});
+                        out.flush();
+                        if (this.stall) return; // keep the socket open but do not read
+                        break;
+                    case 3: // PUBLISH
+                        int topicLength = ((body[0] & 0xFF) << 8) | (body[1] & 0xFF);
+                        String topic = new String(body, 2, topicLength, StandardCharsets.UTF_8);
+                        this.topics.computeIfAbsent(topic, k -> new AtomicInteger(0)).incrementAndGet();
+                        this.messages.incrementAndGet();
+                        if (((header >> 1) & 3) == 1) {
+                            out.write(new byte[]{0x40, 0x02, body[2 + topicLength], body[3 + topicLength]}); // PUBACK
+                            out.flush();
+                        }
+                        break;
+                    case 12: // PINGREQ
+                        out.write(new byte[]{(byte) 0xD0, 0x00});
+                        out.flush();
+                        break;
+                    case 14: // DISCONNECT
+                        socket.close();
+                        return;
+                    default:
+                    }
+                }
+            } catch (IOException e) {}
+        }
+
+        void close() {
+            try {this.server.close();} catch (IOException e) {}
+            for (Socket socket: this.sockets) try {socket.close();} catch (IOException e) {}
+        }
+    }
+
+    private Broker broker;
+
+    @After
+    public void stop() {
+        if (this.broker != null) this.broker.close();
+    }
+
+    static void waitFor(Broker broker, long count, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (broker.messages.get() < count && System.currentTimeMillis() < deadline) Thread.sleep(10);
+    }
+
+    @Test
+    public void allMessagesArePublished() throws Exception {
+        this.broker = new Broker(false);
+        MQTTPublisher publisher = new MQTTPublisher(this.broker.address(), "test_publisher", true, 0, 100000, 10, 500, 100000);
+        String message = "{\"text\":\"" + new String(new char[200]).replace('\0', 'x') + "\"}";
+        int count = 20000;
+        for (int i = 0; i < count; i++) {
+            String hashtag = "twitter/hashtag/h" + (i % 100);
+            assertTrue(publisher.publish(() -> new String[]{hashtag, "all"}, () -> message));
+        }
+        waitFor(this.broker, 2 * count, 60000);
+        assertEquals(2 * count, this.broker.messages.get());
+        assertEquals(count, this.broker.topics.get("all").get());
+        assertEquals(count / 100, this.broker.topics.get("twitter/hashtag/h7").get());
+        assertEquals(0, publisher.getStats().getLong("dropped"));
+        publisher.close(10000);
+    }
+
+    @Test
+    public void channelNamesAreCleaned() throws Exception {
+        this.broker = new Broker(false);
+        MQTTPublisher publisher = new MQTTPublisher(this.broker.address(), "test_publisher", true, 0, 100, 10, 500, 100);
+        publisher.publish(new String[]{"twitter/hashtag/#loklak"}, "{}");
+        waitFor(this.broker, 1, 10000);
+        assertNotNull(this.broker.topics.get("twitter/hashtag/loklak"));
+        publisher.close(10000);
+    }
+
+    @Test
+    public void overloadDoesNotBlock() throws Exception {
+        this.broker = new Broker(true);
+        MQTTPublisher publisher = new MQTTPublisher(this.broker.address(), "test_publisher", true, 0, 100, 10, 50, 100);
+        String message = new String(new char[16384]).replace('\0', 'x');
+        AtomicInteger serialized = new AtomicInteger(0);
+        int count = 20000;
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            publisher.publish(() -> new String[]{"all"}, () -> {serialized.incrementAndGet(); return message;});
+        }
+        long time = System.currentTimeMillis() - start;
+        assertTrue("publishing took " + time + " ms", time < 10000);
+        long sampled = publisher.getStats().getLong("sampled"), dropped = publisher.getStats().getLong("dropped");
+        assertTrue(sampled > 0);
+        assertEquals(count, publisher.getStats().getLong("accepted") + sampled + dropped);
+        // sampled messages are not serialized
+        assertTrue(serialized.get() <= count - sampled);
+        this.broker.close();
+        publisher.close(1000);
+    }
+}
@@ -0,0 +1,122 @@
+package org.loklak.stream;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SubscriptionHubTest {
+
+    private static class Client implements SubscriptionHub.Sink {
+        private final List<String> received = new CopyOnWriteArrayList<>();
+        private final CountDownLatch blocked;
+        private volatile boolean closed = false;
+        private Client(boolean blocked) {
+            this.blocked = blocked ? new CountDownLatch(1) : null;
+        }
+        @Override
+        public void send(String data) throws IOException {
+            if (this.blocked != null) try {this.blocked.await();} catch (InterruptedException e) {throw new IOException(e);}
+            this.received.add(data);
+        }
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+    }
+
+    private SubscriptionHub hub;
+
+    @After
+    public void stop() {
+        if (this.hub != null) this.hub.close();
+    }
+
+    private static void waitFor(List<String> list, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (list.size() < count && System.currentTimeMillis() < deadline) Thread.sleep(5);
+    }
+
+    @Test
+    public void wildcards() throws Exception {
+        this.hub = new SubscriptionHub(null, 2, 100, 100);
+        Client exact = new Client(false), level = new Client(false), all = new Client(false), subtree = new Client(false);
+        this.hub.subscribe("twitter/hashtag/loklak", exact);
+        this.hub.subscribe("twitter/+/loklak", level);
+        this.hub.subscribe("#", all);
+        this.hub.subscribe("twitter/#", subtree);
+        assertEquals(4, this.hub.dispatch("twitter/hashtag/loklak", "a"));
+        assertEquals(3, this.hub.dispatch("twitter/mention/loklak", "b"));
+        assertEquals(2, this.hub.dispatch("twitter", "c"));
+        assertEquals(1, this.hub.dispatch("all", "d"));
+        waitFor(all.received, 4);
+        waitFor(subtree.received, 3);
+        assertEquals(1, exact.received.size());
+        assertEquals(2, level.received.size());
+        assertEquals(3, subtree.received.size());
+        assertEquals("[a, b, c, d]", all.received.toString());
+    }
+
+    @Test
+    public void unsubscribe() throws Exception {
+        this.hub = new SubscriptionHub(null, 1, 100, 100);
+        Client a = new Client(false), b = new Client(false);
+        SubscriptionHub.Subscriber sa = this.hub.subscribe("all", a);
+        this.hub.subscribe("all", b);
+        assertEquals(2, this.hub.getSubscriberCount());
+        this.hub.unsubscribe(sa);
+        this.hub.unsubscribe(sa);
+        assertEquals(1, this.hub.getSubscriberCount());
+        assertEquals(1, this.hub.getStats().getInt("filters"));
+        assertEquals(1, this.hub.dispatch("all", "x"));
+        waitFor(b.received, 1);
+        assertEquals(0, a.received.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidFilter() throws Exception {
+        this.hub = new SubscriptionHub(null, 1, 100, 100);
+        this.hub.subscribe("twitter/#/loklak", new Client(false));
+    }
+
+    @Test
+    public void slowConsumerIsEvicted() throws Exception {
+        this.hub = new SubscriptionHub(null, 2, 10, 5);
+        Client slow = new Client(true), fast = new Client(false);
+        this.hub.subscribe("all", slow);
+        this.hub.subscribe("all", fast);
+        for (int i = 0; i < 200; i++) {
+            this.hub.dispatch("all", Integer.toString(i));
+            waitFor(fast.received, i + 1);
+        }
+        // the slow client fills its queue, then it is closed after five dropped messages
+        assertEquals(200, fast.received.size());
+        assertEquals(5, this.hub.getStats().getLong("dropped"));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!slow.closed && System.currentTimeMillis() < deadline) Thread.sleep(5); // closing is asynchronous
+        assertTrue(slow.closed);
+        assertFalse(fast.closed);
+        assertEquals(1, this.hub.getSubscriberCount());
+        assertEquals(1, this.hub.getStats().getLong("evicted"));
+        slow.blocked.countDown();
+    }
+
+    @Test
+    public void publisherDispatchesLocally() throws Exception {
+        this.hub = new SubscriptionHub(null, 1, 100, 100);
+        MQTTPublisher publisher = new MQTTPublisher(null, "test_publisher", true, 0, 100, 10, 50, 100);
+        publisher.setHub(this.hub);
+        Client client = new Client(false);
+        this.hub.subscribe("twitter/hashtag/loklak", client);
+        publisher.publish(new String[]{"all", "twitter/hashtag/#loklak"}, "{}");
+        waitFor(client.received, 1);
+        assertEquals("[{}]", client.received.toString());
+        publisher.close(1000);
+        assertEquals(2, publisher.getStats().getLong("published"));
+    }
+}
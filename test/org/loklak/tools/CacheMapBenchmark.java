@@ -0,0 +1,96 @@
+package org.loklak.tools;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the throughput of CacheMap and ConcurrentCacheMap with an access pattern like the one of
+ * the object cache of the index factories: mostly lookups of a skewed key set, some puts.
+ * Each run has a warmup phase and a measurement phase; the result is the number of operations
+ * per second over all threads.
+ *
+ * run with:
+ * java -cp <classpath> org.loklak.tools.CacheMapBenchmark [cachesize] [seconds]
+ */
+public class CacheMapBenchmark {
+
+    private final static int[] THREADS = new int[]{1, 2, 4, 8, 16, 32, 64};
+    private final static int KEYSPACE_FACTOR = 4; // the number of keys is this factor times the cache size
+    private final static int PUT_PERCENT = 10;
+
+    private interface Cache {
+        Object get(String key);
+        void put(String key, Object value);
+    }
+
+    private static String[] keys(int count) {
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) keys[i] = Long.toString(850000000000000000L + i * 7919L);
+        return keys;
+    }
+
+    /**
+     * pick a key with a skewed distribution: the lower keys are much more frequent
+     */
+    private static String pick(String[] keys, ThreadLocalRandom random) {
+        double r = random.nextDouble();
+        return keys[(int) (r * r * r * keys.length)];
+    }
+
+    private static long run(final Cache cache, final String[] keys, final int threads, final long millis) throws InterruptedException {
+        final AtomicLong operations = new AtomicLong(0);
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] deadline = new long[1];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread() {
+                public void run() {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    try {start.await();} catch (InterruptedException e) {return;}
+                    long count = 0;
+                    while ((count & 1023) != 0 || System.currentTimeMillis() < deadline[0]) {
+                        String key = pick(keys, random);
+                        if (random.nextInt(100) < PUT_PERCENT) {
+                            cache.put(key, key);
+                        } else if (cache.get(key) == null) {
+                            cache.put(key, key); // a miss loads the object like AbstractIndexFactory.read does
+                        }
+                        count++;
+                    }
+                    operations.addAndGet(count);
+                }
+            };
+            workers[t].start();
+        }
+        long begin = System.currentTimeMillis();
+        deadline[0] = begin + millis;
+        start.countDown();
+        for (Thread worker: workers) worker.join();
+        return operations.get() * 1000L / Math.max(1, System.currentTimeMillis() - begin);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        long millis = (args.length > 1 ? Long.parseLong(args[1]) : 2) * 1000L;
+        String[] keys = keys(size * KEYSPACE_FACTOR);
+        System.out.println(String.format("%8s %16s %16s %8s", "threads", "CacheMap op/s", "Concurrent op/s", "factor"));
+        for (int threads: THREADS) {
+            final CacheMap<String, Object> cacheMap = new CacheMap<>(size);
+            final ConcurrentCacheMap<String, Object> concurrentCacheMap = new ConcurrentCacheMap<>(size);
+            Cache a = new Cache() {
+                public Object get(String key) {return cacheMap.get(key);}
+                public void put(String key, Object value) {cacheMap.put(key, value);}
+            };
+            Cache b = new Cache() {
+                public Object get(String key) {return concurrentCacheMap.get(key);}
+                public void put(String key, Object value) {concurrentCacheMap.put(key, value);}
+            };
+            run(a, keys, threads, millis / 2); // warmup
+            long opsA = run(a, keys, threads, millis);
+            run(b, keys, threads, millis / 2); // warmup
+            long opsB = run(b, keys, threads, millis);
+            System.out.println(String.format("%8d %16d %16d %8.1f", threads, opsA, opsB, (double) opsB / Math.max(1, opsA)));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.loklak.tools;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+
+public class ConcurrentCacheMapTest {
+
+    @Test
+    public void putGetRemove() {
+        ConcurrentCacheMap<String, Integer> cache = new ConcurrentCacheMap<>(100);
+        assertNull(cache.put("a", 1));
+        assertEquals(Integer.valueOf(1), cache.put("a", 2));
+        assertEquals(Integer.valueOf(2), cache.get("a"));
+        assertNull(cache.get("b"));
+        assertTrue(cache.exist("a"));
+        assertEquals(Integer.valueOf(2), cache.remove("a"));
+        assertFalse(cache.exist("a"));
+        assertEquals(2, cache.getStats().getUpdate());
+        assertEquals(2, cache.getStats().getHit());
+        assertEquals(2, cache.getStats().getMiss());
+    }
+
+    @Test
+    public void sizeBound() {
+        ConcurrentCacheMap<Integer, Integer> cache = new ConcurrentCacheMap<>(1000);
+        for (int i = 0; i < 10000; i++) cache.put(i, i);
+        assertEquals(1000, cache.size());
+        assertTrue(cache.full());
+        assertEquals(9000, cache.getStatsJson().getLong("evictions"));
+        // the latest entries survive
+        assertEquals(Integer.valueOf(9999), cache.get(9999));
+    }
+
+    @Test
+    public void referencedEntriesSurvive() {
+        ConcurrentCacheMap<Integer, Integer> cache = new ConcurrentCacheMap<>(10); // a single segment
+        for (int i = 0; i < 10; i++) cache.put(i, i);
+        cache.get(0);
+        cache.put(10, 10);
+        assertTrue(cache.exist(0));  // got a second chance
+        assertFalse(cache.exist(1)); // oldest unreferenced entry
+    }
+
+    @Test
+    public void concurrentAccess() throws InterruptedException {
+        final ConcurrentCacheMap<Integer, Integer> cache = new ConcurrentCacheMap<>(512);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread() {
+                public void run() {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 100000; i++) {
+                        int key = random.nextInt(2048);
+                        int op = random.nextInt(10);
+                        if (op == 0) cache.remove(key);
+                        else if (op < 4) cache.put(key, key);
+                        else {
+                            Integer value = cache.get(key);
+                            if (value != null) assertEquals(key, value.intValue());
+                        }
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread: threads) thread.join();
+        assertTrue(cache.size() <= 512);
+    }
+}
@@ -0,0 +1,52 @@
+package org.loklak.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class ScalableBloomFilterTest {
+
+    private final static long BASE_ID = 851832235686866944L;
+
+    @Test
+    public void noFalseNegatives() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(10000, 0.001);
+        for (long i = 0; i < 100000; i++) filter.add(Long.toString(BASE_ID + i * 3));
+        for (long i = 0; i < 100000; i++) assertTrue(filter.mightContain(Long.toString(BASE_ID + i * 3)));
+        assertTrue(filter.getStats().getInt("filters") > 1); // the filter has grown
+        int falsePositives = 0;
+        for (long i = 0; i < 100000; i++) if (filter.mightContain(Long.toString(BASE_ID + i * 3 + 1))) falsePositives++;
+        assertTrue("false positives: " + falsePositives, falsePositives < 100000 * 0.002 * 2);
+        assertTrue(filter.expectedFpr() < 0.002);
+    }
+
+    @Test
+    public void keys() {
+        assertEquals(BASE_ID, ScalableBloomFilter.key(Long.toString(BASE_ID)));
+        assertEquals(Long.MAX_VALUE, ScalableBloomFilter.key(Long.toString(Long.MAX_VALUE)));
+        assertTrue(ScalableBloomFilter.key("9223372036854775808") < 0); // too large for a long, hashed
+        assertTrue(ScalableBloomFilter.key("loklak") < 0);
+        assertNotEquals(ScalableBloomFilter.key("loklak"), ScalableBloomFilter.key("loklal"));
+    }
+
+    @Test
+    public void persistence() throws IOException {
+        ScalableBloomFilter filter = new ScalableBloomFilter(1024, 0.01);
+        for (long i = 0; i < 5000; i++) filter.add(BASE_ID + i);
+        File file = File.createTempFile("exist", ".bloom");
+        try {
+            filter.write(file);
+            ScalableBloomFilter read = ScalableBloomFilter.read(file);
+            assertEquals(filter.size(), read.size());
+            assertEquals(filter.memory(), read.memory());
+            for (long i = 0; i < 5000; i++) assertTrue(read.mightContain(BASE_ID + i));
+            read.add(BASE_ID - 1); // the read filter can grow further
+            assertTrue(read.mightContain(BASE_ID - 1));
+        } finally {
+            file.delete();
+        }
+    }
+}
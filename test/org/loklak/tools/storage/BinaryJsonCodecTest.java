@@ -0,0 +1,87 @@
+package org.loklak.tools.storage;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class BinaryJsonCodecTest {
+
+    private static JSONObject user(int i) {
+        JSONObject json = new JSONObject(true);
+        json.put("screen_name", "user" + i);
+        json.put("user_id", Long.toString(100000000L + i));
+        json.put("name", "Name Nümber " + i);
+        json.put("profile_image_url_https", "https://pbs.twimg.com/profile_images/" + (i * 7919) + "/image_normal.jpg");
+        json.put("followers_count", i);
+        json.put("created_at", 1476800000000L + i);
+        json.put("verified", i % 2 == 0);
+        return json;
+    }
+
+    @Test
+    public void types() {
+        BinaryJsonCodec codec = new BinaryJsonCodec(4096);
+        JSONObject json = new JSONObject(true);
+        json.put("int", -42);
+        json.put("long", 1L << 40);
+        json.put("double", 0.25d);
+        json.put("string", "Hello Wörld ☃");
+        json.put("empty", "");
+        json.put("null", JSONObject.NULL);
+        json.put("true", true);
+        json.put("big", new BigInteger("123456789012345678901234567890"));
+        JSONObject nested = new JSONObject(true);
+        nested.put("a", new JSONArray().put(1).put("b").put(new JSONObject().put("int", 3)));
+        json.put("nested", nested);
+        JSONObject decoded = codec.decode(codec.encode(json));
+        assertEquals(json.toString(), decoded.toString());
+        assertEquals(Integer.valueOf(-42), decoded.get("int"));
+        assertEquals(Long.valueOf(1L << 40), decoded.get("long"));
+        assertNull(codec.getDictionary());
+    }
+
+    @Test
+    public void trainedDictionary() {
+        BinaryJsonCodec codec = new BinaryJsonCodec(4096);
+        byte[][] capsules = new byte[3000][];
+        for (int i = 0; i < capsules.length; i++) capsules[i] = codec.encode(user(i));
+        assertNotNull(codec.getDictionary());
+        assertTrue(codec.getDictionary().length <= 4096);
+        assertEquals(7, codec.getKeyCount());
+        // capsules from before and after the training can be decoded
+        for (int i = 0; i < capsules.length; i++) assertEquals(user(i).toString(), codec.decode(capsules[i]).toString());
+        // capsules after the training are compressed
+        assertTrue(capsules[2999].length < capsules[0].length);
+    }
+
+    @Test
+    public void concurrentUseAndClose() throws InterruptedException {
+        final BinaryJsonCodec codec = new BinaryJsonCodec(4096);
+        for (int i = 0; i < 2000; i++) codec.encode(user(i));
+        assertNotNull(codec.getDictionary());
+        final AtomicInteger failures = new AtomicInteger(0);
+        Thread[] threads = new Thread[16];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t * 100;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = offset; i < offset + 100; i++) {
+                        if (!user(i).toString().equals(codec.decode(codec.encode(user(i))).toString())) failures.incrementAndGet();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t: threads) t.join();
+        assertEquals(0, failures.get());
+        // the codec allocates new deflaters and inflaters after close
+        codec.close();
+        assertEquals(user(1).toString(), codec.decode(codec.encode(user(1))).toString());
+        codec.close();
+    }
+}
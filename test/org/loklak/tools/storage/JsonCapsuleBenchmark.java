@@ -0,0 +1,79 @@
+package org.loklak.tools.storage;
+
+import java.util.Random;
+
+import org.json.JSONObject;
+
+/**
+ * Compares the gzip capsule and the binary capsule of JsonMinifier with user objects like the ones
+ * in the user dump. For each format the capsules of all objects are created and held in RAM, then
+ * all capsules are decoded again. Reported are the encode and decode time per object, the average
+ * capsule size and the average heap size of a capsule: the byte array plus the factory object with
+ * its reference to the minifier, assuming compressed object pointers.
+ *
+ * run with:
+ * java -cp <classpath> org.loklak.tools.storage.JsonCapsuleBenchmark [objects] [rounds]
+ */
+public class JsonCapsuleBenchmark {
+
+    private static JSONObject[] users(int count) {
+        Random random = new Random(0);
+        String[] locations = new String[]{"Frankfurt am Main", "Berlin", "New York", "San Francisco", "", "Tokyo", "London"};
+        JSONObject[] users = new JSONObject[count];
+        for (int i = 0; i < count; i++) {
+            JSONObject user = new JSONObject(true);
+            user.put("retrieval_date", "2016-01-14T12:" + (10 + random.nextInt(50)) + ":00.000Z");
+            user.put("screen_name", "user" + Integer.toString(random.nextInt(Integer.MAX_VALUE), 36));
+            user.put("user_id", Long.toString(100000000L + random.nextInt(Integer.MAX_VALUE)));
+            user.put("name", "Name " + Integer.toString(random.nextInt(Integer.MAX_VALUE), 36));
+            user.put("profile_image_url_https", "https://pbs.twimg.com/profile_images/" + random.nextInt(Integer.MAX_VALUE) + "/" + Integer.toString(random.nextInt(Integer.MAX_VALUE), 36) + "_normal.jpg");
+            user.put("location", locations[random.nextInt(locations.length)]);
+            user.put("followers_count", random.nextInt(100000));
+            user.put("friends_count", random.nextInt(5000));
+            user.put("statuses_count", random.nextInt(500000));
+            user.put("verified", random.nextInt(100) == 0);
+            users[i] = user;
+        }
+        return users;
+    }
+
+    private static long heap(int length) {
+        return ((16 + length + 7) / 8) * 8 + 24;
+    }
+
+    private static void run(JsonMinifier.Format format, JSONObject[] users, boolean print) {
+        JsonMinifier minifier = new JsonMinifier(format);
+        JsonFactory[] capsules = new JsonFactory[users.length];
+        long start = System.nanoTime();
+        for (int i = 0; i < users.length; i++) capsules[i] = minifier.capsule(users[i]);
+        long encode = (System.nanoTime() - start) / users.length;
+        long size = 0, bytes = 0;
+        for (JsonFactory capsule: capsules) {
+            int length = capsule instanceof JsonMinifier.BinaryCapsuleFactory ? ((JsonMinifier.BinaryCapsuleFactory) capsule).getSize() : ((JsonMinifier.JsonCapsuleFactory) capsule).capsule.length;
+            size += length;
+            bytes += heap(length);
+        }
+        long check = 0;
+        start = System.nanoTime();
+        try {
+            for (JsonFactory capsule: capsules) check += capsule.getJSON().getInt("followers_count");
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        long decode = (System.nanoTime() - start) / users.length;
+        if (check == 42) System.out.println(); // keep the result alive
+        if (print) System.out.println(String.format("%-8s %10d %10d %10d %10d", format, encode, decode, size / users.length, bytes / users.length));
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        JSONObject[] users = users(count);
+        System.out.println(String.format("%-8s %10s %10s %10s %10s", "format", "encode ns", "decode ns", "bytes", "heap bytes"));
+        for (int round = 0; round < rounds; round++) {
+            boolean last = round == rounds - 1;
+            run(JsonMinifier.Format.GZIP, users, last);
+            run(JsonMinifier.Format.BINARY, users, last);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.loklak.tools.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONObject;
+import org.loklak.tools.storage.JsonDataset.Column;
+
+/**
+ * Measures the startup time of a JsonDataset over a large users_ dump, like the user dump which is loaded
+ * by DAO at startup. A synthetic dump of the given size is written first. Then three startups are compared:
+ * - sequential: the dump is read with a JsonRandomAccessFile and every line is parsed, as before the sidecar index
+ * - mapped, cold: the dump is mapped and scanned once, the sidecar index is written
+ * - mapped, warm: the index is loaded from the sidecar, the dump is not parsed
+ * Afterwards the lookup time of random screen names is measured for the sequential and the mapped index.
+ * The file system cache is not dropped between the runs; all runs read the dump from a warm cache.
+ *
+ * run with:
+ * java -cp <classpath> org.loklak.tools.storage.JsonDatasetStartupBenchmark [dumpsize-MB] [directory]
+ */
+public class JsonDatasetStartupBenchmark {
+
+    private final static Column[] COLUMNS = new Column[]{new Column("id_str", false), new Column("screen_name", true)};
+    private final static int LOOKUPS = 200000;
+
+    private static long writeDump(File dump, long size) throws IOException {
+        Random random = new Random(0);
+        long count = 0, written = 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(dump), 1 << 20)) {
+            while (written < size) {
+                JSONObject user = new JSONObject(true);
+                user.put("retrieval_date", "2016-01-14T12:00:00.000Z");
+                user.put("screen_name", "User" + count);
+                user.put("user_id", Long.toString(100000000L + count));
+                user.put("id_str", Long.toString(100000000L + count));
+                user.put("name", "Name of user " + count);
+                user.put("profile_image_url_https", "https://pbs.twimg.com/profile_images/" + random.nextInt(Integer.MAX_VALUE) + "/image_normal.jpg");
+                user.put("description", "a description of user " + count + " with some more text to reach a realistic size of a user record");
+                user.put("location", "Frankfurt am Main");
+                user.put("followers_count", random.nextInt(100000));
+                user.put("friends_count", random.nextInt(5000));
+                user.put("statuses_count", random.nextInt(500000));
+                byte[] b = user.toString().getBytes(StandardCharsets.UTF_8);
+                out.write(b);
+                out.write('\n');
+                written += b.length + 1;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Map<Object, JsonFactory> sequential(final File dump, final int concurrency) throws IOException, InterruptedException {
+        final Map<Object, JsonFactory> index = new ConcurrentHashMap<>();
+        final JsonRandomAccessFile reader = new JsonRandomAccessFile(dump, concurrency);
+        new Thread(reader).start();
+        Thread[] threads = new Thread[concurrency];
+        for (int t = 0; t < concurrency; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        JsonFactory handle;
+                        while ((handle = reader.take()) != JsonReader.POISON_JSON_MAP) {
+                            JsonRandomAccessFile.JsonHandle h = (JsonRandomAccessFile.JsonHandle) handle;
+                            JSONObject json = h.getJSON();
+                            JsonFactory factory = reader.getJsonFactory(h.getIndex(), h.getLength());
+                            index.put(json.getString("id_str"), factory);
+                            index.put(json.getString("screen_name").toLowerCase(), factory);
+                        }
+                    } catch (InterruptedException e) {}
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t: threads) t.join();
+        return index;
+    }
+
+    private static long lookup(Object index, long entries) throws IOException {
+        Random random = new Random(1);
+        long start = System.nanoTime(), sum = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            String name = "User" + (long) (random.nextDouble() * entries);
+            JsonFactory factory = index instanceof JsonDataset ?
+                    ((JsonDataset) index).get("screen_name", name) :
+                    (JsonFactory) ((Map<?, ?>) index).get(name.toLowerCase());
+            sum += factory.getJSON().getInt("followers_count");
+        }
+        if (sum == 42) System.out.println(); // keep the result alive
+        return (System.nanoTime() - start) / LOOKUPS;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : 2048) * 1024L * 1024L;
+        File dir = args.length > 1 ? new File(args[1]) : Files.createTempDirectory("startupbenchmark").toFile();
+        File own = new File(dir, "own");
+        own.mkdirs();
+        File dump = new File(own, "users_201601_00000000.txt");
+        int concurrency = Runtime.getRuntime().availableProcessors();
+
+        long start = System.currentTimeMillis();
+        long entries = writeDump(dump, size);
+        System.out.println(String.format("wrote %d users, %d MB in %d ms", entries, dump.length() >> 20, System.currentTimeMillis() - start));
+
+        start = System.currentTimeMillis();
+        Map<Object, JsonFactory> index = sequential(dump, concurrency);
+        System.out.println(String.format("%-16s %8d ms", "sequential", System.currentTimeMillis() - start));
+        long sequentialLookup = lookup(index, entries);
+        index = null;
+
+        start = System.currentTimeMillis();
+        JsonDataset dataset = new JsonDataset(dir, "users_", COLUMNS, null, null, JsonRepository.REWRITABLE_MODE, false, Integer.MAX_VALUE);
+        System.out.println(String.format("%-16s %8d ms", "mapped, cold", System.currentTimeMillis() - start));
+        dataset.close();
+
+        start = System.currentTimeMillis();
+        dataset = new JsonDataset(dir, "users_", COLUMNS, null, null, JsonRepository.REWRITABLE_MODE, false, Integer.MAX_VALUE);
+        System.out.println(String.format("%-16s %8d ms", "mapped, warm", System.currentTimeMillis() - start));
+        long mappedLookup = lookup(dataset, entries);
+        dataset.close();
+
+        System.out.println(String.format("lookup: sequential %d ns, mapped %d ns", sequentialLookup, mappedLookup));
+        if (args.length < 2) {
+            for (File f: own.listFiles()) f.delete();
+            File[] sidecars = new File(dir, "index").listFiles();
+            if (sidecars != null) for (File f: sidecars) f.delete();
+            for (File f: dir.listFiles()) f.delete();
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.loklak.tools.storage;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.loklak.tools.storage.JsonDataset.Column;
+
+public class JsonDumpIndexTest {
+
+    private final static Column[] COLUMNS = new Column[]{new Column("id_str", false), new Column("screen_name", true)};
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        this.dir = Files.createTempDirectory("dumpindex").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        delete(this.dir);
+    }
+
+    private static void delete(File f) {
+        File[] files = f.listFiles();
+        if (files != null) for (File g: files) delete(g);
+        f.delete();
+    }
+
+    private static JSONObject user(int i) {
+        JSONObject json = new JSONObject(true);
+        json.put("id_str", Integer.toString(i));
+        json.put("screen_name", "User" + i);
+        json.put("followers_count", i);
+        return json;
+    }
+
+    @Test
+    public void sidecarBlocks() throws IOException {
+        File file = new File(this.dir, "test.idx");
+        String[] columns = new String[]{"a", "b"};
+        JsonDumpIndex sidecar = new JsonDumpIndex(file, columns);
+        assertEquals(0, sidecar.getCoveredLength());
+        sidecar.append(100, new long[]{0, 50}, new int[]{49, 49}, new Object[][]{{"x", 1}, {null, 2L}}, 2);
+        sidecar.append(150, new long[]{100}, new int[]{49}, new Object[][]{{"y", true}}, 1);
+
+        // simulate a torn block at the end
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length());
+        raf.writeLong(200);
+        raf.close();
+
+        sidecar = new JsonDumpIndex(file, columns);
+        assertEquals(150, sidecar.getCoveredLength());
+        final List<Object[]> entries = new ArrayList<>();
+        assertEquals(3, sidecar.read((offset, length, keys) -> entries.add(new Object[]{offset, length, keys[0], keys[1]})));
+        assertArrayEquals(new Object[]{0L, 49, "x", 1}, entries.get(0));
+        assertArrayEquals(new Object[]{50L, 49, null, 2L}, entries.get(1));
+        assertArrayEquals(new Object[]{100L, 49, "y", true}, entries.get(2));
+
+        // the torn block is replaced by the next append
+        sidecar.append(200, new long[]{150}, new int[]{49}, new Object[][]{{"z", null}}, 1);
+        sidecar = new JsonDumpIndex(file, columns);
+        assertEquals(200, sidecar.getCoveredLength());
+        assertEquals(4, sidecar.read((offset, length, keys) -> {}));
+
+        // other columns invalidate the sidecar
+        assertEquals(0, new JsonDumpIndex(file, new String[]{"a"}).getCoveredLength());
+    }
+
+    @Test
+    public void datasetUsesSidecar() throws IOException {
+        JsonDataset dataset = new JsonDataset(this.dir, "users_", COLUMNS, null, null, JsonRepository.REWRITABLE_MODE, false, Integer.MAX_VALUE);
+        for (int i = 0; i < 100; i++) dataset.putUnique(user(i));
+        dataset.close();
+
+        // first load: the dump is scanned and the sidecar is written
+        dataset = new JsonDataset(this.dir, "users_", COLUMNS, null, null, JsonRepository.REWRITABLE_MODE, false, Integer.MAX_VALUE);
+        assertEquals(100, dataset.size());
+        assertEquals(42, dataset.get("screen_name", "user42").getJSON().getInt("followers_count"));
+        File[] sidecars = new File(this.dir, "index").listFiles();
+        assertEquals(1, sidecars.length);
+        long sidecarLength = sidecars[0].length();
+        for (int i = 100; i < 150; i++) dataset.putUnique(user(i));
+        dataset.putUnique(user(7).put("followers_count", 700));
+        assertEquals(149, dataset.get("id_str", "149").getJSON().getInt("followers_count"));
+        dataset.close();
+
+        // second load: the old entries come from the sidecar, only the appended lines are scanned
+        dataset = new JsonDataset(this.dir, "users_", COLUMNS, null, null, JsonRepository.REWRITABLE_MODE, false, Integer.MAX_VALUE);
+        assertEquals(150, dataset.size());
+        assertTrue(new File(this.dir, "index").listFiles()[0].length() > sidecarLength);
+        JsonFactory factory = dataset.get("id_str", "120");
+        assertTrue(factory instanceof MappedJsonFile.MappedJsonFactory);
+        assertEquals("User120", factory.getJSON().getString("screen_name"));
+        assertEquals(700, dataset.get("screen_name", "USER7").getJSON().getInt("followers_count"));
+        assertNull(dataset.get("id_str", "150"));
+        dataset.close();
+    }
+}
@@ -0,0 +1,127 @@
+package org.loklak.tools.storage;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class JsonLogWriterTest {
+
+    private static JSONObject track(int i) {
+        JSONObject json = new JSONObject(true);
+        json.put("start", "2026-10-18T12:00:00." + (100 + i % 900) + "Z");
+        json.put("host", "10.0.0." + (i % 256));
+        json.put("local", i % 2 == 0);
+        json.put("busy", i * 1000L);
+        json.put("ratio", i / 4.0d);
+        JSONObject query = new JSONObject(true);
+        query.put("q", "fossasia " + i);
+        query.put("count", Integer.toString(i));
+        json.put("query", query);
+        json.put("events", new JSONArray().put(1).put("two").put(JSONObject.NULL));
+        return json;
+    }
+
+    private static List<JSONObject> readAll(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        Arrays.sort(files); // the file names start with the date
+        List<JSONObject> list = new ArrayList<>();
+        for (File f: files) list.addAll(JsonLogWriter.read(f));
+        return list;
+    }
+
+    private static void roundTrip(JsonLogWriter.Format format) throws IOException {
+        File dir = Files.createTempDirectory("jsonlog").toFile();
+        JsonLogWriter log = new JsonLogWriter(dir, "access_", format, 1024, 1L << 30, 3600000L, 10);
+        for (int i = 0; i < 500; i++) {
+            while (!log.offer(track(i))) Thread.yield();
+        }
+        log.close();
+        List<JSONObject> read = readAll(dir);
+        assertEquals(500, read.size());
+        for (int i = 0; i < 500; i++) assertEquals(track(i).toString(), read.get(i).toString());
+    }
+
+    @Test
+    public void jsonRoundTrip() throws IOException {
+        roundTrip(JsonLogWriter.Format.JSON);
+    }
+
+    @Test
+    public void binaryRoundTrip() throws IOException {
+        roundTrip(JsonLogWriter.Format.BINARY);
+    }
+
+    @Test
+    public void binaryIsSmaller() throws IOException {
+        long[] size = new long[2];
+        for (JsonLogWriter.Format format: JsonLogWriter.Format.values()) {
+            File dir = Files.createTempDirectory("jsonlog").toFile();
+            JsonLogWriter log = new JsonLogWriter(dir, "access_", format, 1024, 1L << 30, 3600000L, 10);
+            for (int i = 0; i < 100; i++) {
+                while (!log.offer(track(i))) Thread.yield();
+            }
+            log.close();
+            size[format.ordinal()] = log.getStats().getLong("bytes");
+        }
+        assertTrue(size[JsonLogWriter.Format.BINARY.ordinal()] < size[JsonLogWriter.Format.JSON.ordinal()]);
+    }
+
+    @Test
+    public void filesAreRolledAndCompressed() throws IOException {
+        File dir = Files.createTempDirectory("jsonlog").toFile();
+        JsonLogWriter log = new JsonLogWriter(dir, "access_", JsonLogWriter.Format.JSON, 1024, 10000, 3600000L, 10);
+        for (int i = 0; i < 300; i++) {
+            while (!log.offer(track(i))) Thread.yield();
+        }
+        log.close();
+        assertTrue(log.getStats().getLong("rolled") > 0);
+        int gz = 0;
+        for (String name: dir.list()) if (name.endsWith(".txt.gz")) gz++;
+        assertEquals(log.getStats().getLong("rolled"), gz);
+        List<JSONObject> read = readAll(dir);
+        assertEquals(300, read.size());
+    }
+
+    @Test
+    public void closedLogDropsObjects() throws IOException {
+        File dir = Files.createTempDirectory("jsonlog").toFile();
+        JsonLogWriter log = new JsonLogWriter(dir, "access_", JsonLogWriter.Format.JSON, 16, 1L << 30, 3600000L, 10);
+        log.close();
+        assertFalse(log.offer(track(0)));
+        assertEquals(1, log.getStats().getLong("dropped"));
+    }
+
+    @Test
+    public void failedRollDoesNotBlockTheRing() throws Exception {
+        File dir = Files.createTempDirectory("jsonlog").toFile();
+        JsonLogWriter log = new JsonLogWriter(dir, "access_", JsonLogWriter.Format.JSON, 16, 1L << 30, 3600000L, 10);
+        // replace the directory with a file, so that the log file cannot be created
+        assertTrue(dir.delete());
+        assertTrue(dir.createNewFile());
+        for (int i = 0; i < 5; i++) assertTrue(log.offer(track(i)));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (log.pending() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(0, log.pending());
+
+        // the log continues as soon as the file can be written again
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        for (int i = 5; i < 100; i++) {
+            while (!log.offer(track(i))) Thread.yield();
+        }
+        log.close();
+        List<JSONObject> read = readAll(dir);
+        assertEquals(95, read.size());
+        assertEquals(track(5).toString(), read.get(0).toString());
+        assertEquals(95, log.getStats().getLong("written"));
+    }
+}
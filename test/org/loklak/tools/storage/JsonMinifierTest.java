@@ -16,4 +16,13 @@ public class JsonMinifierTest {
         JSONObject challenge = capsule.getJSON();
         assertEquals(json.toString(), challenge.toString());
     }
+
+    @Test
+    public void binaryCapsule() throws Exception {
+        JSONObject json = JSONObjectTest.testJson(true);
+        JsonMinifier minifier = new JsonMinifier(JsonMinifier.Format.BINARY);
+        JsonFactory capsule = minifier.capsule(json);
+        assertTrue(capsule instanceof JsonMinifier.BinaryCapsuleFactory);
+        assertEquals(json.toString(), capsule.getJSON().toString());
+    }
 }
@@ -0,0 +1,109 @@
+package org.loklak.tools.storage;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpillLogTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        this.dir = Files.createTempDirectory("spilllog").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = this.dir.listFiles();
+        if (files != null) for (File f: files) f.delete();
+        this.dir.delete();
+    }
+
+    private static JSONObject object(int i) {
+        JSONObject json = new JSONObject(true);
+        json.put("id_str", Integer.toString(i));
+        json.put("text", "message number " + i);
+        return json;
+    }
+
+    @Test
+    public void segmentsAreTakenInOrder() throws IOException {
+        SpillLog log = new SpillLog(this.dir, "buffer_", 200, 10, 1000);
+        assertNull(log.takeSegment());
+        for (int i = 0; i < 20; i++) log.append(object(i));
+        assertTrue(log.getSegmentCount() > 1);
+        int next = 0;
+        SpillLog.Segment segment;
+        while ((segment = log.takeSegment()) != null) {
+            JSONArray shard = segment.getObjects();
+            for (int i = 0; i < shard.length(); i++) {
+                assertEquals(Integer.toString(next++), shard.getJSONObject(i).getString("id_str"));
+            }
+            segment.commit();
+        }
+        assertEquals(20, next);
+        assertEquals(0, log.getSegmentCount());
+        assertEquals(0, this.dir.list().length);
+    }
+
+    @Test
+    public void reopenAfterCrash() throws IOException {
+        SpillLog log = new SpillLog(this.dir, "buffer_", 1 << 20, 1, 1000);
+        for (int i = 0; i < 3; i++) log.append(object(i));
+        // simulate a torn write at the end of the segment without closing the log
+        File segment = this.dir.listFiles()[0];
+        FileOutputStream out = new FileOutputStream(segment, true);
+        out.write("{\"id_str\":\"3\",\"te".getBytes(StandardCharsets.UTF_8));
+        out.close();
+
+        SpillLog reopened = new SpillLog(this.dir, "buffer_", 1 << 20, 1, 1000);
+        assertEquals(1, reopened.getSegmentCount());
+        reopened.append(object(4)); // goes into a new segment
+        SpillLog.Segment taken = reopened.takeSegment();
+        assertEquals(3, taken.getObjects().length());
+        taken.commit();
+        taken = reopened.takeSegment();
+        assertEquals(1, taken.getObjects().length());
+        assertEquals("4", taken.getObjects().getJSONObject(0).getString("id_str"));
+        taken.commit();
+        assertNull(reopened.takeSegment());
+        log.close();
+    }
+
+    @Test
+    public void segmentIsKeptUntilCommit() throws IOException {
+        SpillLog log = new SpillLog(this.dir, "buffer_", 1 << 20, 1, 1000);
+        for (int i = 0; i < 3; i++) log.append(object(i));
+        SpillLog.Segment segment = log.takeSegment();
+        assertEquals(3, segment.getObjects().length());
+        assertEquals(1, this.dir.list().length);
+        assertNull(log.takeSegment());
+
+        // a rolled back segment is taken again
+        segment.rollback();
+        segment.commit(); // ignored, the segment is already finished
+        assertEquals(1, log.getSegmentCount());
+        segment = log.takeSegment();
+        assertEquals("0", segment.getObjects().getJSONObject(0).getString("id_str"));
+
+        // a segment which was taken but not committed before a crash is found again
+        SpillLog reopened = new SpillLog(this.dir, "buffer_", 1 << 20, 1, 1000);
+        assertEquals(1, reopened.getSegmentCount());
+        SpillLog.Segment again = reopened.takeSegment();
+        assertEquals(3, again.getObjects().length());
+        again.commit();
+        assertEquals(0, this.dir.list().length);
+        assertEquals(1, reopened.getStats().getLong("rollbacks") + log.getStats().getLong("rollbacks"));
+    }
+}